@@ -0,0 +1,560 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// adb shell pm grant com.kaspersigi.noui android.permission.CAMERA
+// 指定 UTC 毫秒时刻：adb shell am start -n com.kaspersigi.noui/.AbsoluteTimeCaptureActivity --el utc 1760000000000
+// 相对当前时刻延后：adb shell am start -n com.kaspersigi.noui/.AbsoluteTimeCaptureActivity --el delay 3000
+// adb shell am force-stop com.kaspersigi.noui
+// 图像：<media>/abstime/abs_<ts>.jpg；报告：<media>/abstime/report_<ms>.json
+
+/**
+ * 绝对时刻拍照：保存“曝光窗口覆盖 UTC 时刻 T 的那一帧”。
+ * - 相机打开后立即开始全分辨率 YUV 连续流（提前布防），最近若干帧保存在 ZslRingBuffer 中，
+ *   因此 T 时刻无需再下发请求，快门延迟与 HAL 管线深度无关
+ * - T 通过 SensorClock 换算到传感器时间基准；等待期间每秒重新校准一次，校时或睡眠造成的跳变会被跟踪并记录
+ * - 一帧的曝光窗口为 [ts, ts + 卷帘快门偏移 + 曝光时间]，挑选曝光中心最接近 T 的帧，
+ *   误差 = 曝光中心 − T，并记录 T 是否落在窗口内
+ * - 拍完写出 JSON 报告后自动退出
+ */
+public class AbsoluteTimeCaptureActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final long DEFAULT_DELAY_MS = 3000;
+    private static final int RING_CAPACITY = 8;          // 约 250ms@30fps，足够覆盖 T 前后
+    private static final int JPEG_QUALITY = 90;
+    private static final long CALIBRATE_INTERVAL_MS = 1000;
+    private static final long RESOLVE_TIMEOUT_MS = 1000; // T 之后仍等不到新帧时，直接用缓冲中已有的帧
+    private static final long MIN_ARM_LEAD_MS = 500;     // 流启动后距 T 不足该时长时提示可能未收敛
+
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private String mCameraId;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private long mTargetUtcNs;             // 目标 UTC 时刻
+    private long mTargetSensorTs = -1;     // 目标时刻换算到传感器时间基准（每次校准后更新）
+    private SensorClock mSensorClock;
+    private long mMaxAbsDriftNs = 0;
+    private boolean mDone = false;
+
+    // 最近一帧的曝光参数（卷帘快门偏移在会话内基本不变）
+    private long mExposureNs = 0;
+    private long mRollingSkewNs = 0;
+    private boolean mAeConverged = false;
+    private boolean mLateArm = false;
+
+    // 挑中帧的结果（写报告用）
+    private long mFrameTs = -1;
+    private long mFrameExposureNs = 0;
+    private long mErrorNs = 0;
+    private boolean mCovered = false;
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraCharacteristics mCameraCharacteristics;
+    private CaptureRequest.Builder mStreamRequestTemplate;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final CaptureTracer mTracer = new CaptureTracer(8192);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+    private final FrameMetadataStore mMetadata = new FrameMetadataStore(RING_CAPACITY + 8);
+    private final ZslRingBuffer mRing = new ZslRingBuffer(RING_CAPACITY);
+    private final YuvJpegEncoder mEncoder = new YuvJpegEncoder();
+
+    private final Runnable mCalibrateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mDone || mSensorClock == null) return;
+            mSensorClock.calibrate();
+            updateTarget();
+            mBgHandler.postDelayed(this, CALIBRATE_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable mResolveTimeout = () -> resolve(true);
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "NoUI camera started");
+
+        long utcMs = getIntent().getLongExtra("utc", -1);
+        if (utcMs <= 0) {
+            utcMs = System.currentTimeMillis() + getIntent().getLongExtra("delay", DEFAULT_DELAY_MS);
+        }
+        mTargetUtcNs = utcMs * 1_000_000L;
+        Log.d(TAG, "Target UTC " + utcMs + "ms (in " + (utcMs - System.currentTimeMillis()) + "ms)");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            Integer source = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            // 切换到其他摄像头时时间源可能不同，每次打开都重建映射
+            mSensorClock = new SensorClock(source);
+            mTracer.setClock(mSensorClock);
+            Log.d(TAG, "Sensor clock: " + mSensorClock);
+            updateTarget();
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
+            try {
+                mStreamRequestTemplate = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+            } catch (CameraAccessException | IllegalArgumentException e) {
+                Log.w(TAG, "TEMPLATE_ZERO_SHUTTER_LAG unsupported, using TEMPLATE_PREVIEW");
+                try {
+                    mStreamRequestTemplate = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                } catch (CameraAccessException e2) {
+                    Log.e(TAG, "Failed to create templates", e2);
+                    mMainHandler.post(AbsoluteTimeCaptureActivity.this::finish);
+                    return;
+                }
+            }
+            createCaptureSession();
+        }
+
+        @Override
+        public void onCameraLost() {
+            Log.w(TAG, "Camera lost" + (mDone ? "" : ", ring discarded"));
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mBgHandler.removeCallbacks(mCalibrateRunnable);
+            mBgHandler.removeCallbacks(mResolveTimeout);
+            mRing.clear();
+            closeSession();
+            mAeConverged = false;
+        }
+
+        @Override
+        public void onGiveUp() {
+            if (!mDone) writeReport(null);
+            cleanup();
+            mMainHandler.post(AbsoluteTimeCaptureActivity.this::finish);
+        }
+    };
+
+    private void closeSession() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        mCameraDevice = null;
+    }
+
+    /**
+     * 按当前校准结果重新换算目标时刻，并记录映射跳变
+     */
+    private void updateTarget() {
+        long drift = mSensorClock.lastDriftNs();
+        if (Math.abs(drift) > Math.abs(mMaxAbsDriftNs)) mMaxAbsDriftNs = drift;
+        if (Math.abs(drift) > 1_000_000L) {
+            Log.w(TAG, "Clock mapping moved " + drift / 1000 + "us since last calibration");
+        }
+        mTargetSensorTs = mSensorClock.utcToSensorNs(mTargetUtcNs);
+    }
+
+    /**
+     * @return 距目标时刻的毫秒数（已过去时为负）
+     */
+    private long millisUntilTarget() {
+        long nowUtcNs = mSensorClock.realtimeToUtcNs(SystemClock.elapsedRealtimeNanos());
+        return (mTargetUtcNs - nowUtcNs) / 1_000_000L;
+    }
+
+    /**
+     * 创建会话：虚拟预览 Surface + 全分辨率 YUV ImageReader，两者都挂在重复请求上
+     */
+    private void createCaptureSession() {
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+        try {
+            Size yuvSize = chooseYuvSize();
+            mImageReader = ImageReader.newInstance(
+                    yuvSize.getWidth(), yuvSize.getHeight(),
+                    ImageFormat.YUV_420_888, RING_CAPACITY + 2
+            );
+            mImageReader.setOnImageAvailableListener(reader -> {
+                Image image;
+                while ((image = reader.acquireNextImage()) != null) {
+                    onRingFrame(image);
+                }
+            }, mBgHandler);
+
+            CaptureRequest.Builder builder = mStreamRequestTemplate;
+            builder.addTarget(mPreviewSurface);
+            builder.addTarget(mImageReader.getSurface());
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+
+            List<Surface> surfaces = Arrays.asList(mPreviewSurface, mImageReader.getSurface());
+            mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    mCaptureSession = session;
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    try {
+                        session.setRepeatingRequest(builder.build(), mStreamCaptureCallback, mBgHandler);
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Failed to start stream", e);
+                        mMainHandler.post(AbsoluteTimeCaptureActivity.this::finish);
+                        return;
+                    }
+                    arm();
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "Session config failed");
+                    mMainHandler.post(AbsoluteTimeCaptureActivity.this::finish);
+                }
+            }, mBgHandler);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create session", e);
+            mMainHandler.post(AbsoluteTimeCaptureActivity.this::finish);
+        }
+    }
+
+    /**
+     * 流已启动：开始周期校准，并在 T 之后安排兜底超时
+     */
+    private void arm() {
+        long leadMs = millisUntilTarget();
+        if (leadMs < MIN_ARM_LEAD_MS) {
+            mLateArm = true;
+            Log.w(TAG, "Armed only " + leadMs + "ms before target, AE may not have converged");
+        } else {
+            Log.d(TAG, "Armed " + leadMs + "ms before target");
+        }
+        mTracer.begin(CaptureTracer.SECTION_CONVERGE);
+        mBgHandler.postDelayed(mCalibrateRunnable, CALIBRATE_INTERVAL_MS);
+        mBgHandler.postDelayed(mResolveTimeout, Math.max(0, leadMs) + RESOLVE_TIMEOUT_MS);
+    }
+
+    private final CameraCaptureSession.CaptureCallback mStreamCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    if (mDone) return;
+                    mTracer.markResult(result);
+                    mMetadata.record(result);
+                    Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+                    if (exposure != null) mExposureNs = exposure;
+                    Long skew = result.get(CaptureResult.SENSOR_ROLLING_SHUTTER_SKEW);
+                    if (skew != null) mRollingSkewNs = skew;
+                    Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+                    mAeConverged = ae == null
+                            || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                            || ae == CaptureResult.CONTROL_AE_STATE_LOCKED;
+                }
+            };
+
+    private void onRingFrame(Image image) {
+        if (mDone) {
+            image.close();
+            return;
+        }
+        mRing.add(image);
+        resolve(false);
+    }
+
+    /**
+     * 缓冲中出现起始时刻晚于 T 的帧后，覆盖 T 的帧必然已经到达，此时挑帧；之后到达的帧只会更远
+     */
+    private void resolve(boolean timedOut) {
+        if (mDone || mTargetSensorTs < 0) return;
+        if (!timedOut && mRing.newestTimestamp() <= mTargetSensorTs) return;
+        if (timedOut) Log.w(TAG, "No frame after target within " + RESOLVE_TIMEOUT_MS + "ms, using ring as-is");
+
+        mDone = true;
+        mBgHandler.removeCallbacks(mResolveTimeout);
+        mBgHandler.removeCallbacks(mCalibrateRunnable);
+        mTracer.end(CaptureTracer.SECTION_CONVERGE);
+        mTracer.instant(CaptureTracer.EVENT_TRIGGER, mTargetSensorTs);
+        mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+        mRun.mark(PipelineMetrics.MARK_TRIGGER);
+        long selectNs = SystemClock.elapsedRealtimeNanos();
+
+        // 以最近一帧的曝光参数估计窗口中心偏移，挑选曝光中心最接近 T 的帧
+        long centerOffsetNs = (mRollingSkewNs + mExposureNs) / 2;
+        List<Image> selected = mRing.takeNearest(mTargetSensorTs - centerOffsetNs, 1);
+        mRun.count(PipelineMetrics.COUNTER_ZSL_EVICTED, mRing.evicted());
+
+        try {
+            if (mCaptureSession != null) {
+                mCaptureSession.stopRepeating();
+            }
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Failed to stop stream", e);
+        }
+        mRing.clear();
+
+        File file = null;
+        if (!selected.isEmpty()) {
+            Image image = selected.get(0);
+            mFrameTs = image.getTimestamp();
+            // 用该帧自己的曝光时间重新计算窗口
+            int slot = mMetadata.indexOf(mFrameTs);
+            mFrameExposureNs = slot >= 0 && mMetadata.exposureNs(slot) > 0 ? mMetadata.exposureNs(slot) : mExposureNs;
+            long windowNs = mRollingSkewNs + mFrameExposureNs;
+            mErrorNs = mFrameTs + windowNs / 2 - mTargetSensorTs;
+            mCovered = mTargetSensorTs >= mFrameTs && mTargetSensorTs <= mFrameTs + windowNs;
+            mRun.sampleByMode(PipelineMetrics.HIST_TARGET_ERROR, Math.abs(mErrorNs) / 1000);
+            Log.d(TAG, String.format(Locale.US, "Selected ts=%d, error %dus, %s",
+                    mFrameTs, mErrorNs / 1000, mCovered ? "covers target" : "does NOT cover target"));
+            file = saveImage(image, selectNs);
+        } else {
+            Log.e(TAG, "No frame buffered around target");
+        }
+        mTracer.end(CaptureTracer.SECTION_CAPTURE);
+        writeReport(file);
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(AbsoluteTimeCaptureActivity.this::finish);
+        });
+    }
+
+    private Size chooseYuvSize() {
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        if (sizes == null || sizes.length == 0) return new Size(1920, 1440);
+        Size best = sizes[0];
+        for (Size s : sizes) {
+            if ((long) s.getWidth() * s.getHeight() > (long) best.getWidth() * best.getHeight()) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 把挑中的 YUV 帧编码为 JPEG 保存（image 在此关闭）
+     */
+    private File saveImage(Image image, long availableNs) {
+        mTracer.begin(CaptureTracer.SECTION_SAVE);
+        long sensorTs = image.getTimestamp();
+        long acquiredNs = SystemClock.elapsedRealtimeNanos();
+        try {
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+            mEncoder.encode(image, JPEG_QUALITY, jpeg);
+
+            File dir = new File(getExternalMediaDirs()[0], "abstime");
+            dir.mkdirs();
+            File file = new File(dir, "abs_" + sensorTs + ".jpg");
+            long writeNs = SystemClock.elapsedRealtimeNanos();
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                jpeg.writeTo(fos);
+            }
+            long closedNs = SystemClock.elapsedRealtimeNanos();
+            mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, jpeg.size());
+            mRun.frameWritten(availableNs, closedNs - writeNs, jpeg.size());
+            Log.d(TAG, "Saved: " + file.getAbsolutePath());
+            mMetadata.bindFile(sensorTs, file);
+            return file;
+        } catch (Exception e) {
+            Log.e(TAG, "Save failed", e);
+            mRun.frameFailed();
+            return null;
+        } finally {
+            image.close();
+            mTracer.end(CaptureTracer.SECTION_SAVE);
+        }
+    }
+
+    /**
+     * 写出报告；file 为 null 表示没有拍到或保存失败
+     */
+    private void writeReport(File file) {
+        File dir = new File(getExternalMediaDirs()[0], "abstime");
+        dir.mkdirs();
+        File report = new File(dir, "report_" + System.currentTimeMillis() + ".json");
+        try {
+            JSONObject json = new JSONObject();
+            json.put("camera_id", mCameraId);
+            json.put("target_utc_ms", mTargetUtcNs / 1_000_000L);
+            if (mSensorClock != null) {
+                json.put("timestamp_source", mSensorClock.isRealtimeSource() ? "realtime" : "unknown");
+                json.put("clock_uncertainty_us", mSensorClock.uncertaintyNs() / 1000);
+                json.put("clock_calibrations", mSensorClock.calibrations());
+                json.put("max_clock_drift_us", mMaxAbsDriftNs / 1000);
+            }
+            json.put("late_arm", mLateArm);
+            json.put("ae_converged", mAeConverged);
+            json.put("target_sensor_ts", mTargetSensorTs);
+            if (mFrameTs >= 0) {
+                json.put("frame_sensor_ts", mFrameTs);
+                json.put("frame_utc_ns", mSensorClock.sensorToUtcNs(mFrameTs));
+                json.put("exposure_ns", mFrameExposureNs);
+                json.put("rolling_shutter_skew_ns", mRollingSkewNs);
+                json.put("error_us", mErrorNs / 1000);
+                json.put("covered", mCovered);
+            }
+            if (file != null) json.put("file", file.getAbsolutePath());
+            try (FileOutputStream fos = new FileOutputStream(report)) {
+                fos.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            Log.d(TAG, "Absolute-time capture done: " + report.getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write absolute-time report", e);
+        }
+    }
+
+    private void cleanup() {
+        try {
+            mBgHandler.removeCallbacks(mCalibrateRunnable);
+            mBgHandler.removeCallbacks(mResolveTimeout);
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
+            mRing.clear();
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+        mMetadata.close();
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.AbsoluteTimeCaptureActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,403 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// adb shell am start -n com.kaspersigi.noui/.BenchmarkActivity \
+//     --es matrix "format=jpeg|heic;count=1|5;zsl=still_zsl|still_nzsl;nr=off|hq" --ei runs 10 --ei warmup 2
+// 结果：<media>/benchmark/bench_<model>_<ms>.csv 与 .json
+
+/**
+ * 配置矩阵基准测试：把矩阵展开为若干单元（每个单元一个 {@link CapturePlan}），
+ * 每个单元先跑 warmup 次预热（不计入），再跑 runs 次正式测量。
+ * 每次都完整走一遍 打开 → 配置 → 收敛 → 拍照 → 写文件 → 关闭，统计各阶段的 p50/p90/p99 与每帧字节数。
+ *
+ * 测量用的图像写完即删除；中途相机断开的那一次不计入统计（记为 disturbed）。
+ */
+public class BenchmarkActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final int DEFAULT_RUNS = 10;
+    private static final int DEFAULT_WARMUP = 2;
+    private static final String DEFAULT_MATRIX = "format=jpeg|heic;count=1|5;zsl=still_zsl|still_nzsl";
+
+    // 报告中的阶段（微秒）及每帧字节数
+    private static final String[] STAGES = {
+            "open_us", "configure_us", "converge_us", "trigger_lag_us", "first_image_us", "capture_us",
+            "write_us", "bytes_per_frame"
+    };
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraDevice mCameraDevice;
+    private String mCameraId;
+    private CaptureEngine mEngine;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private final CaptureTracer mTracer = new CaptureTracer(65536);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+
+    private List<CapturePlan> mCells;
+    private int mRuns = DEFAULT_RUNS;
+    private int mWarmup = DEFAULT_WARMUP;
+    private int mCellIndex = 0;
+    private int mIteration = 0;       // 当前单元内的第几次（含预热）
+    private long mOpenStartNs;
+    private long mOpenUs;
+    private boolean mDisturbed = false;
+    private boolean mReported = false;
+
+    // 单元 → 阶段 → 样本
+    private final List<Map<String, List<Long>>> mSamples = new ArrayList<>();
+    private final List<int[]> mOutcomes = new ArrayList<>(); // {完成, 失败, 被打断}
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "Benchmark started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        String matrix = getIntent().getStringExtra("matrix");
+        mRuns = getIntent().getIntExtra("runs", DEFAULT_RUNS);
+        mWarmup = getIntent().getIntExtra("warmup", DEFAULT_WARMUP);
+        try {
+            mCells = CapturePlan.expandMatrix(matrix != null ? matrix : DEFAULT_MATRIX);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Bad matrix '" + matrix + "'", e);
+            finish();
+            return;
+        }
+        for (int i = 0; i < mCells.size(); i++) {
+            Map<String, List<Long>> stages = new LinkedHashMap<>();
+            for (String s : STAGES) stages.put(s, new ArrayList<>());
+            mSamples.add(stages);
+            mOutcomes.add(new int[3]);
+        }
+        Log.d(TAG, "Benchmark matrix: " + mCells.size() + " cell(s) × (" + mWarmup + " warmup + " + mRuns + " runs)");
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> {
+            if (mCameraOpener == null && !mReported) startIteration();
+        });
+    }
+
+    /**
+     * 开始一次测量：重新打开相机，以便统计打开耗时
+     */
+    private void startIteration() {
+        CapturePlan cell = mCells.get(mCellIndex);
+        Log.d(TAG, "Benchmark cell " + (mCellIndex + 1) + "/" + mCells.size() + " iteration " + (mIteration + 1)
+                + (mIteration < mWarmup ? " (warmup)" : "") + ": " + cell);
+        mDisturbed = false;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mOpenStartNs = SystemClock.elapsedRealtimeNanos();
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mOpenUs = (SystemClock.elapsedRealtimeNanos() - mOpenStartNs) / 1000;
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            mRun.mark(PipelineMetrics.MARK_OPENED);
+
+            CapturePlan cell = mCells.get(mCellIndex);
+            mEngine = new CaptureEngine(camera, characteristics, mBgHandler, mPreviewSurface,
+                    new File(getExternalMediaDirs()[0], "benchmark/tmp"), mTracer, mRun);
+            mEngine.setAutoStrategy(ZslStrategyStore.load(BenchmarkActivity.this, mCameraId));
+            mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+            mEngine.configure(Collections.singletonList(cell), new CaptureEngine.ConfigureCallback() {
+                @Override
+                public void onConfigured(boolean reconfigured) {
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    mEngine.execute(cell, "bench", result -> endIteration(result));
+                }
+
+                @Override
+                public void onConfigureFailed() {
+                    endIteration(null);
+                }
+            });
+        }
+
+        @Override
+        public void onCameraLost() {
+            // 本次作废；CameraOpener 重新打开后从配置开始继续
+            Log.w(TAG, "Camera lost during benchmark iteration, sample discarded");
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mDisturbed = true;
+            if (mEngine != null) {
+                mEngine.close();
+                mEngine = null;
+            }
+            mCameraDevice = null;
+        }
+
+        @Override
+        public void onGiveUp() {
+            writeReport();
+            cleanup();
+            mMainHandler.post(BenchmarkActivity.this::finish);
+        }
+    };
+
+    /**
+     * 记录一次测量（预热和被打断的除外），关闭相机并进入下一次
+     */
+    private void endIteration(CaptureEngine.PlanResult result) {
+        int[] outcome = mOutcomes.get(mCellIndex);
+        boolean ok = result != null && !result.aborted && result.saved == result.plan.count;
+        if (mIteration >= mWarmup) {
+            if (mDisturbed) {
+                outcome[2]++;
+            } else if (!ok) {
+                outcome[1]++;
+            } else {
+                outcome[0]++;
+                Map<String, List<Long>> s = mSamples.get(mCellIndex);
+                s.get("open_us").add(mOpenUs);
+                s.get("configure_us").add(mEngine.lastConfigureUs());
+                s.get("converge_us").add(result.convergeUs);
+                if (result.hasTriggerLag()) s.get("trigger_lag_us").add(result.triggerLagUs);
+                s.get("first_image_us").add(result.firstImageUs);
+                s.get("capture_us").add(result.captureUs);
+                s.get("write_us").add(result.writeUs / Math.max(1, result.saved));
+                s.get("bytes_per_frame").add(result.bytesPerFrame());
+            }
+        }
+        if (result != null) {
+            for (File f : result.files) {
+                f.delete();
+            }
+        }
+
+        if (mEngine != null) {
+            mEngine.close();
+            mEngine = null;
+        }
+        mCameraOpener.close();
+        mCameraOpener = null;
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+
+        mIteration++;
+        if (mIteration >= mWarmup + mRuns) {
+            mIteration = 0;
+            mCellIndex++;
+        }
+        if (mCellIndex >= mCells.size()) {
+            writeReport();
+            mBgHandler.post(() -> {
+                cleanup();
+                mMainHandler.post(BenchmarkActivity.this::finish);
+            });
+            return;
+        }
+        mBgHandler.post(this::startIteration);
+    }
+
+    /**
+     * 写出 CSV（每个单元一行，各阶段 p50/p90/p99）与 JSON（含原始样本）
+     */
+    private void writeReport() {
+        if (mReported) return;
+        mReported = true;
+        File dir = new File(getExternalMediaDirs()[0], "benchmark");
+        dir.mkdirs();
+        String base = "bench_" + Build.MODEL.replaceAll("[^A-Za-z0-9._-]", "_") + "_" + System.currentTimeMillis();
+
+        StringBuilder csv = new StringBuilder("plan,runs,failed,disturbed");
+        for (String s : STAGES) {
+            csv.append(',').append(s).append("_p50,").append(s).append("_p90,").append(s).append("_p99");
+        }
+        csv.append('\n');
+        try {
+            JSONObject json = new JSONObject();
+            json.put("model", Build.MODEL);
+            json.put("camera_id", mCameraId);
+            json.put("runs", mRuns);
+            json.put("warmup", mWarmup);
+            JSONArray cells = new JSONArray();
+            for (int i = 0; i < mCells.size(); i++) {
+                int[] outcome = mOutcomes.get(i);
+                // 计划文本中含逗号，CSV 中加引号
+                csv.append('"').append(mCells.get(i)).append('"')
+                        .append(',').append(outcome[0]).append(',').append(outcome[1]).append(',').append(outcome[2]);
+                JSONObject cell = new JSONObject();
+                cell.put("plan", mCells.get(i).toString());
+                cell.put("runs", outcome[0]);
+                cell.put("failed", outcome[1]);
+                cell.put("disturbed", outcome[2]);
+                JSONObject stages = new JSONObject();
+                for (Map.Entry<String, List<Long>> e : mSamples.get(i).entrySet()) {
+                    long[] v = sorted(e.getValue());
+                    long p50 = percentile(v, 50), p90 = percentile(v, 90), p99 = percentile(v, 99);
+                    csv.append(',').append(p50).append(',').append(p90).append(',').append(p99);
+                    JSONObject stage = new JSONObject();
+                    stage.put("p50", p50);
+                    stage.put("p90", p90);
+                    stage.put("p99", p99);
+                    JSONArray raw = new JSONArray();
+                    for (long x : e.getValue()) raw.put(x);
+                    stage.put("samples", raw);
+                    stages.put(e.getKey(), stage);
+                }
+                csv.append('\n');
+                cell.put("stages", stages);
+                cells.put(cell);
+            }
+            json.put("cells", cells);
+
+            writeFile(new File(dir, base + ".csv"), csv.toString());
+            writeFile(new File(dir, base + ".json"), json.toString(2));
+            Log.d(TAG, "Benchmark report: " + new File(dir, base + ".csv").getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write benchmark report", e);
+        }
+    }
+
+    private static void writeFile(File file, String content) throws java.io.IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long[] sorted(List<Long> values) {
+        long[] v = new long[values.size()];
+        for (int i = 0; i < v.length; i++) v[i] = values.get(i);
+        Arrays.sort(v);
+        return v;
+    }
+
+    /**
+     * 最近秩（nearest-rank）百分位；无样本时返回 -1
+     */
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return -1;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private void cleanup() {
+        try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+                mCameraOpener = null;
+            }
+            if (mEngine != null) {
+                mEngine.close();
+                mEngine = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.BenchmarkActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Benchmark cell " + (mCellIndex + 1) + "/" + (mCells != null ? mCells.size() : 0)
+                + ", iteration " + mIteration);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,76 @@
+package com.kaspersigi.noui;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+// 解包最新的连拍包：adb shell am start -n com.kaspersigi.noui/.BundleExtractActivity
+// 指定包与帧：adb shell am start -n com.kaspersigi.noui/.BundleExtractActivity --es bundle <path> --ei index 2
+// 输出：<包所在目录>/<包名>/frame_<序号>_<ts>.<ext>
+// 也可以先 adb pull 整个包，再在主机上解包：java BurstBundle.java bundle_xxx.nbdl
+
+/**
+ * 连拍包解包工具：按索引把包内的帧流式拷贝为独立文件，不解码、不经过 Java 堆。
+ * 不打开相机，完成后自动退出。
+ */
+public class BundleExtractActivity extends Activity {
+    private static final String TAG = "NoUI";
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        String path = getIntent().getStringExtra("bundle");
+        int index = getIntent().getIntExtra("index", -1);
+        File bundle = path != null ? new File(path) : newestBundle(new File(getExternalMediaDirs()[0], "burst"));
+        if (bundle == null) {
+            Log.e(TAG, "No bundle to extract");
+            finish();
+            return;
+        }
+        // 解包是纯文件 IO，放到工作线程，完成后回到主线程退出
+        new Thread(() -> {
+            extract(bundle, index);
+            // 解包视为一次使用：在存储索引中标记为最近使用，推迟其被 LRU 淘汰
+            StorageBudget budget = new StorageBudget(bundle.getParentFile(), 0, null);
+            budget.touch(bundle);
+            budget.close();
+            runOnUiThread(this::finish);
+        }, "BundleExtract").start();
+    }
+
+    private void extract(File bundle, int index) {
+        File outDir = new File(bundle.getParentFile(), bundle.getName().replace(BurstBundle.EXTENSION, ""));
+        outDir.mkdirs();
+        try (BurstBundle.Reader reader = new BurstBundle.Reader(bundle)) {
+            Log.d(TAG, bundle.getName() + ": " + reader.count() + " frame(s)");
+            int from = index >= 0 ? index : 0;
+            int to = index >= 0 ? index + 1 : reader.count();
+            if (from >= reader.count()) {
+                Log.e(TAG, "Index " + index + " out of range");
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                BurstBundle.Entry e = reader.entry(i);
+                File out = new File(outDir, reader.frameName(i));
+                reader.extract(i, out);
+                Log.d(TAG, "Extracted #" + i + " ts=" + e.sensorTs + " frame=" + e.frameNumber
+                        + " (" + e.length + "B) -> " + out.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to extract " + bundle.getAbsolutePath(), e);
+        }
+    }
+
+    private static File newestBundle(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(BurstBundle.EXTENSION));
+        if (files == null) return null;
+        File newest = null;
+        for (File f : files) {
+            if (newest == null || f.lastModified() > newest.lastModified()) newest = f;
+        }
+        return newest;
+    }
+}
@@ -0,0 +1,208 @@
+package com.kaspersigi.noui;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 单文件连拍包（.nbdl）：一次连拍的所有帧顺序追加到同一个文件，末尾写索引。
+ * 布局（大端）：
+ * - 头部 16B：magic "NOUIBNDL" | version(int) | reserved(int)
+ * - 帧数据：按追加顺序紧密排列
+ * - 索引：count × 32B：offset(long) | length(int) | format(int) | sensorTs(long) | frameNumber(long)
+ * - 尾部 24B：indexOffset(long) | count(int) | version(int) | magic "NBDLTAIL"
+ *
+ * 读取时从尾部定位索引，不扫描帧数据；未正常关闭的包没有尾部，打开时报错。
+ * 本类只依赖 JDK，可直接在主机上解包：java BurstBundle.java bundle_xxx.nbdl [outDir]
+ * 写入见 {@link BurstBundleWriter}。
+ */
+public final class BurstBundle {
+    public static final String EXTENSION = ".nbdl";
+    static final byte[] HEAD_MAGIC = "NOUIBNDL".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] TAIL_MAGIC = "NBDLTAIL".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 32;
+    static final int TAIL_SIZE = 24;
+
+    // 与 android.graphics.ImageFormat 取值一致（主机侧无 Android 类可用）
+    public static final int FORMAT_YUV_420_888 = 0x23;
+    public static final int FORMAT_JPEG = 0x100;
+    public static final int FORMAT_HEIC = 0x48454946;
+
+    private BurstBundle() {
+    }
+
+    /**
+     * @return 帧格式对应的文件扩展名（含点号）
+     */
+    public static String extensionOf(int format) {
+        switch (format) {
+            case FORMAT_JPEG:
+                return ".jpg";
+            case FORMAT_HEIC:
+                return ".heic";
+            case FORMAT_YUV_420_888:
+                return ".yuv";
+            default:
+                return ".bin";
+        }
+    }
+
+    /**
+     * 索引中的一项
+     */
+    public static final class Entry {
+        public final long offset;
+        public final int length;
+        public final int format;
+        public final long sensorTs;
+        public final long frameNumber;
+
+        Entry(long offset, int length, int format, long sensorTs, long frameNumber) {
+            this.offset = offset;
+            this.length = length;
+            this.format = format;
+            this.sensorTs = sensorTs;
+            this.frameNumber = frameNumber;
+        }
+    }
+
+    /**
+     * 只读打开一个包；构造时读入索引，之后按需流式取出单帧
+     */
+    public static final class Reader implements Closeable {
+        private final RandomAccessFile mRaf;
+        private final FileChannel mChannel;
+        private final Entry[] mEntries;
+
+        public Reader(File file) throws IOException {
+            mRaf = new RandomAccessFile(file, "r");
+            mChannel = mRaf.getChannel();
+            try {
+                mEntries = readIndex(file.getName());
+            } catch (IOException e) {
+                mRaf.close();
+                throw e;
+            }
+        }
+
+        private Entry[] readIndex(String name) throws IOException {
+            long size = mChannel.size();
+            if (size < HEADER_SIZE + TAIL_SIZE) throw new IOException(name + ": too short for a bundle");
+            ByteBuffer head = readFully(0, HEADER_SIZE);
+            byte[] magic = new byte[HEAD_MAGIC.length];
+            head.get(magic);
+            if (!Arrays.equals(magic, HEAD_MAGIC)) throw new IOException(name + ": not a bundle");
+
+            ByteBuffer tail = readFully(size - TAIL_SIZE, TAIL_SIZE);
+            long indexOffset = tail.getLong();
+            int count = tail.getInt();
+            int version = tail.getInt();
+            tail.get(magic);
+            if (!Arrays.equals(magic, TAIL_MAGIC)) throw new IOException(name + ": no index (bundle not closed)");
+            if (version > VERSION) throw new IOException(name + ": unsupported version " + version);
+            if (count < 0 || indexOffset < HEADER_SIZE || indexOffset + (long) count * ENTRY_SIZE != size - TAIL_SIZE) {
+                throw new IOException(name + ": corrupt index");
+            }
+
+            ByteBuffer index = readFully(indexOffset, count * ENTRY_SIZE);
+            Entry[] entries = new Entry[count];
+            for (int i = 0; i < count; i++) {
+                entries[i] = new Entry(index.getLong(), index.getInt(), index.getInt(), index.getLong(), index.getLong());
+                if (entries[i].offset < HEADER_SIZE || entries[i].offset + entries[i].length > indexOffset) {
+                    throw new IOException(name + ": entry " + i + " out of range");
+                }
+            }
+            return entries;
+        }
+
+        private ByteBuffer readFully(long position, int length) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (mChannel.read(buf, position + buf.position()) < 0) throw new IOException("Unexpected EOF");
+            }
+            buf.flip();
+            return buf;
+        }
+
+        public int count() {
+            return mEntries.length;
+        }
+
+        public Entry entry(int i) {
+            return mEntries[i];
+        }
+
+        /**
+         * 读出第 i 帧；dst 容量不足时分配新缓冲
+         */
+        public ByteBuffer read(int i, ByteBuffer dst) throws IOException {
+            Entry e = mEntries[i];
+            if (dst == null || dst.capacity() < e.length) dst = ByteBuffer.allocate(e.length);
+            dst.clear().limit(e.length);
+            while (dst.hasRemaining()) {
+                if (mChannel.read(dst, e.offset + dst.position()) < 0) throw new IOException("Unexpected EOF");
+            }
+            dst.flip();
+            return dst;
+        }
+
+        /**
+         * 把第 i 帧原样拷贝到 out（transferTo，不经过 Java 堆）
+         */
+        public void extract(int i, File out) throws IOException {
+            Entry e = mEntries[i];
+            try (FileOutputStream fos = new FileOutputStream(out)) {
+                FileChannel dst = fos.getChannel();
+                long done = 0;
+                while (done < e.length) {
+                    long n = mChannel.transferTo(e.offset + done, e.length - done, dst);
+                    if (n <= 0) throw new IOException("transferTo stalled at " + done + "/" + e.length);
+                    done += n;
+                }
+            }
+        }
+
+        /**
+         * @return 第 i 帧解包后的默认文件名
+         */
+        public String frameName(int i) {
+            Entry e = mEntries[i];
+            return String.format("frame_%03d_%d%s", i, e.sensorTs, extensionOf(e.format));
+        }
+
+        @Override
+        public void close() throws IOException {
+            mRaf.close();
+        }
+    }
+
+    /**
+     * 主机侧解包：java BurstBundle.java <bundle.nbdl> [outDir]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: BurstBundle <bundle" + EXTENSION + "> [outDir]");
+            System.exit(2);
+        }
+        File bundle = new File(args[0]);
+        File outDir = args.length > 1 ? new File(args[1])
+                : new File(bundle.getParentFile(), bundle.getName().replace(EXTENSION, ""));
+        outDir.mkdirs();
+        try (Reader reader = new Reader(bundle)) {
+            for (int i = 0; i < reader.count(); i++) {
+                File out = new File(outDir, reader.frameName(i));
+                reader.extract(i, out);
+                Entry e = reader.entry(i);
+                System.out.println(out.getPath() + "\t" + e.length + "B\tts=" + e.sensorTs + "\t#" + e.frameNumber);
+            }
+        }
+    }
+}
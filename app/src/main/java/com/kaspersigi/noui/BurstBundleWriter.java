@@ -0,0 +1,116 @@
+package com.kaspersigi.noui;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 连拍包写入端：一次连拍只创建一个文件，关闭时写索引与尾部并截断到实际长度。
+ * - 数据写入 {@link OutputArena}：打开时按整组连拍的上界一次预留并映射，追加只是一次内存拷贝，
+ *   连拍过程中文件系统不再逐块扩展文件；超出预留部分退回定位写
+ * - 调用方应在触发连拍之前（输出尺寸已知时）创建，使预分配不落在拍照路径上
+ * - append() 直接读取调用方的 ByteBuffer（可以是 Image 平面的直接缓冲），不复制到 Java 堆
+ *
+ * 非线程安全：所有调用都应在同一线程上进行。格式见 {@link BurstBundle}。
+ */
+public final class BurstBundleWriter implements Closeable {
+    private static final int INITIAL_ENTRIES = 16;
+
+    private final OutputArena mArena;
+    private ByteBuffer mIndex = ByteBuffer.allocate(INITIAL_ENTRIES * BurstBundle.ENTRY_SIZE);
+    private int mCount = 0;
+    private long mDataBytes = 0;
+    private boolean mClosed = false;
+
+    /**
+     * @param reserveBytes 预留的帧数据总大小（见 {@link #maxFrameBytes}）；≤ 0 时不预分配
+     */
+    public BurstBundleWriter(File file, long reserveBytes) throws IOException {
+        mArena = new OutputArena(file, reserveBytes > 0 ? BurstBundle.HEADER_SIZE + reserveBytes : 0);
+        try {
+            ByteBuffer head = ByteBuffer.allocate(BurstBundle.HEADER_SIZE);
+            head.put(BurstBundle.HEAD_MAGIC).putInt(BurstBundle.VERSION).putInt(0).flip();
+            mArena.write(head);
+        } catch (IOException e) {
+            mArena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 单帧编码输出大小的上界估计，用于预留：JPEG 按 1 字节/像素，HEIC 按 0.5 字节/像素，YUV 为原始大小
+     */
+    public static long maxFrameBytes(int format, int width, int height) {
+        long pixels = (long) width * height;
+        switch (format) {
+            case BurstBundle.FORMAT_HEIC:
+                return pixels / 2;
+            case BurstBundle.FORMAT_YUV_420_888:
+                return pixels * 3 / 2;
+            default:
+                return pixels;
+        }
+    }
+
+    public File file() {
+        return mArena.file();
+    }
+
+    public int count() {
+        return mCount;
+    }
+
+    /**
+     * @return 已写入的帧数据字节数（不含头部、索引与尾部）
+     */
+    public long dataBytes() {
+        return mDataBytes;
+    }
+
+    /**
+     * @return 超出预留区域的帧数据字节数（大于 0 说明预留估计偏小；索引与尾部不计入）
+     */
+    public long overflowBytes() {
+        return mArena.overflowBytes();
+    }
+
+    /**
+     * 追加一帧（读取 data 的 position..limit）
+     *
+     * @return 该帧在包内的序号
+     */
+    public int append(ByteBuffer data, int format, long sensorTs, long frameNumber) throws IOException {
+        if (mClosed) throw new IOException("Bundle already closed");
+        int length = data.remaining();
+        long offset = mArena.write(data);
+        mDataBytes += length;
+
+        if (mIndex.remaining() < BurstBundle.ENTRY_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(mIndex.capacity() * 2);
+            mIndex.flip();
+            grown.put(mIndex);
+            mIndex = grown;
+        }
+        mIndex.putLong(offset).putInt(length).putInt(format).putLong(sensorTs).putLong(frameNumber);
+        return mCount++;
+    }
+
+    /**
+     * 写出索引与尾部，截断预分配的剩余空间并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            mIndex.flip();
+            long indexOffset = mArena.writeTrailer(mIndex);
+            ByteBuffer tail = ByteBuffer.allocate(BurstBundle.TAIL_SIZE);
+            tail.putLong(indexOffset).putInt(mCount).putInt(BurstBundle.VERSION).put(BurstBundle.TAIL_MAGIC).flip();
+            mArena.writeTrailer(tail);
+        } finally {
+            mArena.close();
+        }
+    }
+}
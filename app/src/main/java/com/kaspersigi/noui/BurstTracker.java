@@ -0,0 +1,236 @@
+package com.kaspersigi.noui;
+
+import android.hardware.camera2.CaptureFailure;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * 连拍完成度记账：保证拿到 N 张图，缺多少补多少。
+ * - 区分 HAL 丢帧（onCaptureFailed REASON_ERROR / onCaptureBufferLost）、会话冲刷（REASON_FLUSHED）
+ *   和 ImageReader 侧丢帧（结果到了但图像没到）
+ * - 已提交的请求全部有结论（完成或失败）后等待一小段时间让图像落地，仍有缺口且未超出延迟预算时，
+ *   只补拍缺少的张数
+ * - 凑齐 N 张立即结束，不再依赖固定延时
+ *
+ * 所有方法都应在相机后台线程上调用。
+ */
+public final class BurstTracker {
+    private static final String TAG = "NoUI";
+
+    // 请求全部有结论后等待图像到达的时间
+    private static final long IMAGE_GRACE_MS = 300;
+    private static final int MAX_RETRY_ROUNDS = 3;
+
+    public interface Listener {
+        /**
+         * 需要补拍 count 张
+         */
+        void onResubmit(int count);
+
+        /**
+         * 连拍结束（凑齐或放弃）
+         */
+        void onFinished(BurstTracker tracker);
+    }
+
+    private int mExpected;
+    private final long mBudgetMs;
+    private final Listener mListener;
+    private Handler mHandler;
+
+    private long mStartMs = -1;
+    private int mSubmitted = 0;
+    private int mCompleted = 0;
+    private int mFailedError = 0;
+    private int mFailedFlushed = 0;
+    private int mFailedWithImage = 0;
+    private int mBufferLost = 0;
+    private int mSequencesAborted = 0;
+    private int mSaved = 0;
+    private int mWriteFailed = 0;
+    private int mRetryRounds = 0;
+    private int mRetriedFrames = 0;
+    private int mReaderDrops = 0;
+    private boolean mFinished = false;
+    private boolean mSuspended = false;
+
+    private final Runnable mSettleCheck = this::settle;
+
+    /**
+     * @param expected 需要的张数
+     * @param budgetMs 从开始连拍起允许补拍的时间预算，超出后不再补拍
+     */
+    public BurstTracker(int expected, long budgetMs, Listener listener) {
+        mExpected = expected;
+        mBudgetMs = budgetMs;
+        mListener = listener;
+    }
+
+    /**
+     * 开始（或在相机恢复后继续）连拍；补拍预算从此刻重新计时
+     */
+    public void start(Handler handler) {
+        mHandler = handler;
+        mStartMs = SystemClock.elapsedRealtime();
+        mSuspended = false;
+    }
+
+    /**
+     * 相机断开：在途请求随会话作废，只保留已有结论的请求，等待恢复后再 start()
+     */
+    public void suspend() {
+        mSuspended = true;
+        if (mHandler != null) mHandler.removeCallbacks(mSettleCheck);
+        mSubmitted = mCompleted + mFailedError + mFailedFlushed;
+    }
+
+    public void submitted(int count) {
+        mSubmitted += count;
+        mHandler.removeCallbacks(mSettleCheck);
+    }
+
+    public void onCompleted() {
+        mCompleted++;
+        maybeSettle();
+    }
+
+    public void onFailed(CaptureFailure failure) {
+        if (failure.getReason() == CaptureFailure.REASON_FLUSHED) {
+            mFailedFlushed++;
+        } else {
+            mFailedError++;
+        }
+        if (failure.wasImageCaptured()) mFailedWithImage++;
+        Log.w(TAG, "Capture failed: frame " + failure.getFrameNumber() + ", reason="
+                + (failure.getReason() == CaptureFailure.REASON_FLUSHED ? "FLUSHED" : "ERROR")
+                + ", imageCaptured=" + failure.wasImageCaptured());
+        maybeSettle();
+    }
+
+    public void onBufferLost(long frameNumber) {
+        mBufferLost++;
+        Log.w(TAG, "Capture buffer lost: frame " + frameNumber);
+    }
+
+    public void onSequenceAborted(int sequenceId) {
+        mSequencesAborted++;
+        Log.w(TAG, "Capture sequence " + sequenceId + " aborted");
+        maybeSettle();
+    }
+
+    public void onImageSaved() {
+        mSaved++;
+        if (mSaved >= mExpected) finish();
+    }
+
+    public void onImageWriteFailed() {
+        mWriteFailed++;
+        maybeSettle();
+    }
+
+    /**
+     * 无法继续补拍（例如提交失败）时直接结束
+     */
+    public void abandon() {
+        finish();
+    }
+
+    /**
+     * 下调目标张数（例如存储空间不足时缩减本组）；只会下调，且不低于已保存的张数
+     */
+    public void limit(int expected) {
+        int limited = Math.max(mSaved, Math.min(mExpected, expected));
+        if (limited == mExpected) return;
+        Log.w(TAG, "Burst target reduced " + mExpected + " -> " + limited);
+        mExpected = limited;
+    }
+
+    public int expected() {
+        return mExpected;
+    }
+
+    public int remaining() {
+        return Math.max(0, mExpected - mSaved);
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public int saved() {
+        return mSaved;
+    }
+
+    public int retriedFrames() {
+        return mRetriedFrames;
+    }
+
+    public int halDrops() {
+        return mFailedError + mBufferLost;
+    }
+
+    public int readerDrops() {
+        return mReaderDrops;
+    }
+
+    public String report() {
+        long elapsed = mStartMs > 0 ? SystemClock.elapsedRealtime() - mStartMs : -1;
+        return "saved=" + mSaved + "/" + mExpected
+                + ", submitted=" + mSubmitted
+                + ", completed=" + mCompleted
+                + ", halErrors=" + mFailedError
+                + ", bufferLost=" + mBufferLost
+                + ", flushed=" + mFailedFlushed
+                + ", sequencesAborted=" + mSequencesAborted
+                + ", readerDrops=" + mReaderDrops
+                + ", writeFailed=" + mWriteFailed
+                + ", retryRounds=" + mRetryRounds
+                + ", retriedFrames=" + mRetriedFrames
+                + ", elapsed=" + elapsed + "ms";
+    }
+
+    private void maybeSettle() {
+        if (mFinished || mSuspended || mSubmitted < mExpected) return;
+        int resolved = mCompleted + mFailedError + mFailedFlushed;
+        if (resolved >= mSubmitted) {
+            mHandler.removeCallbacks(mSettleCheck);
+            mHandler.postDelayed(mSettleCheck, IMAGE_GRACE_MS);
+        }
+    }
+
+    /**
+     * 所有请求已有结论且宽限期已过：统计缺口并决定补拍或结束
+     */
+    private void settle() {
+        if (mFinished || mSuspended) return;
+        int missing = remaining();
+        if (missing == 0) {
+            finish();
+            return;
+        }
+
+        // 结果正常返回、缓冲也没丢，但图像没有到达或没有写成功 → ImageReader 侧丢帧
+        int imagesFromHal = mCompleted - mBufferLost + mFailedWithImage;
+        mReaderDrops = Math.max(0, imagesFromHal - mSaved - mWriteFailed);
+
+        long elapsed = SystemClock.elapsedRealtime() - mStartMs;
+        if (mRetryRounds >= MAX_RETRY_ROUNDS || elapsed > mBudgetMs) {
+            Log.w(TAG, "Burst short by " + missing + " frame(s), giving up after " + elapsed + "ms");
+            finish();
+            return;
+        }
+        mRetryRounds++;
+        mRetriedFrames += missing;
+        Log.w(TAG, "Burst short by " + missing + " frame(s), resubmitting (round " + mRetryRounds + ")");
+        mListener.onResubmit(missing);
+    }
+
+    private void finish() {
+        if (mFinished) return;
+        mFinished = true;
+        mHandler.removeCallbacks(mSettleCheck);
+        Log.d(TAG, "Burst report: " + report());
+        mListener.onFinished(this);
+    }
+}
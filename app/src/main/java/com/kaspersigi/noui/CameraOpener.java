@@ -0,0 +1,218 @@
+package com.kaspersigi.noui;
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 后置摄像头打开与恢复。
+ * - 摄像头被其他进程占用时按有界指数退避重试，CameraManager 报告可用时立即重试
+ * - 同一个 ID 连续失败若干次后切换到下一个后置摄像头
+ * - 打开后断开/出错：关闭设备、通知调用方，然后走同样的重试流程重新打开
+ * - 恢复成功时回报从出错到重新打开的耗时；首次打开遇到占用时的重试不算恢复，次数见 openRetries()
+ *
+ * 所有回调都在构造时传入的 Handler 线程上执行。
+ */
+public final class CameraOpener {
+    private static final String TAG = "NoUI";
+
+    private static final long BACKOFF_INITIAL_MS = 50;
+    private static final long BACKOFF_MAX_MS = 800;
+    private static final long GIVE_UP_AFTER_MS = 10_000;
+    private static final int FAILOVER_AFTER_ATTEMPTS = 3;
+
+    public interface Callback {
+        /**
+         * @param recoveryMs 已打开的设备断开 / 出错后到重新打开的耗时；首次打开（即使经历了重试）为 -1
+         */
+        void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs);
+
+        /**
+         * 已打开的摄像头断开或出错，设备已关闭，随后会自动重新打开
+         */
+        void onCameraLost();
+
+        /**
+         * 超出重试时限或摄像头被禁用，放弃
+         */
+        void onGiveUp();
+    }
+
+    private final CameraManager mManager;
+    private final Handler mHandler;
+    private final Callback mCallback;
+
+    private final List<String> mCandidates = new ArrayList<>();
+    private int mCandidateIndex = 0;
+    private int mAttemptsOnCandidate = 0;
+    private long mBackoffMs = BACKOFF_INITIAL_MS;
+    private long mFailureStartMs = -1;   // 本轮连续失败的起点，用于放弃判断
+    private long mLostAtMs = -1;         // 已打开的设备断开 / 出错的时刻，用于计算恢复耗时
+    private boolean mEverOpened = false;
+    private int mOpenRetries = 0;
+    private boolean mWaiting = false;
+    private boolean mClosed = false;
+    private CameraDevice mDevice;
+
+    private final Runnable mRetry = this::attemptOpen;
+
+    private final CameraManager.AvailabilityCallback mAvailability = new CameraManager.AvailabilityCallback() {
+        @Override
+        public void onCameraAvailable(@NonNull String cameraId) {
+            if (mWaiting && cameraId.equals(currentId())) {
+                Log.d(TAG, "Camera " + cameraId + " available, retrying now");
+                mHandler.removeCallbacks(mRetry);
+                attemptOpen();
+            }
+        }
+    };
+
+    public CameraOpener(CameraManager manager, Handler handler, Callback callback) {
+        mManager = manager;
+        mHandler = handler;
+        mCallback = callback;
+    }
+
+    /**
+     * @return 首次成功打开之前的重试次数（摄像头被占用、打开出错等）
+     */
+    public int openRetries() {
+        return mOpenRetries;
+    }
+
+    public String currentId() {
+        return mCandidates.isEmpty() ? null : mCandidates.get(mCandidateIndex);
+    }
+
+    public void open() {
+        try {
+            for (String id : mManager.getCameraIdList()) {
+                Integer facing = mManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+                if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                    mCandidates.add(id);
+                }
+            }
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Failed to enumerate cameras", e);
+        }
+        if (mCandidates.isEmpty()) {
+            Log.e(TAG, "No back camera found");
+            mCallback.onGiveUp();
+            return;
+        }
+        mManager.registerAvailabilityCallback(mAvailability, mHandler);
+        attemptOpen();
+    }
+
+    public void close() {
+        mClosed = true;
+        mWaiting = false;
+        mHandler.removeCallbacks(mRetry);
+        mManager.unregisterAvailabilityCallback(mAvailability);
+    }
+
+    private void attemptOpen() {
+        if (mClosed) return;
+        mWaiting = false;
+        String id = currentId();
+        try {
+            mManager.openCamera(id, mStateCallback, mHandler);
+        } catch (CameraAccessException e) {
+            if (e.getReason() == CameraAccessException.CAMERA_DISABLED) {
+                Log.e(TAG, "Camera " + id + " disabled", e);
+                mCallback.onGiveUp();
+                return;
+            }
+            scheduleRetry("openCamera: " + e.getMessage());
+        } catch (Exception e) {
+            scheduleRetry("openCamera: " + e);
+        }
+    }
+
+    private void scheduleRetry(String reason) {
+        if (mClosed) return;
+        long now = SystemClock.elapsedRealtime();
+        if (mFailureStartMs < 0) mFailureStartMs = now;
+        if (now - mFailureStartMs > GIVE_UP_AFTER_MS) {
+            Log.e(TAG, "Giving up opening camera after " + (now - mFailureStartMs) + "ms: " + reason);
+            mCallback.onGiveUp();
+            return;
+        }
+
+        if (!mEverOpened) mOpenRetries++;
+        mAttemptsOnCandidate++;
+        if (mAttemptsOnCandidate >= FAILOVER_AFTER_ATTEMPTS && mCandidates.size() > 1) {
+            mCandidateIndex = (mCandidateIndex + 1) % mCandidates.size();
+            mAttemptsOnCandidate = 0;
+            mBackoffMs = BACKOFF_INITIAL_MS;
+            Log.w(TAG, "Failing over to back camera " + currentId());
+        }
+
+        Log.w(TAG, "Camera " + currentId() + " unavailable (" + reason + "), retry in " + mBackoffMs + "ms");
+        mWaiting = true;
+        mHandler.postDelayed(mRetry, mBackoffMs);
+        mBackoffMs = Math.min(mBackoffMs * 2, BACKOFF_MAX_MS);
+    }
+
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            if (mClosed) {
+                camera.close();
+                return;
+            }
+            mDevice = camera;
+            long recoveryMs = mLostAtMs >= 0 ? SystemClock.elapsedRealtime() - mLostAtMs : -1;
+            mLostAtMs = -1;
+            mFailureStartMs = -1;
+            mEverOpened = true;
+            mAttemptsOnCandidate = 0;
+            mBackoffMs = BACKOFF_INITIAL_MS;
+            if (recoveryMs >= 0) {
+                Log.d(TAG, "Camera " + camera.getId() + " recovered in " + recoveryMs + "ms");
+            }
+            try {
+                mCallback.onOpened(camera, mManager.getCameraCharacteristics(camera.getId()), recoveryMs);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Failed to read characteristics", e);
+                lost(camera, "characteristics");
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            lost(camera, "disconnected");
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            if (error == CameraDevice.StateCallback.ERROR_CAMERA_DISABLED) {
+                Log.e(TAG, "Camera " + camera.getId() + " disabled");
+                camera.close();
+                mCallback.onGiveUp();
+                return;
+            }
+            lost(camera, "error " + error);
+        }
+    };
+
+    private void lost(CameraDevice camera, String reason) {
+        camera.close();
+        if (mFailureStartMs < 0) mFailureStartMs = SystemClock.elapsedRealtime();
+        if (mDevice == camera) {
+            mDevice = null;
+            if (mLostAtMs < 0) mLostAtMs = SystemClock.elapsedRealtime();
+            mCallback.onCameraLost();
+        }
+        scheduleRetry(reason);
+    }
+}
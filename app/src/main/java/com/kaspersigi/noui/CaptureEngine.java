@@ -0,0 +1,624 @@
+package com.kaspersigi.noui;
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 {@link CapturePlan} 执行拍照的会话引擎（校准 / 基准测试 / 多计划 Activity 共用）。
+ * - configure()：为一组计划计算输出 Surface 的并集（格式 × 尺寸各一个 ImageReader），只配置一次会话；
+ *   后续计划已被当前会话覆盖时不重新配置
+ * - 预览请求持续重复，3A 在计划之间保持收敛；execute() 按计划的收敛条件等待后触发
+ * - 四种 ZSL 策略见 {@link CapturePlan.ZslStrategy}，AUTO 使用 setAutoStrategy() 指定的校准结果
+ * - 完成度由 {@link BurstTracker} 记账（失败只补拍缺少的张数），每个计划输出一个 {@link PlanResult}
+ *
+ * 设备由调用方打开和关闭；所有方法与回调都在构造时传入的 Handler 线程上执行。
+ */
+public final class CaptureEngine {
+    private static final String TAG = "NoUI";
+    private static final long RETRY_BUDGET_MS = 1500;
+    private static final long CONVERGE_TIMEOUT_MS = 3000; // 超时后不再等待收敛，直接触发
+
+    public interface ConfigureCallback {
+        /**
+         * @param reconfigured 是否真的重新配置了会话（false 表示当前会话已满足要求）
+         */
+        void onConfigured(boolean reconfigured);
+
+        void onConfigureFailed();
+    }
+
+    public interface PlanCallback {
+        void onPlanFinished(PlanResult result);
+    }
+
+    /**
+     * 单个计划的执行结果。时间单位为微秒，未测得时为 -1。
+     */
+    public static final class PlanResult {
+        public final CapturePlan plan;       // 已解析 AUTO 后的实际计划
+        public long convergeUs = -1;         // execute() → 触发
+        public long triggerLagUs = -1;       // 第一帧 SENSOR_TIMESTAMP − 触发时刻（带符号，ZSL 取到触发前的帧时为负）
+        public long firstSensorTs = -1;      // 第一帧的 SENSOR_TIMESTAMP（纳秒，传感器时间基准）
+        public long firstImageUs = -1;       // 触发 → 第一张图像到达
+        public long captureUs = -1;          // 触发 → 凑齐或放弃（总连拍时间）
+        public long writeUs = 0;             // 各帧写文件耗时之和
+        public long bytes = 0;
+        public int saved = 0;
+        public int failed = 0;
+        public int retried = 0;
+        public boolean aborted = false;      // 请求无法提交（例如模板不受支持）
+        public final List<File> files = new ArrayList<>();
+
+        PlanResult(CapturePlan plan) {
+            this.plan = plan;
+        }
+
+        public long bytesPerFrame() {
+            return saved > 0 ? bytes / saved : 0;
+        }
+
+        /**
+         * triggerLagUs 带符号，负值不代表未测得；以是否拿到第一帧时间戳为准
+         */
+        public boolean hasTriggerLag() {
+            return firstSensorTs > 0;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject o = new JSONObject();
+            o.put("plan", plan.toString());
+            o.put("converge_us", convergeUs);
+            o.put("trigger_lag_us", hasTriggerLag() ? triggerLagUs : JSONObject.NULL);
+            o.put("first_sensor_ts", firstSensorTs);
+            o.put("first_image_us", firstImageUs);
+            o.put("capture_us", captureUs);
+            o.put("write_us", writeUs);
+            o.put("bytes", bytes);
+            o.put("bytes_per_frame", bytesPerFrame());
+            o.put("saved", saved);
+            o.put("failed", failed);
+            o.put("retried", retried);
+            o.put("aborted", aborted);
+            return o;
+        }
+
+        @Override
+        public String toString() {
+            return plan + ": converge=" + convergeUs + "us, lag=" + triggerLagUs + "us, first image="
+                    + firstImageUs + "us, capture=" + captureUs + "us, saved=" + saved + "/" + plan.count
+                    + ", bytes/frame=" + bytesPerFrame() + (aborted ? ", ABORTED" : "");
+        }
+    }
+
+    private final CameraDevice mDevice;
+    private final CameraCharacteristics mCharacteristics;
+    private final Handler mHandler;
+    private final Surface mPreviewSurface;
+    private final File mOutDir;
+    private final CaptureTracer mTracer;
+    private final PipelineMetrics.Run mRun;
+
+    private CameraCaptureSession mSession;
+    // "format:WxH" → ImageReader；同一格式同一尺寸的计划共用
+    private final Map<String, ImageReader> mReaders = new LinkedHashMap<>();
+    private final Map<String, Integer> mReaderDepth = new LinkedHashMap<>();
+    private int mConfigureCount = 0;
+    private long mLastConfigureUs = -1;
+    private CapturePlan.ZslStrategy mAutoStrategy = ZslStrategyStore.FALLBACK;
+    private Range<Integer> mPreviewFpsRange; // null 表示沿用模板默认值
+
+    // 预览结果中的最新 3A 状态
+    private boolean mAeOk = false;
+    private boolean mAwbOk = false;
+    private boolean mAfOk = false;
+
+    // 当前计划
+    private CapturePlan mPlan;
+    private PlanResult mResult;
+    private PlanCallback mCallback;
+    private String mFilePrefix;
+    private ImageReader mPlanReader;
+    private CaptureRequest.Builder mPlanBuilder;
+    private BurstTracker mTracker;
+    private boolean mTriggered = false;
+    private long mStartNs;
+    private long mTriggerNs;
+    private long mTriggerSensorTs;
+    private int mPacedRemaining = 0;
+
+    private final Runnable mConvergeTimeout = () -> {
+        if (mPlan != null && !mTriggered) {
+            Log.w(TAG, "Convergence (" + mPlan.converge + ") timed out, triggering anyway");
+            trigger();
+        }
+    };
+
+    public CaptureEngine(CameraDevice device, CameraCharacteristics characteristics, Handler handler,
+                         Surface previewSurface, File outDir, CaptureTracer tracer, PipelineMetrics.Run run) {
+        mDevice = device;
+        mCharacteristics = characteristics;
+        mHandler = handler;
+        mPreviewSurface = previewSurface;
+        mOutDir = outDir;
+        mTracer = tracer;
+        mRun = run;
+    }
+
+    public void setAutoStrategy(CapturePlan.ZslStrategy strategy) {
+        mAutoStrategy = strategy;
+    }
+
+    /**
+     * 修改重复预览的 AE 目标帧率范围（例如两次拍摄之间降帧省电），null 恢复模板默认值；会话已存在时立即生效
+     */
+    public void setPreviewFpsRange(Range<Integer> range) {
+        mPreviewFpsRange = range;
+        if (mSession == null) return;
+        try {
+            startPreview();
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Failed to update preview fps range", e);
+        }
+    }
+
+    /**
+     * @return 会话实际配置的次数
+     */
+    public int configureCount() {
+        return mConfigureCount;
+    }
+
+    /**
+     * @return 最近一次配置会话的耗时；尚未配置时为 -1
+     */
+    public long lastConfigureUs() {
+        return mLastConfigureUs;
+    }
+
+    /**
+     * 当前会话是否已包含该计划需要的输出
+     */
+    public boolean covers(CapturePlan plan) {
+        if (mSession == null) return false;
+        String key = readerKey(plan);
+        Integer depth = mReaderDepth.get(key);
+        return key != null && depth != null && depth >= plan.count + 2;
+    }
+
+    /**
+     * 为 plans 中的全部计划配置一次会话；已覆盖时直接回调 onConfigured(false)。
+     * 输出并集超出设备支持的流组合时，退回只为第一个计划配置。
+     */
+    public void configure(List<CapturePlan> plans, ConfigureCallback callback) {
+        boolean covered = mSession != null;
+        for (CapturePlan p : plans) {
+            if (!covers(p)) covered = false;
+        }
+        if (covered) {
+            callback.onConfigured(false);
+            return;
+        }
+
+        Map<String, Integer> depth = new LinkedHashMap<>();
+        Map<String, CapturePlan> byKey = new LinkedHashMap<>();
+        for (CapturePlan p : plans) {
+            String key = readerKey(p);
+            if (key == null) {
+                Log.e(TAG, "Output not supported: " + p);
+                if (plans.size() > 1 && p != plans.get(0)) continue;
+                callback.onConfigureFailed();
+                return;
+            }
+            Integer d = depth.get(key);
+            depth.put(key, Math.max(d != null ? d : 0, p.count + 2));
+            if (!byKey.containsKey(key)) byKey.put(key, p);
+        }
+
+        closeSession();
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        List<Surface> surfaces = new ArrayList<>();
+        surfaces.add(mPreviewSurface);
+        for (Map.Entry<String, CapturePlan> e : byKey.entrySet()) {
+            CapturePlan p = e.getValue();
+            Size size = resolveSize(p);
+            ImageReader reader = ImageReader.newInstance(size.getWidth(), size.getHeight(), p.format, depth.get(e.getKey()));
+            reader.setOnImageAvailableListener(this::onImageAvailable, mHandler);
+            mReaders.put(e.getKey(), reader);
+            surfaces.add(reader.getSurface());
+        }
+        mReaderDepth.putAll(depth);
+        Log.d(TAG, "Configuring session with outputs " + mReaders.keySet());
+
+        try {
+            mDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    mSession = session;
+                    mConfigureCount++;
+                    mLastConfigureUs = (SystemClock.elapsedRealtimeNanos() - startNs) / 1000;
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    try {
+                        startPreview();
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Failed to start preview", e);
+                        callback.onConfigureFailed();
+                        return;
+                    }
+                    callback.onConfigured(true);
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    closeSession();
+                    if (byKey.size() > 1) {
+                        Log.w(TAG, "Output superset " + byKey.keySet() + " rejected, configuring for first plan only");
+                        configure(plans.subList(0, 1), callback);
+                    } else {
+                        Log.e(TAG, "Session config failed");
+                        callback.onConfigureFailed();
+                    }
+                }
+            }, mHandler);
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "Failed to create session", e);
+            mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+            callback.onConfigureFailed();
+        }
+    }
+
+    private void startPreview() throws CameraAccessException {
+        CaptureRequest.Builder preview = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        preview.addTarget(mPreviewSurface);
+        preview.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        if (mPreviewFpsRange != null) {
+            preview.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mPreviewFpsRange);
+        }
+        mSession.setRepeatingRequest(preview.build(), mPreviewCallback, mHandler);
+    }
+
+    /**
+     * 执行一个计划（会话必须已覆盖该计划）。文件写入 outDir/&lt;filePrefix&gt;_&lt;sensorTs&gt;.&lt;ext&gt;
+     */
+    public void execute(CapturePlan plan, String filePrefix, PlanCallback callback) {
+        if (plan.strategy == CapturePlan.ZslStrategy.AUTO) {
+            plan = plan.withStrategy(mAutoStrategy);
+        }
+        mPlan = plan;
+        mResult = new PlanResult(plan);
+        mCallback = callback;
+        mFilePrefix = filePrefix;
+        mPlanReader = mReaders.get(readerKey(plan));
+        mTriggered = false;
+        mPacedRemaining = 0;
+        mStartNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.begin(CaptureTracer.SECTION_CONVERGE);
+
+        if (mPlanReader == null) {
+            Log.e(TAG, "Session does not cover " + plan);
+            mResult.aborted = true;
+            finishPlan();
+            return;
+        }
+        try {
+            mPlanBuilder = buildStillRequest(plan);
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "Cannot build request for " + plan, e);
+            mResult.aborted = true;
+            finishPlan();
+            return;
+        }
+
+        final CapturePlan current = plan;
+        mTracker = new BurstTracker(plan.count, RETRY_BUDGET_MS, new BurstTracker.Listener() {
+            @Override
+            public void onResubmit(int count) {
+                if (mPlan != current) return;
+                submit(count);
+            }
+
+            @Override
+            public void onFinished(BurstTracker tracker) {
+                if (mPlan != current) return;
+                mResult.retried = tracker.retriedFrames();
+                mRun.count(PipelineMetrics.COUNTER_RETRIED_FRAMES, tracker.retriedFrames());
+                mRun.count(PipelineMetrics.COUNTER_HAL_DROPS, tracker.halDrops());
+                mRun.count(PipelineMetrics.COUNTER_READER_DROPS, tracker.readerDrops());
+                // 投递到队列末尾，让当前帧的保存流程先走完
+                mHandler.post(CaptureEngine.this::finishPlan);
+            }
+        });
+
+        if (isConverged(plan.converge)) {
+            trigger();
+        } else {
+            mHandler.postDelayed(mConvergeTimeout, CONVERGE_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * 放弃当前计划（例如相机断开），不回调 PlanCallback
+     */
+    public void abandon() {
+        mHandler.removeCallbacks(mConvergeTimeout);
+        if (mTracker != null) mTracker.suspend();
+        mPlan = null;
+        mCallback = null;
+    }
+
+    public void close() {
+        abandon();
+        closeSession();
+    }
+
+    private CaptureRequest.Builder buildStillRequest(CapturePlan plan) throws CameraAccessException {
+        CaptureRequest.Builder b;
+        switch (plan.strategy) {
+            case ZSL_TEMPLATE:
+                b = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+                break;
+            case STILL_NZSL:
+                b = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+                b.set(CaptureRequest.CONTROL_ENABLE_ZSL, false);
+                break;
+            case STILL_ZSL:
+            case PREVIEW_PACED:
+            default:
+                b = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+                b.set(CaptureRequest.CONTROL_ENABLE_ZSL, true);
+                break;
+        }
+        b.addTarget(mPlanReader.getSurface());
+        b.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        if (plan.nrMode != CapturePlan.NR_DEFAULT) {
+            b.set(CaptureRequest.NOISE_REDUCTION_MODE, plan.nrMode);
+        }
+        // JPEG_QUALITY 同样作用于 HEIC 输出
+        b.set(CaptureRequest.JPEG_QUALITY, (byte) plan.jpegQuality);
+        return b;
+    }
+
+    private boolean isConverged(CapturePlan.Converge converge) {
+        switch (converge) {
+            case NONE: return true;
+            case AE: return mAeOk;
+            default: return mAeOk && mAwbOk && mAfOk;
+        }
+    }
+
+    private void trigger() {
+        mHandler.removeCallbacks(mConvergeTimeout);
+        mTriggered = true;
+        mTriggerNs = SystemClock.elapsedRealtimeNanos();
+        mTriggerSensorTs = mTracer.realtimeToSensorNs(mTriggerNs);
+        mResult.convergeUs = (mTriggerNs - mStartNs) / 1000;
+        mTracer.end(CaptureTracer.SECTION_CONVERGE);
+        mTracer.instant(CaptureTracer.EVENT_TRIGGER, mTriggerSensorTs);
+        mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+        mRun.mark(PipelineMetrics.MARK_TRIGGER);
+        mTracker.start(mHandler);
+        if (mPlan.strategy == CapturePlan.ZslStrategy.PREVIEW_PACED) {
+            // 由后续预览结果逐帧提交
+            mPacedRemaining = mPlan.count;
+        } else {
+            submit(mPlan.count);
+        }
+    }
+
+    private void submit(int count) {
+        List<CaptureRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(mPlanBuilder.build());
+        }
+        mTracer.instant(CaptureTracer.EVENT_SUBMIT, count);
+        mTracker.submitted(count);
+        try {
+            if (count == 1) {
+                mSession.capture(requests.get(0), mStillCallback, mHandler);
+            } else {
+                mSession.captureBurst(requests, mStillCallback, mHandler);
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Capture submit failed", e);
+            mResult.aborted = true;
+            mTracker.abandon();
+        }
+    }
+
+    private final CameraCaptureSession.CaptureCallback mPreviewCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+                    Integer awb = result.get(CaptureResult.CONTROL_AWB_STATE);
+                    Integer af = result.get(CaptureResult.CONTROL_AF_STATE);
+                    mAeOk = ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                            || ae == CaptureResult.CONTROL_AE_STATE_LOCKED;
+                    mAwbOk = awb == null || awb == CaptureResult.CONTROL_AWB_STATE_CONVERGED
+                            || awb == CaptureResult.CONTROL_AWB_STATE_LOCKED;
+                    mAfOk = af == null || af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED
+                            || af == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED;
+                    mTracer.instant(CaptureTracer.EVENT_PREVIEW_RESULT, result.getFrameNumber());
+
+                    if (mPlan == null) return;
+                    if (!mTriggered) {
+                        if (isConverged(mPlan.converge)) trigger();
+                    } else if (mPacedRemaining > 0) {
+                        mPacedRemaining--;
+                        submit(1);
+                    }
+                }
+            };
+
+    private final CameraCaptureSession.CaptureCallback mStillCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    if (mPlan == null) return;
+                    mTracer.markResult(result);
+                    mRun.captureCompleted();
+                    Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (!mResult.hasTriggerLag() && ts != null) {
+                        mResult.firstSensorTs = ts;
+                        mResult.triggerLagUs = mRun.sampleShutterLag(ts - mTriggerSensorTs);
+                    }
+                    mTracker.onCompleted();
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    if (mPlan != null) mTracker.onFailed(failure);
+                }
+
+                @Override
+                public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                                @NonNull CaptureRequest request,
+                                                @NonNull Surface target, long frameNumber) {
+                    if (mPlan != null) mTracker.onBufferLost(frameNumber);
+                }
+
+                @Override
+                public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+                    if (mPlan != null) mTracker.onSequenceAborted(sequenceId);
+                }
+            };
+
+    private void onImageAvailable(ImageReader reader) {
+        long availableNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.instant(CaptureTracer.EVENT_IMAGE_AVAILABLE, 0);
+        Image image;
+        while ((image = reader.acquireNextImage()) != null) {
+            if (mPlan == null || reader != mPlanReader) {
+                image.close();
+                continue;
+            }
+            saveImage(image, availableNs);
+        }
+    }
+
+    private void saveImage(Image image, long availableNs) {
+        mTracer.begin(CaptureTracer.SECTION_SAVE);
+        long sensorTs = image.getTimestamp();
+        long acquiredNs = SystemClock.elapsedRealtimeNanos();
+        if (mResult.firstImageUs < 0) mResult.firstImageUs = (availableNs - mTriggerNs) / 1000;
+        try {
+            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+
+            mOutDir.mkdirs();
+            File file = new File(mOutDir, mFilePrefix + "_" + sensorTs + "." + mPlan.extension());
+            long writeNs = SystemClock.elapsedRealtimeNanos();
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(bytes);
+            }
+            long closedNs = SystemClock.elapsedRealtimeNanos();
+            mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, bytes.length);
+            mRun.frameWritten(availableNs, closedNs - writeNs, bytes.length);
+            mResult.writeUs += (closedNs - writeNs) / 1000;
+            mResult.bytes += bytes.length;
+            mResult.saved++;
+            mResult.files.add(file);
+            Log.d(TAG, "Saved: " + file.getAbsolutePath());
+            mTracker.onImageSaved();
+        } catch (Exception e) {
+            Log.e(TAG, "Save failed", e);
+            mRun.frameFailed();
+            mResult.failed++;
+            mTracker.onImageWriteFailed();
+        } finally {
+            image.close();
+            mTracer.end(CaptureTracer.SECTION_SAVE);
+        }
+    }
+
+    private void finishPlan() {
+        if (mPlan == null) return;
+        mHandler.removeCallbacks(mConvergeTimeout);
+        if (mTriggered) {
+            mResult.captureUs = (SystemClock.elapsedRealtimeNanos() - mTriggerNs) / 1000;
+            mTracer.end(CaptureTracer.SECTION_CAPTURE);
+        } else {
+            mTracer.end(CaptureTracer.SECTION_CONVERGE);
+        }
+        PlanResult result = mResult;
+        PlanCallback callback = mCallback;
+        mPlan = null;
+        mCallback = null;
+        Log.d(TAG, "Plan finished: " + result);
+        callback.onPlanFinished(result);
+    }
+
+    private void closeSession() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        for (ImageReader reader : mReaders.values()) {
+            reader.close();
+        }
+        mReaders.clear();
+        mReaderDepth.clear();
+    }
+
+    /**
+     * @return 计划对应的 ImageReader 键；格式或尺寸不受支持时返回 null
+     */
+    private String readerKey(CapturePlan plan) {
+        Size size = resolveSize(plan);
+        return size == null ? null : plan.format + ":" + size.getWidth() + "x" + size.getHeight();
+    }
+
+    private Size resolveSize(CapturePlan plan) {
+        StreamConfigurationMap map = mCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(plan.format);
+        if (sizes == null || sizes.length == 0) return null;
+        Size best = null;
+        for (Size s : sizes) {
+            if (plan.width == CapturePlan.SIZE_LARGEST) {
+                if (best == null || (long) s.getWidth() * s.getHeight() > (long) best.getWidth() * best.getHeight()) {
+                    best = s;
+                }
+            } else if (s.getWidth() == plan.width && s.getHeight() == plan.height) {
+                return s;
+            }
+        }
+        if (best == null) Log.w(TAG, "Size " + plan.width + "x" + plan.height + " not supported for format " + plan.format);
+        return best;
+    }
+}
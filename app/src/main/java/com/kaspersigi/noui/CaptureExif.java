@@ -0,0 +1,324 @@
+package com.kaspersigi.noui;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * 单帧的拍摄元数据（帧号、传感器时间戳、UTC 时间、3A 状态），编码为 Exif 后拼入编码好的 JPEG / HEIC，不解码不重编码。
+ * - Exif IFD 中写入 DateTimeOriginal / OffsetTimeOriginal（+00:00）/ SubSecTimeOriginal（UTC），
+ *   其余字段以 "noui frame=… sensor_ts=… utc_ns=… ae=… awb=… af=…" 写入 UserComment，便于脚本解析
+ * - JPEG：HAL 已嵌入 Exif（方向、机型、缩略图等）时与之合并——原 TIFF 数据原样保留，
+ *   在其末尾追加一份加入新字段的 Exif IFD（没有 Exif IFD 时追加新的 IFD0）并改写指针；
+ *   没有 Exif 时在 SOI（及 JFIF APP0）之后插入新的 APP1。只有这一个几十 KB 以内的段在堆上生成，
+ *   图像数据以原缓冲的切片参与聚集写（gathering write）
+ * - HEIC：{@link #heifPayload()} 生成 Exif 条目负载，由 {@link HeifSequenceWriter} 作为 cdsc 条目写入；
+ *   HAL 已有 Exif 条目时用 {@link #mergeHeifPayload} 以同样方式合并后替换原条目
+ *
+ * 不可变，可在任意线程使用。未知的字段（例如结果晚于图像到达）为 -1，UTC 未知时不写时间字段。
+ */
+public final class CaptureExif {
+    private static final String TAG = "NoUI";
+
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    private static final int TAG_USER_COMMENT = 0x9286;
+    private static final int TAG_SUBSEC_TIME_ORIGINAL = 0x9291;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_UNDEFINED = 7;
+
+    private static final int MAX_SEGMENT = 0xFFFF;
+    private static final byte[] EXIF_ID = {'E', 'x', 'i', 'f', 0, 0};
+    private static final byte[] COMMENT_ASCII = {'A', 'S', 'C', 'I', 'I', 0, 0, 0};
+
+    public final long frameNumber;
+    public final long sensorTs;
+    public final long utcNs;
+    public final int aeState;
+    public final int awbState;
+    public final int afState;
+
+    /**
+     * @param utcNs 传感器时间戳换算出的 UTC（纳秒），未知时传 -1
+     */
+    public CaptureExif(long frameNumber, long sensorTs, long utcNs, int aeState, int awbState, int afState) {
+        this.frameNumber = frameNumber;
+        this.sensorTs = sensorTs;
+        this.utcNs = utcNs;
+        this.aeState = aeState;
+        this.awbState = awbState;
+        this.afState = afState;
+    }
+
+    /**
+     * HEIF Exif 条目负载：4 字节 exif_tiff_header_offset（0）+ TIFF 数据
+     */
+    public byte[] heifPayload() {
+        byte[] tiff = tiff();
+        ByteBuffer b = ByteBuffer.allocate(4 + tiff.length);
+        b.putInt(0).put(tiff);
+        return b.array();
+    }
+
+    /**
+     * 与已有的 HEIF Exif 条目负载合并（保留其 TIFF 数据，追加新字段）
+     *
+     * @return 合并后的负载；无法解析时返回 null，调用方应保留原条目并另加 {@link #heifPayload()}
+     */
+    public byte[] mergeHeifPayload(byte[] existing) {
+        if (existing.length < 4) return null;
+        ByteBuffer src = ByteBuffer.wrap(existing);
+        int tiffStart = 4 + src.getInt(0);
+        if (tiffStart < 4 || tiffStart + 8 > existing.length) return null;
+        byte[] tiff = merge(src, tiffStart, existing.length, Integer.MAX_VALUE);
+        if (tiff == null) return null;
+        ByteBuffer b = ByteBuffer.allocate(4 + tiff.length);
+        b.putInt(0).put(tiff);
+        return b.array();
+    }
+
+    /**
+     * 把本帧的 Exif 拼入 JPEG（读取 jpeg 的 position..limit，不改变其 position）
+     *
+     * @return 依次写出即为完整文件的缓冲序列；图像数据部分是 jpeg 的切片。无法处理时只含 jpeg 的一个切片
+     */
+    public ByteBuffer[] spliceJpeg(ByteBuffer jpeg) {
+        ByteBuffer b = jpeg.slice().order(ByteOrder.BIG_ENDIAN);
+        int limit = b.limit();
+        if (limit < 4 || (b.getShort(0) & 0xFFFF) != 0xFFD8) {
+            Log.w(TAG, "Not a JPEG, Exif not injected");
+            return new ByteBuffer[]{b};
+        }
+        // 扫描 SOI 之后连续的 APPn 段
+        int insertAt = 2;
+        int pos = 2;
+        while (pos + 4 <= limit) {
+            int marker = b.getShort(pos) & 0xFFFF;
+            if (marker < 0xFFE0 || marker > 0xFFEF) break;
+            int end = pos + 2 + (b.getShort(pos + 2) & 0xFFFF);
+            if (end > limit) break;
+            if (marker == 0xFFE1 && isExif(b, pos + 4, end)) {
+                byte[] merged = merge(b, pos + 4 + EXIF_ID.length, end, MAX_SEGMENT - 2 - EXIF_ID.length);
+                if (merged == null) return new ByteBuffer[]{b};
+                return splice(b, pos, end, segment(merged));
+            }
+            if (marker == 0xFFE0 && pos == 2) insertAt = end; // JFIF APP0 必须在最前
+            pos = end;
+        }
+        return splice(b, insertAt, insertAt, segment(tiff()));
+    }
+
+    @Override
+    public String toString() {
+        return "noui frame=" + frameNumber + " sensor_ts=" + sensorTs + " utc_ns=" + utcNs
+                + " ae=" + aeState + " awb=" + awbState + " af=" + afState;
+    }
+
+    // ---- TIFF / IFD ----
+
+    private static final class Field {
+        final int tag;
+        final int type;
+        final byte[] value; // ASCII 含结尾 0；UNDEFINED 原样
+
+        Field(int tag, int type, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    private List<Field> exifFields() {
+        List<Field> fields = new ArrayList<>();
+        if (utcNs >= 0) {
+            long ms = utcNs / 1_000_000L;
+            SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            fields.add(ascii(TAG_DATE_TIME_ORIGINAL, format.format(new Date(ms))));
+            fields.add(ascii(TAG_OFFSET_TIME_ORIGINAL, "+00:00"));
+        }
+        byte[] comment = toString().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer value = ByteBuffer.allocate(COMMENT_ASCII.length + comment.length);
+        value.put(COMMENT_ASCII).put(comment);
+        fields.add(new Field(TAG_USER_COMMENT, TYPE_UNDEFINED, value.array()));
+        if (utcNs >= 0) {
+            fields.add(ascii(TAG_SUBSEC_TIME_ORIGINAL, String.format(Locale.US, "%03d", utcNs / 1_000_000L % 1000)));
+        }
+        return fields;
+    }
+
+    private static Field ascii(int tag, String s) {
+        byte[] chars = s.getBytes(StandardCharsets.US_ASCII);
+        byte[] value = new byte[chars.length + 1];
+        System.arraycopy(chars, 0, value, 0, chars.length);
+        return new Field(tag, TYPE_ASCII, value);
+    }
+
+    /**
+     * 独立的 TIFF 数据（大端）：IFD0 只含 Exif IFD 指针
+     */
+    private byte[] tiff() {
+        List<Field> fields = exifFields();
+        int exifIfd = 8 + ifdSize(1);
+        int size = exifIfd + ifdSize(fields.size()) + dataSize(fields);
+        ByteBuffer b = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        b.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        b.putShort((short) 1);
+        writeEntry(b, TAG_EXIF_IFD, TYPE_LONG, 1, exifIfd);
+        b.putInt(0);
+        writeIfd(b, exifIfd, new ArrayList<>(), fields, 0);
+        return b.array();
+    }
+
+    /**
+     * 与已有的 TIFF 数据合并：原数据原样保留，新的 IFD 追加在末尾。结果超出 maxSize（例如 APP1 段上限）时返回 null
+     */
+    private byte[] merge(ByteBuffer src, int start, int end, int maxSize) {
+        ByteBuffer t = ByteBuffer.allocate(end - start);
+        for (int i = 0; i < t.capacity(); i++) t.put(i, src.get(start + i));
+        try {
+            if (t.get(0) == 'I' && t.get(1) == 'I') t.order(ByteOrder.LITTLE_ENDIAN);
+            else if (t.get(0) != 'M' || t.get(1) != 'M') throw new IllegalStateException("Bad TIFF byte order");
+            int ifd0 = t.getInt(4);
+            List<byte[]> ifd0Entries = readEntries(t, ifd0);
+            int ifd0Next = t.getInt(ifd0 + 2 + ifd0Entries.size() * 12);
+            int exifPointer = -1;
+            for (int i = 0; i < ifd0Entries.size(); i++) {
+                if (tagOf(ifd0Entries.get(i), t.order()) == TAG_EXIF_IFD) exifPointer = ifd0 + 2 + i * 12;
+            }
+            List<byte[]> exifEntries = exifPointer >= 0 ? readEntries(t, t.getInt(exifPointer + 8)) : new ArrayList<>();
+            List<Field> fields = exifFields();
+            for (Field f : fields) {
+                exifEntries.removeIf(e -> tagOf(e, t.order()) == f.tag);
+            }
+
+            int base = (t.capacity() + 1) & ~1; // IFD 须从偶数偏移开始
+            int newIfd0 = -1;
+            int exifIfd = base;
+            if (exifPointer < 0) {
+                newIfd0 = base;
+                exifIfd = base + ifdSize(ifd0Entries.size() + 1);
+            }
+            int size = exifIfd + ifdSize(exifEntries.size() + fields.size()) + dataSize(fields);
+            if (size > maxSize) {
+                Log.w(TAG, "Merged Exif exceeds " + maxSize + "B (" + size + "B), not injected");
+                return null;
+            }
+            ByteBuffer out = ByteBuffer.allocate(size).order(t.order());
+            out.put(t.array());
+            if (exifPointer >= 0) {
+                out.putInt(exifPointer + 8, exifIfd);
+            } else {
+                ByteBuffer pointer = ByteBuffer.allocate(12).order(t.order());
+                writeEntry(pointer, TAG_EXIF_IFD, TYPE_LONG, 1, exifIfd);
+                ifd0Entries.add(pointer.array());
+                ifd0Entries.sort((a, c) -> tagOf(a, t.order()) - tagOf(c, t.order()));
+                out.position(newIfd0);
+                out.putShort((short) ifd0Entries.size());
+                for (byte[] e : ifd0Entries) out.put(e);
+                out.putInt(ifd0Next);
+                out.putInt(4, newIfd0);
+            }
+            writeIfd(out, exifIfd, exifEntries, fields, 0);
+            return out.array();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Malformed HAL Exif (" + e.getMessage() + "), not injected");
+            return null;
+        }
+    }
+
+    /**
+     * 在 pos 处写一个 IFD：已有的原始条目（值偏移仍指向原数据）与新字段按标签排序，新字段的值紧跟在 IFD 之后
+     */
+    private static void writeIfd(ByteBuffer b, int pos, List<byte[]> raw, List<Field> fields, int next) {
+        List<byte[]> entries = new ArrayList<>(raw);
+        int data = pos + ifdSize(raw.size() + fields.size());
+        for (Field f : fields) {
+            ByteBuffer e = ByteBuffer.allocate(12).order(b.order());
+            if (f.value.length <= 4) {
+                e.putShort((short) f.tag).putShort((short) f.type).putInt(f.value.length).put(f.value);
+            } else {
+                writeEntry(e, f.tag, f.type, f.value.length, data);
+                b.position(data);
+                b.put(f.value);
+                data += (f.value.length + 1) & ~1;
+            }
+            entries.add(e.array());
+        }
+        entries.sort((x, y) -> tagOf(x, b.order()) - tagOf(y, b.order()));
+        b.position(pos);
+        b.putShort((short) entries.size());
+        for (byte[] e : entries) b.put(e);
+        b.putInt(next);
+    }
+
+    private static void writeEntry(ByteBuffer b, int tag, int type, int count, int value) {
+        b.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+    }
+
+    private static List<byte[]> readEntries(ByteBuffer t, int ifd) {
+        int count = t.getShort(ifd) & 0xFFFF;
+        if (ifd + 2 + count * 12 + 4 > t.capacity()) throw new IllegalStateException("IFD out of range");
+        List<byte[]> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] e = new byte[12];
+            for (int k = 0; k < 12; k++) e[k] = t.get(ifd + 2 + i * 12 + k);
+            entries.add(e);
+        }
+        return entries;
+    }
+
+    private static int tagOf(byte[] entry, ByteOrder order) {
+        return ByteBuffer.wrap(entry).order(order).getShort(0) & 0xFFFF;
+    }
+
+    private static int ifdSize(int entries) {
+        return 2 + entries * 12 + 4;
+    }
+
+    private static int dataSize(List<Field> fields) {
+        int size = 0;
+        for (Field f : fields) {
+            if (f.value.length > 4) size += (f.value.length + 1) & ~1;
+        }
+        return size;
+    }
+
+    // ---- JPEG 段 ----
+
+    private static boolean isExif(ByteBuffer b, int pos, int end) {
+        if (end - pos < EXIF_ID.length) return false;
+        for (int i = 0; i < EXIF_ID.length; i++) {
+            if (b.get(pos + i) != EXIF_ID[i]) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer segment(byte[] tiff) {
+        ByteBuffer seg = ByteBuffer.allocate(4 + EXIF_ID.length + tiff.length);
+        seg.putShort((short) 0xFFE1).putShort((short) (2 + EXIF_ID.length + tiff.length)).put(EXIF_ID).put(tiff).flip();
+        return seg;
+    }
+
+    /**
+     * jpeg[0, from) + segment + jpeg[to, limit)，前后两段是原缓冲的切片
+     */
+    private static ByteBuffer[] splice(ByteBuffer jpeg, int from, int to, ByteBuffer segment) {
+        ByteBuffer head = jpeg.duplicate();
+        head.position(0).limit(from);
+        ByteBuffer tail = jpeg.duplicate();
+        tail.position(to).limit(jpeg.limit());
+        return new ByteBuffer[]{head.slice(), segment, tail.slice()};
+    }
+}
@@ -0,0 +1,212 @@
+package com.kaspersigi.noui;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CaptureRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 一次拍照的配置（不可变）：输出格式 / 尺寸 / 张数 / ZSL 策略 / 降噪 / JPEG 质量 / 收敛策略。
+ *
+ * 文本形式为逗号分隔的 key=value，未写的字段取默认值，多个计划之间用分号分隔，例如：
+ * <pre>
+ *   format=heic,count=1;format=jpeg,count=5,zsl=still_nzsl,nr=off,q=95,size=4000x3000,converge=3a
+ * </pre>
+ */
+public final class CapturePlan {
+
+    /**
+     * ZSL 策略
+     */
+    public enum ZslStrategy {
+        STILL_ZSL,     // TEMPLATE_STILL_CAPTURE + CONTROL_ENABLE_ZSL=true（*ZSL*Activity）
+        STILL_NZSL,    // TEMPLATE_STILL_CAPTURE + CONTROL_ENABLE_ZSL=false（*NZSL*Activity）
+        PREVIEW_PACED, // 每个预览结果到达时提交一张静态请求（NeoBurst*Activity）
+        ZSL_TEMPLATE,  // TEMPLATE_ZERO_SHUTTER_LAG
+        AUTO           // 使用校准得到的当前摄像头最优策略（见 ZslStrategyStore）
+    }
+
+    /**
+     * 触发前的收敛条件
+     */
+    public enum Converge {
+        NONE, // 不等待
+        AE,   // AE CONVERGED / LOCKED
+        AE_AWB_AF // 3A 全部收敛
+    }
+
+    public static final int SIZE_LARGEST = 0;
+    public static final int NR_DEFAULT = -1; // 沿用模板默认值
+
+    public final int format;
+    public final int width;
+    public final int height;
+    public final int count;
+    public final ZslStrategy strategy;
+    public final int nrMode;
+    public final int jpegQuality;
+    public final Converge converge;
+
+    public CapturePlan(int format, int width, int height, int count, ZslStrategy strategy,
+                       int nrMode, int jpegQuality, Converge converge) {
+        if (format != ImageFormat.JPEG && format != ImageFormat.HEIC) {
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+        if (count <= 0) throw new IllegalArgumentException("count must be positive");
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.count = count;
+        this.strategy = strategy;
+        this.nrMode = nrMode;
+        this.jpegQuality = jpegQuality;
+        this.converge = converge;
+    }
+
+    /**
+     * 默认计划：最大尺寸 JPEG 单张，STILL_ZSL，NR 沿用模板，质量 90，等待 AE 收敛
+     */
+    public static CapturePlan defaults() {
+        return new CapturePlan(ImageFormat.JPEG, SIZE_LARGEST, SIZE_LARGEST, 1,
+                ZslStrategy.STILL_ZSL, NR_DEFAULT, 90, Converge.AE);
+    }
+
+    public CapturePlan withStrategy(ZslStrategy s) {
+        return new CapturePlan(format, width, height, count, s, nrMode, jpegQuality, converge);
+    }
+
+    /**
+     * 在本计划基础上覆盖一个字段
+     */
+    public CapturePlan with(String key, String value) {
+        int f = format, w = width, h = height, c = count, nr = nrMode, q = jpegQuality;
+        ZslStrategy s = strategy;
+        Converge cv = converge;
+        String v = value.trim().toLowerCase(Locale.US);
+        switch (key.trim().toLowerCase(Locale.US)) {
+            case "format":
+                if (v.equals("jpeg") || v.equals("jpg")) f = ImageFormat.JPEG;
+                else if (v.equals("heic")) f = ImageFormat.HEIC;
+                else throw new IllegalArgumentException("format: " + value);
+                break;
+            case "size":
+                if (v.equals("max")) {
+                    w = SIZE_LARGEST;
+                    h = SIZE_LARGEST;
+                } else {
+                    int x = v.indexOf('x');
+                    if (x <= 0) throw new IllegalArgumentException("size: " + value);
+                    w = Integer.parseInt(v.substring(0, x));
+                    h = Integer.parseInt(v.substring(x + 1));
+                }
+                break;
+            case "count":
+                c = Integer.parseInt(v);
+                break;
+            case "zsl":
+                s = ZslStrategy.valueOf(v.toUpperCase(Locale.US));
+                break;
+            case "nr":
+                nr = parseNr(v);
+                break;
+            case "q":
+            case "quality":
+                q = Integer.parseInt(v);
+                break;
+            case "converge":
+                if (v.equals("none")) cv = Converge.NONE;
+                else if (v.equals("ae")) cv = Converge.AE;
+                else if (v.equals("3a")) cv = Converge.AE_AWB_AF;
+                else throw new IllegalArgumentException("converge: " + value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown plan key " + key);
+        }
+        return new CapturePlan(f, w, h, c, s, nr, q, cv);
+    }
+
+    public static CapturePlan parse(String spec) {
+        CapturePlan plan = defaults();
+        for (String field : spec.split(",")) {
+            if (field.trim().isEmpty()) continue;
+            int eq = field.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Bad plan field '" + field + "'");
+            plan = plan.with(field.substring(0, eq), field.substring(eq + 1));
+        }
+        return plan;
+    }
+
+    public static List<CapturePlan> parseList(String spec) {
+        List<CapturePlan> plans = new ArrayList<>();
+        for (String s : spec.split(";")) {
+            if (!s.trim().isEmpty()) plans.add(parse(s));
+        }
+        return plans;
+    }
+
+    /**
+     * 展开参数矩阵：维度之间用分号分隔，同一维度的取值用 | 分隔，例如
+     * "format=jpeg|heic;count=1|5;zsl=still_zsl|still_nzsl" 展开为 8 个计划（笛卡尔积，未写的维度取默认值）
+     */
+    public static List<CapturePlan> expandMatrix(String spec) {
+        List<CapturePlan> plans = new ArrayList<>();
+        plans.add(defaults());
+        for (String dim : spec.split(";")) {
+            if (dim.trim().isEmpty()) continue;
+            int eq = dim.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Bad matrix dimension '" + dim + "'");
+            String key = dim.substring(0, eq);
+            List<CapturePlan> next = new ArrayList<>();
+            for (CapturePlan p : plans) {
+                for (String value : dim.substring(eq + 1).split("\\|")) {
+                    next.add(p.with(key, value));
+                }
+            }
+            plans = next;
+        }
+        return plans;
+    }
+
+    private static int parseNr(String v) {
+        switch (v) {
+            case "default": return NR_DEFAULT;
+            case "off": return CaptureRequest.NOISE_REDUCTION_MODE_OFF;
+            case "fast": return CaptureRequest.NOISE_REDUCTION_MODE_FAST;
+            case "hq": return CaptureRequest.NOISE_REDUCTION_MODE_HIGH_QUALITY;
+            case "minimal": return CaptureRequest.NOISE_REDUCTION_MODE_MINIMAL;
+            case "zsl": return CaptureRequest.NOISE_REDUCTION_MODE_ZERO_SHUTTER_LAG;
+            default: throw new IllegalArgumentException("nr: " + v);
+        }
+    }
+
+    private static String nrName(int nr) {
+        switch (nr) {
+            case CaptureRequest.NOISE_REDUCTION_MODE_OFF: return "off";
+            case CaptureRequest.NOISE_REDUCTION_MODE_FAST: return "fast";
+            case CaptureRequest.NOISE_REDUCTION_MODE_HIGH_QUALITY: return "hq";
+            case CaptureRequest.NOISE_REDUCTION_MODE_MINIMAL: return "minimal";
+            case CaptureRequest.NOISE_REDUCTION_MODE_ZERO_SHUTTER_LAG: return "zsl";
+            default: return "default";
+        }
+    }
+
+    public String extension() {
+        return format == ImageFormat.HEIC ? "heic" : "jpg";
+    }
+
+    /**
+     * 规范化的文本形式（可再次 parse），也用作报告中的键
+     */
+    @Override
+    public String toString() {
+        return "format=" + (format == ImageFormat.HEIC ? "heic" : "jpeg")
+                + ",size=" + (width == SIZE_LARGEST ? "max" : width + "x" + height)
+                + ",count=" + count
+                + ",zsl=" + strategy.name().toLowerCase(Locale.US)
+                + ",nr=" + nrName(nrMode)
+                + ",q=" + jpegQuality
+                + ",converge=" + (converge == Converge.AE_AWB_AF ? "3a" : converge.name().toLowerCase(Locale.US));
+    }
+}
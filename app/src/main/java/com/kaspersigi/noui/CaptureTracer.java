@@ -0,0 +1,291 @@
+package com.kaspersigi.noui;
+
+import android.hardware.camera2.CaptureResult;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 相机管线追踪器。
+ * 在 openBackCamera → onOpened → onConfigured → 预览结果 → 触发 → 提交 → onCaptureCompleted
+ * → onImageAvailable → 文件关闭 各阶段打点，同时：
+ * - 输出 android.os.Trace 段（systrace / Perfetto 在线抓取可见）
+ * - 记录到预分配的无锁缓冲区，运行结束后导出 Chrome Trace JSON（可直接拖入 ui.perfetto.dev）
+ *
+ * 写入路径只有一次 AtomicInteger 自增和几次数组赋值，不分配对象；缓冲区写满后丢弃新事件（计数）。
+ * 导出必须在所有写入线程静止之后进行（例如后台线程 join 之后）。
+ */
+public final class CaptureTracer {
+    private static final String TAG = "NoUI";
+
+    // 管线阶段（异步段：开始与结束可能在不同线程）
+    public static final String SECTION_OPEN = "openCamera";      // openBackCamera → onOpened
+    public static final String SECTION_CONFIGURE = "configure";  // createCaptureSession → onConfigured
+    public static final String SECTION_CONVERGE = "converge";    // onConfigured → 触发
+    public static final String SECTION_CAPTURE = "capture";      // 触发 → 最后一个 onCaptureCompleted
+    public static final String SECTION_SAVE = "saveImage";       // 单帧写文件
+
+    // 瞬时事件
+    public static final String EVENT_PREVIEW_RESULT = "previewResult";
+    public static final String EVENT_TRIGGER = "trigger";
+    public static final String EVENT_SUBMIT = "submit";
+    public static final String EVENT_CAPTURE_COMPLETED = "captureCompleted";
+    public static final String EVENT_IMAGE_AVAILABLE = "imageAvailable";
+    public static final String EVENT_FILE_CLOSED = "fileClosed";
+
+    // 单帧延迟分解（导出到独立的 "frames" 轨道）
+    private static final String FRAME_EXPOSURE_TO_RESULT = "sensor→result";
+    private static final String FRAME_RESULT_TO_IMAGE = "result→image";
+    private static final String FRAME_QUEUE = "image→acquire";
+    private static final String FRAME_COPY = "copy";
+    private static final String FRAME_WRITE = "write+close";
+
+    private static final byte PH_BEGIN = 'b';
+    private static final byte PH_END = 'e';
+    private static final byte PH_INSTANT = 'i';
+    private static final byte PH_COMPLETE = 'X';
+    private static final byte PH_COUNTER = 'C';
+
+    private static final int FRAME_TRACK_TID = 1 << 20;
+    private static final int RESULT_SLOTS = 64; // 2 的幂
+
+    private static final AtomicInteger sInstanceIds = new AtomicInteger();
+
+    private final int mCapacity;
+    private final byte[] mPhase;
+    private final String[] mName;
+    private final long[] mTsNs;
+    private final long[] mDurNs;
+    private final long[] mArg;
+    private final int[] mTid;
+    private final AtomicInteger mCursor = new AtomicInteger();
+    private final AtomicInteger mDropped = new AtomicInteger();
+    private final AtomicBoolean mExported = new AtomicBoolean();
+    private final int mInstanceId = sInstanceIds.incrementAndGet();
+
+    // 结果到达时间（按传感器时间戳索引），用于单帧延迟分解；仅在相机回调线程读写
+    private final long[] mResultSensorTs = new long[RESULT_SLOTS];
+    private final long[] mResultArrivalNs = new long[RESULT_SLOTS];
+    private int mResultCursor = 0;
+
+    // 已开始未结束的段（相机丢失时统一结束）；只在相机后台线程上修改
+    private final String[] mOpenSections = new String[8];
+
+    // 传感器时间戳 ↔ elapsedRealtimeNanos 的映射；未设置时按同一基准处理
+    private volatile SensorClock mClock;
+
+    public CaptureTracer(int capacity) {
+        mCapacity = capacity;
+        mPhase = new byte[capacity];
+        mName = new String[capacity];
+        mTsNs = new long[capacity];
+        mDurNs = new long[capacity];
+        mArg = new long[capacity];
+        mTid = new int[capacity];
+    }
+
+    /**
+     * 使用调用方的 SensorClock 换算传感器时间戳，trace、触发时刻与 frames.csv 的 UTC 列共用同一份校准
+     */
+    public void setClock(SensorClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * 根据 SENSOR_INFO_TIMESTAMP_SOURCE 建立自己的 SensorClock（调用方没有 SensorClock 时）
+     */
+    public void setTimestampSource(Integer source) {
+        mClock = new SensorClock(source);
+    }
+
+    public long sensorToRealtimeNs(long sensorTs) {
+        SensorClock clock = mClock;
+        return clock != null ? clock.sensorToRealtimeNs(sensorTs) : sensorTs;
+    }
+
+    public long realtimeToSensorNs(long realtimeNs) {
+        SensorClock clock = mClock;
+        return clock != null ? clock.realtimeToSensorNs(realtimeNs) : realtimeNs;
+    }
+
+    public void begin(String section) {
+        Trace.beginAsyncSection(section, cookie(section));
+        record(PH_BEGIN, section, SystemClock.elapsedRealtimeNanos(), 0, 0, Process.myTid());
+        for (int i = 0; i < mOpenSections.length; i++) {
+            if (mOpenSections[i] == null) {
+                mOpenSections[i] = section;
+                break;
+            }
+        }
+    }
+
+    public void end(String section) {
+        Trace.endAsyncSection(section, cookie(section));
+        record(PH_END, section, SystemClock.elapsedRealtimeNanos(), 0, 0, Process.myTid());
+        for (int i = 0; i < mOpenSections.length; i++) {
+            if (section.equals(mOpenSections[i])) {
+                mOpenSections[i] = null;
+                break;
+            }
+        }
+    }
+
+    /**
+     * 结束所有已开始未结束的段（例如相机断开，当前阶段被打断）
+     */
+    public void endOpenSections() {
+        for (int i = 0; i < mOpenSections.length; i++) {
+            if (mOpenSections[i] != null) end(mOpenSections[i]);
+        }
+    }
+
+    public void instant(String name, long arg) {
+        record(PH_INSTANT, name, SystemClock.elapsedRealtimeNanos(), 0, arg, Process.myTid());
+    }
+
+    public void counter(String name, long value) {
+        Trace.setCounter(name, value);
+        record(PH_COUNTER, name, SystemClock.elapsedRealtimeNanos(), 0, value, Process.myTid());
+    }
+
+    /**
+     * 记录某一帧 TotalCaptureResult 的到达时间
+     */
+    public void markResult(CaptureResult result) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        long sensorTs = ts != null ? ts : -1;
+        int slot = mResultCursor++ & (RESULT_SLOTS - 1);
+        mResultSensorTs[slot] = sensorTs;
+        mResultArrivalNs[slot] = now;
+        instant(EVENT_CAPTURE_COMPLETED, sensorTs);
+    }
+
+    /**
+     * 单帧落盘完成：输出从传感器曝光到文件关闭的完整延迟分解
+     *
+     * @param sensorTs    Image.getTimestamp()
+     * @param availableNs onImageAvailable 回调时刻
+     * @param acquiredNs  acquire 完成、开始拷贝的时刻
+     * @param writeNs     开始写文件的时刻
+     * @param closedNs    文件关闭的时刻
+     */
+    public void frameSaved(long sensorTs, long availableNs, long acquiredNs, long writeNs, long closedNs, long bytes) {
+        long exposureNs = sensorToRealtimeNs(sensorTs);
+        long resultNs = lookupResult(sensorTs);
+        int tid = FRAME_TRACK_TID;
+
+        if (resultNs > 0) {
+            record(PH_COMPLETE, FRAME_EXPOSURE_TO_RESULT, exposureNs, resultNs - exposureNs, sensorTs, tid);
+            record(PH_COMPLETE, FRAME_RESULT_TO_IMAGE, resultNs, availableNs - resultNs, sensorTs, tid);
+        }
+        record(PH_COMPLETE, FRAME_QUEUE, availableNs, acquiredNs - availableNs, sensorTs, tid);
+        record(PH_COMPLETE, FRAME_COPY, acquiredNs, writeNs - acquiredNs, sensorTs, tid);
+        record(PH_COMPLETE, FRAME_WRITE, writeNs, closedNs - writeNs, bytes, tid);
+        instant(EVENT_FILE_CLOSED, sensorTs);
+
+        StringBuilder sb = new StringBuilder("Frame latency ts=").append(sensorTs).append(": ");
+        if (resultNs > 0) {
+            sb.append("sensor→result=").append(toMs(resultNs - exposureNs)).append("ms, ");
+            sb.append("result→image=").append(toMs(availableNs - resultNs)).append("ms, ");
+        }
+        sb.append("queue=").append(toMs(acquiredNs - availableNs)).append("ms, ");
+        sb.append("copy=").append(toMs(writeNs - acquiredNs)).append("ms, ");
+        sb.append("write=").append(toMs(closedNs - writeNs)).append("ms, ");
+        sb.append("total=").append(toMs(closedNs - exposureNs)).append("ms, ");
+        sb.append("bytes=").append(bytes);
+        Log.d(TAG, sb.toString());
+    }
+
+    /**
+     * 导出 Chrome Trace JSON（只导出一次）。调用方需保证所有写入线程已静止。
+     */
+    public void exportOnce(File dir) {
+        if (!mExported.compareAndSet(false, true)) return;
+        int count = Math.min(mCursor.get(), mCapacity);
+        if (count == 0) return;
+
+        dir.mkdirs();
+        File file = new File(dir, "trace_" + System.currentTimeMillis() + ".json");
+        int pid = Process.myPid();
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            w.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            w.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"tid\":" + FRAME_TRACK_TID
+                    + ",\"args\":{\"name\":\"frames\"}}");
+            for (int i = 0; i < count; i++) {
+                w.write(",\n{\"name\":\"");
+                w.write(mName[i]);
+                w.write("\",\"cat\":\"camera\",\"ph\":\"");
+                w.write((char) mPhase[i]);
+                w.write("\",\"ts\":");
+                w.write(toUs(mTsNs[i]));
+                w.write(",\"pid\":" + pid + ",\"tid\":" + mTid[i]);
+                switch (mPhase[i]) {
+                    case PH_BEGIN:
+                    case PH_END:
+                        w.write(",\"id\":" + cookie(mName[i]));
+                        break;
+                    case PH_COMPLETE:
+                        w.write(",\"dur\":" + toUs(Math.max(0, mDurNs[i])) + ",\"args\":{\"arg\":" + mArg[i] + "}");
+                        break;
+                    case PH_COUNTER:
+                        w.write(",\"args\":{\"value\":" + mArg[i] + "}");
+                        break;
+                    default:
+                        w.write(",\"s\":\"t\",\"args\":{\"arg\":" + mArg[i] + "}");
+                        break;
+                }
+                w.write('}');
+            }
+            w.write("\n]}\n");
+            Log.d(TAG, "Trace exported: " + file.getAbsolutePath() + " (" + count + " events, "
+                    + mDropped.get() + " dropped)");
+        } catch (Exception e) {
+            Log.e(TAG, "Trace export failed", e);
+        }
+    }
+
+    private void record(byte phase, String name, long tsNs, long durNs, long arg, int tid) {
+        int slot = mCursor.getAndIncrement();
+        if (slot >= mCapacity) {
+            mDropped.incrementAndGet();
+            return;
+        }
+        mPhase[slot] = phase;
+        mName[slot] = name;
+        mTsNs[slot] = tsNs;
+        mDurNs[slot] = durNs;
+        mArg[slot] = arg;
+        mTid[slot] = tid;
+    }
+
+    private long lookupResult(long sensorTs) {
+        for (int i = 0; i < RESULT_SLOTS; i++) {
+            if (mResultSensorTs[i] == sensorTs) return mResultArrivalNs[i];
+        }
+        return -1;
+    }
+
+    private int cookie(String section) {
+        return mInstanceId * 31 + section.hashCode();
+    }
+
+    private static String toUs(long ns) {
+        return (ns / 1000) + "." + String.format(Locale.US, "%03d", ns % 1000);
+    }
+
+    private static String toMs(long ns) {
+        return String.format(Locale.US, "%.2f", ns / 1_000_000.0);
+    }
+}
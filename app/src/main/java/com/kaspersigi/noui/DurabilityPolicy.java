@@ -0,0 +1,211 @@
+package com.kaspersigi.noui;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 输出文件的持久化策略：写入完成的文件交给专用线程批量 fsync，拍照路径上只做一次入队。
+ * - NONE：不 fsync，只依赖内核回写（掉电 / 崩溃可能丢失最近约 30s 的数据）
+ * - BURST：整组连拍结束（endBurst / close）时一次性同步本组所有文件
+ * - FRAME：每帧写完后尽快同步；同步线程忙时到达的多帧合并为一批，同一文件（连拍包）只同步一次
+ * - DIRECTORY：FRAME 之外再同步每批涉及的父目录，保证新建文件的目录项也已落盘
+ *
+ * 指标：frame_sync_us 为单个文件 fsync 的耗时；write_to_durable_us 为写入完成到数据落盘的延迟
+ * （FRAME / DIRECTORY 下衡量每帧，BURST 下衡量整组）；fsyncs 为实际 fsync 次数。
+ * 同步线程在第一次需要同步时才创建，NONE 下（默认）从不创建。所有公开方法可在任意线程调用。
+ */
+public final class DurabilityPolicy {
+    private static final String TAG = "NoUI";
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    public enum Level {
+        NONE, BURST, FRAME, DIRECTORY;
+
+        /**
+         * 解析 none / burst / frame / dir（大小写不敏感），无法识别时返回 NONE
+         */
+        public static Level parse(String spec) {
+            if (spec == null) return NONE;
+            switch (spec.trim().toLowerCase(Locale.US)) {
+                case "burst":
+                    return BURST;
+                case "frame":
+                    return FRAME;
+                case "dir":
+                case "directory":
+                    return DIRECTORY;
+                case "none":
+                    return NONE;
+                default:
+                    Log.w(TAG, "Unknown durability level '" + spec + "', using none");
+                    return NONE;
+            }
+        }
+    }
+
+    private static final class Pending {
+        final File file;
+        final long writtenNs;
+
+        Pending(File file, long writtenNs) {
+            this.file = file;
+            this.writtenNs = writtenNs;
+        }
+    }
+
+    private final Level mLevel;
+    private final PipelineMetrics.Run mRun;
+    private final List<Pending> mPending = new ArrayList<>();
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private boolean mDrainPosted = false;
+
+    private final Runnable mDrain = this::drain;
+
+    public DurabilityPolicy(Level level, PipelineMetrics.Run run) {
+        mLevel = level;
+        mRun = run;
+    }
+
+    public Level level() {
+        return mLevel;
+    }
+
+    /**
+     * 一个文件（或连拍包的一次追加）已写完；FRAME / DIRECTORY 下立即安排同步
+     */
+    public void onWritten(File file) {
+        if (mLevel == Level.NONE) return;
+        synchronized (mPending) {
+            mPending.add(new Pending(file, SystemClock.elapsedRealtimeNanos()));
+            if (mLevel == Level.BURST || mDrainPosted) return;
+            mDrainPosted = true;
+        }
+        handler().post(mDrain);
+    }
+
+    /**
+     * 一组连拍结束：同步尚未同步的全部文件（异步进行）
+     */
+    public void endBurst() {
+        if (mLevel == Level.NONE) return;
+        synchronized (mPending) {
+            if (mPending.isEmpty() || mDrainPosted) return;
+            mDrainPosted = true;
+        }
+        handler().post(mDrain);
+    }
+
+    /**
+     * 同步剩余文件并等待完成（最多 CLOSE_TIMEOUT_MS），随后结束同步线程
+     */
+    public void close() {
+        if (mLevel == Level.NONE) return;
+        HandlerThread thread;
+        synchronized (this) {
+            if (mThread == null) {
+                // 从未需要同步时线程也不会被创建
+                synchronized (mPending) {
+                    if (mPending.isEmpty()) return;
+                }
+            }
+            handler().post(mDrain);
+            thread = mThread;
+            mThread = null;
+            mHandler = null;
+        }
+        thread.quitSafely();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private synchronized Handler handler() {
+        if (mHandler == null) {
+            mThread = new HandlerThread("Syncer");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        return mHandler;
+    }
+
+    private void drain() {
+        List<Pending> batch;
+        synchronized (mPending) {
+            mDrainPosted = false;
+            if (mPending.isEmpty()) return;
+            batch = new ArrayList<>(mPending);
+            mPending.clear();
+        }
+        Set<File> files = new LinkedHashSet<>();
+        Set<File> dirs = new LinkedHashSet<>();
+        for (Pending p : batch) {
+            files.add(p.file);
+            if (mLevel == Level.DIRECTORY && p.file.getParentFile() != null) dirs.add(p.file.getParentFile());
+        }
+        for (File file : files) {
+            long startNs = SystemClock.elapsedRealtimeNanos();
+            try (FileInputStream in = new FileInputStream(file)) {
+                in.getFD().sync();
+            } catch (IOException e) {
+                Log.e(TAG, "fsync failed: " + file.getAbsolutePath(), e);
+                continue;
+            }
+            mRun.sample(PipelineMetrics.HIST_FRAME_SYNC, (SystemClock.elapsedRealtimeNanos() - startNs) / 1000);
+            mRun.count(PipelineMetrics.COUNTER_FSYNCS, 1);
+        }
+        for (File dir : dirs) {
+            syncDirectory(dir);
+        }
+        long doneNs = SystemClock.elapsedRealtimeNanos();
+        for (Pending p : batch) {
+            mRun.sample(PipelineMetrics.HIST_WRITE_TO_DURABLE, (doneNs - p.writtenNs) / 1000);
+        }
+    }
+
+    private void syncDirectory(File dir) {
+        if (fsyncDirectory(dir)) mRun.count(PipelineMetrics.COUNTER_FSYNCS, 1);
+    }
+
+    /**
+     * fsync 目录本身，使其中新建（或改名进来）的目录项落盘
+     *
+     * @return 成功时返回 true
+     */
+    static boolean fsyncDirectory(File dir) {
+        FileDescriptor fd = null;
+        try {
+            fd = Os.open(dir.getPath(), OsConstants.O_RDONLY | OsConstants.O_DIRECTORY, 0);
+            Os.fsync(fd);
+            return true;
+        } catch (ErrnoException e) {
+            Log.e(TAG, "Directory fsync failed: " + dir.getAbsolutePath(), e);
+            return false;
+        } finally {
+            if (fd != null) {
+                try {
+                    Os.close(fd);
+                } catch (ErrnoException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.kaspersigi.noui;
+
+import android.hardware.camera2.CaptureResult;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 按传感器时间戳把 TotalCaptureResult 与 Image 关联起来的元数据表。
+ * - 结构数组（SoA）：每个字段一个原始类型数组，固定容量环形复用，回调线程上不产生长期对象
+ * - 以 Image.getTimestamp() == SENSOR_TIMESTAMP 为键，通过 {@link LongIndexMap} 查槽位
+ * - 结果与图像到达顺序不定：先到的图像会挂起，等结果到达后再完成关联
+ * - 关联成功的帧写入同目录下的 frames.csv（文件名 → 帧号 / 时间戳 / 曝光 / ISO / 3A / 镜头状态 /
+ *   编码输出的 CRC32C 与完整性检查结果，见 {@link FrameVerifier}；未校验的帧后两列为空）
+ *
+ * CaptureResult.get() 本身返回装箱值，这里只在快照时读一次并立即拆箱，不再保存任何包装对象。
+ * 非线程安全：所有调用都应在相机后台线程上进行。
+ */
+public final class FrameMetadataStore {
+    private static final String TAG = "NoUI";
+    static final String INDEX_FILE = "frames.csv";
+
+    public static final int STATE_UNKNOWN = -1;
+
+    private final int mCapacity;
+    private final long[] mFrameNumber;
+    private final long[] mSensorTs;
+    private final long[] mExposureNs;
+    private final int[] mIso;
+    private final byte[] mAeState;
+    private final byte[] mAwbState;
+    private final byte[] mAfState;
+    private final byte[] mLensState;
+    private final LongIndexMap mIndex;
+    private int mNext = 0;
+
+    // 先于结果到达的图像：时间戳 → 待关联文件
+    private final long[] mPendingTs;
+    private final File[] mPendingFile;
+    private final int[] mPendingCrc;
+    private final String[] mPendingIntegrity;
+
+    private Writer mCsv;
+
+    public FrameMetadataStore(int capacity) {
+        mCapacity = capacity;
+        mFrameNumber = new long[capacity];
+        mSensorTs = new long[capacity];
+        mExposureNs = new long[capacity];
+        mIso = new int[capacity];
+        mAeState = new byte[capacity];
+        mAwbState = new byte[capacity];
+        mAfState = new byte[capacity];
+        mLensState = new byte[capacity];
+        mIndex = new LongIndexMap(capacity);
+        mPendingTs = new long[capacity];
+        mPendingFile = new File[capacity];
+        mPendingCrc = new int[capacity];
+        mPendingIntegrity = new String[capacity];
+    }
+
+    /**
+     * 快照一帧结果。容量满时覆盖最旧的一帧。
+     *
+     * @return 槽位；结果没有 SENSOR_TIMESTAMP 时返回 -1
+     */
+    public int record(CaptureResult result) {
+        Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (ts == null) return -1;
+
+        int slot = mNext;
+        mNext = (mNext + 1) % mCapacity;
+        if (mSensorTs[slot] != 0) mIndex.remove(mSensorTs[slot]);
+
+        mFrameNumber[slot] = result.getFrameNumber();
+        mSensorTs[slot] = ts;
+        mExposureNs[slot] = unboxLong(result.get(CaptureResult.SENSOR_EXPOSURE_TIME));
+        mIso[slot] = unboxInt(result.get(CaptureResult.SENSOR_SENSITIVITY));
+        mAeState[slot] = (byte) unboxInt(result.get(CaptureResult.CONTROL_AE_STATE));
+        mAwbState[slot] = (byte) unboxInt(result.get(CaptureResult.CONTROL_AWB_STATE));
+        mAfState[slot] = (byte) unboxInt(result.get(CaptureResult.CONTROL_AF_STATE));
+        mLensState[slot] = (byte) unboxInt(result.get(CaptureResult.LENS_STATE));
+        mIndex.put(ts, slot);
+
+        for (int i = 0; i < mCapacity; i++) {
+            if (mPendingFile[i] != null && mPendingTs[i] == ts) {
+                writeRow(slot, mPendingFile[i], mPendingCrc[i], mPendingIntegrity[i]);
+                mPendingFile[i] = null;
+                mPendingIntegrity[i] = null;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return 时间戳对应的槽位；尚未收到结果时返回 -1
+     */
+    public int indexOf(long sensorTs) {
+        return mIndex.get(sensorTs);
+    }
+
+    /**
+     * 把已保存的文件与其结果关联；结果未到达时挂起，等 {@link #record} 时再写出
+     */
+    public void bindFile(long sensorTs, File file) {
+        bindFile(sensorTs, file, 0, null);
+    }
+
+    /**
+     * 同 {@link #bindFile(long, File)}，并记录编码输出的 CRC32C 与完整性检查结果（integrity 为 null 表示未校验）
+     */
+    public void bindFile(long sensorTs, File file, int crc, String integrity) {
+        int slot = mIndex.get(sensorTs);
+        if (slot >= 0) {
+            writeRow(slot, file, crc, integrity);
+            return;
+        }
+        for (int i = 0; i < mCapacity; i++) {
+            if (mPendingFile[i] == null) {
+                mPendingTs[i] = sensorTs;
+                mPendingFile[i] = file;
+                mPendingCrc[i] = crc;
+                mPendingIntegrity[i] = integrity;
+                return;
+            }
+        }
+        Log.w(TAG, "No metadata for " + file.getName() + " (ts=" + sensorTs + ")");
+    }
+
+    public long frameNumber(int slot) {
+        return mFrameNumber[slot];
+    }
+
+    public long sensorTimestamp(int slot) {
+        return mSensorTs[slot];
+    }
+
+    public long exposureNs(int slot) {
+        return mExposureNs[slot];
+    }
+
+    public int iso(int slot) {
+        return mIso[slot];
+    }
+
+    public int aeState(int slot) {
+        return mAeState[slot];
+    }
+
+    public int awbState(int slot) {
+        return mAwbState[slot];
+    }
+
+    public int afState(int slot) {
+        return mAfState[slot];
+    }
+
+    public int lensState(int slot) {
+        return mLensState[slot];
+    }
+
+    public void close() {
+        for (int i = 0; i < mCapacity; i++) {
+            if (mPendingFile[i] != null) {
+                Log.w(TAG, "No metadata for " + mPendingFile[i].getName() + " (ts=" + mPendingTs[i] + ")");
+                mPendingFile[i] = null;
+                mPendingIntegrity[i] = null;
+            }
+        }
+        if (mCsv != null) {
+            try {
+                mCsv.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close " + INDEX_FILE, e);
+            }
+            mCsv = null;
+        }
+    }
+
+    private void writeRow(int slot, File file, int crc, String integrity) {
+        try {
+            if (mCsv == null) {
+                File csv = new File(file.getParentFile(), INDEX_FILE);
+                boolean header = !csv.exists();
+                mCsv = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv, true), StandardCharsets.UTF_8));
+                if (header) {
+                    mCsv.write("file,frame_number,sensor_timestamp,exposure_ns,iso,ae_state,awb_state,af_state,lens_state,crc32c,integrity\n");
+                }
+            }
+            mCsv.write(file.getName());
+            mCsv.write(',');
+            mCsv.write(Long.toString(mFrameNumber[slot]));
+            mCsv.write(',');
+            mCsv.write(Long.toString(mSensorTs[slot]));
+            mCsv.write(',');
+            mCsv.write(Long.toString(mExposureNs[slot]));
+            mCsv.write(',');
+            mCsv.write(Integer.toString(mIso[slot]));
+            mCsv.write(',');
+            mCsv.write(Integer.toString(mAeState[slot]));
+            mCsv.write(',');
+            mCsv.write(Integer.toString(mAwbState[slot]));
+            mCsv.write(',');
+            mCsv.write(Integer.toString(mAfState[slot]));
+            mCsv.write(',');
+            mCsv.write(Integer.toString(mLensState[slot]));
+            mCsv.write(',');
+            if (integrity != null) {
+                mCsv.write(String.format(Locale.US, "%08x", crc));
+                mCsv.write(',');
+                mCsv.write(integrity);
+            } else {
+                mCsv.write(',');
+            }
+            mCsv.write('\n');
+            mCsv.flush();
+            Log.d(TAG, "Frame meta " + file.getName() + ": #" + mFrameNumber[slot] + ", exposure="
+                    + mExposureNs[slot] + "ns, ISO=" + mIso[slot]);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + INDEX_FILE, e);
+        }
+    }
+
+    private static long unboxLong(Long v) {
+        return v != null ? v : -1;
+    }
+
+    private static int unboxInt(Integer v) {
+        return v != null ? v : STATE_UNKNOWN;
+    }
+}
@@ -0,0 +1,296 @@
+package com.kaspersigi.noui;
+
+import android.graphics.ImageFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 编码帧的完整性校验：在写出之前对仍驻留在内存中的 HAL 缓冲区做一遍检查。
+ * - JPEG：SOI 开头；标记段长度不越界；至少一个 SOF 与 SOS；熵编码数据中只出现填充 / RST 标记；以 EOI 结束
+ *   （EOI 之后的填充字节允许存在）
+ * - HEIC：顶层 box 头部逐个衔接到缓冲区末尾，第一个是 ftyp，且包含 meta 与 mdat
+ * - 同时计算整个缓冲区的 CRC32C（Castagnoli），即编码器输出的校验和；写入时注入的 Exif 不在其中，
+ *   连拍包与多图容器里的帧数据与之逐字节相同
+ *
+ * 单遍：按 CHUNK_BYTES 分块，每块先算 CRC 再推进结构检查，两者读的是同一块仍在缓存中的数据；
+ * 结构检查只逐字节扫描熵编码数据，标记段与 box 负载直接跳过。
+ * 非线程安全：每个实例只在一个线程上使用，结果在下一次 verify() 之前有效。
+ */
+public final class FrameVerifier {
+    private static final int CHUNK_BYTES = 32 << 10;
+
+    // frames.csv 中的问题代码；null 表示完整
+    public static final String PROBLEM_NO_SOI = "no_soi";
+    public static final String PROBLEM_BAD_MARKER = "bad_marker";
+    public static final String PROBLEM_NO_FRAME = "no_frame";
+    public static final String PROBLEM_NO_EOI = "no_eoi";
+    public static final String PROBLEM_TRUNCATED = "truncated";
+    public static final String PROBLEM_BAD_BOX = "bad_box";
+    public static final String PROBLEM_NO_FTYP = "no_ftyp";
+    public static final String PROBLEM_MISSING_BOX = "missing_box";
+    public static final String PROBLEM_EMPTY = "empty";
+
+    // CRC32C 反射多项式，slicing-by-8 查找表（8 × 256）
+    private static final int[] CRC_TABLE = new int[8 * 256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+            CRC_TABLE[n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            int c = CRC_TABLE[n];
+            for (int t = 1; t < 8; t++) {
+                c = (c >>> 8) ^ CRC_TABLE[c & 0xFF];
+                CRC_TABLE[t * 256 + n] = c;
+            }
+        }
+    }
+
+    // JPEG 解析状态
+    private static final int JPEG_START = 0;
+    private static final int JPEG_MARKER = 1;
+    private static final int JPEG_ENTROPY = 2;
+    private static final int JPEG_DONE = 3;
+
+    private ByteBuffer mBuf;
+    private int mEnd;
+    private int mPos;
+    private int mState;
+    private boolean mSawFrame;
+    private boolean mSawScan;
+    private boolean mSawMeta;
+    private boolean mSawMdat;
+    private int mCrc;
+    private String mProblem;
+    private long mLength;
+
+    /**
+     * 校验 buffer 的 [position, limit)，不改变其 position
+     *
+     * @param format ImageFormat.JPEG / ImageFormat.HEIC；其他格式只计算 CRC
+     * @return 结构完整时返回 true
+     */
+    public boolean verify(ByteBuffer buffer, int format) {
+        mBuf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = mBuf.position();
+        mEnd = mBuf.limit();
+        mLength = mEnd - start;
+        mPos = start;
+        mState = JPEG_START;
+        mSawFrame = mSawScan = mSawMeta = mSawMdat = false;
+        mProblem = mLength == 0 ? PROBLEM_EMPTY : null;
+
+        int crc = ~0;
+        for (int chunk = start; chunk < mEnd; chunk += CHUNK_BYTES) {
+            int chunkEnd = Math.min(mEnd, chunk + CHUNK_BYTES);
+            crc = crc(crc, mBuf, chunk, chunkEnd);
+            if (mProblem != null) continue;
+            if (format == ImageFormat.JPEG) {
+                scanJpeg(chunkEnd);
+            } else if (format == ImageFormat.HEIC) {
+                scanBoxes(chunkEnd);
+            }
+        }
+        mCrc = ~crc;
+        if (mProblem == null) finish(format);
+        mBuf = null;
+        return mProblem == null;
+    }
+
+    public int crc() {
+        return mCrc;
+    }
+
+    public long length() {
+        return mLength;
+    }
+
+    /**
+     * @return 上一次校验发现的问题代码，完整时为 null
+     */
+    public String problem() {
+        return mProblem;
+    }
+
+    /**
+     * frames.csv 的 integrity 列："ok" 或问题代码
+     */
+    public String status() {
+        return mProblem != null ? mProblem : "ok";
+    }
+
+    private void finish(int format) {
+        if (format == ImageFormat.JPEG) {
+            if (mState == JPEG_START) {
+                mProblem = PROBLEM_NO_SOI;
+            } else if (mState != JPEG_DONE) {
+                mProblem = mPos > mEnd ? PROBLEM_TRUNCATED : PROBLEM_NO_EOI;
+            } else if (!mSawFrame || !mSawScan) {
+                mProblem = PROBLEM_NO_FRAME;
+            }
+        } else if (format == ImageFormat.HEIC) {
+            if (mPos > mEnd) {
+                mProblem = PROBLEM_TRUNCATED;
+            } else if (mPos < mEnd) {
+                mProblem = PROBLEM_BAD_BOX;   // 末尾剩下不足一个 box 头的字节
+            } else if (!mSawMeta || !mSawMdat) {
+                mProblem = PROBLEM_MISSING_BOX;
+            }
+        }
+    }
+
+    /**
+     * 推进 JPEG 解析直到 limit；标记段头跨块时留到下一块（最后一块时 limit == mEnd）
+     */
+    private void scanJpeg(int limit) {
+        ByteBuffer b = mBuf;
+        while (mPos < limit && mProblem == null) {
+            switch (mState) {
+                case JPEG_START:
+                    if (mPos + 2 > limit) return;
+                    if ((b.get(mPos) & 0xFF) != 0xFF || (b.get(mPos + 1) & 0xFF) != 0xD8) {
+                        mProblem = PROBLEM_NO_SOI;
+                        return;
+                    }
+                    mPos += 2;
+                    mState = JPEG_MARKER;
+                    break;
+                case JPEG_MARKER: {
+                    if (mPos + 2 > limit) return;
+                    if ((b.get(mPos) & 0xFF) != 0xFF) {
+                        mProblem = PROBLEM_BAD_MARKER;
+                        return;
+                    }
+                    int marker = b.get(mPos + 1) & 0xFF;
+                    if (marker == 0xFF) {            // 填充字节
+                        mPos++;
+                        break;
+                    }
+                    if (marker == 0xD9) {            // EOI
+                        mPos += 2;
+                        mState = JPEG_DONE;
+                        return;
+                    }
+                    if (marker == 0x00 || marker == 0xD8) {
+                        mProblem = PROBLEM_BAD_MARKER;
+                        return;
+                    }
+                    if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {   // 无长度的标记
+                        mPos += 2;
+                        break;
+                    }
+                    if (mPos + 4 > limit) {
+                        if (limit == mEnd) mPos = mEnd + 1;   // 段头被截断
+                        return;
+                    }
+                    int length = ((b.get(mPos + 2) & 0xFF) << 8) | (b.get(mPos + 3) & 0xFF);
+                    if (length < 2) {
+                        mProblem = PROBLEM_BAD_MARKER;
+                        return;
+                    }
+                    // SOF0..SOF15（C4 DHT、C8 JPG、CC DAC 除外）
+                    if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                        mSawFrame = true;
+                    }
+                    mPos += 2 + length;
+                    if (marker == 0xDA) {
+                        mSawScan = true;
+                        mState = JPEG_ENTROPY;
+                    }
+                    break;
+                }
+                case JPEG_ENTROPY: {
+                    // 熵编码数据中 0xFF 之后只能是 0x00（字节填充）、RST 或 0xFF；其他值是下一个标记
+                    int end = Math.min(limit, mEnd - 1);
+                    int p = mPos;
+                    while (p < end) {
+                        if ((b.get(p) & 0xFF) == 0xFF) {
+                            int next = b.get(p + 1) & 0xFF;
+                            if (next != 0x00 && next != 0xFF && (next < 0xD0 || next > 0xD7)) break;
+                        }
+                        p++;
+                    }
+                    mPos = p;
+                    if (p < end) {
+                        mState = JPEG_MARKER;
+                    } else if (limit == mEnd) {
+                        mPos = mEnd;
+                        return;
+                    } else {
+                        return;
+                    }
+                    break;
+                }
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * 推进顶层 box 遍历直到 limit；box 头跨块时留到下一块
+     */
+    private void scanBoxes(int limit) {
+        ByteBuffer b = mBuf;
+        int start = mEnd - (int) mLength;
+        while (mPos < limit && mProblem == null) {
+            if (mPos + 8 > limit) {
+                if (limit == mEnd) mProblem = PROBLEM_BAD_BOX;
+                return;
+            }
+            long size = Integer.toUnsignedLong(Integer.reverseBytes(b.getInt(mPos)));
+            int type = Integer.reverseBytes(b.getInt(mPos + 4));
+            int header = 8;
+            if (size == 1) {
+                if (mPos + 16 > limit) {
+                    if (limit == mEnd) mProblem = PROBLEM_BAD_BOX;
+                    return;
+                }
+                size = Long.reverseBytes(b.getLong(mPos + 8));
+                header = 16;
+            } else if (size == 0) {
+                size = mEnd - mPos;              // 延伸到末尾
+            }
+            if (size < header) {
+                mProblem = PROBLEM_BAD_BOX;
+                return;
+            }
+            if (mPos == start && type != 0x66747970) {   // 'ftyp'
+                mProblem = PROBLEM_NO_FTYP;
+                return;
+            }
+            if (type == 0x6D657461) mSawMeta = true;     // 'meta'
+            if (type == 0x6D646174) mSawMdat = true;     // 'mdat'
+            if (mPos + size > mEnd) {
+                mPos = mEnd + 1;
+                mProblem = PROBLEM_TRUNCATED;
+                return;
+            }
+            mPos += (int) size;
+        }
+    }
+
+    /**
+     * slicing-by-8：每次处理 8 字节（小端读取），尾部逐字节
+     */
+    private static int crc(int crc, ByteBuffer b, int from, int to) {
+        int[] t = CRC_TABLE;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long v = b.getLong(i);
+            int lo = (int) v ^ crc;
+            int hi = (int) (v >>> 32);
+            crc = t[7 * 256 + (lo & 0xFF)] ^ t[6 * 256 + ((lo >>> 8) & 0xFF)]
+                    ^ t[5 * 256 + ((lo >>> 16) & 0xFF)] ^ t[4 * 256 + (lo >>> 24)]
+                    ^ t[3 * 256 + (hi & 0xFF)] ^ t[2 * 256 + ((hi >>> 8) & 0xFF)]
+                    ^ t[256 + ((hi >>> 16) & 0xFF)] ^ t[hi >>> 24];
+        }
+        for (; i < to; i++) {
+            crc = (crc >>> 8) ^ t[(crc ^ b.get(i)) & 0xFF];
+        }
+        return crc;
+    }
+}
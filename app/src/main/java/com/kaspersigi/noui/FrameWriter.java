@@ -0,0 +1,142 @@
+package com.kaspersigi.noui;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 有界的异步写文件队列：固定数量的复用缓冲槽 + 一个专用写线程。
+ * - offer() 把图像数据拷贝进空闲槽后立即返回（调用方随即可以 close Image，归还 ImageReader 缓冲）；
+ *   没有空闲槽时返回 false，由调用方按丢帧处理 —— 内存上限为 槽数 × 单帧最大字节数，与运行时长无关
+ * - 写完一帧后在回调 Handler 上通知 Listener，并更新单帧写耗时的指数移动平均，供调用方估算可持续帧率
+ */
+public final class FrameWriter {
+    private static final double EMA_ALPHA = 0.2;
+
+    public interface Listener {
+        void onWritten(File file, long sensorTs, long availableNs, long bytes, long writeNs);
+
+        void onWriteFailed(File file, long sensorTs, IOException e);
+    }
+
+    private static final class Slot {
+        byte[] data = new byte[0];
+        int length;
+    }
+
+    private final int mSlotCount;
+    private final ArrayDeque<Slot> mFree = new ArrayDeque<>();
+    private final Listener mListener;
+    private final Handler mCallbackHandler;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private int mMaxDepth = 0;
+    private volatile long mEmaWriteNs = -1;
+
+    public FrameWriter(int slots, Listener listener, Handler callbackHandler) {
+        mSlotCount = slots;
+        for (int i = 0; i < slots; i++) {
+            mFree.add(new Slot());
+        }
+        mListener = listener;
+        mCallbackHandler = callbackHandler;
+        mThread = new HandlerThread("FrameWriter");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * 拷贝 data 的剩余内容并排队写入 file（availableNs 为图像到达时刻，原样回传给 Listener）
+     *
+     * @return 队列已满时返回 false（数据未被消费）
+     */
+    public boolean offer(ByteBuffer data, File file, long sensorTs, long availableNs) {
+        Slot slot;
+        synchronized (mFree) {
+            slot = mFree.poll();
+            if (slot == null) return false;
+            mMaxDepth = Math.max(mMaxDepth, mSlotCount - mFree.size());
+        }
+        int length = data.remaining();
+        if (slot.data.length < length) {
+            slot.data = new byte[length];
+        }
+        data.get(slot.data, 0, length);
+        slot.length = length;
+        mHandler.post(() -> write(slot, file, sensorTs, availableNs));
+        return true;
+    }
+
+    private void write(Slot slot, File file, long sensorTs, long availableNs) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        IOException error = null;
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(slot.data, 0, slot.length);
+        } catch (IOException e) {
+            error = e;
+        }
+        long writeNs = SystemClock.elapsedRealtimeNanos() - startNs;
+        long bytes = slot.length;
+        synchronized (mFree) {
+            mFree.add(slot);
+        }
+        if (error == null) {
+            long ema = mEmaWriteNs;
+            mEmaWriteNs = ema < 0 ? writeNs : (long) (EMA_ALPHA * writeNs + (1 - EMA_ALPHA) * ema);
+            mCallbackHandler.post(() -> mListener.onWritten(file, sensorTs, availableNs, bytes, writeNs));
+        } else {
+            IOException e = error;
+            mCallbackHandler.post(() -> mListener.onWriteFailed(file, sensorTs, e));
+        }
+    }
+
+    /**
+     * @return 当前排队（含正在写）的帧数
+     */
+    public int depth() {
+        synchronized (mFree) {
+            return mSlotCount - mFree.size();
+        }
+    }
+
+    public int maxDepth() {
+        synchronized (mFree) {
+            return mMaxDepth;
+        }
+    }
+
+    public int capacity() {
+        return mSlotCount;
+    }
+
+    /**
+     * @return 单帧写耗时的指数移动平均；尚无样本时为 -1
+     */
+    public long emaWriteNs() {
+        return mEmaWriteNs;
+    }
+
+    /**
+     * 已排队的帧全部写完后，在回调 Handler 上执行 done
+     */
+    public void drain(Runnable done) {
+        mHandler.post(() -> mCallbackHandler.post(done));
+    }
+
+    /**
+     * 写完已排队的帧后结束写线程
+     */
+    public void close() {
+        mThread.quitSafely();
+        if (Thread.currentThread() != mThread) {
+            try { mThread.join(); } catch (InterruptedException ignored) {}
+        }
+    }
+}
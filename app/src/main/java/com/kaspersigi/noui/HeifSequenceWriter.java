@@ -0,0 +1,712 @@
+package com.kaspersigi.noui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把一次 HEIC 连拍的多个单图 HEIF 文件重新封装为一个多图 HEIF 容器（image collection），不重新编码。
+ * - 每帧到达时解析其 ISOBMFF 结构，mdat 负载直接从 Image 缓冲写入输出文件（不复制到 Java 堆），
+ *   meta 中的条目（iinf / iloc / iref / iprp / idat）在内存中合并
+ * - 条目 ID 按帧顺序重新编号；iloc 偏移改写到合并后的 mdat / idat；ipco 中字节相同的属性（hvcC、ispe 等）只保留一份
+ * - 第一帧的主图作为 pitm，其余帧的主图作为可见的独立图像；每帧主图的 item_name 记录调用方给出的标签（时间戳）
+ * - 布局：ftyp | mdat（64 位长度，边写边追加）| meta；meta 在关闭时写在文件末尾
+ * - 可为每帧附加拍摄元数据的 Exif 条目（'Exif' 条目类型，cdsc 引用该帧主图），负载写在该帧数据之后；
+ *   HAL 已有描述主图的 Exif 条目时与之合并并替换原条目（原负载留在 mdat 中但不再被引用）。
+ *   只追加一帧时即为给单个 HEIC 注入 Exif 而不重新编码
+ *
+ * 帧结构不受支持（多个 mdat、外部数据引用等）时 append() 抛出 IOException 且不改变已写入的状态，
+ * 调用方可以对该帧退回单文件写入。非线程安全：所有调用都应在同一线程上进行。
+ */
+public final class HeifSequenceWriter implements Closeable {
+    private static final int MDAT_HEADER_SIZE = 16; // size=1 + 'mdat' + largesize
+    private static final int MAX_ITEM_ID = 0xFFFF;  // 输出使用 16 位条目 ID
+
+    private final File mFile;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private boolean mClosed = false;
+    private long mMdatStart = -1;     // mdat 盒起始位置
+    private long mPosition;           // 下一次写入 mdat 负载的位置
+
+    private byte[] mHdlr;
+    private byte[] mDinf;
+    private int mPrimaryId = -1;
+    private int mNextId = 1;
+    private int mItemCount = 0;
+    private int mCount = 0;
+    private long mInputBytes = 0;
+
+    private final ByteArrayOutputStream mInfe = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mIloc = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mIref = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mIpma = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mIdat = new ByteArrayOutputStream();
+    private int mIpmaCount = 0;
+    private final List<byte[]> mProperties = new ArrayList<>();
+    private final Map<ByteBuffer, Integer> mPropertyIndex = new HashMap<>();
+
+    public HeifSequenceWriter(File file) {
+        mFile = file;
+    }
+
+    /**
+     * 写入调用方提供的通道（例如 MediaStore 条目的描述符），从位置 0 开始；close() 不关闭该通道
+     */
+    public HeifSequenceWriter(FileChannel channel) {
+        mFile = null;
+        mChannel = channel;
+    }
+
+    public File file() {
+        return mFile;
+    }
+
+    public int count() {
+        return mCount;
+    }
+
+    /**
+     * @return 已追加帧的原始（单文件）字节数之和
+     */
+    public long inputBytes() {
+        return mInputBytes;
+    }
+
+    /**
+     * 追加一帧完整的 HEIC 文件（读取 heic 的 position..limit，不改变其 position）
+     *
+     * @param label 写入该帧主图 item_name 的标签，可为 null
+     * @return 该帧在容器内的序号
+     */
+    public int append(ByteBuffer heic, String label) throws IOException {
+        return append(heic, label, null);
+    }
+
+    /**
+     * 同 {@link #append(ByteBuffer, String)}，并把 exif 写入该帧主图的 Exif 条目
+     *
+     * @param exif 本帧的拍摄元数据，可为 null
+     */
+    public int append(ByteBuffer heic, String label, CaptureExif exif) throws IOException {
+        if (mClosed) throw new IOException("Sequence already closed");
+        Frame frame;
+        try {
+            frame = Frame.parse(heic.slice().order(ByteOrder.BIG_ENDIAN));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed HEIF: " + e.getMessage(), e);
+        }
+        int replaced = -1;
+        byte[] exifPayload = null;
+        if (exif != null) {
+            int existing = frame.exifItemFor(frame.primaryId);
+            byte[] merged = existing >= 0 ? exif.mergeHeifPayload(frame.itemData(existing)) : null;
+            if (merged != null) replaced = existing;
+            exifPayload = merged != null ? merged : exif.heifPayload();
+        }
+        int extraItems = exifPayload != null && replaced < 0 ? 1 : 0;
+        if (mNextId + frame.items.size() + extraItems - 1 > MAX_ITEM_ID) throw new IOException("Too many items");
+
+        if (mMdatStart < 0) {
+            if (mChannel == null) {
+                mRaf = new RandomAccessFile(mFile, "rw");
+                mRaf.setLength(0);
+                mChannel = mRaf.getChannel();
+            }
+            writeFully(ByteBuffer.wrap(frame.ftyp), 0);
+            mMdatStart = frame.ftyp.length;
+            mPosition = mMdatStart + MDAT_HEADER_SIZE;
+            mHdlr = frame.hdlr;
+            mDinf = frame.dinf;
+        }
+
+        // mdat 负载原样写出，偏移整体平移
+        ByteBuffer payload = heic.slice();
+        payload.position(frame.mdatStart).limit(frame.mdatEnd);
+        long mdatBase = mPosition;
+        writeFully(payload, mPosition);
+        mPosition += frame.mdatEnd - frame.mdatStart;
+        int idatBase = mIdat.size();
+        if (frame.idat != null) mIdat.write(frame.idat, 0, frame.idat.length);
+
+        // 按原 ID 升序分配新 ID，保持 ipma 条目的 ID 递增顺序
+        List<Integer> sorted = new ArrayList<>(frame.itemIds);
+        sorted.remove(Integer.valueOf(replaced));
+        Collections.sort(sorted);
+        Map<Integer, Integer> ids = new HashMap<>();
+        for (int oldId : sorted) ids.put(oldId, mNextId++);
+        if (mPrimaryId < 0) mPrimaryId = ids.get(frame.primaryId);
+
+        for (int i = 0; i < frame.infe.size(); i++) {
+            int oldId = frame.itemIds.get(i);
+            if (oldId == replaced) continue;
+            String name = oldId == frame.primaryId ? label : null;
+            writeBox(mInfe, renumberInfe(frame.infe.get(i), ids.get(oldId), name));
+        }
+        for (Item item : frame.items) {
+            if (item.id == replaced) continue;
+            writeShort(mIloc, ids.get(item.id));
+            writeShort(mIloc, item.method);  // reserved(12) + construction_method(4)
+            writeShort(mIloc, 0);            // data_reference_index
+            writeShort(mIloc, item.offsets.length);
+            for (int e = 0; e < item.offsets.length; e++) {
+                long offset = item.method == 0
+                        ? mdatBase + item.offsets[e] - frame.mdatStart
+                        : idatBase + item.offsets[e];
+                writeLong(mIloc, offset);
+                writeLong(mIloc, item.lengths[e]);
+            }
+            mItemCount++;
+        }
+        for (Ref ref : frame.refs) {
+            if (ref.from == replaced) continue;
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            writeShort(body, ids.get(ref.from));
+            writeShort(body, ref.to.length);
+            for (int to : ref.to) writeShort(body, ids.get(to));
+            writeBox(mIref, box(ref.type, body.toByteArray()));
+        }
+        int[] propertyMap = new int[frame.properties.size() + 1];
+        for (int p = 0; p < frame.properties.size(); p++) {
+            byte[] prop = frame.properties.get(p);
+            Integer index = mPropertyIndex.get(ByteBuffer.wrap(prop));
+            if (index == null) {
+                mProperties.add(prop);
+                index = mProperties.size();
+                mPropertyIndex.put(ByteBuffer.wrap(prop), index);
+            }
+            propertyMap[p + 1] = index;
+        }
+        for (Assoc assoc : frame.assocs) {
+            if (assoc.id == replaced) continue;
+            writeShort(mIpma, ids.get(assoc.id));
+            mIpma.write(assoc.packed.length);
+            for (int packed : assoc.packed) {
+                int index = packed & 0x7FFF;
+                writeShort(mIpma, (packed & 0x8000) | (index == 0 ? 0 : propertyMap[index]));
+            }
+            mIpmaCount++;
+        }
+        if (exifPayload != null) appendExif(exifPayload, ids.get(frame.primaryId));
+
+        mInputBytes += heic.remaining();
+        return mCount++;
+    }
+
+    /**
+     * 读出单个 HEIC 文件主图的 Exif 条目负载（含开头 4 字节的 exif_tiff_header_offset），不改变 heic 的 position
+     *
+     * @return 没有 Exif 条目或无法解析时返回 null
+     */
+    static byte[] primaryExif(ByteBuffer heic) {
+        try {
+            Frame frame = Frame.parse(heic.slice().order(ByteOrder.BIG_ENDIAN));
+            int id = frame.exifItemFor(frame.primaryId);
+            return id >= 0 ? frame.itemData(id) : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Exif 负载紧跟在帧数据之后写入 mdat，条目以 cdsc 引用所描述的主图
+     */
+    private void appendExif(byte[] exif, int describedId) throws IOException {
+        int id = mNextId++;
+        long offset = mPosition;
+        writeFully(ByteBuffer.wrap(exif), mPosition);
+        mPosition += exif.length;
+
+        ByteArrayOutputStream infe = new ByteArrayOutputStream();
+        writeInt(infe, 2 << 24); // version 2, flags 0
+        writeShort(infe, id);
+        writeShort(infe, 0);     // item_protection_index
+        infe.write(fourcc("Exif"), 0, 4);
+        infe.write(0);           // 空 item_name
+        writeBox(mInfe, box("infe", infe.toByteArray()));
+
+        writeShort(mIloc, id);
+        writeShort(mIloc, 0);    // construction_method 0（文件偏移）
+        writeShort(mIloc, 0);
+        writeShort(mIloc, 1);
+        writeLong(mIloc, offset);
+        writeLong(mIloc, exif.length);
+        mItemCount++;
+
+        ByteArrayOutputStream cdsc = new ByteArrayOutputStream();
+        writeShort(cdsc, id);
+        writeShort(cdsc, 1);
+        writeShort(cdsc, describedId);
+        writeBox(mIref, box("cdsc", cdsc.toByteArray()));
+    }
+
+    /**
+     * 写出合并后的 meta，回填 mdat 长度并关闭文件；没有追加过帧时不创建文件。
+     * 使用调用方提供的通道时只截断、不关闭
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        if (mMdatStart < 0) return;
+        try {
+            ByteBuffer mdatHeader = ByteBuffer.allocate(MDAT_HEADER_SIZE);
+            mdatHeader.putInt(1).put(fourcc("mdat")).putLong(mPosition - mMdatStart).flip();
+            writeFully(mdatHeader, mMdatStart);
+
+            ByteArrayOutputStream meta = new ByteArrayOutputStream();
+            writeInt(meta, 0); // version 0, flags 0
+            meta.write(mHdlr);
+            if (mDinf != null) meta.write(mDinf);
+            ByteArrayOutputStream pitm = new ByteArrayOutputStream();
+            writeInt(pitm, 0);
+            writeShort(pitm, mPrimaryId);
+            writeBox(meta, box("pitm", pitm.toByteArray()));
+            ByteArrayOutputStream iinf = new ByteArrayOutputStream();
+            writeInt(iinf, 0);
+            writeShort(iinf, mNextId - 1);
+            mInfe.writeTo(iinf);
+            writeBox(meta, box("iinf", iinf.toByteArray()));
+            if (mIref.size() > 0) {
+                ByteArrayOutputStream iref = new ByteArrayOutputStream();
+                writeInt(iref, 0);
+                mIref.writeTo(iref);
+                writeBox(meta, box("iref", iref.toByteArray()));
+            }
+            ByteArrayOutputStream ipco = new ByteArrayOutputStream();
+            for (byte[] prop : mProperties) ipco.write(prop);
+            ByteArrayOutputStream ipma = new ByteArrayOutputStream();
+            writeInt(ipma, 1); // version 0, flags 1：15 位属性索引
+            writeInt(ipma, mIpmaCount);
+            mIpma.writeTo(ipma);
+            ByteArrayOutputStream iprp = new ByteArrayOutputStream();
+            writeBox(iprp, box("ipco", ipco.toByteArray()));
+            writeBox(iprp, box("ipma", ipma.toByteArray()));
+            writeBox(meta, box("iprp", iprp.toByteArray()));
+            if (mIdat.size() > 0) writeBox(meta, box("idat", mIdat.toByteArray()));
+            ByteArrayOutputStream iloc = new ByteArrayOutputStream();
+            writeInt(iloc, 1 << 24); // version 1
+            iloc.write(0x88);        // offset_size 8, length_size 8
+            iloc.write(0x00);        // base_offset_size 0, index_size 0
+            writeShort(iloc, mItemCount);
+            mIloc.writeTo(iloc);
+            writeBox(meta, box("iloc", iloc.toByteArray()));
+
+            byte[] metaBox = box("meta", meta.toByteArray());
+            writeFully(ByteBuffer.wrap(metaBox), mPosition);
+            mChannel.truncate(mPosition + metaBox.length);
+        } finally {
+            if (mRaf != null) mRaf.close();
+            mChannel = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += mChannel.write(src, position);
+        }
+    }
+
+    /**
+     * 改写 infe（版本 2 / 3）的 item_ID；name 非空时替换 item_name
+     */
+    private static byte[] renumberInfe(byte[] infe, int newId, String name) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(infe);
+        int header = headerSize(b, 0);
+        int version = infe[header] & 0xFF;
+        if (version < 2) throw new IOException("infe version " + version + " unsupported");
+        int idSize = version == 2 ? 2 : 4;
+        int nameStart = header + 4 + idSize + 2 + 4; // fullbox + item_ID + protection_index + item_type
+        int nameEnd = nameStart;
+        while (nameEnd < infe.length && infe[nameEnd] != 0) nameEnd++;
+        if (nameEnd >= infe.length) throw new IOException("infe item_name not terminated");
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(infe.length + 32);
+        body.write(2);       // 输出统一使用版本 2（16 位 ID）
+        body.write(infe, header + 1, 3);
+        writeShort(body, newId);
+        body.write(infe, header + 4 + idSize, 2 + 4);
+        if (name != null) {
+            byte[] n = name.getBytes(StandardCharsets.UTF_8);
+            body.write(n, 0, n.length);
+        } else {
+            body.write(infe, nameStart, nameEnd - nameStart);
+        }
+        body.write(infe, nameEnd, infe.length - nameEnd);
+        return box("infe", body.toByteArray());
+    }
+
+    // ---- 输入帧解析 ----
+
+    private static final class Item {
+        int id;
+        int method;
+        long[] offsets;
+        long[] lengths;
+    }
+
+    private static final class Ref {
+        String type;
+        int from;
+        int[] to;
+    }
+
+    private static final class Assoc {
+        int id;
+        int[] packed; // essential(1) << 15 | property_index(15)
+    }
+
+    /**
+     * 单个 HEIC 文件的解析结果；偏移均相对文件起点
+     */
+    private static final class Frame {
+        byte[] ftyp;
+        byte[] hdlr;
+        byte[] dinf;
+        byte[] idat;
+        int mdatStart = -1;
+        int mdatEnd;
+        int primaryId = -1;
+        final List<Integer> itemIds = new ArrayList<>();
+        final List<byte[]> infe = new ArrayList<>();
+        final List<Item> items = new ArrayList<>();
+        final List<Ref> refs = new ArrayList<>();
+        final List<byte[]> properties = new ArrayList<>();
+        final List<Assoc> assocs = new ArrayList<>();
+        private final List<byte[]> itemTypes = new ArrayList<>();
+        private ByteBuffer source;
+
+        static Frame parse(ByteBuffer b) throws IOException {
+            Frame f = new Frame();
+            f.source = b;
+            int metaStart = -1;
+            int metaEnd = -1;
+            int pos = 0;
+            while (pos < b.limit()) {
+                int end = boxEnd(b, pos, b.limit());
+                String type = type(b, pos);
+                if (type.equals("ftyp")) {
+                    f.ftyp = bytes(b, pos, end);
+                } else if (type.equals("meta")) {
+                    metaStart = pos + headerSize(b, pos) + 4;
+                    metaEnd = end;
+                } else if (type.equals("mdat")) {
+                    if (f.mdatStart >= 0) throw new IOException("Multiple mdat boxes");
+                    f.mdatStart = pos + headerSize(b, pos);
+                    f.mdatEnd = end;
+                }
+                pos = end;
+            }
+            if (f.ftyp == null || metaStart < 0 || f.mdatStart < 0) throw new IOException("Not a HEIF file");
+
+            for (pos = metaStart; pos < metaEnd; ) {
+                int end = boxEnd(b, pos, metaEnd);
+                int body = pos + headerSize(b, pos);
+                switch (type(b, pos)) {
+                    case "hdlr":
+                        f.hdlr = bytes(b, pos, end);
+                        break;
+                    case "dinf":
+                        f.dinf = bytes(b, pos, end);
+                        break;
+                    case "pitm":
+                        f.primaryId = b.get(body) == 0 ? b.getShort(body + 4) & 0xFFFF : b.getInt(body + 4);
+                        break;
+                    case "iinf":
+                        f.parseIinf(b, body, end);
+                        break;
+                    case "iloc":
+                        f.parseIloc(b, body);
+                        break;
+                    case "iref":
+                        f.parseIref(b, body, end);
+                        break;
+                    case "iprp":
+                        f.parseIprp(b, body, end);
+                        break;
+                    case "idat":
+                        f.idat = bytes(b, body, end);
+                        break;
+                    default:
+                        throw new IOException("Unsupported meta child '" + type(b, pos) + "'");
+                }
+                pos = end;
+            }
+            if (f.hdlr == null || f.primaryId < 0) throw new IOException("meta without hdlr / pitm");
+            f.validate();
+            return f;
+        }
+
+        /**
+         * 检查所有引用的条目与属性都存在，保证合并阶段不会中途失败
+         */
+        private void validate() throws IOException {
+            if (!itemIds.contains(primaryId)) throw new IOException("Primary item " + primaryId + " missing");
+            for (Ref ref : refs) {
+                if (!itemIds.contains(ref.from)) throw new IOException("iref from unknown item " + ref.from);
+                for (int to : ref.to) {
+                    if (!itemIds.contains(to)) throw new IOException("iref to unknown item " + to);
+                }
+            }
+            for (Assoc assoc : assocs) {
+                if (!itemIds.contains(assoc.id)) throw new IOException("ipma for unknown item " + assoc.id);
+                for (int packed : assoc.packed) {
+                    if ((packed & 0x7FFF) > properties.size()) throw new IOException("Property index out of range");
+                }
+            }
+            for (Item item : items) {
+                if (!itemIds.contains(item.id)) throw new IOException("iloc item " + item.id + " missing from iinf");
+                for (int e = 0; e < item.offsets.length; e++) {
+                    long start = item.offsets[e];
+                    long stop = start + item.lengths[e];
+                    boolean ok = item.method == 0
+                            ? start >= mdatStart && stop <= mdatEnd
+                            : idat != null && start >= 0 && stop <= idat.length;
+                    if (!ok || item.lengths[e] == 0) throw new IOException("Item " + item.id + " extent out of range");
+                }
+            }
+        }
+
+        /**
+         * @return 以 cdsc 描述 primary 的 Exif 条目 ID，没有时返回 -1
+         */
+        int exifItemFor(int primary) {
+            for (Ref ref : refs) {
+                if (!ref.type.equals("cdsc") || ref.to.length != 1 || ref.to[0] != primary) continue;
+                int i = itemIds.indexOf(ref.from);
+                if (i >= 0 && new String(itemTypes.get(i), StandardCharsets.US_ASCII).equals("Exif")) return ref.from;
+            }
+            return -1;
+        }
+
+        /**
+         * 读出条目数据（已通过 validate() 检查范围）；Exif 负载只有几十 KB，可以复制
+         */
+        byte[] itemData(int id) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (Item item : items) {
+                if (item.id != id) continue;
+                for (int e = 0; e < item.offsets.length; e++) {
+                    int start = (int) item.offsets[e];
+                    int end = (int) (start + item.lengths[e]);
+                    byte[] part = item.method == 0 ? bytes(source, start, end) : Arrays.copyOfRange(idat, start, end);
+                    out.write(part, 0, part.length);
+                }
+            }
+            return out.toByteArray();
+        }
+
+        private void parseIinf(ByteBuffer b, int body, int end) throws IOException {
+            int pos = body + 4 + (b.get(body) == 0 ? 2 : 4);
+            while (pos < end) {
+                int boxEnd = boxEnd(b, pos, end);
+                if (!type(b, pos).equals("infe")) throw new IOException("Unexpected iinf child");
+                int fullbox = pos + headerSize(b, pos);
+                int version = b.get(fullbox) & 0xFF;
+                if (version < 2) throw new IOException("infe version " + version + " unsupported");
+                itemIds.add(version == 2 ? b.getShort(fullbox + 4) & 0xFFFF : b.getInt(fullbox + 4));
+                int typeAt = fullbox + 4 + (version == 2 ? 2 : 4) + 2;
+                itemTypes.add(bytes(b, typeAt, typeAt + 4));
+                infe.add(bytes(b, pos, boxEnd));
+                pos = boxEnd;
+            }
+        }
+
+        private void parseIloc(ByteBuffer b, int body) throws IOException {
+            int version = b.get(body) & 0xFF;
+            int pos = body + 4;
+            int offsetSize = (b.get(pos) >> 4) & 0xF;
+            int lengthSize = b.get(pos) & 0xF;
+            int baseOffsetSize = (b.get(pos + 1) >> 4) & 0xF;
+            int indexSize = version > 0 ? b.get(pos + 1) & 0xF : 0;
+            pos += 2;
+            int count;
+            if (version < 2) {
+                count = b.getShort(pos) & 0xFFFF;
+                pos += 2;
+            } else {
+                count = b.getInt(pos);
+                pos += 4;
+            }
+            for (int i = 0; i < count; i++) {
+                Item item = new Item();
+                if (version < 2) {
+                    item.id = b.getShort(pos) & 0xFFFF;
+                    pos += 2;
+                } else {
+                    item.id = b.getInt(pos);
+                    pos += 4;
+                }
+                if (version > 0) {
+                    item.method = b.getShort(pos) & 0xF;
+                    pos += 2;
+                }
+                if (item.method > 1) throw new IOException("construction_method " + item.method + " unsupported");
+                if (b.getShort(pos) != 0) throw new IOException("External data reference unsupported");
+                pos += 2;
+                long base = readSized(b, pos, baseOffsetSize);
+                pos += baseOffsetSize;
+                int extents = b.getShort(pos) & 0xFFFF;
+                pos += 2;
+                item.offsets = new long[extents];
+                item.lengths = new long[extents];
+                for (int e = 0; e < extents; e++) {
+                    pos += indexSize;
+                    item.offsets[e] = base + readSized(b, pos, offsetSize);
+                    pos += offsetSize;
+                    item.lengths[e] = readSized(b, pos, lengthSize);
+                    pos += lengthSize;
+                }
+                items.add(item);
+            }
+        }
+
+        private void parseIref(ByteBuffer b, int body, int end) {
+            int idSize = b.get(body) == 0 ? 2 : 4;
+            int pos = body + 4;
+            while (pos < end) {
+                int boxEnd = boxEnd(b, pos, end);
+                Ref ref = new Ref();
+                ref.type = type(b, pos);
+                int p = pos + headerSize(b, pos);
+                ref.from = (int) readSized(b, p, idSize);
+                p += idSize;
+                ref.to = new int[b.getShort(p) & 0xFFFF];
+                p += 2;
+                for (int i = 0; i < ref.to.length; i++) {
+                    ref.to[i] = (int) readSized(b, p, idSize);
+                    p += idSize;
+                }
+                refs.add(ref);
+                pos = boxEnd;
+            }
+        }
+
+        private void parseIprp(ByteBuffer b, int body, int end) throws IOException {
+            for (int pos = body; pos < end; ) {
+                int boxEnd = boxEnd(b, pos, end);
+                int inner = pos + headerSize(b, pos);
+                String type = type(b, pos);
+                if (type.equals("ipco")) {
+                    for (int p = inner; p < boxEnd; ) {
+                        int propEnd = boxEnd(b, p, boxEnd);
+                        properties.add(bytes(b, p, propEnd));
+                        p = propEnd;
+                    }
+                } else if (type.equals("ipma")) {
+                    int version = b.get(inner) & 0xFF;
+                    boolean wide = (b.get(inner + 3) & 1) != 0;
+                    int p = inner + 4;
+                    int count = b.getInt(p);
+                    p += 4;
+                    for (int i = 0; i < count; i++) {
+                        Assoc assoc = new Assoc();
+                        if (version < 1) {
+                            assoc.id = b.getShort(p) & 0xFFFF;
+                            p += 2;
+                        } else {
+                            assoc.id = b.getInt(p);
+                            p += 4;
+                        }
+                        assoc.packed = new int[b.get(p++) & 0xFF];
+                        for (int a = 0; a < assoc.packed.length; a++) {
+                            if (wide) {
+                                assoc.packed[a] = b.getShort(p) & 0xFFFF;
+                                p += 2;
+                            } else {
+                                int v = b.get(p++) & 0xFF;
+                                assoc.packed[a] = ((v & 0x80) << 8) | (v & 0x7F);
+                            }
+                        }
+                        assocs.add(assoc);
+                    }
+                } else {
+                    throw new IOException("Unsupported iprp child '" + type + "'");
+                }
+                pos = boxEnd;
+            }
+        }
+    }
+
+    // ---- ISOBMFF 工具 ----
+
+    private static int headerSize(ByteBuffer b, int pos) {
+        return b.getInt(pos) == 1 ? 16 : 8;
+    }
+
+    private static int boxEnd(ByteBuffer b, int pos, int limit) {
+        long size = b.getInt(pos) & 0xFFFFFFFFL;
+        if (size == 1) size = b.getLong(pos + 8);
+        else if (size == 0) size = limit - pos;
+        if (size < 8 || pos + size > limit) throw new IllegalStateException("Box size out of range at " + pos);
+        return (int) (pos + size);
+    }
+
+    private static String type(ByteBuffer b, int pos) {
+        byte[] t = new byte[4];
+        for (int i = 0; i < 4; i++) t[i] = b.get(pos + 4 + i);
+        return new String(t, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes(ByteBuffer b, int start, int end) {
+        byte[] out = new byte[end - start];
+        for (int i = 0; i < out.length; i++) out[i] = b.get(start + i);
+        return out;
+    }
+
+    private static long readSized(ByteBuffer b, int pos, int size) {
+        switch (size) {
+            case 0:
+                return 0;
+            case 2:
+                return b.getShort(pos) & 0xFFFF;
+            case 4:
+                return b.getInt(pos) & 0xFFFFFFFFL;
+            case 8:
+                return b.getLong(pos);
+            default:
+                throw new IllegalStateException("Field size " + size + " unsupported");
+        }
+    }
+
+    private static byte[] fourcc(String type) {
+        return type.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] box(String type, byte[] body) {
+        ByteBuffer b = ByteBuffer.allocate(8 + body.length);
+        b.putInt(8 + body.length).put(fourcc(type)).put(body);
+        return b.array();
+    }
+
+    private static void writeBox(ByteArrayOutputStream out, byte[] box) {
+        out.write(box, 0, box.length);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        writeShort(out, v >>> 16);
+        writeShort(out, v);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long v) {
+        writeInt(out, (int) (v >>> 32));
+        writeInt(out, (int) v);
+    }
+}
@@ -0,0 +1,627 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.HardwareBuffer;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// adb shell am start -n com.kaspersigi.noui/.HighSpeedYuvActivity --ei frames 240
+// 输出：<media>/highspeed/hs_<ms>.nv21（逐帧拼接的 NV21）+ hs_<ms>.csv（帧序号 / 传感器时间戳 / 文件偏移）+ hs_<ms>.json
+
+/**
+ * 受限高速（constrained high-speed）拍摄：以 getHighSpeedVideoFpsRanges 中上限最高的帧率范围
+ * （同上限时优先固定帧率）创建高速会话，用 createHighSpeedRequestList 生成的请求重复 burst，
+ * AE 收敛后采集固定数量的帧，报告由 SENSOR_TIMESTAMP 算出的实际帧间隔。
+ *
+ * 高速会话只接受预览 / 视频编码类的输出：优先尝试带 VIDEO_ENCODE 用途的 YUV ImageReader，
+ * 逐帧转为紧凑 NV21 后由写线程顺序追加到单个文件（固定缓冲槽，槽满即丢帧并计数）；
+ * 设备拒绝 YUV 输出时退回 PRIVATE ImageReader，此时只记录时间戳不落像素。
+ */
+public class HighSpeedYuvActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final int DEFAULT_FRAMES = 240;
+    private static final int READER_IMAGES = 8;
+    private static final int WRITER_SLOTS = 16;
+    private static final long AE_WARMUP_TIMEOUT_MS = 1000; // AE 迟迟不收敛时不再等待
+    private static final long DRAIN_GRACE_MS = 200;
+
+    private CameraDevice mCameraDevice;
+    private CameraConstrainedHighSpeedCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private String mCameraId;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+    private HandlerThread mWriterThread;
+    private Handler mWriterHandler;
+
+    // 无界面预览所需的虚拟 Surface（尺寸需与高速输出一致）
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraCharacteristics mCameraCharacteristics;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final CaptureTracer mTracer = new CaptureTracer(65536);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+    private final YuvJpegEncoder mConverter = new YuvJpegEncoder(); // 仅用其 NV21 转换
+
+    private int mFrames = DEFAULT_FRAMES;
+    private Range<Integer> mFpsRange;
+    private Size mSize;
+    private boolean mYuvSink = true;
+
+    private boolean mCounting = false;
+    private boolean mDone = false;
+    private long mFirstResultNs = 0;
+    private long[] mResultTs;    // 计数阶段各帧 SENSOR_TIMESTAMP
+    private int mResults = 0;
+    private long[] mWrittenTs;   // 写入文件的各帧时间戳（按文件中的顺序）
+    private int mAccepted = 0;
+    private int mWritten = 0;
+    private long mWriterDrops = 0;
+    private long mHalDrops = 0;
+
+    private final ArrayDeque<byte[]> mFreeSlots = new ArrayDeque<>();
+    private int mAllocatedSlots = 0;
+    private int mMaxQueued = 0;
+    private File mDataFile;
+    private FileChannel mChannel;
+    private long mWriteNs = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "NoUI camera started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        mFrames = getIntent().getIntExtra("frames", DEFAULT_FRAMES);
+        mResultTs = new long[mFrames];
+        mWrittenTs = new long[mFrames];
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    /**
+     * 查找并打开后置摄像头（退避重试 / 切换 / 断开后恢复由 CameraOpener 负责）
+     */
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
+            if (mDone) return;
+            if (!chooseHighSpeedConfig()) {
+                Log.e(TAG, "Camera " + mCameraId + " has no constrained high-speed support");
+                cleanup();
+                mMainHandler.post(HighSpeedYuvActivity.this::finish);
+                return;
+            }
+            createCaptureSession();
+        }
+
+        @Override
+        public void onCameraLost() {
+            // 高速序列要求连续，断开后从头重新采集
+            Log.w(TAG, "Camera lost, restarting high-speed sequence");
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mCounting = false;
+            mFirstResultNs = 0;
+            closeSession();
+            resetSequence();
+        }
+
+        @Override
+        public void onGiveUp() {
+            cleanup();
+            mMainHandler.post(HighSpeedYuvActivity.this::finish);
+        }
+    };
+
+    private void closeSession() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        mCameraDevice = null;
+    }
+
+    /**
+     * 选择上限最高的高速帧率范围（同上限优先 [N, N] 固定帧率）及该范围下最大的输出尺寸
+     */
+    private boolean chooseHighSpeedConfig() {
+        int[] caps = mCameraCharacteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean supported = false;
+        if (caps != null) {
+            for (int c : caps) {
+                if (c == CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) supported = true;
+            }
+        }
+        if (!supported) return false;
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Range<Integer>[] ranges = map.getHighSpeedVideoFpsRanges();
+        if (ranges == null || ranges.length == 0) return false;
+        Range<Integer> best = null;
+        for (Range<Integer> r : ranges) {
+            if (best == null || r.getUpper() > best.getUpper()
+                    || (r.getUpper().equals(best.getUpper()) && r.getLower() > best.getLower())) {
+                best = r;
+            }
+        }
+        Size[] sizes = map.getHighSpeedVideoSizesFor(best);
+        if (sizes == null || sizes.length == 0) return false;
+        Size size = sizes[0];
+        for (Size s : sizes) {
+            if ((long) s.getWidth() * s.getHeight() > (long) size.getWidth() * size.getHeight()) {
+                size = s;
+            }
+        }
+        mFpsRange = best;
+        mSize = size;
+        Log.d(TAG, "High-speed config: " + size.getWidth() + "x" + size.getHeight() + " @ " + best);
+        return true;
+    }
+
+    /**
+     * 创建高速会话：虚拟预览 + ImageReader（YUV 优先，被拒绝时退回 PRIVATE）
+     */
+    private void createCaptureSession() {
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+        try {
+            mDummyTexture.setDefaultBufferSize(mSize.getWidth(), mSize.getHeight());
+            if (mYuvSink) {
+                mImageReader = ImageReader.newInstance(mSize.getWidth(), mSize.getHeight(), ImageFormat.YUV_420_888,
+                        READER_IMAGES, HardwareBuffer.USAGE_CPU_READ_OFTEN | HardwareBuffer.USAGE_VIDEO_ENCODE);
+            } else {
+                mImageReader = ImageReader.newInstance(mSize.getWidth(), mSize.getHeight(), ImageFormat.PRIVATE,
+                        READER_IMAGES, HardwareBuffer.USAGE_VIDEO_ENCODE);
+            }
+            mImageReader.setOnImageAvailableListener(this::onImageAvailable, mBgHandler);
+
+            List<Surface> surfaces = Arrays.asList(mPreviewSurface, mImageReader.getSurface());
+            mCameraDevice.createConstrainedHighSpeedCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    mCaptureSession = (CameraConstrainedHighSpeedCaptureSession) session;
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    mTracer.begin(CaptureTracer.SECTION_CONVERGE);
+                    startStreaming();
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    onSinkRejected();
+                }
+            }, mBgHandler);
+        } catch (IllegalArgumentException e) {
+            mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+            Log.w(TAG, "High-speed outputs rejected", e);
+            onSinkRejected();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create session", e);
+            mMainHandler.post(HighSpeedYuvActivity.this::finish);
+        }
+    }
+
+    private void onSinkRejected() {
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        if (mYuvSink) {
+            Log.w(TAG, "YUV sink not accepted for high-speed session, falling back to PRIVATE (timestamps only)");
+            mYuvSink = false;
+            createCaptureSession();
+        } else {
+            Log.e(TAG, "Session config failed");
+            mMainHandler.post(HighSpeedYuvActivity.this::finish);
+        }
+    }
+
+    private void startStreaming() {
+        try {
+            CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            builder.addTarget(mPreviewSurface);
+            builder.addTarget(mImageReader.getSurface());
+            builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+            List<CaptureRequest> burst = mCaptureSession.createHighSpeedRequestList(builder.build());
+            mCaptureSession.setRepeatingBurst(burst, mCaptureCallback, mBgHandler);
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "Failed to start high-speed stream", e);
+            mMainHandler.post(HighSpeedYuvActivity.this::finish);
+        }
+    }
+
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    if (mDone) return;
+                    if (!mCounting) {
+                        long now = SystemClock.elapsedRealtimeNanos();
+                        if (mFirstResultNs == 0) mFirstResultNs = now;
+                        Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+                        boolean aeOK = ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                                || ae == CaptureResult.CONTROL_AE_STATE_LOCKED;
+                        boolean timedOut = now - mFirstResultNs > AE_WARMUP_TIMEOUT_MS * 1_000_000L;
+                        if (!aeOK && !timedOut) return;
+                        if (!aeOK) Log.w(TAG, "AE not converged after " + AE_WARMUP_TIMEOUT_MS + "ms, counting anyway");
+                        startCounting();
+                    }
+                    mTracer.markResult(result);
+                    mRun.captureCompleted();
+                    Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (ts != null) mResultTs[mResults] = ts;
+                    mResults++;
+                    if (mResults >= mFrames) stopStreaming();
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    if (mCounting) mHalDrops++;
+                }
+            };
+
+    private void startCounting() {
+        mCounting = true;
+        mTracer.end(CaptureTracer.SECTION_CONVERGE);
+        mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+        mRun.mark(PipelineMetrics.MARK_TRIGGER);
+        Log.d(TAG, "Capturing " + mFrames + " frame(s) at " + mFpsRange + "...");
+    }
+
+    /**
+     * 计数阶段的帧：YUV 时转 NV21 放入空闲缓冲槽交给写线程；没有空闲槽则丢弃
+     */
+    private void onImageAvailable(ImageReader reader) {
+        long availableNs = SystemClock.elapsedRealtimeNanos();
+        Image image;
+        while ((image = reader.acquireNextImage()) != null) {
+            try {
+                if (!mCounting || mAccepted >= mFrames) continue;
+                long sensorTs = image.getTimestamp();
+                if (mResultTs[0] > 0 && sensorTs < mResultTs[0]) continue; // 开始计数之前的帧
+                if (!mYuvSink) {
+                    mWrittenTs[mAccepted++] = sensorTs;
+                    continue;
+                }
+                byte[] slot = acquireSlot();
+                if (slot == null) {
+                    mWriterDrops++;
+                    continue;
+                }
+                mConverter.toNv21(image, slot);
+                mWrittenTs[mAccepted++] = sensorTs;
+                mWriterHandler.post(() -> writeFrame(slot, availableNs));
+            } finally {
+                image.close();
+            }
+        }
+    }
+
+    private byte[] acquireSlot() {
+        synchronized (mFreeSlots) {
+            byte[] slot = mFreeSlots.poll();
+            if (slot == null && mAllocatedSlots < WRITER_SLOTS) {
+                // 缓冲槽按需分配，最多 WRITER_SLOTS 个
+                mAllocatedSlots++;
+                slot = new byte[YuvJpegEncoder.nv21Size(mSize.getWidth(), mSize.getHeight())];
+            }
+            if (slot != null) mMaxQueued = Math.max(mMaxQueued, mAllocatedSlots - mFreeSlots.size());
+            return slot;
+        }
+    }
+
+    /**
+     * 写线程：顺序追加到同一个文件
+     */
+    private void writeFrame(byte[] slot, long availableNs) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        try {
+            if (mChannel == null) {
+                File dir = new File(getExternalMediaDirs()[0], "highspeed");
+                dir.mkdirs();
+                mDataFile = new File(dir, "hs_" + System.currentTimeMillis() + ".nv21");
+                mChannel = new FileOutputStream(mDataFile).getChannel();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(slot);
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+            long writeNs = SystemClock.elapsedRealtimeNanos() - startNs;
+            mWriteNs += writeNs;
+            mRun.frameWritten(availableNs, writeNs, slot.length);
+            mWritten++;
+        } catch (IOException e) {
+            Log.e(TAG, "Save failed", e);
+            mRun.frameFailed();
+        } finally {
+            synchronized (mFreeSlots) {
+                mFreeSlots.add(slot);
+            }
+        }
+    }
+
+    private void stopStreaming() {
+        mDone = true;
+        try {
+            if (mCaptureSession != null) mCaptureSession.stopRepeating();
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Failed to stop high-speed stream", e);
+        }
+        mTracer.end(CaptureTracer.SECTION_CAPTURE);
+        // 等计数阶段最后几帧的图像到达，再等写线程排空
+        mBgHandler.postDelayed(() -> {
+            mCounting = false;
+            mWriterHandler.post(() -> {
+                closeChannel();
+                mBgHandler.post(this::finishRun);
+            });
+        }, DRAIN_GRACE_MS);
+    }
+
+    private void closeChannel() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close " + mDataFile, e);
+            }
+            mChannel = null;
+        }
+    }
+
+    private void resetSequence() {
+        mWriterHandler.post(() -> {
+            closeChannel();
+            if (mDataFile != null) mDataFile.delete();
+            mDataFile = null;
+        });
+        mResults = 0;
+        mResultTs[0] = 0;
+        mAccepted = 0;
+        mWritten = 0;
+        mWriterDrops = 0;
+        mHalDrops = 0;
+    }
+
+    /**
+     * 由 SENSOR_TIMESTAMP 计算实际帧间隔，写出时间戳 CSV 与报告
+     */
+    private void finishRun() {
+        int n = Math.min(mResults, mFrames);
+        long min = Long.MAX_VALUE, max = 0, gaps = 0;
+        double expectedNs = 1e9 / mFpsRange.getUpper();
+        for (int i = 1; i < n; i++) {
+            long d = mResultTs[i] - mResultTs[i - 1];
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+            if (d > expectedNs * 1.5) gaps++;
+        }
+        double meanNs = n > 1 ? (double) (mResultTs[n - 1] - mResultTs[0]) / (n - 1) : 0;
+        double achievedFps = meanNs > 0 ? 1e9 / meanNs : 0;
+        Log.d(TAG, String.format(Locale.US,
+                "High-speed: %d result(s), achieved %.1ffps (target %s), interval mean %.0fus min %dus max %dus, "
+                        + "%d gap(s), %d written, %d writer drop(s), %d HAL drop(s)",
+                n, achievedFps, mFpsRange, meanNs / 1000, n > 1 ? min / 1000 : 0, max / 1000,
+                gaps, mWritten, mWriterDrops, mHalDrops));
+
+        File dir = new File(getExternalMediaDirs()[0], "highspeed");
+        dir.mkdirs();
+        String base = mDataFile != null ? mDataFile.getName().replace(".nv21", "") : "hs_" + System.currentTimeMillis();
+        try {
+            // 帧序号,传感器时间戳,在 .nv21 文件中的字节偏移（PRIVATE 输出时为 -1）
+            StringBuilder csv = new StringBuilder("index,sensor_ts_ns,offset\n");
+            long frameBytes = YuvJpegEncoder.nv21Size(mSize.getWidth(), mSize.getHeight());
+            for (int i = 0; i < mAccepted; i++) {
+                csv.append(i).append(',').append(mWrittenTs[i]).append(',')
+                        .append(mYuvSink ? i * frameBytes : -1).append('\n');
+            }
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, base + ".csv"))) {
+                fos.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            JSONObject json = new JSONObject();
+            json.put("camera_id", mCameraId);
+            json.put("fps_range", mFpsRange.toString());
+            json.put("width", mSize.getWidth());
+            json.put("height", mSize.getHeight());
+            json.put("sink", mYuvSink ? "nv21" : "private");
+            json.put("frames_requested", mFrames);
+            json.put("results", n);
+            json.put("achieved_fps", achievedFps);
+            json.put("interval_mean_us", meanNs / 1000);
+            json.put("interval_min_us", n > 1 ? min / 1000 : -1);
+            json.put("interval_max_us", n > 1 ? max / 1000 : -1);
+            json.put("gaps", gaps);
+            json.put("frames_written", mWritten);
+            json.put("writer_drops", mWriterDrops);
+            json.put("hal_drops", mHalDrops);
+            json.put("max_queued", mMaxQueued);
+            json.put("write_mb_per_s", mWriteNs > 0 ? mWritten * frameBytes / (mWriteNs / 1e9) / 1e6 : 0);
+            if (mDataFile != null) json.put("data_file", mDataFile.getAbsolutePath());
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, base + ".json"))) {
+                fos.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            Log.d(TAG, "High-speed report: " + new File(dir, base + ".json").getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write high-speed report", e);
+        }
+        mRun.count(PipelineMetrics.COUNTER_QUEUE_DROPS, mWriterDrops);
+        mRun.count(PipelineMetrics.COUNTER_HAL_DROPS, mHalDrops);
+
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(HighSpeedYuvActivity.this::finish);
+        });
+    }
+
+    private void cleanup() {
+        try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        if (mWriterHandler != null) mWriterHandler.post(this::closeChannel);
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+        mWriterThread = new HandlerThread("HighSpeedWriter");
+        mWriterThread.start();
+        mWriterHandler = new Handler(mWriterThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        for (HandlerThread thread : new HandlerThread[]{mWriterThread, mBgThread}) {
+            if (thread != null) {
+                thread.quitSafely();
+                if (Thread.currentThread() != thread) {
+                    try { thread.join(); } catch (InterruptedException ignored) {}
+                }
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.HighSpeedYuvActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "High-speed: " + mSize + " @ " + mFpsRange + ", results " + mResults + "/" + mFrames
+                + ", written " + mWritten + ", writer drops " + mWriterDrops);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,95 @@
+package com.kaspersigi.noui;
+
+import java.util.Arrays;
+
+/**
+ * long → int 开放寻址哈希表（线性探测 + 删除时后移），用于按传感器时间戳查找槽位。
+ * 不装箱、不分配 Entry，容量固定为 2 的幂，装载因子不超过 0.5。非线程安全。
+ */
+public final class LongIndexMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long[] mKeys;
+    private final int[] mValues;
+    private final int mMask;
+    private int mSize;
+
+    /**
+     * @param maxEntries 同时存在的最大条目数
+     */
+    public LongIndexMap(int maxEntries) {
+        int capacity = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return key 对应的值；不存在时返回 -1
+     */
+    public int get(long key) {
+        int i = slot(key);
+        while (mKeys[i] != EMPTY) {
+            if (mKeys[i] == key) return mValues[i];
+            i = (i + 1) & mMask;
+        }
+        return -1;
+    }
+
+    public void put(long key, int value) {
+        if (key == EMPTY) throw new IllegalArgumentException("reserved key");
+        int i = slot(key);
+        while (mKeys[i] != EMPTY) {
+            if (mKeys[i] == key) {
+                mValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mMask;
+        }
+        if (mSize * 2 >= mKeys.length) throw new IllegalStateException("LongIndexMap full");
+        mKeys[i] = key;
+        mValues[i] = value;
+        mSize++;
+    }
+
+    public void remove(long key) {
+        int i = slot(key);
+        while (mKeys[i] != key) {
+            if (mKeys[i] == EMPTY) return;
+            i = (i + 1) & mMask;
+        }
+        mKeys[i] = EMPTY;
+        mSize--;
+        // 后移删除：把同一探测链上后面的条目挪回空位，保证查找不会提前终止
+        int j = (i + 1) & mMask;
+        while (mKeys[j] != EMPTY) {
+            int home = slot(mKeys[j]);
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                mKeys[i] = mKeys[j];
+                mValues[i] = mValues[j];
+                mKeys[j] = EMPTY;
+                i = j;
+            }
+            j = (j + 1) & mMask;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+    }
+
+    /**
+     * key 的初始槽位（包内可见，测试用来构造冲突键）
+     */
+    int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mMask;
+    }
+}
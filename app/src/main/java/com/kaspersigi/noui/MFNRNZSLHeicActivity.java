@@ -11,6 +11,7 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
@@ -30,8 +31,12 @@ import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -61,6 +66,7 @@ import java.util.TimeZone;
 public class MFNRNZSLHeicActivity extends Activity {
     private static final String TAG = "NoUI";
     private static final int BURST_COUNT = 1; // 连拍张数
+    private static final long RETRY_BUDGET_MS = 1500; // 补拍的时间预算（从触发连拍开始计）
 
     // Camera2 核心对象
     private CameraDevice mCameraDevice;          // 相机设备实例
@@ -81,11 +87,16 @@ public class MFNRNZSLHeicActivity extends Activity {
     private boolean m3AConverged = false;    // 3A（AE+AWB+AF）是否全收敛（当前未启用）
     private boolean mBurstTriggered = false; // 是否已触发连拍（防止重复触发）
 
+    // 快门延迟：触发时刻（传感器时间基准）与第一帧 SENSOR_TIMESTAMP 之差
+    private long mTriggerSensorTs = 0;
+    private boolean mShutterLagRecorded = false;
+
     // 时间同步：用于将传感器时间戳转换为 UTC 时间
-    private long mBootTimeUtcMs = -1; // 系统启动时刻对应的 UTC 毫秒时间
+    private SensorClock mSensorClock; // 传感器时间戳 → UTC，相机打开后按时间源建立
 
     // 相机管理器和特性
     private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
     private CameraCharacteristics mCameraCharacteristics;
 
     // 预创建的 CaptureRequest 模板，提升性能（避免重复创建）
@@ -95,23 +106,106 @@ public class MFNRNZSLHeicActivity extends Activity {
     // 主线程 Handler，用于安全地 finish Activity
     private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
+    // 管线追踪：android.os.Trace 段 + 运行结束后导出 Perfetto 可加载的 trace JSON
+    private final CaptureTracer mTracer = new CaptureTracer(8192);
+
+    // 本次运行的指标（结束时写出 <media>/metrics/run_<ms>.json，可通过 dumpsys 查看）
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+
+    // 拍照结果元数据，按传感器时间戳关联到保存的文件（写入 burst/frames.csv）
+    private final FrameMetadataStore mMetadata = new FrameMetadataStore(BURST_COUNT + 8);
+
+    // 可选：整组连拍写入单个 .nbdl 包（--ez bundle true），触发时按输出尺寸预留并映射整组空间
+    // （--ez bundle_reserve false 关闭预留，用于对比逐块扩展文件时的写入延迟）
+    private boolean mBundleEnabled = false;
+    private boolean mBundleReserve = true;
+    private BurstBundleWriter mBundle;
+
+    // 持久化策略（--es durability none|burst|frame|dir），fsync 在专用线程上批量进行
+    private DurabilityPolicy mDurability;
+
+    // 存储预算：触发前按剩余空间缩减或拒绝本组；指定 --ei quota_mb <n> 时结束后记账并在后台按 LRU 淘汰旧连拍
+    private StorageBudget mStorage;
+
+    // 分层存储（--es tier internal|media 强制指定落地层，默认按第一次连拍结束后的探测结果）：
+    // 拍照时写入最快的落地目录，相机关闭后在后台迁移到媒体目录
+    private StorageTier mTier;
+
+    // 发布到 MediaStore（--es publish mediastore|scan）：mediastore 预建待定条目、结束时一次批量可见；
+    // scan 为对照组，迁移完成后对本次文件做媒体扫描
+    private MediaPublisher mPublisher;
+
+    // 每帧写出前在驻留的缓冲区上做一遍结构检查 + CRC32C，结果记入 frames.csv；
+    // --ez recapture_corrupt true 时损坏的帧不写出，按写入失败计入 BurstTracker 并补拍
+    private final FrameVerifier mVerifier = new FrameVerifier();
+    private boolean mRecaptureCorrupt = false;
+
+    // 可选：每帧取出 HAL 内嵌的 Exif 缩略图，连拍结束时在后台线程池上拼成一张 contact sheet（--ez proxy true）
+    private ProxySheet mProxies;
+
+    // 可选：整组 HEIC 连拍重新封装为一个多图 HEIF 容器（--ez heif_sequence true），优先于 bundle
+    private boolean mHeifSequenceEnabled = false;
+    private HeifSequenceWriter mHeifSequence;
+
+    // 连拍完成度记账：凑齐 BURST_COUNT 张即结束，失败/丢帧时只补拍缺少的张数
+    private final BurstTracker mBurstTracker = new BurstTracker(BURST_COUNT, RETRY_BUDGET_MS, new BurstTracker.Listener() {
+        @Override
+        public void onResubmit(int count) {
+            try {
+                submitBurst(count);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Resubmit failed", e);
+                mBurstTracker.abandon();
+            }
+        }
+
+        @Override
+        public void onFinished(BurstTracker tracker) {
+            mTracer.end(CaptureTracer.SECTION_CAPTURE);
+            mRun.count(PipelineMetrics.COUNTER_RETRIED_FRAMES, tracker.retriedFrames());
+            mRun.count(PipelineMetrics.COUNTER_HAL_DROPS, tracker.halDrops());
+            mRun.count(PipelineMetrics.COUNTER_READER_DROPS, tracker.readerDrops());
+            mDurability.endBurst();
+            mPublisher.publish();
+            if (mProxies != null) mProxies.finish();
+            Log.d(TAG, "Burst completed. Exiting...");
+            // 投递到队列末尾，让当前帧的保存流程先走完再清理
+            mBgHandler.post(() -> {
+                cleanup();
+                mMainHandler.post(MFNRNZSLHeicActivity.this::finish);
+            });
+        }
+    });
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Log.d(TAG, "NoUI camera started");
+        mBundleEnabled = getIntent().getBooleanExtra("bundle", false);
+        mBundleReserve = getIntent().getBooleanExtra("bundle_reserve", true);
+        mRecaptureCorrupt = getIntent().getBooleanExtra("recapture_corrupt", false);
+        mDurability = new DurabilityPolicy(DurabilityPolicy.Level.parse(getIntent().getStringExtra("durability")), mRun);
+        mTier = new StorageTier(this, "burst", getIntent().getStringExtra("tier"));
+        mPublisher = new MediaPublisher(this, MediaPublisher.Mode.parse(getIntent().getStringExtra("publish")),
+                "image/heic", ".heic", mRun);
+        mStorage = new StorageBudget(mTier.finalDir(),
+                getIntent().getIntExtra("quota_mb", 0) * (1L << 20), mRun);
+        if (getIntent().getBooleanExtra("proxy", false)) mProxies = new ProxySheet(mTier.finalDir(),
+                new File(getExternalMediaDirs()[0], "metrics"), mRun);
+        mHeifSequenceEnabled = getIntent().getBooleanExtra("heif_sequence", false);
 
         // 启动后台线程处理相机操作
         startBackgroundThread();
+        // 提前确定落地目录（读取探测结果、建目录）；没有探测结果时本次写媒体目录，探测在连拍结束后的迁移线程上进行
+        mBgHandler.post(mTier::landingDir);
+        // 待定条目的插入与打开同样在打开相机之前完成
+        mBgHandler.post(() -> mPublisher.prepare(BURST_COUNT));
 
         // 创建虚拟 Surface 用于预览（无实际显示）
         mDummyTexture = new SurfaceTexture(0);
         mDummyTexture.setDefaultBufferSize(640, 480); // 设置低分辨率以节省资源
         mPreviewSurface = new Surface(mDummyTexture);
 
-        // 估算系统启动时的 UTC 时间，用于后续时间戳转换
-        mBootTimeUtcMs = System.currentTimeMillis() - SystemClock.elapsedRealtime();
-        Log.d(TAG, "Estimated boot UTC time: " + formatUtcTime(mBootTimeUtcMs));
-
         // 检查 CAMERA 权限（穿戴设备通常需预授权）
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
                 != PackageManager.PERMISSION_GRANTED) {
@@ -135,39 +229,43 @@ public class MFNRNZSLHeicActivity extends Activity {
     }
 
     /**
-     * 查找并打开后置摄像头
+     * 查找并打开后置摄像头：被占用时退避重试，必要时切换到其他后置摄像头，断开后自动恢复
      */
     private void openBackCamera() {
-        try {
-            mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
-            for (String id : mCameraManager.getCameraIdList()) {
-                mCameraCharacteristics = mCameraManager.getCameraCharacteristics(id);
-                Integer facing = mCameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
-                if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
-                    mCameraId = id;
-                    break;
-                }
-            }
-            if (mCameraId == null) {
-                Log.e(TAG, "No back camera found");
-                finish();
-                return;
-            }
-            // 异步打开摄像头，回调在 mBgHandler 线程执行
-            mCameraManager.openCamera(mCameraId, mStateCallback, mBgHandler);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to open camera", e);
-            finish();
-        }
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        // 回调均在 mBgHandler 线程执行
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
     }
 
     /**
-     * CameraDevice 状态回调
+     * 相机打开 / 丢失 / 放弃回调
      */
-    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
         @Override
-        public void onOpened(CameraDevice camera) {
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
             mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            mSensorClock = new SensorClock(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.setClock(mSensorClock);
+            Log.d(TAG, "Sensor clock: " + mSensorClock);
+            mBgHandler.removeCallbacks(mRecalibrate);
+            mBgHandler.postDelayed(mRecalibrate, SensorClock.RECALIBRATE_INTERVAL_NS / 1_000_000L);
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
             try {
                 // 预创建两种请求模板，避免后续重复创建（性能优化）
                 mPreviewRequestTemplate = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
@@ -181,23 +279,47 @@ public class MFNRNZSLHeicActivity extends Activity {
         }
 
         @Override
-        public void onDisconnected(CameraDevice camera) {
-            cleanup();
-            mMainHandler.post(MFNRNZSLHeicActivity.this::finish);
+        public void onCameraLost() {
+            // 会话随相机一起失效；已保存的帧保留，恢复后只补拍剩余张数
+            Log.w(TAG, "Camera lost, " + mBurstTracker.remaining() + " frame(s) remaining");
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mBurstTracker.suspend();
+            closeSession();
+            mAeConverged = false;
+            m3AConverged = false;
+            mBurstTriggered = false;
         }
 
         @Override
-        public void onError(CameraDevice camera, int error) {
+        public void onGiveUp() {
             cleanup();
             mMainHandler.post(MFNRNZSLHeicActivity.this::finish);
         }
     };
 
+    /**
+     * 关闭会话与 ImageReader（相机丢失时调用，设备已由 CameraOpener 关闭）
+     */
+    private void closeSession() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        mCameraDevice = null;
+    }
+
     /**
      * 创建 CameraCaptureSession
      * 包含两个输出 Surface：虚拟预览 Surface + ImageReader（用于接收图像）
      */
     private void createCaptureSession() {
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
         try {
             Size jpegSize = chooseJpegSize();
             // 固定使用高分辨率 JPEG（可根据设备性能调整）
@@ -211,10 +333,12 @@ public class MFNRNZSLHeicActivity extends Activity {
 
             // 设置图像可用监听器：每当有新图像，就保存
             mImageReader.setOnImageAvailableListener(reader -> {
+                long availableNs = SystemClock.elapsedRealtimeNanos();
+                mTracer.instant(CaptureTracer.EVENT_IMAGE_AVAILABLE, 0);
                 Image image;
-                // 使用 acquireLatestImage()：只保留最新一帧（适合预览，但连拍时可能丢帧）
-                while ((image = reader.acquireLatestImage()) != null) {
-                    saveImage(image);
+                // 使用 acquireNextImage()：按顺序取出每一帧，连拍时不在 ImageReader 侧丢帧
+                while ((image = reader.acquireNextImage()) != null) {
+                    saveImage(image, availableNs);
                 }
             }, mBgHandler);
 
@@ -231,6 +355,9 @@ public class MFNRNZSLHeicActivity extends Activity {
                 @Override
                 public void onConfigured(CameraCaptureSession session) {
                     mCaptureSession = session;
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    mTracer.begin(CaptureTracer.SECTION_CONVERGE);
                     try {
                         // 启动重复预览请求，并注册回调以监控 3A 状态
                         session.setRepeatingRequest(previewBuilder.build(), mPreviewCaptureCallback, mBgHandler);
@@ -274,6 +401,7 @@ public class MFNRNZSLHeicActivity extends Activity {
                                                @NonNull TotalCaptureResult finalResult) {
                     // 打印完整结果（通常与 partialResult 内容一致，但更完整）
                     logCaptureResult("Preview Final Result", finalResult);
+                    mTracer.instant(CaptureTracer.EVENT_PREVIEW_RESULT, finalResult.getFrameNumber());
                     checkAeAndTriggerBurst(finalResult);
                 }
             };
@@ -362,6 +490,13 @@ public class MFNRNZSLHeicActivity extends Activity {
      */
     private void triggerBurst() {
         mBurstTriggered = true;
+        mTracer.end(CaptureTracer.SECTION_CONVERGE);
+        mTracer.instant(CaptureTracer.EVENT_TRIGGER, 0);
+        mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+        mRun.mark(PipelineMetrics.MARK_TRIGGER);
+        if (!admitBurst()) return;
+        openBundle();
+        mTriggerSensorTs = mSensorClock.realtimeToSensorNs(SystemClock.elapsedRealtimeNanos());
         try {
             if (mCaptureSession != null) {
                 mCaptureSession.stopRepeating(); // 停止预览
@@ -373,37 +508,86 @@ public class MFNRNZSLHeicActivity extends Activity {
             burstBuilder.set(CaptureRequest.CONTROL_ENABLE_ZSL, false); // 显式关闭 ZSL
             burstBuilder.set(CaptureRequest.NOISE_REDUCTION_MODE, CaptureRequest.NOISE_REDUCTION_MODE_HIGH_QUALITY);
             burstBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) 90);
-
-            // 构建连拍请求列表
-            List<CaptureRequest> requests = new ArrayList<>();
-            for (int i = 0; i < BURST_COUNT; i++) {
-                requests.add(burstBuilder.build());
+            if (mProxies != null) {
+                burstBuilder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, ProxySheet.thumbnailSize(
+                        mCameraCharacteristics, mImageReader.getWidth(), mImageReader.getHeight()));
             }
 
-            // 发起 burst 捕获
-            mCaptureSession.captureBurst(requests, new CameraCaptureSession.CaptureCallback() {
+            // 发起 burst 捕获，完成度由 mBurstTracker 跟踪
+            // 相机恢复后再次触发时只提交剩余张数
+            mBurstTracker.start(mBgHandler);
+            submitBurst(mBurstTracker.remaining());
+
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Burst failed", e);
+            mMainHandler.post(MFNRNZSLHeicActivity.this::finish);
+        }
+    }
+
+    /**
+     * 提交 count 个静态拍照请求（首次连拍与补拍共用）
+     */
+    private void submitBurst(int count) throws CameraAccessException {
+        List<CaptureRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(mStillRequestTemplate.build());
+        }
+        mTracer.instant(CaptureTracer.EVENT_SUBMIT, count);
+        mBurstTracker.submitted(count);
+        mCaptureSession.captureBurst(requests, mBurstCaptureCallback, mBgHandler);
+    }
+
+    /**
+     * 连拍请求回调：成功、失败、缓冲丢失、序列中止都交给 mBurstTracker 记账
+     */
+    private final CameraCaptureSession.CaptureCallback mBurstCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
                 private int captured = 0;
 
                 @Override
-                public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
                     captured++;
+                    mTracer.markResult(result);
+                    mRun.captureCompleted();
+                    mMetadata.record(result);
+                    recordShutterLag(result);
                     logCaptureResult("Burst Capture", result);
                     Log.d(TAG, "Burst captured #" + captured + " (frame " + result.getFrameNumber() + ")");
-                    if (captured >= BURST_COUNT) {
-                        Log.d(TAG, "Burst completed. Exiting...");
-                        // 延迟 300ms 后清理资源，确保最后一帧图像已保存（经验性做法）
-                        mBgHandler.postDelayed(() -> {
-                            cleanup();
-                            mMainHandler.post(MFNRNZSLHeicActivity.this::finish);
-                        }, 300);
-                    }
+                    mBurstTracker.onCompleted();
                 }
-            }, mBgHandler);
 
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "Burst failed", e);
-            mMainHandler.post(MFNRNZSLHeicActivity.this::finish);
-        }
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    mBurstTracker.onFailed(failure);
+                }
+
+                @Override
+                public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                                @NonNull CaptureRequest request,
+                                                @NonNull Surface target, long frameNumber) {
+                    mBurstTracker.onBufferLost(frameNumber);
+                }
+
+                @Override
+                public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+                    mBurstTracker.onSequenceAborted(sequenceId);
+                }
+            };
+
+    /**
+     * 第一帧结果到达时记录快门延迟（按模式归档，便于与其他拍照模式对比）
+     */
+    private void recordShutterLag(CaptureResult result) {
+        if (mShutterLagRecorded) return;
+        Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (ts == null) return;
+        mShutterLagRecorded = true;
+        long lagUs = mRun.sampleShutterLag(ts - mTriggerSensorTs);
+        Log.d(TAG, "Shutter lag " + lagUs + "us");
     }
 
     // 以下为 3A 状态的字符串转换工具方法（便于日志阅读）
@@ -456,13 +640,26 @@ public class MFNRNZSLHeicActivity extends Activity {
     }
 
     /**
-     * 将传感器纳秒时间戳转换为 UTC 毫秒时间
+     * 触发前在相机线程上定期重新校准时钟。校准要等 UTC 毫秒跳变（最多数毫秒），
+     * 不放在逐帧的时间戳换算里；连拍开始后停止，本组使用最近一次校准
+     */
+    private final Runnable mRecalibrate = new Runnable() {
+        @Override
+        public void run() {
+            if (mSensorClock == null || mBurstTriggered) return;
+            mSensorClock.maybeRecalibrate(SensorClock.RECALIBRATE_INTERVAL_NS);
+            mBgHandler.postDelayed(this, SensorClock.RECALIBRATE_INTERVAL_NS / 1_000_000L);
+        }
+    };
+
+    /**
+     * 将传感器纳秒时间戳转换为 UTC 毫秒时间（使用最近一次校准，不在此处校准）
      */
     private Long sensorTimestampToUtcMs(Long sensorTimestampNs) {
-        if (mBootTimeUtcMs <= 0 || sensorTimestampNs == null) {
+        if (mSensorClock == null || sensorTimestampNs == null) {
             return null;
         }
-        return mBootTimeUtcMs + (sensorTimestampNs / 1_000_000L);
+        return mSensorClock.sensorToUtcNs(sensorTimestampNs) / 1_000_000L;
     }
 
     /**
@@ -484,24 +681,272 @@ public class MFNRNZSLHeicActivity extends Activity {
     /**
      * 保存 ImageReader 中的 JPEG 图像到外部存储
      */
-    private void saveImage(Image image) {
+    private void saveImage(Image image, long availableNs) {
+        mTracer.begin(CaptureTracer.SECTION_SAVE);
+        long sensorTs = image.getTimestamp();
+        long acquiredNs = SystemClock.elapsedRealtimeNanos();
         try {
             ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
-
-            File dir = new File(getExternalMediaDirs()[0], "burst");
+            if (!verifyFrame(image, buffer)) return;
+            if (mProxies != null) mProxies.add(sensorTs, image.getFormat(), buffer);
+            if (mHeifSequenceEnabled && appendToHeifSequence(image, buffer, availableNs, acquiredNs)) {
+                return;
+            }
+            if (mBundleEnabled) {
+                appendToBundle(image, buffer, availableNs, acquiredNs);
+                return;
+            }
+            MediaPublisher.Entry entry = mPublisher.take();
+            if (entry != null) {
+                writeToMediaStore(entry, image, buffer, availableNs, acquiredNs);
+                return;
+            }
+            File dir = mTier.landingDir();
             dir.mkdirs();
             File file = new File(dir, "burst_" + System.currentTimeMillis() + ".heic");
+            long writeNs = SystemClock.elapsedRealtimeNanos();
+            long length;
             try (FileOutputStream fos = new FileOutputStream(file)) {
-                fos.write(bytes);
-                Log.d(TAG, "Saved: " + file.getAbsolutePath());
+                length = writeWithExif(fos.getChannel(), image, buffer);
             }
+            long closedNs = SystemClock.elapsedRealtimeNanos();
+            mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, length);
+            mRun.frameWritten(availableNs, closedNs - writeNs, length);
+            Log.d(TAG, "Saved: " + file.getAbsolutePath());
+            mMetadata.bindFile(sensorTs, file, mVerifier.crc(), mVerifier.status());
+            mDurability.onWritten(file);
+            mStorage.onWritten(file);
+            mPublisher.onWritten(file);
+            mBurstTracker.onImageSaved();
         } catch (Exception e) {
             Log.e(TAG, "Save failed", e);
+            mRun.frameFailed();
+            mBurstTracker.onImageWriteFailed();
         } finally {
             image.close(); // 必须关闭，否则 ImageReader 会阻塞
+            mTracer.end(CaptureTracer.SECTION_SAVE);
+        }
+    }
+
+    /**
+     * 写出前的完整性检查：结果留在 mVerifier 中供本帧的 frames.csv 行使用。
+     * 损坏的帧照常写出并在 frames.csv 中标记；开启 recapture_corrupt 时改为丢弃并按写入失败计数，
+     * 由 BurstTracker 补拍（不需要从磁盘回读）
+     *
+     * @return false 表示本帧已丢弃
+     */
+    private boolean verifyFrame(Image image, ByteBuffer buffer) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        boolean intact = mVerifier.verify(buffer, image.getFormat());
+        mRun.sample(PipelineMetrics.HIST_VERIFY, (SystemClock.elapsedRealtimeNanos() - startNs) / 1000);
+        if (intact) return true;
+        mRun.count(PipelineMetrics.COUNTER_CORRUPT_FRAMES, 1);
+        Log.w(TAG, "Corrupt frame ts=" + image.getTimestamp() + ": " + mVerifier.problem()
+                + " (" + mVerifier.length() + "B, crc32c=" + Integer.toHexString(mVerifier.crc()) + ")");
+        if (!mRecaptureCorrupt) return true;
+        mRun.frameFailed();
+        mBurstTracker.onImageWriteFailed();
+        return false;
+    }
+
+    /**
+     * 本帧的拍摄元数据；结果晚于图像到达时帧号与 3A 状态未知（-1）
+     */
+    private CaptureExif captureExif(long sensorTs) {
+        int slot = mMetadata.indexOf(sensorTs);
+        long utcNs = mSensorClock != null ? mSensorClock.sensorToUtcNs(sensorTs) : -1;
+        if (slot < 0) {
+            return new CaptureExif(-1, sensorTs, utcNs, FrameMetadataStore.STATE_UNKNOWN,
+                    FrameMetadataStore.STATE_UNKNOWN, FrameMetadataStore.STATE_UNKNOWN);
+        }
+        return new CaptureExif(mMetadata.frameNumber(slot), sensorTs, utcNs,
+                mMetadata.aeState(slot), mMetadata.awbState(slot), mMetadata.afState(slot));
+    }
+
+    /**
+     * 把编码好的图像连同拍摄元数据写入 channel：JPEG 拼入 APP1/Exif 段（聚集写，图像数据不经过 Java 堆），
+     * HEIC 经 HeifSequenceWriter 写为带 Exif 条目的单图文件；无法解析时原样写出
+     *
+     * @return 写入的字节数
+     */
+    private long writeWithExif(FileChannel channel, Image image, ByteBuffer buffer) throws IOException {
+        CaptureExif exif = captureExif(image.getTimestamp());
+        if (image.getFormat() == ImageFormat.HEIC) {
+            HeifSequenceWriter writer = new HeifSequenceWriter(channel);
+            try {
+                writer.append(buffer, null, exif);
+                writer.close();
+                return channel.size();
+            } catch (IOException e) {
+                // 解析失败时尚未写出任何数据，退回原样写出；写入过程中的错误照常抛出
+                if (channel.size() > 0) throw e;
+                Log.w(TAG, "Exif not injected: " + e.getMessage());
+            }
+        }
+        ByteBuffer[] parts = image.getFormat() == ImageFormat.JPEG
+                ? exif.spliceJpeg(buffer) : new ByteBuffer[]{buffer.slice()};
+        long length = 0;
+        for (ByteBuffer part : parts) length += part.remaining();
+        for (long written = 0; written < length; ) {
+            written += channel.write(parts);
+        }
+        return length;
+    }
+
+    /**
+     * 写入预先创建的 MediaStore 待定条目（连拍结束时统一可见）；frames.csv 中按条目的显示名记录
+     */
+    private void writeToMediaStore(MediaPublisher.Entry entry, Image image, ByteBuffer buffer,
+                                   long availableNs, long acquiredNs) throws IOException {
+        long sensorTs = image.getTimestamp();
+        long writeNs = SystemClock.elapsedRealtimeNanos();
+        long length = entry.write(channel -> writeWithExif(channel, image, buffer));
+        long closedNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, length);
+        mRun.frameWritten(availableNs, closedNs - writeNs, length);
+        Log.d(TAG, "Saved: " + entry.uri() + " (" + entry.displayName() + ", pending)");
+        mMetadata.bindFile(sensorTs, new File(mTier.landingDir(), entry.displayName()),
+                mVerifier.crc(), mVerifier.status());
+        mBurstTracker.onImageSaved();
+    }
+
+    /**
+     * 把图像直接从平面缓冲追加到连拍包；文件名记为 <包名>#<序号> 写入 frames.csv
+     */
+    private void appendToBundle(Image image, ByteBuffer buffer, long availableNs, long acquiredNs) throws IOException {
+        long sensorTs = image.getTimestamp();
+        File dir = mTier.landingDir();
+        if (mBundle == null) {
+            openBundle();
+            if (mBundle == null) throw new IOException("Bundle unavailable");
         }
+        int slot = mMetadata.indexOf(sensorTs);
+        long frameNumber = slot >= 0 ? mMetadata.frameNumber(slot) : -1;
+        int length = buffer.remaining();
+        long writeNs = SystemClock.elapsedRealtimeNanos();
+        int index = mBundle.append(buffer, image.getFormat(), sensorTs, frameNumber);
+        long closedNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, length);
+        mRun.frameWritten(availableNs, closedNs - writeNs, length);
+        Log.d(TAG, "Appended #" + index + " (" + length + "B) to " + mBundle.file().getName());
+        mMetadata.bindFile(sensorTs, new File(dir, mBundle.file().getName() + "#" + index),
+                mVerifier.crc(), mVerifier.status());
+        mDurability.onWritten(mBundle.file());
+        mStorage.onWritten(mBundle.file());
+        mBurstTracker.onImageSaved();
+    }
+
+    /**
+     * 把 HEIC 帧重新封装进本次连拍的多图 HEIF 容器，主图 item_name 记录时间戳，
+     * 并附加描述该帧的 Exif 条目；
+     * 帧结构不受支持时返回 false，由调用方退回单文件写入
+     */
+    private boolean appendToHeifSequence(Image image, ByteBuffer buffer, long availableNs, long acquiredNs) {
+        long sensorTs = image.getTimestamp();
+        File dir = mTier.landingDir();
+        if (mHeifSequence == null) {
+            dir.mkdirs();
+            mHeifSequence = new HeifSequenceWriter(new File(dir, "burst_" + System.currentTimeMillis() + "_seq.heic"));
+        }
+        Long utcMs = sensorTimestampToUtcMs(sensorTs);
+        String label = "ts=" + sensorTs + (utcMs != null ? ";utc_ms=" + utcMs : "");
+        int length = buffer.remaining();
+        long writeNs = SystemClock.elapsedRealtimeNanos();
+        int index;
+        try {
+            index = mHeifSequence.append(buffer, label, captureExif(sensorTs));
+        } catch (IOException e) {
+            Log.w(TAG, "HEIF sequence append failed, saving frame as a separate file", e);
+            return false;
+        }
+        long closedNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, length);
+        mRun.frameWritten(availableNs, closedNs - writeNs, length);
+        Log.d(TAG, "Appended #" + index + " (" + length + "B) to " + mHeifSequence.file().getName());
+        mMetadata.bindFile(sensorTs, new File(dir, mHeifSequence.file().getName() + "#" + index),
+                mVerifier.crc(), mVerifier.status());
+        mDurability.onWritten(mHeifSequence.file());
+        mStorage.onWritten(mHeifSequence.file());
+        mBurstTracker.onImageSaved();
+        return true;
+    }
+
+    /**
+     * 写出多图容器的 meta，并记录容器大小与单文件保存大小的对比
+     */
+    private void closeHeifSequence() {
+        if (mHeifSequence == null) return;
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        try {
+            mHeifSequence.close();
+            if (mHeifSequence.count() > 0) {
+                mDurability.onWritten(mHeifSequence.file());
+                mStorage.onWritten(mHeifSequence.file());
+            }
+            long finalizeUs = (SystemClock.elapsedRealtimeNanos() - startNs) / 1000;
+            int frames = mHeifSequence.count();
+            if (frames > 0) {
+                long bytes = mHeifSequence.file().length();
+                mRun.sample(PipelineMetrics.HIST_CONTAINER_FINALIZE, finalizeUs);
+                mRun.count(PipelineMetrics.COUNTER_CONTAINER_BYTES, bytes);
+                mRun.count(PipelineMetrics.COUNTER_CONTAINER_INPUT_BYTES, mHeifSequence.inputBytes());
+                Log.d(TAG, String.format(Locale.US, "HEIF sequence %s: %d frame(s), %d B/frame vs %d B/frame per-file, finalize %dus",
+                        mHeifSequence.file().getName(), frames, bytes / frames, mHeifSequence.inputBytes() / frames, finalizeUs));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to finalize HEIF sequence", e);
+        }
+        mHeifSequence = null;
+    }
+
+    /**
+     * 触发前的存储准入：剩余空间放不下本组剩余张数时缩减目标，一张也放不下则直接结束
+     */
+    private boolean admitBurst() {
+        if (mImageReader == null) return true;
+        long frameBytes = BurstBundleWriter.maxFrameBytes(
+                mImageReader.getImageFormat(), mImageReader.getWidth(), mImageReader.getHeight());
+        int remaining = mBurstTracker.remaining();
+        int allowed = mStorage.admit(remaining, frameBytes);
+        if (allowed == remaining) return true;
+        mRun.count(PipelineMetrics.COUNTER_FRAMES_NOT_ADMITTED, remaining - allowed);
+        mBurstTracker.limit(mBurstTracker.saved() + allowed);
+        if (allowed > 0) return true;
+        Log.e(TAG, "No storage left for the burst, abandoning");
+        mBurstTracker.start(mBgHandler);
+        mBurstTracker.abandon();
+        return false;
+    }
+
+    /**
+     * 触发连拍前创建连拍包：输出尺寸已确定，按本组剩余张数的上界一次预留，避免在拍照路径上扩展文件
+     */
+    private void openBundle() {
+        if (!mBundleEnabled || mBundle != null || mImageReader == null) return;
+        File dir = mTier.landingDir();
+        dir.mkdirs();
+        long reserve = mBundleReserve ? mBurstTracker.remaining() * BurstBundleWriter.maxFrameBytes(
+                mImageReader.getImageFormat(), mImageReader.getWidth(), mImageReader.getHeight()) : 0;
+        try {
+            mBundle = new BurstBundleWriter(new File(dir, "bundle_" + System.currentTimeMillis() + BurstBundle.EXTENSION), reserve);
+            Log.d(TAG, "Bundle opened: " + mBundle.file().getName() + ", reserved " + reserve + "B");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open bundle", e);
+        }
+    }
+
+    private void closeBundle() {
+        if (mBundle == null) return;
+        try {
+            mBundle.close();
+            mDurability.onWritten(mBundle.file());
+            mStorage.onWritten(mBundle.file());
+            Log.d(TAG, "Bundle closed: " + mBundle.file().getAbsolutePath() + ", " + mBundle.count()
+                    + " frame(s), " + mBundle.dataBytes() + "B, " + mBundle.overflowBytes() + "B beyond reservation");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close bundle", e);
+        }
+        mBundle = null;
     }
 
     /**
@@ -509,6 +954,9 @@ public class MFNRNZSLHeicActivity extends Activity {
      */
     private void cleanup() {
         try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
             if (mCaptureSession != null) {
                 mCaptureSession.close();
                 mCaptureSession = null;
@@ -533,6 +981,29 @@ public class MFNRNZSLHeicActivity extends Activity {
             Log.e(TAG, "Error during cleanup", e);
         }
         stopBackgroundThread();
+        closeBundle();
+        closeHeifSequence();
+        // 等待剩余文件同步完成，同步耗时计入本次运行的指标
+        if (mDurability != null) mDurability.close();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+        mMetadata.close();
+        // 未正常结束（例如相机放弃重试）时也要处理待定条目：已写入的可见，其余删除
+        if (mPublisher != null) mPublisher.publish();
+        // 输出全部关闭后在后台迁移到媒体目录；迁移完成后本组才记入存储索引，超出配额时按 LRU 淘汰，
+        // 对照组随后对最终目录中的本次文件发起媒体扫描
+        if (mTier != null) {
+            boolean syncDirectory = mDurability != null && mDurability.level() == DurabilityPolicy.Level.DIRECTORY;
+            mTier.migrate(syncDirectory, () -> {
+                // contact sheet 直接写在最终目录，写完后与本组文件一起记入存储索引
+                if (mProxies != null) {
+                    File sheet = mProxies.close();
+                    if (sheet != null) mStorage.onWritten(sheet);
+                }
+                mStorage.close();
+                mPublisher.scan(mTier.finalDir(), new File(getExternalMediaDirs()[0], "metrics"));
+            });
+        }
     }
 
     /**
@@ -550,10 +1021,22 @@ public class MFNRNZSLHeicActivity extends Activity {
     private void stopBackgroundThread() {
         if (mBgThread != null) {
             mBgThread.quitSafely();
-            try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            // 在后台线程自身上调用时不能 join，否则永远等不到线程结束
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
         }
     }
 
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.MFNRNZSLHeicActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
     @Override
     protected void onDestroy() {
         Log.d(TAG, "Activity destroyed");
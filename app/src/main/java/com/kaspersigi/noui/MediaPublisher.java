@@ -0,0 +1,279 @@
+package com.kaspersigi.noui;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把连拍结果发布到 MediaStore，使其他应用无需等待媒体扫描即可看到。
+ * - MEDIASTORE：拍照前为每张预期的帧插入 IS_PENDING=1 的条目并打开其文件描述符（insert + open 都是 IPC，
+ *   不落在拍照路径上）；写入阶段直接写这些描述符；连拍结束时一次 applyBatch 把已写入的条目置为可见、
+ *   删除没用上的条目，不产生逐文件的扫描工作。张数不够时（补拍）按需再插入
+ * - SCAN：照常写文件，迁移到最终目录后对本次的文件发起一次媒体扫描，作为对照
+ *
+ * 指标：publish_prepare_us 为预建条目耗时，publish_us 为结束时批量发布的耗时（即连拍结束到全部可见），
+ * media_scan_us 为对照组从发起扫描到全部文件扫描完成的耗时（扫描在运行结束后进行，记入累计指标）。
+ * prepare / take / publish 应在同一线程（相机后台线程）上调用。
+ */
+public final class MediaPublisher {
+    private static final String TAG = "NoUI";
+    private static final String RELATIVE_PATH = Environment.DIRECTORY_PICTURES + "/NoUI";
+
+    public enum Mode {
+        NONE, MEDIASTORE, SCAN;
+
+        /**
+         * 解析 none / mediastore / scan（大小写不敏感），无法识别时返回 NONE
+         */
+        public static Mode parse(String spec) {
+            if (spec == null) return NONE;
+            switch (spec.trim().toLowerCase(Locale.US)) {
+                case "mediastore":
+                    return MEDIASTORE;
+                case "scan":
+                    return SCAN;
+                case "none":
+                    return NONE;
+                default:
+                    Log.w(TAG, "Unknown publish mode '" + spec + "', using none");
+                    return NONE;
+            }
+        }
+    }
+
+    /**
+     * 一个待定的 MediaStore 条目：写入后在 publish() 时变为可见，未写入的在 publish() 时删除
+     */
+    public static final class Entry {
+        /**
+         * 向条目的描述符写入完整文件内容（从位置 0 开始）
+         */
+        public interface ChannelWriter {
+            /**
+             * @return 写入的字节数
+             */
+            long writeTo(FileChannel channel) throws IOException;
+        }
+
+        private final Uri mUri;
+        private final String mDisplayName;
+        private ParcelFileDescriptor mPfd;
+        private boolean mWritten = false;
+        private long mWrittenMs;
+
+        Entry(Uri uri, String displayName, ParcelFileDescriptor pfd) {
+            mUri = uri;
+            mDisplayName = displayName;
+            mPfd = pfd;
+        }
+
+        public Uri uri() {
+            return mUri;
+        }
+
+        public String displayName() {
+            return mDisplayName;
+        }
+
+        /**
+         * 通过预先打开的描述符写入完整文件内容，写完即关闭描述符
+         *
+         * @return 写入的字节数
+         */
+        public long write(ChannelWriter writer) throws IOException {
+            if (mPfd == null) throw new IOException("Entry already written: " + mDisplayName);
+            long length;
+            try (FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(mPfd)) {
+                mPfd = null;
+                length = writer.writeTo(out.getChannel());
+            }
+            mWritten = true;
+            mWrittenMs = System.currentTimeMillis();
+            return length;
+        }
+
+        void closeQuietly() {
+            if (mPfd == null) return;
+            try {
+                mPfd.close();
+            } catch (IOException ignored) {
+            }
+            mPfd = null;
+        }
+    }
+
+    private final Context mContext;
+    private final Mode mMode;
+    private final String mMimeType;
+    private final String mExtension;
+    private final PipelineMetrics.Run mRun;
+    private final ArrayDeque<Entry> mPending = new ArrayDeque<>();
+    private final List<Entry> mTaken = new ArrayList<>();
+    private final List<String> mScanNames = new ArrayList<>();
+    private String mPrefix;
+    private int mSequence = 0;
+    private boolean mPublished = false;
+
+    /**
+     * @param extension 文件扩展名（含点，例如 ".jpg"）
+     */
+    public MediaPublisher(Context context, Mode mode, String mimeType, String extension, PipelineMetrics.Run run) {
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        mMode = mode;
+        mMimeType = mimeType;
+        mExtension = extension;
+        mRun = run;
+    }
+
+    public Mode mode() {
+        return mMode;
+    }
+
+    /**
+     * MEDIASTORE 模式下预建 count 个待定条目
+     */
+    public void prepare(int count) {
+        if (mMode != Mode.MEDIASTORE) return;
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < count; i++) {
+            Entry entry = insert();
+            if (entry == null) break;
+            mPending.add(entry);
+        }
+        mRun.sample(PipelineMetrics.HIST_PUBLISH_PREPARE, (SystemClock.elapsedRealtimeNanos() - startNs) / 1000);
+        Log.d(TAG, "Prepared " + mPending.size() + " pending MediaStore entr" + (mPending.size() == 1 ? "y" : "ies"));
+    }
+
+    /**
+     * 取出下一个待定条目；非 MEDIASTORE 模式或插入失败时返回 null，调用方退回写文件
+     */
+    public Entry take() {
+        if (mMode != Mode.MEDIASTORE || mPublished) return null;
+        Entry entry = mPending.poll();
+        if (entry == null) {
+            Log.w(TAG, "No prepared MediaStore entry left, inserting on the capture path");
+            entry = insert();
+            if (entry == null) return null;
+        }
+        mTaken.add(entry);
+        return entry;
+    }
+
+    /**
+     * SCAN 模式下记录本次写入的文件，迁移完成后在最终目录中按文件名扫描
+     */
+    public void onWritten(File file) {
+        if (mMode != Mode.SCAN) return;
+        synchronized (mScanNames) {
+            mScanNames.add(file.getName());
+        }
+    }
+
+    /**
+     * 连拍结束：一次 applyBatch 把已写入的条目置为可见并删除未使用的条目；重复调用无效
+     */
+    public void publish() {
+        if (mMode != Mode.MEDIASTORE || mPublished) return;
+        mPublished = true;
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        int visible = 0;
+        for (Entry entry : mTaken) {
+            entry.closeQuietly();
+            if (entry.mWritten) {
+                ops.add(ContentProviderOperation.newUpdate(entry.mUri)
+                        .withValue(MediaStore.MediaColumns.IS_PENDING, 0)
+                        .withValue(MediaStore.MediaColumns.DATE_TAKEN, entry.mWrittenMs)
+                        .build());
+                visible++;
+            } else {
+                ops.add(ContentProviderOperation.newDelete(entry.mUri).build());
+            }
+        }
+        for (Entry entry : mPending) {
+            entry.closeQuietly();
+            ops.add(ContentProviderOperation.newDelete(entry.mUri).build());
+        }
+        mPending.clear();
+        if (ops.isEmpty()) return;
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        try {
+            mContext.getContentResolver().applyBatch(MediaStore.AUTHORITY, ops);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "MediaStore publish failed", e);
+            return;
+        }
+        long publishUs = (SystemClock.elapsedRealtimeNanos() - startNs) / 1000;
+        mRun.sample(PipelineMetrics.HIST_PUBLISH, publishUs);
+        Log.d(TAG, "Published " + visible + " MediaStore entr" + (visible == 1 ? "y" : "ies") + " in "
+                + publishUs + "us (" + (ops.size() - visible) + " unused removed)");
+    }
+
+    /**
+     * SCAN 模式下对 dir 中本次写入的文件发起媒体扫描，全部完成时在扫描回调线程上记录耗时；
+     * 此时 Run.finish() 早已结束，耗时直接合并进 metricsDir 下的累计指标
+     */
+    public void scan(File dir, File metricsDir) {
+        if (mMode != Mode.SCAN) return;
+        String[] paths;
+        synchronized (mScanNames) {
+            paths = new String[mScanNames.size()];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = new File(dir, mScanNames.get(i)).getAbsolutePath();
+            }
+        }
+        if (paths.length == 0) return;
+        AtomicInteger remaining = new AtomicInteger(paths.length);
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        MediaScannerConnection.scanFile(mContext, paths, null, (path, uri) -> {
+            if (uri == null) Log.w(TAG, "Media scan failed: " + path);
+            if (remaining.decrementAndGet() > 0) return;
+            long scanUs = (SystemClock.elapsedRealtimeNanos() - startNs) / 1000;
+            PipelineMetrics.get().mergeIntoCumulative(metricsDir, PipelineMetrics.HIST_MEDIA_SCAN, scanUs);
+            Log.d(TAG, "Media scan of " + paths.length + " file(s) took " + scanUs + "us");
+        });
+    }
+
+    private Entry insert() {
+        ContentResolver resolver = mContext.getContentResolver();
+        if (mPrefix == null) mPrefix = "burst_" + System.currentTimeMillis() + "_";
+        String name = mPrefix + (mSequence++) + mExtension;
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, mMimeType);
+        values.put(MediaStore.MediaColumns.RELATIVE_PATH, RELATIVE_PATH);
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        Uri uri = resolver.insert(MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY), values);
+        if (uri == null) {
+            Log.e(TAG, "MediaStore insert failed for " + name);
+            return null;
+        }
+        try {
+            return new Entry(uri, name, resolver.openFileDescriptor(uri, "w"));
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "Failed to open " + uri, e);
+            resolver.delete(uri, null, null);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// adb shell am start -n com.kaspersigi.noui/.MultiPlanActivity \
+//     --es plans "format=heic,count=1;format=jpeg,count=5" --ez compare true
+// 图像：<media>/multiplan/plan<i>_<ts>.<ext>；报告：<media>/multiplan/report_<ms>.json
+
+/**
+ * 一次启动按顺序执行多个 {@link CapturePlan}：
+ * 打开一次相机，按全部计划的输出并集配置一次会话，预览持续重复使 3A 在计划之间保持收敛，
+ * 只有当前会话不覆盖下一个计划时（例如并集被设备拒绝）才重新配置。
+ *
+ * compare=true（默认）时，随后再把每个计划当作一次独立启动（打开 → 配置 → 收敛 → 拍照 → 关闭）依次执行，
+ * 报告两种方式的总耗时。对比阶段的图像写完即删除。
+ */
+public class MultiPlanActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final String DEFAULT_PLANS = "format=heic,count=1;format=jpeg,count=5";
+
+    private static final int PHASE_COMBINED = 0;   // 单会话执行全部计划
+    private static final int PHASE_SEQUENTIAL = 1; // 每个计划单独打开相机（对比）
+    private static final int PHASE_DONE = 2;
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraDevice mCameraDevice;
+    private String mCameraId;
+    private CaptureEngine mEngine;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private final CaptureTracer mTracer = new CaptureTracer(16384);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+
+    private List<CapturePlan> mPlans;
+    private boolean mCompare = true;
+    private int mPhase = PHASE_COMBINED;
+    private int mPlanIndex = 0;
+    private boolean mReported = false;
+
+    // 单会话阶段
+    private long mCombinedStartNs;
+    private long mCombinedUs = -1;
+    private long mCombinedOpenUs = -1;
+    private final List<CaptureEngine.PlanResult> mResults = new ArrayList<>();
+    private final List<Boolean> mReconfigured = new ArrayList<>();
+    private int mConfigureCount = 0;
+    private boolean mNextReconfigured = false;
+
+    // 对比阶段：每个计划一次完整启动的耗时
+    private long mLaunchStartNs;
+    private long mSequentialUs = 0;
+    private final List<Long> mLaunchUs = new ArrayList<>();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "Multi-plan capture started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        String spec = getIntent().getStringExtra("plans");
+        mCompare = getIntent().getBooleanExtra("compare", true);
+        try {
+            mPlans = CapturePlan.parseList(spec != null ? spec : DEFAULT_PLANS);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Bad plan list '" + spec + "'", e);
+            finish();
+            return;
+        }
+        if (mPlans.isEmpty()) {
+            Log.e(TAG, "No plans given");
+            finish();
+            return;
+        }
+        Log.d(TAG, "Plans: " + mPlans);
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> {
+            if (mCameraOpener == null && mPhase == PHASE_COMBINED && mPlanIndex == 0) {
+                mCombinedStartNs = SystemClock.elapsedRealtimeNanos();
+                openBackCamera();
+            }
+        });
+    }
+
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mLaunchStartNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            mRun.mark(PipelineMetrics.MARK_OPENED);
+            if (mPhase == PHASE_COMBINED && mCombinedOpenUs < 0) {
+                mCombinedOpenUs = (SystemClock.elapsedRealtimeNanos() - mCombinedStartNs) / 1000;
+            }
+
+            File outDir = new File(getExternalMediaDirs()[0], mPhase == PHASE_COMBINED ? "multiplan" : "multiplan/tmp");
+            mEngine = new CaptureEngine(camera, characteristics, mBgHandler, mPreviewSurface, outDir, mTracer, mRun);
+            mEngine.setAutoStrategy(ZslStrategyStore.load(MultiPlanActivity.this, mCameraId));
+            // 单会话阶段按剩余全部计划配置（断开重连后从当前计划继续）；对比阶段只配置当前计划
+            List<CapturePlan> plans = mPhase == PHASE_COMBINED
+                    ? mPlans.subList(mPlanIndex, mPlans.size())
+                    : Collections.singletonList(mPlans.get(mPlanIndex));
+            configure(plans);
+        }
+
+        @Override
+        public void onCameraLost() {
+            Log.w(TAG, "Camera lost, resuming at plan " + (mPlanIndex + 1) + " after reopen");
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            if (mEngine != null) {
+                mEngine.close();
+                mEngine = null;
+            }
+            mCameraDevice = null;
+        }
+
+        @Override
+        public void onGiveUp() {
+            writeReport();
+            cleanup();
+            mMainHandler.post(MultiPlanActivity.this::finish);
+        }
+    };
+
+    private void configure(List<CapturePlan> plans) {
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+        mEngine.configure(plans, new CaptureEngine.ConfigureCallback() {
+            @Override
+            public void onConfigured(boolean reconfigured) {
+                mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                if (reconfigured) {
+                    if (mPhase == PHASE_COMBINED) mConfigureCount++;
+                    Log.d(TAG, "Session configured in " + mEngine.lastConfigureUs() + "us");
+                }
+                runPlan();
+            }
+
+            @Override
+            public void onConfigureFailed() {
+                Log.e(TAG, "Cannot configure session for plan " + (mPlanIndex + 1));
+                onPlanFinished(null);
+            }
+        });
+    }
+
+    private void runPlan() {
+        CapturePlan plan = mPlans.get(mPlanIndex);
+        if (!mEngine.covers(plan)) {
+            // 并集被拒绝后只配置了前一个计划，这里为剩余计划重新配置
+            Log.d(TAG, "Session does not cover plan " + (mPlanIndex + 1) + ", reconfiguring");
+            mNextReconfigured = true;
+            configure(mPlans.subList(mPlanIndex, mPlans.size()));
+            return;
+        }
+        String prefix = mPhase == PHASE_COMBINED ? "plan" + (mPlanIndex + 1) : "launch" + (mPlanIndex + 1);
+        mEngine.execute(plan, prefix, this::onPlanFinished);
+    }
+
+    private void onPlanFinished(CaptureEngine.PlanResult result) {
+        if (mPhase == PHASE_COMBINED) {
+            if (result != null) {
+                mResults.add(result);
+                mReconfigured.add(mNextReconfigured);
+            }
+            mNextReconfigured = false;
+            mPlanIndex++;
+            if (mPlanIndex < mPlans.size()) {
+                runPlan();
+                return;
+            }
+            mCombinedUs = (SystemClock.elapsedRealtimeNanos() - mCombinedStartNs) / 1000;
+            Log.d(TAG, "All " + mPlans.size() + " plan(s) in one session: " + mCombinedUs + "us, "
+                    + mConfigureCount + " configuration(s)");
+            closeCamera();
+            if (!mCompare) {
+                finishAll();
+                return;
+            }
+            mPhase = PHASE_SEQUENTIAL;
+            mPlanIndex = 0;
+            mBgHandler.post(this::openBackCamera);
+            return;
+        }
+
+        // 对比阶段：一次独立启动结束（关闭相机计入耗时）
+        if (result != null) {
+            for (File f : result.files) {
+                f.delete();
+            }
+        }
+        closeCamera();
+        long launchUs = (SystemClock.elapsedRealtimeNanos() - mLaunchStartNs) / 1000;
+        mLaunchUs.add(launchUs);
+        mSequentialUs += launchUs;
+        Log.d(TAG, "Separate launch " + (mPlanIndex + 1) + ": " + launchUs + "us");
+        mPlanIndex++;
+        if (mPlanIndex < mPlans.size()) {
+            mBgHandler.post(this::openBackCamera);
+        } else {
+            Log.d(TAG, "Separate launches: " + mSequentialUs + "us vs one session: " + mCombinedUs
+                    + "us (saved " + (mSequentialUs - mCombinedUs) + "us)");
+            finishAll();
+        }
+    }
+
+    private void finishAll() {
+        mPhase = PHASE_DONE;
+        writeReport();
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(MultiPlanActivity.this::finish);
+        });
+    }
+
+    private void closeCamera() {
+        if (mEngine != null) {
+            mEngine.close();
+            mEngine = null;
+        }
+        if (mCameraOpener != null) {
+            mCameraOpener.close();
+            mCameraOpener = null;
+        }
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+    }
+
+    private void writeReport() {
+        if (mReported) return;
+        mReported = true;
+        File dir = new File(getExternalMediaDirs()[0], "multiplan");
+        dir.mkdirs();
+        File file = new File(dir, "report_" + System.currentTimeMillis() + ".json");
+        try {
+            JSONObject json = new JSONObject();
+            json.put("camera_id", mCameraId);
+            json.put("open_us", mCombinedOpenUs);
+            json.put("configurations", mConfigureCount);
+            json.put("total_us", mCombinedUs);
+            JSONArray plans = new JSONArray();
+            for (int i = 0; i < mResults.size(); i++) {
+                JSONObject o = mResults.get(i).toJson();
+                o.put("reconfigured", mReconfigured.get(i));
+                plans.put(o);
+            }
+            json.put("plans", plans);
+            if (mCompare && mLaunchUs.size() == mPlans.size()) {
+                JSONArray launches = new JSONArray();
+                for (long us : mLaunchUs) launches.put(us);
+                json.put("separate_launch_us", launches);
+                json.put("separate_total_us", mSequentialUs);
+                json.put("saved_us", mSequentialUs - mCombinedUs);
+            }
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            Log.d(TAG, "Multi-plan report: " + file.getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write multi-plan report", e);
+        }
+    }
+
+    private void cleanup() {
+        try {
+            closeCamera();
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.MultiPlanActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Phase " + mPhase + ", plan " + (mPlanIndex + 1) + "/"
+                + (mPlans != null ? mPlans.size() : 0) + ", configurations " + mConfigureCount);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,134 @@
+package com.kaspersigi.noui;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 预分配 + 内存映射的顺序输出区域：打开时一次性预留整组输出的空间，之后的写入只是一次内存拷贝。
+ * - posix_fallocate 一次分配所有数据块，写入过程中文件系统不再逐块扩展文件、更新元数据；
+ *   不支持时退回稀疏 setLength（仍然映射，只是块在回写时才分配）
+ * - 预留区域整体以 READ_WRITE 映射，write() 把数据拷入映射区，由内核异步回写
+ * - 超出预留大小的部分退回 FileChannel 定位写，不会失败，只是失去预分配的好处（记入 overflowBytes）；
+ *   数据之后追加的索引、尾部用 writeTrailer()，不在预留估计之内，也不计入 overflowBytes
+ * - close() 截断到实际写入长度，释放未用的预留空间
+ *
+ * 映射区无法显式解除，截断后由 GC 回收；调用方不要在 close() 之后继续持有返回的偏移写入。
+ * 非线程安全：所有调用都应在同一线程上进行。
+ */
+public final class OutputArena implements Closeable {
+    private static final String TAG = "NoUI";
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+    private final long mReserved;
+    private MappedByteBuffer mMap;
+    private long mPosition = 0;
+    private long mOverflowBytes = 0;
+    private boolean mClosed = false;
+
+    /**
+     * @param reserveBytes 预留大小；≤ 0 时不预分配也不映射，全部走定位写
+     */
+    public OutputArena(File file, long reserveBytes) throws IOException {
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "rw");
+        mChannel = mRaf.getChannel();
+        mReserved = Math.max(0, Math.min(reserveBytes, Integer.MAX_VALUE));
+        try {
+            mRaf.setLength(0);
+            if (mReserved > 0) {
+                try {
+                    Os.posix_fallocate(mRaf.getFD(), 0, mReserved);
+                } catch (ErrnoException e) {
+                    Log.w(TAG, "posix_fallocate unsupported (" + e.getMessage() + "), using sparse length");
+                    mRaf.setLength(mReserved);
+                }
+                mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mReserved);
+            }
+        } catch (IOException e) {
+            mRaf.close();
+            throw e;
+        }
+    }
+
+    public File file() {
+        return mFile;
+    }
+
+    /**
+     * @return 当前写入位置（即已写入的字节数）
+     */
+    public long position() {
+        return mPosition;
+    }
+
+    public long reserved() {
+        return mReserved;
+    }
+
+    /**
+     * @return 超出预留区域、退回定位写的字节数
+     */
+    public long overflowBytes() {
+        return mOverflowBytes;
+    }
+
+    /**
+     * 在当前位置追加 src（读取 position..limit）
+     *
+     * @return 写入起点的文件偏移
+     */
+    public long write(ByteBuffer src) throws IOException {
+        return write(src, true);
+    }
+
+    /**
+     * 与 write() 相同，但超出预留区域的部分不计入 overflowBytes（用于数据之后的索引、尾部）
+     */
+    public long writeTrailer(ByteBuffer src) throws IOException {
+        return write(src, false);
+    }
+
+    private long write(ByteBuffer src, boolean countOverflow) throws IOException {
+        if (mClosed) throw new IOException("Arena already closed");
+        long offset = mPosition;
+        int length = src.remaining();
+        if (mMap != null && offset + length <= mReserved) {
+            mMap.position((int) offset);
+            mMap.put(src);
+        } else {
+            if (countOverflow) mOverflowBytes += length;
+            long position = offset;
+            while (src.hasRemaining()) {
+                position += mChannel.write(src, position);
+            }
+        }
+        mPosition += length;
+        return offset;
+    }
+
+    /**
+     * 截断到实际长度并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        mMap = null;
+        try {
+            mChannel.truncate(mPosition);
+        } finally {
+            mRaf.close();
+        }
+    }
+}
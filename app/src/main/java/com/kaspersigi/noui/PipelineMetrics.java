@@ -0,0 +1,570 @@
+package com.kaspersigi.noui;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 管线指标注册表（进程级单例）。
+ * - Counter / Gauge / Histogram（对数线性分桶，记录路径无锁、不分配对象）
+ * - 每次运行结束写出 metrics/run_<ms>.json，并把本次样本合并进 metrics/cumulative.json，
+ *   跨进程、跨成千上万次运行统计 p50/p99
+ * - 通过 Activity.dump() 输出：adb shell dumpsys activity com.kaspersigi.noui/.XxxActivity
+ *
+ * 延迟类直方图单位为微秒。
+ */
+public final class PipelineMetrics {
+    private static final String TAG = "NoUI";
+
+    public static final String HIST_OPEN = "time_to_open_us";
+    public static final String HIST_CONFIGURE = "time_to_configure_us";
+    public static final String HIST_CONVERGE = "convergence_us";
+    public static final String HIST_TRIGGER_TO_FIRST_IMAGE = "trigger_to_first_image_us";
+    public static final String HIST_FRAME_WRITE = "frame_write_us";
+    public static final String HIST_RECOVERY = "recovery_us";
+    public static final String HIST_ZSL_LOOKUP = "zsl_lookup_us";
+    public static final String HIST_SHUTTER_LAG = "shutter_lag_us";
+    public static final String HIST_SHUTTER_LEAD = "shutter_lead_us";        // ZSL 取到早于触发时刻的帧
+    public static final String HIST_SCHEDULE_ERROR = "schedule_error_us";
+    public static final String HIST_TARGET_ERROR = "target_error_us";        // 绝对时刻拍摄：所选帧窗口中心与目标时刻之差
+    public static final String HIST_CONTAINER_FINALIZE = "container_finalize_us";
+    public static final String HIST_FRAME_SYNC = "frame_sync_us";
+    public static final String HIST_WRITE_TO_DURABLE = "write_to_durable_us";
+    public static final String HIST_PUBLISH_PREPARE = "publish_prepare_us"; // 预建 MediaStore 待定条目
+    public static final String HIST_PUBLISH = "publish_us";                 // 连拍结束时批量置为可见
+    public static final String HIST_MEDIA_SCAN = "media_scan_us";           // 对照组：媒体扫描本次文件
+    public static final String HIST_VERIFY = "verify_us";                   // 单帧完整性检查 + CRC32C
+    public static final String HIST_PROXY_SHEET = "proxy_sheet_us";         // 连拍结束后拼出 contact sheet
+
+    public static final String COUNTER_RUNS = "runs";
+    public static final String COUNTER_FRAMES_SAVED = "frames_saved";
+    public static final String COUNTER_BYTES_WRITTEN = "bytes_written";
+    public static final String COUNTER_FRAMES_DROPPED = "frames_dropped";
+    public static final String COUNTER_FRAMES_FAILED = "frames_failed";
+    public static final String COUNTER_GC_COUNT = "gc_count";
+    public static final String COUNTER_RETRIED_FRAMES = "retried_frames";
+    public static final String COUNTER_HAL_DROPS = "hal_drops";
+    public static final String COUNTER_READER_DROPS = "reader_drops";
+    public static final String COUNTER_RECOVERIES = "recoveries";
+    public static final String COUNTER_OPEN_RETRIES = "open_retries";   // 首次打开相机前的重试次数（不算恢复）
+    public static final String COUNTER_ZSL_EVICTED = "zsl_evicted";
+    public static final String COUNTER_QUEUE_DROPS = "queue_drops";
+    public static final String COUNTER_CONTAINER_BYTES = "container_bytes";             // 多图容器最终大小
+    public static final String COUNTER_CONTAINER_INPUT_BYTES = "container_input_bytes"; // 同样的帧按单文件保存时的大小
+    public static final String COUNTER_FSYNCS = "fsyncs";
+    public static final String COUNTER_EVICTED_BURSTS = "evicted_bursts";   // 存储预算按 LRU 淘汰的连拍组数
+    public static final String COUNTER_EVICTED_BYTES = "evicted_bytes";
+    public static final String COUNTER_FRAMES_NOT_ADMITTED = "frames_not_admitted"; // 剩余空间不足而缩减掉的张数
+    public static final String COUNTER_CORRUPT_FRAMES = "corrupt_frames";   // 完整性检查未通过的帧
+    public static final String COUNTER_PROXIES_MISSING = "proxies_missing"; // 没有内嵌缩略图的帧
+
+    public static final String GAUGE_LAST_RUN_MS = "last_run_ms";
+    public static final String GAUGE_HEAP_USED = "heap_used_bytes";
+
+    // 运行内的时间点
+    public static final int MARK_OPEN_START = 0;
+    public static final int MARK_OPENED = 1;
+    public static final int MARK_CONFIGURE_START = 2;
+    public static final int MARK_CONFIGURED = 3;
+    public static final int MARK_TRIGGER = 4;
+    private static final int MARK_COUNT = 5;
+
+    private static final String CUMULATIVE_FILE = "cumulative.json";
+
+    private static final PipelineMetrics sInstance = new PipelineMetrics();
+
+    private final Map<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    private PipelineMetrics() {
+    }
+
+    public static PipelineMetrics get() {
+        return sInstance;
+    }
+
+    public Counter counter(String name) {
+        return mCounters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Gauge gauge(String name) {
+        return mGauges.computeIfAbsent(name, k -> new Gauge());
+    }
+
+    public Histogram histogram(String name) {
+        return mHistograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public Run startRun(String name) {
+        return new Run(name);
+    }
+
+    /**
+     * 记录一个在 Run.finish() 之后才产生的样本（例如迁移完成后的 contact sheet、媒体扫描），
+     * 同时合并进 dir 下的累计指标
+     */
+    public void mergeIntoCumulative(File dir, String name, long value) {
+        Histogram sample = new Histogram();
+        sample.record(value);
+        histogram(name).merge(sample);
+        Map<String, Histogram> histograms = new TreeMap<>();
+        histograms.put(name, sample);
+        mergeCumulative(dir, new TreeMap<>(), histograms);
+    }
+
+    /**
+     * 打印本进程内的指标以及 dir 下持久化的累计指标
+     */
+    public void dump(String prefix, PrintWriter pw, File dir) {
+        pw.println(prefix + "PipelineMetrics (this process):");
+        dumpRegistry(prefix + "  ", pw, mCounters, mGauges, mHistograms);
+
+        Map<String, Counter> counters = new TreeMap<>();
+        Map<String, Histogram> histograms = new TreeMap<>();
+        synchronized (this) {
+            readCumulative(new File(dir, CUMULATIVE_FILE), counters, histograms);
+        }
+        pw.println(prefix + "PipelineMetrics (cumulative, " + new File(dir, CUMULATIVE_FILE) + "):");
+        dumpRegistry(prefix + "  ", pw, counters, new TreeMap<>(), histograms);
+    }
+
+    private static void dumpRegistry(String prefix, PrintWriter pw, Map<String, Counter> counters,
+                                     Map<String, Gauge> gauges, Map<String, Histogram> histograms) {
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            pw.println(prefix + e.getKey() + " = " + e.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> e : new TreeMap<>(gauges).entrySet()) {
+            pw.println(prefix + e.getKey() + " = " + e.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            pw.println(prefix + e.getKey() + ": " + e.getValue().summary());
+        }
+    }
+
+    /**
+     * 单次运行（一次 Activity 启动到退出）的指标采集
+     */
+    public final class Run {
+        private final String mName;
+        private final long mStartNs = SystemClock.elapsedRealtimeNanos();
+        private final long mGcCountStart = readGcCount();
+        private final long[] mMarks = new long[MARK_COUNT];
+        private final Histogram mFrameWrite = new Histogram();
+        private final AtomicLong mCompleted = new AtomicLong();
+        private final AtomicLong mSaved = new AtomicLong();
+        private final AtomicLong mFailed = new AtomicLong();
+        private final AtomicLong mBytes = new AtomicLong();
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+        private final Map<String, AtomicLong> mExtraCounters = new ConcurrentHashMap<>();
+        private final Map<String, Histogram> mExtraHistograms = new ConcurrentHashMap<>();
+        private volatile long mFirstImageNs = 0;
+
+        private Run(String name) {
+            mName = name;
+        }
+
+        public void mark(int mark) {
+            mMarks[mark] = SystemClock.elapsedRealtimeNanos();
+        }
+
+        /**
+         * 只记录第一次到达的时间点（用于相机丢失后的重新打开：open_us 仍按首次打开计算）。
+         * 有意重复打开相机的调用方（每轮重新打开的基准测试）应使用 mark()，保持起止点成对
+         */
+        public void markOnce(int mark) {
+            if (mMarks[mark] == 0) mMarks[mark] = SystemClock.elapsedRealtimeNanos();
+        }
+
+        /**
+         * 一个拍照请求的 TotalCaptureResult 到达（用于计算丢帧）
+         */
+        public void captureCompleted() {
+            mCompleted.incrementAndGet();
+        }
+
+        public void frameWritten(long availableNs, long writeLatencyNs, long bytes) {
+            if (mFirstImageNs == 0) mFirstImageNs = availableNs;
+            mFrameWrite.record(writeLatencyNs / 1000);
+            mSaved.incrementAndGet();
+            mBytes.addAndGet(bytes);
+        }
+
+        public void frameFailed() {
+            mFailed.incrementAndGet();
+        }
+
+        /**
+         * 累加本次运行的其他计数器（结束时一并写入 run JSON 与累计指标）
+         */
+        public void count(String name, long delta) {
+            mExtraCounters.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+        }
+
+        /**
+         * 记录本次运行的其他直方图样本
+         */
+        public void sample(String name, long value) {
+            mExtraHistograms.computeIfAbsent(name, k -> new Histogram()).record(value);
+        }
+
+        /**
+         * 记录快门延迟：deltaNs 为所取帧的 SENSOR_TIMESTAMP 减去触发时刻（同一传感器时间基准）。
+         * ZSL 取到的帧可能早于触发，负值按绝对值记入 shutter_lead_us，不与正向延迟混在同一直方图里
+         *
+         * @return 带符号的延迟（微秒）
+         */
+        public long sampleShutterLag(long deltaNs) {
+            long us = deltaNs / 1000;
+            if (us >= 0) {
+                sampleByMode(HIST_SHUTTER_LAG, us);
+            } else {
+                sampleByMode(HIST_SHUTTER_LEAD, -us);
+            }
+            return us;
+        }
+
+        /**
+         * 记录样本，并按模式（运行名）另存一份 name@RunName，便于在累计指标中对比不同 Activity
+         */
+        public void sampleByMode(String name, long value) {
+            sample(name, value);
+            sample(name + "@" + mName, value);
+        }
+
+        /**
+         * 结束本次运行：更新注册表、写出 run JSON 并合并累计指标（只执行一次）
+         */
+        public void finish(File dir) {
+            if (!mFinished.compareAndSet(false, true)) return;
+
+            long openUs = span(MARK_OPEN_START, MARK_OPENED);
+            long configureUs = span(MARK_CONFIGURE_START, MARK_CONFIGURED);
+            long convergeUs = span(MARK_CONFIGURED, MARK_TRIGGER);
+            long firstImageUs = mMarks[MARK_TRIGGER] > 0 && mFirstImageNs > 0
+                    ? (mFirstImageNs - mMarks[MARK_TRIGGER]) / 1000 : -1;
+            long dropped = Math.max(0, mCompleted.get() - mSaved.get() - mFailed.get());
+            long gcCount = Math.max(0, readGcCount() - mGcCountStart);
+            long runMs = (SystemClock.elapsedRealtimeNanos() - mStartNs) / 1_000_000;
+            Runtime rt = Runtime.getRuntime();
+
+            Map<String, Histogram> runHistograms = new TreeMap<>();
+            recordStage(runHistograms, HIST_OPEN, openUs);
+            recordStage(runHistograms, HIST_CONFIGURE, configureUs);
+            recordStage(runHistograms, HIST_CONVERGE, convergeUs);
+            recordStage(runHistograms, HIST_TRIGGER_TO_FIRST_IMAGE, firstImageUs);
+            runHistograms.put(HIST_FRAME_WRITE, mFrameWrite);
+            runHistograms.putAll(mExtraHistograms);
+
+            Map<String, Counter> runCounters = new TreeMap<>();
+            putCounter(runCounters, COUNTER_RUNS, 1);
+            putCounter(runCounters, COUNTER_FRAMES_SAVED, mSaved.get());
+            putCounter(runCounters, COUNTER_BYTES_WRITTEN, mBytes.get());
+            putCounter(runCounters, COUNTER_FRAMES_DROPPED, dropped);
+            putCounter(runCounters, COUNTER_FRAMES_FAILED, mFailed.get());
+            putCounter(runCounters, COUNTER_GC_COUNT, gcCount);
+            for (Map.Entry<String, AtomicLong> e : mExtraCounters.entrySet()) {
+                putCounter(runCounters, e.getKey(), e.getValue().get());
+            }
+
+            for (Map.Entry<String, Histogram> e : runHistograms.entrySet()) {
+                histogram(e.getKey()).merge(e.getValue());
+            }
+            for (Map.Entry<String, Counter> e : runCounters.entrySet()) {
+                counter(e.getKey()).add(e.getValue().get());
+            }
+            gauge(GAUGE_LAST_RUN_MS).set(runMs);
+            gauge(GAUGE_HEAP_USED).set(rt.totalMemory() - rt.freeMemory());
+
+            Log.d(TAG, "Run " + mName + " metrics: open=" + openUs + "us, configure=" + configureUs
+                    + "us, converge=" + convergeUs + "us, trigger→first image=" + firstImageUs
+                    + "us, write " + mFrameWrite.summary() + ", saved=" + mSaved.get()
+                    + ", dropped=" + dropped + ", failed=" + mFailed.get() + ", gc=" + gcCount);
+
+            dir.mkdirs();
+            try {
+                JSONObject json = new JSONObject();
+                json.put("name", mName);
+                json.put("run_ms", runMs);
+                json.put(HIST_OPEN, openUs >= 0 ? openUs : -1);   // 与 recordStage 一致：负值视为未测得
+                json.put(HIST_CONFIGURE, configureUs);
+                json.put(HIST_CONVERGE, convergeUs);
+                json.put(HIST_TRIGGER_TO_FIRST_IMAGE, firstImageUs);
+                json.put("counters", countersToJson(runCounters));
+                json.put("histograms", histogramsToJson(runHistograms));
+                writeFile(new File(dir, "run_" + System.currentTimeMillis() + ".json"), json.toString(2));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to write run metrics", e);
+            }
+
+            mergeCumulative(dir, runCounters, runHistograms);
+        }
+
+        private long span(int from, int to) {
+            if (mMarks[from] == 0 || mMarks[to] == 0) return -1;
+            return (mMarks[to] - mMarks[from]) / 1000;
+        }
+
+        private void recordStage(Map<String, Histogram> out, String name, long valueUs) {
+            Histogram h = new Histogram();
+            if (valueUs >= 0) h.record(valueUs);
+            out.put(name, h);
+        }
+
+        private void putCounter(Map<String, Counter> out, String name, long value) {
+            Counter c = new Counter();
+            c.add(value);
+            out.put(name, c);
+        }
+    }
+
+    public static final class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void inc() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    public static final class Gauge {
+        private volatile long mValue;
+
+        public void set(long value) {
+            mValue = value;
+        }
+
+        public long get() {
+            return mValue;
+        }
+    }
+
+    /**
+     * 对数线性分桶直方图：每个 2 的幂区间再分 16 个子桶，相对误差 < 6.25%，
+     * 固定 960 个桶覆盖全部 long 范围，record() 只做几次原子加。
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            mBuckets.incrementAndGet(index(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // 重试
+            }
+        }
+
+        public long count() {
+            return mCount.get();
+        }
+
+        /**
+         * @param p 0~100
+         * @return 该百分位所在桶的中点值；无样本时返回 -1
+         */
+        public long percentile(double p) {
+            long count = mCount.get();
+            if (count == 0) return -1;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    long lower = lowerBound(i);
+                    long upper = Math.min(lowerBound(i + 1) - 1, mMax.get());
+                    return Math.max(lower, (lower + upper) / 2);
+                }
+            }
+            return mMax.get();
+        }
+
+        public void merge(Histogram other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = other.mBuckets.get(i);
+                if (n != 0) mBuckets.addAndGet(i, n);
+            }
+            mCount.addAndGet(other.mCount.get());
+            mSum.addAndGet(other.mSum.get());
+            long max;
+            long value = other.mMax.get();
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // 重试
+            }
+        }
+
+        public String summary() {
+            long count = mCount.get();
+            if (count == 0) return "n=0";
+            return "n=" + count + " mean=" + (mSum.get() / count) + " p50=" + percentile(50)
+                    + " p90=" + percentile(90) + " p99=" + percentile(99) + " max=" + mMax.get();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", mCount.get());
+            json.put("sum", mSum.get());
+            json.put("max", mMax.get());
+            json.put("p50", percentile(50));
+            json.put("p90", percentile(90));
+            json.put("p99", percentile(99));
+            JSONObject buckets = new JSONObject();
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = mBuckets.get(i);
+                if (n != 0) buckets.put(Integer.toString(i), n);
+            }
+            json.put("buckets", buckets);
+            return json;
+        }
+
+        static Histogram fromJson(JSONObject json) throws JSONException {
+            Histogram h = new Histogram();
+            h.mCount.set(json.optLong("count"));
+            h.mSum.set(json.optLong("sum"));
+            h.mMax.set(json.optLong("max"));
+            JSONObject buckets = json.optJSONObject("buckets");
+            if (buckets != null) {
+                Iterator<String> keys = buckets.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    int i = Integer.parseInt(key);
+                    if (i >= 0 && i < BUCKETS) h.mBuckets.set(i, buckets.getLong(key));
+                }
+            }
+            return h;
+        }
+
+        static int index(long v) {
+            if (v < SUB_COUNT) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            return (exp - SUB_BITS + 1) * SUB_COUNT + (int) ((v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        }
+
+        static long lowerBound(int index) {
+            if (index < SUB_COUNT) return index;
+            if (index >= BUCKETS) return Long.MAX_VALUE;
+            int exp = index / SUB_COUNT + SUB_BITS - 1;
+            long sub = index % SUB_COUNT;
+            return (SUB_COUNT + sub) << (exp - SUB_BITS);
+        }
+    }
+
+    /**
+     * 把一组计数器与直方图合并进 dir 下的累计指标（读-改-写，进程内串行）
+     */
+    private synchronized void mergeCumulative(File dir, Map<String, Counter> addCounters,
+                                              Map<String, Histogram> addHistograms) {
+        dir.mkdirs();
+        File cumulative = new File(dir, CUMULATIVE_FILE);
+        Map<String, Counter> counters = new TreeMap<>();
+        Map<String, Histogram> histograms = new TreeMap<>();
+        readCumulative(cumulative, counters, histograms);
+        for (Map.Entry<String, Counter> e : addCounters.entrySet()) {
+            counters.computeIfAbsent(e.getKey(), k -> new Counter()).add(e.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> e : addHistograms.entrySet()) {
+            histograms.computeIfAbsent(e.getKey(), k -> new Histogram()).merge(e.getValue());
+        }
+        try {
+            JSONObject json = new JSONObject();
+            json.put("counters", countersToJson(counters));
+            json.put("histograms", histogramsToJson(histograms));
+            writeFile(cumulative, json.toString(2));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write cumulative metrics", e);
+        }
+    }
+
+    private static JSONObject countersToJson(Map<String, Counter> counters) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            json.put(e.getKey(), e.getValue().get());
+        }
+        return json;
+    }
+
+    private static JSONObject histogramsToJson(Map<String, Histogram> histograms) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            json.put(e.getKey(), e.getValue().toJson());
+        }
+        return json;
+    }
+
+    private static void readCumulative(File file, Map<String, Counter> counters, Map<String, Histogram> histograms) {
+        if (!file.exists()) return;
+        try {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            JSONObject c = json.optJSONObject("counters");
+            if (c != null) {
+                Iterator<String> keys = c.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    counters.computeIfAbsent(key, k -> new Counter()).add(c.getLong(key));
+                }
+            }
+            JSONObject h = json.optJSONObject("histograms");
+            if (h != null) {
+                Iterator<String> keys = h.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    histograms.put(key, Histogram.fromJson(h.getJSONObject(key)));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read cumulative metrics", e);
+        }
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename failed: " + file);
+        }
+    }
+
+    private static long readGcCount() {
+        try {
+            String v = Debug.getRuntimeStat("art.gc.gc-count");
+            return v != null ? Long.parseLong(v) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.kaspersigi.noui;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ImageFormat;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCharacteristics;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连拍的低分辨率预览：每帧取出 HAL 内嵌在 Exif 中的缩略图（由 JPEG_THUMBNAIL_SIZE 请求；HEIC 的 Exif 条目
+ * 同样携带），连拍结束时拼成一张 contact sheet（burst_<ms>_sheet.jpg），浏览时无需解码任何全尺寸图像。
+ * - 拍照路径上只复制缩略图本身（几 KB 到几十 KB），不解码；解码与拼图都在低优先级的线程池上进行
+ * - 瓦片按传感器时间戳排序，左上角标注序号与相对首帧的毫秒数
+ * - 没有缩略图的帧（HAL 未生成或 Exif 无法解析）留空白瓦片并计入 proxies_missing
+ *
+ * 指标：proxy_sheet_us 为等待瓦片解码完成、拼图并压缩写出的耗时（在运行结束后完成，记入累计指标）。
+ * add / finish 应在相机后台线程上调用；close 在相机后台线程结束之后调用。
+ */
+public final class ProxySheet {
+    private static final String TAG = "NoUI";
+    private static final int MIN_THUMBNAIL_WIDTH = 256;
+    private static final int TILE_WIDTH = 240;
+    private static final int MAX_COLUMNS = 6;
+    private static final int LABEL_SIZE = 18;
+    private static final int SHEET_QUALITY = 80;
+    private static final int WORKERS = 2;
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;  // JPEGInterchangeFormat
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;  // JPEGInterchangeFormatLength
+    private static final int TYPE_SHORT = 3;
+
+    private static final class Tile {
+        final long sensorTs;
+        final Future<Bitmap> bitmap;   // null 表示没有缩略图
+
+        Tile(long sensorTs, Future<Bitmap> bitmap) {
+            this.sensorTs = sensorTs;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final File mDir;
+    private final File mMetricsDir;
+    private final PipelineMetrics.Run mRun;
+    private final ExecutorService mPool;
+    private final List<Tile> mTiles = new ArrayList<>();
+    private Future<File> mSheet;
+    private int mMissing = 0;
+
+    /**
+     * @param dir        contact sheet 的输出目录
+     * @param metricsDir 累计指标目录；拼图通常在 Run.finish() 之后才完成，耗时直接合并进累计指标
+     */
+    public ProxySheet(File dir, File metricsDir, PipelineMetrics.Run run) {
+        mDir = dir;
+        mMetricsDir = metricsDir;
+        mRun = run;
+        mPool = Executors.newFixedThreadPool(WORKERS, r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "ProxyWorker"));
+    }
+
+    /**
+     * 选择请求的缩略图尺寸：与主图宽高比一致、宽度不小于 MIN_THUMBNAIL_WIDTH 的最小尺寸；
+     * 没有同比例的尺寸时忽略比例。设备不支持缩略图时返回 0x0（即不生成）
+     */
+    public static Size thumbnailSize(CameraCharacteristics characteristics, int width, int height) {
+        Size[] sizes = characteristics.get(CameraCharacteristics.JPEG_AVAILABLE_THUMBNAIL_SIZES);
+        Size best = null;
+        if (sizes != null) {
+            for (Size s : sizes) {
+                if (s.getWidth() == 0 || s.getHeight() == 0) continue;
+                if (best == null || betterThumbnail(s, best, width, height)) best = s;
+            }
+        }
+        return best != null ? best : new Size(0, 0);
+    }
+
+    /**
+     * 同比例优先；其次宽度够大优先；都够大时取小的，都不够大时取大的
+     */
+    private static boolean betterThumbnail(Size a, Size b, int width, int height) {
+        boolean aMatches = sameAspect(a, width, height);
+        if (aMatches != sameAspect(b, width, height)) return aMatches;
+        boolean aLarge = a.getWidth() >= MIN_THUMBNAIL_WIDTH;
+        if (aLarge != b.getWidth() >= MIN_THUMBNAIL_WIDTH) return aLarge;
+        return aLarge ? a.getWidth() < b.getWidth() : a.getWidth() > b.getWidth();
+    }
+
+    private static boolean sameAspect(Size s, int width, int height) {
+        return Math.abs((long) s.getWidth() * height - (long) s.getHeight() * width) <= (long) width * height / 100;
+    }
+
+    /**
+     * 从编码帧中复制出缩略图并交给线程池解码（读取 encoded 的 position..limit，不改变其 position）
+     */
+    public void add(long sensorTs, int format, ByteBuffer encoded) {
+        if (mSheet != null) return;
+        byte[] thumbnail = null;
+        if (format == ImageFormat.JPEG) {
+            thumbnail = fromJpeg(encoded.slice().order(ByteOrder.BIG_ENDIAN));
+        } else if (format == ImageFormat.HEIC) {
+            byte[] exif = HeifSequenceWriter.primaryExif(encoded);
+            if (exif != null && exif.length >= 4) {
+                int tiff = 4 + ByteBuffer.wrap(exif).getInt(0);
+                thumbnail = fromTiff(ByteBuffer.wrap(exif), tiff, exif.length);
+            }
+        }
+        Future<Bitmap> bitmap = null;
+        if (thumbnail != null) {
+            byte[] data = thumbnail;
+            bitmap = mPool.submit(() -> BitmapFactory.decodeByteArray(data, 0, data.length));
+        } else {
+            mMissing++;
+        }
+        mTiles.add(new Tile(sensorTs, bitmap));
+    }
+
+    /**
+     * 连拍结束：在线程池上排队拼图（排在全部解码任务之后）；重复调用无效
+     */
+    public void finish() {
+        if (mSheet != null || mTiles.isEmpty()) return;
+        List<Tile> tiles = new ArrayList<>(mTiles);
+        tiles.sort((a, b) -> Long.compare(a.sensorTs, b.sensorTs));
+        int missing = mMissing;
+        if (missing > 0) {
+            mRun.count(PipelineMetrics.COUNTER_PROXIES_MISSING, missing);
+            Log.w(TAG, missing + " frame(s) without an embedded thumbnail");
+        }
+        File file = new File(mDir, "burst_" + System.currentTimeMillis() + "_sheet.jpg");
+        mSheet = mPool.submit(() -> compose(tiles, missing, file));
+    }
+
+    /**
+     * 完成拼图并结束线程池，最多等待 CLOSE_TIMEOUT_MS
+     *
+     * @return 写出的 contact sheet；没有帧或失败时返回 null
+     */
+    public File close() {
+        finish();
+        mPool.shutdown();
+        if (mSheet == null) return null;
+        try {
+            return mSheet.get(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.e(TAG, "Proxy sheet not written", e);
+            return null;
+        } finally {
+            mPool.shutdownNow();
+        }
+    }
+
+    private File compose(List<Tile> tiles, int missing, File file) throws Exception {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        List<Bitmap> bitmaps = new ArrayList<>(tiles.size());
+        int tileHeight = 0;
+        for (Tile tile : tiles) {
+            Bitmap bitmap = null;
+            if (tile.bitmap != null) {
+                try {
+                    bitmap = tile.bitmap.get();
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Thumbnail decode failed", e);
+                }
+            }
+            bitmaps.add(bitmap);
+            // 瓦片高度按第一张解码成功的缩略图的比例
+            if (bitmap != null && tileHeight == 0 && bitmap.getWidth() > 0) {
+                tileHeight = TILE_WIDTH * bitmap.getHeight() / bitmap.getWidth();
+            }
+        }
+        if (tileHeight <= 0) tileHeight = TILE_WIDTH * 3 / 4;
+
+        int columns = Math.min(MAX_COLUMNS, tiles.size());
+        int rows = (tiles.size() + columns - 1) / columns;
+        Bitmap sheet = Bitmap.createBitmap(columns * TILE_WIDTH, rows * tileHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(sheet);
+        canvas.drawColor(Color.DKGRAY);
+        Paint filter = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Paint label = new Paint(Paint.ANTI_ALIAS_FLAG);
+        label.setColor(Color.WHITE);
+        label.setTextSize(LABEL_SIZE);
+        label.setShadowLayer(2, 1, 1, Color.BLACK);
+        long firstTs = tiles.get(0).sensorTs;
+        for (int i = 0; i < tiles.size(); i++) {
+            int x = (i % columns) * TILE_WIDTH;
+            int y = (i / columns) * tileHeight;
+            Bitmap bitmap = bitmaps.get(i);
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, null, new Rect(x, y, x + TILE_WIDTH, y + tileHeight), filter);
+                bitmap.recycle();
+            }
+            long offsetMs = (tiles.get(i).sensorTs - firstTs) / 1_000_000;
+            canvas.drawText("#" + i + " +" + offsetMs + "ms", x + 6, y + LABEL_SIZE + 4, label);
+        }
+        mDir.mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            sheet.compress(Bitmap.CompressFormat.JPEG, SHEET_QUALITY, out);
+        } finally {
+            sheet.recycle();
+        }
+        long sheetUs = (SystemClock.elapsedRealtimeNanos() - startNs) / 1000;
+        PipelineMetrics.get().mergeIntoCumulative(mMetricsDir, PipelineMetrics.HIST_PROXY_SHEET, sheetUs);
+        Log.d(TAG, "Proxy sheet: " + file.getAbsolutePath() + " (" + tiles.size() + " tile(s), "
+                + missing + " blank, " + file.length() + "B) in " + sheetUs + "us");
+        return file;
+    }
+
+    /**
+     * 在 SOI 之后连续的 APPn 段中找 APP1/Exif，再从其 TIFF 的 IFD1 取出缩略图
+     */
+    private static byte[] fromJpeg(ByteBuffer b) {
+        int limit = b.limit();
+        if (limit < 4 || (b.getShort(0) & 0xFFFF) != 0xFFD8) return null;
+        int pos = 2;
+        while (pos + 4 <= limit) {
+            int marker = b.getShort(pos) & 0xFFFF;
+            if (marker < 0xFFE0 || marker > 0xFFEF) return null;
+            int end = pos + 2 + (b.getShort(pos + 2) & 0xFFFF);
+            if (end > limit) return null;
+            if (marker == 0xFFE1 && end - pos >= 10 && b.getInt(pos + 4) == 0x45786966 && b.getShort(pos + 8) == 0) {
+                return fromTiff(b, pos + 10, end);   // "Exif\0\0"
+            }
+            pos = end;
+        }
+        return null;
+    }
+
+    /**
+     * 读取 [start, end) 中 TIFF 的 IFD1 缩略图（JPEGInterchangeFormat / Length），复制出来
+     */
+    private static byte[] fromTiff(ByteBuffer src, int start, int end) {
+        if (start < 0 || end - start < 8) return null;
+        ByteBuffer t = src.duplicate();
+        t.position(start).limit(end);
+        t = t.slice();
+        int byteOrder = t.getShort(0) & 0xFFFF;
+        if (byteOrder == 0x4949) {
+            t.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder == 0x4D4D) {
+            t.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return null;
+        }
+        int length = t.limit();
+        long ifd0 = t.getInt(4) & 0xFFFFFFFFL;
+        if (ifd0 + 2 > length) return null;
+        long next = ifd0 + 2 + 12L * (t.getShort((int) ifd0) & 0xFFFF);
+        if (next + 4 > length) return null;
+        long ifd1 = t.getInt((int) next) & 0xFFFFFFFFL;
+        if (ifd1 == 0 || ifd1 + 2 > length) return null;
+        int count = t.getShort((int) ifd1) & 0xFFFF;
+        if (ifd1 + 2 + 12L * count > length) return null;
+        long offset = -1;
+        long size = -1;
+        for (int i = 0; i < count; i++) {
+            int entry = (int) ifd1 + 2 + 12 * i;
+            int tag = t.getShort(entry) & 0xFFFF;
+            if (tag != TAG_THUMBNAIL_OFFSET && tag != TAG_THUMBNAIL_LENGTH) continue;
+            long value = (t.getShort(entry + 2) & 0xFFFF) == TYPE_SHORT
+                    ? t.getShort(entry + 8) & 0xFFFF : t.getInt(entry + 8) & 0xFFFFFFFFL;
+            if (tag == TAG_THUMBNAIL_OFFSET) offset = value;
+            else size = value;
+        }
+        if (offset <= 0 || size < 4 || offset + size > length) return null;
+        if ((t.get((int) offset) & 0xFF) != 0xFF || (t.get((int) offset + 1) & 0xFF) != 0xD8) return null;
+        byte[] thumbnail = new byte[(int) size];
+        t.position((int) offset);
+        t.get(thumbnail);
+        return thumbnail;
+    }
+}
@@ -0,0 +1,635 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.InputConfiguration;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.ImageWriter;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+// adb shell pm grant com.kaspersigi.noui android.permission.CAMERA
+// adb shell am start -n com.kaspersigi.noui/.ReprocessZSLJpegActivity
+// adb shell am force-stop com.kaspersigi.noui
+
+/**
+ * 可重处理会话（reprocessable session）的 ZSL 拍照：
+ * - 设备支持 PRIVATE_REPROCESSING（优先）或 YUV_REPROCESSING 时，配置带输入流的会话
+ * - 预览期间持续输出全分辨率 PRIVATE/YUV 帧到环形缓冲（{@link ZslRingBuffer}），并保存对应的 TotalCaptureResult
+ * - 触发时挑出最接近触发时刻的帧，经 ImageWriter 送回 HAL，以 HIGH_QUALITY 降噪 / 锐化重新处理并编码 JPEG
+ *
+ * 画质对标 MFNRZSLJpegActivity（NR HIGH_QUALITY），快门延迟对标 ZSL。
+ * 两者的快门延迟分别记录在 shutter_lag_us@ReprocessZSLJpegActivity 与 shutter_lag_us@MFNRZSLJpegActivity，
+ * 可通过 dumpsys 或 metrics/cumulative.json 对比。
+ */
+public class ReprocessZSLJpegActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final int BURST_COUNT = 5;                 // 输出张数
+    private static final int RING_CAPACITY = BURST_COUNT + 2; // 环形缓冲帧数
+    private static final int RESULT_CAPACITY = RING_CAPACITY + 8; // 结果比图像早到或晚到，多留余量
+    private static final long TRIGGER_TIMEOUT_MS = 500;
+    private static final long REPROCESS_TIMEOUT_MS = 3000;    // 重处理请求全部提交后等待输出的上限
+
+    // Camera2 核心对象
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mZslReader;    // 全分辨率 PRIVATE/YUV 连续流
+    private ImageReader mJpegReader;   // 重处理输出
+    private ImageWriter mImageWriter;  // 把挑中的帧送回会话输入
+    private String mCameraId;
+    private int mInputFormat;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private boolean mAeConverged = false;
+    private boolean mTriggered = false;
+    private boolean mDone = false;
+    private long mTriggerRealtimeNs = 0;
+    private long mTriggerSensorTs = 0;
+    private int mOutstanding = 0;      // 已提交、尚未出结论的重处理请求
+    private boolean mCaptureFinished = false;
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraCharacteristics mCameraCharacteristics;
+    private CaptureRequest.Builder mStreamRequestTemplate;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final CaptureTracer mTracer = new CaptureTracer(8192);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+    private final FrameMetadataStore mMetadata = new FrameMetadataStore(RESULT_CAPACITY);
+
+    private final ZslRingBuffer mRing = new ZslRingBuffer(RING_CAPACITY);
+
+    // 重处理请求必须基于输入帧自己的 TotalCaptureResult，按时间戳环形保存
+    private final TotalCaptureResult[] mResults = new TotalCaptureResult[RESULT_CAPACITY];
+    private final long[] mResultTs = new long[RESULT_CAPACITY];
+    private int mResultNext = 0;
+
+    private final Runnable mTriggerTimeout = () -> resolveTrigger(true);
+    private final Runnable mReprocessTimeout = () -> {
+        Log.w(TAG, "Reprocess timed out with " + mOutstanding + " request(s) outstanding");
+        finishCapture();
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "NoUI camera started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
+
+            mInputFormat = chooseInputFormat();
+            if (mInputFormat < 0) {
+                Log.e(TAG, "Camera " + mCameraId + " supports neither PRIVATE nor YUV reprocessing");
+                cleanup();
+                mMainHandler.post(ReprocessZSLJpegActivity.this::finish);
+                return;
+            }
+            try {
+                mStreamRequestTemplate = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+            } catch (CameraAccessException | IllegalArgumentException e) {
+                Log.e(TAG, "Failed to create templates", e);
+                mMainHandler.post(ReprocessZSLJpegActivity.this::finish);
+                return;
+            }
+            createCaptureSession();
+        }
+
+        @Override
+        public void onCameraLost() {
+            // 缓冲帧和在途的重处理请求随会话一起失效；未出图时恢复后重新收敛、重新触发
+            Log.w(TAG, "Camera lost" + (mDone ? ", " + mOutstanding + " reprocess request(s) lost" : ", ZSL ring discarded"));
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mBgHandler.removeCallbacks(mTriggerTimeout);
+            mRing.clear();
+            closeSession();
+            if (mDone) {
+                finishCapture();
+                return;
+            }
+            mAeConverged = false;
+            mTriggered = false;
+        }
+
+        @Override
+        public void onGiveUp() {
+            cleanup();
+            mMainHandler.post(ReprocessZSLJpegActivity.this::finish);
+        }
+    };
+
+    private void closeSession() {
+        if (mImageWriter != null) {
+            mImageWriter.close();
+            mImageWriter = null;
+        }
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mZslReader != null) {
+            mZslReader.close();
+            mZslReader = null;
+        }
+        if (mJpegReader != null) {
+            mJpegReader.close();
+            mJpegReader = null;
+        }
+        Arrays.fill(mResults, null);
+        mCameraDevice = null;
+    }
+
+    /**
+     * 优先 PRIVATE 重处理（HAL 内部格式，无需拷贝），其次 YUV；都不支持时返回 -1
+     */
+    private int chooseInputFormat() {
+        int[] caps = mCameraCharacteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean privateReprocess = false;
+        boolean yuvReprocess = false;
+        if (caps != null) {
+            for (int cap : caps) {
+                if (cap == CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_PRIVATE_REPROCESSING) privateReprocess = true;
+                if (cap == CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_YUV_REPROCESSING) yuvReprocess = true;
+            }
+        }
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (privateReprocess && canReprocessToJpeg(map, ImageFormat.PRIVATE)) return ImageFormat.PRIVATE;
+        if (yuvReprocess && canReprocessToJpeg(map, ImageFormat.YUV_420_888)) return ImageFormat.YUV_420_888;
+        return -1;
+    }
+
+    private static boolean canReprocessToJpeg(StreamConfigurationMap map, int inputFormat) {
+        int[] outputs = map.getValidOutputFormatsForInput(inputFormat);
+        if (outputs == null) return false;
+        for (int f : outputs) {
+            if (f == ImageFormat.JPEG) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 创建可重处理会话：输入流（与 ZSL 流同尺寸同格式）+ 虚拟预览 + ZSL 流 + JPEG 输出
+     */
+    private void createCaptureSession() {
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+        try {
+            StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size inputSize = largest(map.getInputSizes(mInputFormat));
+            Size jpegSize = largest(map.getOutputSizes(ImageFormat.JPEG));
+            Log.d(TAG, "Reprocess input " + (mInputFormat == ImageFormat.PRIVATE ? "PRIVATE " : "YUV ")
+                    + inputSize + " → JPEG " + jpegSize);
+
+            mZslReader = ImageReader.newInstance(
+                    inputSize.getWidth(), inputSize.getHeight(), mInputFormat, RING_CAPACITY + 2);
+            mZslReader.setOnImageAvailableListener(reader -> {
+                Image image;
+                while ((image = reader.acquireNextImage()) != null) {
+                    onRingFrame(image);
+                }
+            }, mBgHandler);
+
+            mJpegReader = ImageReader.newInstance(
+                    jpegSize.getWidth(), jpegSize.getHeight(), ImageFormat.JPEG, BURST_COUNT + 2);
+            mJpegReader.setOnImageAvailableListener(reader -> {
+                long availableNs = SystemClock.elapsedRealtimeNanos();
+                mTracer.instant(CaptureTracer.EVENT_IMAGE_AVAILABLE, 0);
+                Image image;
+                while ((image = reader.acquireNextImage()) != null) {
+                    saveImage(image, availableNs);
+                }
+            }, mBgHandler);
+
+            CaptureRequest.Builder builder = mStreamRequestTemplate;
+            builder.addTarget(mPreviewSurface);
+            builder.addTarget(mZslReader.getSurface());
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+
+            InputConfiguration input = new InputConfiguration(
+                    inputSize.getWidth(), inputSize.getHeight(), mInputFormat);
+            List<Surface> surfaces = Arrays.asList(mPreviewSurface, mZslReader.getSurface(), mJpegReader.getSurface());
+            mCameraDevice.createReprocessableCaptureSession(input, surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    mCaptureSession = session;
+                    mImageWriter = ImageWriter.newInstance(session.getInputSurface(), BURST_COUNT);
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    mTracer.begin(CaptureTracer.SECTION_CONVERGE);
+                    try {
+                        session.setRepeatingRequest(builder.build(), mStreamCaptureCallback, mBgHandler);
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Failed to start stream", e);
+                        mMainHandler.post(ReprocessZSLJpegActivity.this::finish);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "Reprocessable session config failed");
+                    mMainHandler.post(ReprocessZSLJpegActivity.this::finish);
+                }
+            }, mBgHandler);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create session", e);
+            mMainHandler.post(ReprocessZSLJpegActivity.this::finish);
+        }
+    }
+
+    /**
+     * 连续流回调：保存每帧的 TotalCaptureResult（重处理需要），并在 AE 收敛时按下快门
+     */
+    private final CameraCaptureSession.CaptureCallback mStreamCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    if (mDone) return;
+                    Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (ts != null) {
+                        mResults[mResultNext] = result;
+                        mResultTs[mResultNext] = ts;
+                        mResultNext = (mResultNext + 1) % RESULT_CAPACITY;
+                    }
+                    mTracer.markResult(result);
+                    mMetadata.record(result);
+                    checkAeAndTrigger(result);
+                }
+            };
+
+    private TotalCaptureResult findResult(long sensorTs) {
+        for (int i = 0; i < RESULT_CAPACITY; i++) {
+            if (mResults[i] != null && mResultTs[i] == sensorTs) return mResults[i];
+        }
+        return null;
+    }
+
+    private void checkAeAndTrigger(CaptureResult result) {
+        if (mTriggered) return;
+
+        Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+        boolean aeOK = ae == null ||
+                ae == CaptureResult.CONTROL_AE_STATE_CONVERGED ||
+                ae == CaptureResult.CONTROL_AE_STATE_LOCKED;
+
+        if (aeOK) {
+            if (!mAeConverged) {
+                mAeConverged = true;
+                Log.d(TAG, "AE converged at frame #" + result.getFrameNumber() + ". Triggering ZSL reprocess...");
+                trigger();
+            }
+        } else {
+            mAeConverged = false;
+        }
+    }
+
+    private void trigger() {
+        mTriggered = true;
+        mTriggerRealtimeNs = SystemClock.elapsedRealtimeNanos();
+        mTriggerSensorTs = mTracer.realtimeToSensorNs(mTriggerRealtimeNs);
+        mTracer.end(CaptureTracer.SECTION_CONVERGE);
+        mTracer.instant(CaptureTracer.EVENT_TRIGGER, mTriggerSensorTs);
+        mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+        mRun.mark(PipelineMetrics.MARK_TRIGGER);
+        mBgHandler.postDelayed(mTriggerTimeout, TRIGGER_TIMEOUT_MS);
+        resolveTrigger(false);
+    }
+
+    private void onRingFrame(Image image) {
+        if (mDone) {
+            image.close();
+            return;
+        }
+        mRing.add(image);
+        if (mTriggered) resolveTrigger(false);
+    }
+
+    /**
+     * 挑出最接近触发时刻的帧，逐帧经 ImageWriter 送回 HAL 并提交重处理请求
+     */
+    private void resolveTrigger(boolean timedOut) {
+        if (mDone || !mTriggered) return;
+        if (!timedOut && mRing.newestTimestamp() < mTriggerSensorTs) return;
+        if (timedOut) Log.w(TAG, "No frame after trigger within " + TRIGGER_TIMEOUT_MS + "ms, using ring as-is");
+
+        mDone = true;
+        mBgHandler.removeCallbacks(mTriggerTimeout);
+        long selectNs = SystemClock.elapsedRealtimeNanos();
+        List<Image> selected = mRing.takeNearest(mTriggerSensorTs, BURST_COUNT);
+        long lookupUs = (selectNs - mTriggerRealtimeNs) / 1000;
+        mRun.sample(PipelineMetrics.HIST_ZSL_LOOKUP, lookupUs);
+        mRun.count(PipelineMetrics.COUNTER_ZSL_EVICTED, mRing.evicted());
+        Log.d(TAG, "ZSL lookup " + lookupUs + "us, selected " + selected.size() + "/" + BURST_COUNT
+                + " frame(s) around ts=" + mTriggerSensorTs);
+
+        try {
+            mCaptureSession.stopRepeating();
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Failed to stop stream", e);
+        }
+        mRing.clear();
+
+        long nearestNs = Long.MAX_VALUE;
+        for (Image image : selected) {
+            long deltaNs = image.getTimestamp() - mTriggerSensorTs;
+            if (Math.abs(deltaNs) < Math.abs(nearestNs)) nearestNs = deltaNs;
+        }
+        if (!selected.isEmpty()) {
+            long lagUs = mRun.sampleShutterLag(nearestNs);
+            Log.d(TAG, "Shutter lag " + lagUs + "us");
+        }
+
+        for (Image image : selected) {
+            submitReprocess(image);
+        }
+        mTracer.instant(CaptureTracer.EVENT_SUBMIT, mOutstanding);
+        if (mOutstanding == 0) {
+            finishCapture();
+        } else {
+            mBgHandler.postDelayed(mReprocessTimeout, REPROCESS_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * 以输入帧自己的结果为基础构建重处理请求：HIGH_QUALITY 降噪与锐化，输出 JPEG
+     */
+    private void submitReprocess(Image image) {
+        TotalCaptureResult result = findResult(image.getTimestamp());
+        if (result == null) {
+            Log.w(TAG, "No capture result for ts=" + image.getTimestamp() + ", dropping frame");
+            image.close();
+            mRun.frameFailed();
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = mCameraDevice.createReprocessCaptureRequest(result);
+            builder.addTarget(mJpegReader.getSurface());
+            builder.set(CaptureRequest.NOISE_REDUCTION_MODE, CaptureRequest.NOISE_REDUCTION_MODE_HIGH_QUALITY);
+            builder.set(CaptureRequest.EDGE_MODE, CaptureRequest.EDGE_MODE_HIGH_QUALITY);
+            builder.set(CaptureRequest.JPEG_QUALITY, (byte) 90);
+            // 输入图像与重处理请求按提交顺序一一对应；queueInputImage 之后图像归 ImageWriter 所有
+            mImageWriter.queueInputImage(image);
+            mCaptureSession.capture(builder.build(), mReprocessCallback, mBgHandler);
+            mOutstanding++;
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Reprocess submit failed", e);
+            mRun.frameFailed();
+        }
+    }
+
+    /**
+     * 重处理请求回调：失败或输出缓冲丢失时该帧不会再有图像
+     */
+    private final CameraCaptureSession.CaptureCallback mReprocessCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    mRun.captureCompleted();
+                    Log.d(TAG, "Reprocess completed (frame " + result.getFrameNumber() + ")");
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    Log.w(TAG, "Reprocess failed: reason=" + failure.getReason());
+                    mRun.frameFailed();
+                    resolved();
+                }
+
+                @Override
+                public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                                @NonNull CaptureRequest request,
+                                                @NonNull Surface target, long frameNumber) {
+                    Log.w(TAG, "Reprocess buffer lost: frame " + frameNumber);
+                    mRun.frameFailed();
+                    resolved();
+                }
+            };
+
+    private void resolved() {
+        mOutstanding--;
+        if (mOutstanding <= 0) finishCapture();
+    }
+
+    private void finishCapture() {
+        if (mCaptureFinished) return;
+        mCaptureFinished = true;
+        mBgHandler.removeCallbacks(mReprocessTimeout);
+        mTracer.end(CaptureTracer.SECTION_CAPTURE);
+        Log.d(TAG, "Reprocess capture completed. Exiting...");
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(ReprocessZSLJpegActivity.this::finish);
+        });
+    }
+
+    private static Size largest(Size[] sizes) {
+        if (sizes == null || sizes.length == 0) return new Size(1920, 1440);
+        Size best = sizes[0];
+        for (Size s : sizes) {
+            if ((long) s.getWidth() * s.getHeight() > (long) best.getWidth() * best.getHeight()) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 保存重处理输出的 JPEG（时间戳与输入帧相同，可直接关联元数据）
+     */
+    private void saveImage(Image image, long availableNs) {
+        mTracer.begin(CaptureTracer.SECTION_SAVE);
+        long sensorTs = image.getTimestamp();
+        long acquiredNs = SystemClock.elapsedRealtimeNanos();
+        try {
+            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+
+            File dir = new File(getExternalMediaDirs()[0], "reprocess");
+            dir.mkdirs();
+            File file = new File(dir, "reprocess_" + sensorTs + ".jpg");
+            long writeNs = SystemClock.elapsedRealtimeNanos();
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(bytes);
+            }
+            long closedNs = SystemClock.elapsedRealtimeNanos();
+            mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, bytes.length);
+            mRun.frameWritten(availableNs, closedNs - writeNs, bytes.length);
+            Log.d(TAG, "Saved: " + file.getAbsolutePath());
+            mMetadata.bindFile(sensorTs, file);
+        } catch (Exception e) {
+            Log.e(TAG, "Save failed", e);
+            mRun.frameFailed();
+        } finally {
+            image.close();
+            mTracer.end(CaptureTracer.SECTION_SAVE);
+        }
+        resolved();
+    }
+
+    private void cleanup() {
+        try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
+            mRing.clear();
+            if (mImageWriter != null) {
+                mImageWriter.close();
+                mImageWriter = null;
+            }
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mZslReader != null) {
+                mZslReader.close();
+                mZslReader = null;
+            }
+            if (mJpegReader != null) {
+                mJpegReader.close();
+                mJpegReader = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+        mMetadata.close();
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.ReprocessZSLJpegActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
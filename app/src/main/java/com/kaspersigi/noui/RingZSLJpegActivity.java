@@ -0,0 +1,472 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+// adb shell pm grant com.kaspersigi.noui android.permission.CAMERA
+// adb shell am start -n com.kaspersigi.noui/.RingZSLJpegActivity
+// adb shell am force-stop com.kaspersigi.noui
+
+/**
+ * 应用侧 ZSL：不依赖 HAL 的 CONTROL_ENABLE_ZSL。
+ * 预览期间持续输出全分辨率 YUV 到 ImageReader，最近若干帧保存在内存环形缓冲中；
+ * AE 收敛（即“按下快门”）时记录触发时刻，从缓冲中挑出 SENSOR_TIMESTAMP 最接近触发时刻的 BURST_COUNT 帧，
+ * 只对这几帧做 JPEG 编码并写入外部存储，然后自动退出。
+ *
+ * 快门延迟 = 触发到完成缓冲查找的时间（等待触发时刻之后的第一帧到达），与 HAL 是否支持 ZSL 无关。
+ */
+public class RingZSLJpegActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final int BURST_COUNT = 5;            // 输出张数
+    private static final int RING_CAPACITY = BURST_COUNT + 2; // 环形缓冲帧数
+    private static final int JPEG_QUALITY = 90;
+    private static final long TRIGGER_TIMEOUT_MS = 500;   // 等不到触发时刻之后的帧时，直接用缓冲中已有的帧
+
+    // Camera2 核心对象
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;            // 全分辨率 YUV 连续流
+    private String mCameraId;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+
+    // 无界面预览所需的虚拟 Surface
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private boolean mAeConverged = false;
+    private boolean mTriggered = false;   // 已按下快门，等待挑帧
+    private boolean mDone = false;        // 已挑出帧，不再接收新帧
+    private long mTriggerRealtimeNs = 0;
+    private long mTriggerSensorTs = 0;    // 触发时刻换算到传感器时间基准
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraCharacteristics mCameraCharacteristics;
+    private CaptureRequest.Builder mStreamRequestTemplate;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final CaptureTracer mTracer = new CaptureTracer(8192);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+    private final FrameMetadataStore mMetadata = new FrameMetadataStore(RING_CAPACITY + 8);
+
+    // 最近 RING_CAPACITY 帧全分辨率图像
+    private final ZslRingBuffer mRing = new ZslRingBuffer(RING_CAPACITY);
+    private final YuvJpegEncoder mEncoder = new YuvJpegEncoder();
+
+    private final Runnable mTriggerTimeout = () -> resolveTrigger(true);
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "NoUI camera started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    /**
+     * 查找并打开后置摄像头（退避重试 / 切换 / 断开后恢复由 CameraOpener 负责）
+     */
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
+            try {
+                // ZSL 模板专为“持续输出高质量帧、事后挑选”设计；不支持时退回预览模板
+                mStreamRequestTemplate = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+            } catch (CameraAccessException | IllegalArgumentException e) {
+                Log.w(TAG, "TEMPLATE_ZERO_SHUTTER_LAG unsupported, using TEMPLATE_PREVIEW");
+                try {
+                    mStreamRequestTemplate = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                } catch (CameraAccessException e2) {
+                    Log.e(TAG, "Failed to create templates", e2);
+                    mMainHandler.post(RingZSLJpegActivity.this::finish);
+                    return;
+                }
+            }
+            createCaptureSession();
+        }
+
+        @Override
+        public void onCameraLost() {
+            // 缓冲中的帧随 ImageReader 一起失效；尚未出图时恢复后重新收敛、重新触发
+            Log.w(TAG, "Camera lost" + (mDone ? "" : ", ZSL ring discarded"));
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mBgHandler.removeCallbacks(mTriggerTimeout);
+            mRing.clear();
+            closeSession();
+            mAeConverged = false;
+            mTriggered = false;
+        }
+
+        @Override
+        public void onGiveUp() {
+            cleanup();
+            mMainHandler.post(RingZSLJpegActivity.this::finish);
+        }
+    };
+
+    private void closeSession() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        mCameraDevice = null;
+    }
+
+    /**
+     * 创建会话：虚拟预览 Surface + 全分辨率 YUV ImageReader，两者都挂在重复请求上
+     */
+    private void createCaptureSession() {
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+        try {
+            Size yuvSize = chooseYuvSize();
+            // 环形缓冲持有 RING_CAPACITY 帧，另留 2 帧给正在 acquire / 编码的图像
+            mImageReader = ImageReader.newInstance(
+                    yuvSize.getWidth(), yuvSize.getHeight(),
+                    ImageFormat.YUV_420_888, RING_CAPACITY + 2
+            );
+            mImageReader.setOnImageAvailableListener(reader -> {
+                Image image;
+                while ((image = reader.acquireNextImage()) != null) {
+                    onRingFrame(image);
+                }
+            }, mBgHandler);
+
+            CaptureRequest.Builder builder = mStreamRequestTemplate;
+            builder.addTarget(mPreviewSurface);
+            builder.addTarget(mImageReader.getSurface());
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+
+            List<Surface> surfaces = Arrays.asList(mPreviewSurface, mImageReader.getSurface());
+            mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    mCaptureSession = session;
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    mTracer.begin(CaptureTracer.SECTION_CONVERGE);
+                    try {
+                        session.setRepeatingRequest(builder.build(), mStreamCaptureCallback, mBgHandler);
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Failed to start stream", e);
+                        mMainHandler.post(RingZSLJpegActivity.this::finish);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "Session config failed");
+                    mMainHandler.post(RingZSLJpegActivity.this::finish);
+                }
+            }, mBgHandler);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create session", e);
+            mMainHandler.post(RingZSLJpegActivity.this::finish);
+        }
+    }
+
+    /**
+     * 连续流回调：记录每帧元数据（供挑中的帧关联），并在 AE 收敛时按下快门
+     */
+    private final CameraCaptureSession.CaptureCallback mStreamCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    if (mDone) return;
+                    mTracer.markResult(result);
+                    mMetadata.record(result);
+                    checkAeAndTrigger(result);
+                }
+            };
+
+    private void checkAeAndTrigger(CaptureResult result) {
+        if (mTriggered) return;
+
+        Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+        boolean aeOK = ae == null ||
+                ae == CaptureResult.CONTROL_AE_STATE_CONVERGED ||
+                ae == CaptureResult.CONTROL_AE_STATE_LOCKED;
+
+        if (aeOK) {
+            if (!mAeConverged) {
+                mAeConverged = true;
+                Log.d(TAG, "AE converged at frame #" + result.getFrameNumber() + ". Triggering ZSL capture...");
+                trigger();
+            }
+        } else {
+            mAeConverged = false;
+        }
+    }
+
+    /**
+     * 按下快门：记录触发时刻，等触发时刻之后的第一帧到达（或超时）后挑帧
+     */
+    private void trigger() {
+        mTriggered = true;
+        mTriggerRealtimeNs = SystemClock.elapsedRealtimeNanos();
+        mTriggerSensorTs = mTracer.realtimeToSensorNs(mTriggerRealtimeNs);
+        mTracer.end(CaptureTracer.SECTION_CONVERGE);
+        mTracer.instant(CaptureTracer.EVENT_TRIGGER, mTriggerSensorTs);
+        mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+        mRun.mark(PipelineMetrics.MARK_TRIGGER);
+        mBgHandler.postDelayed(mTriggerTimeout, TRIGGER_TIMEOUT_MS);
+        resolveTrigger(false);
+    }
+
+    private void onRingFrame(Image image) {
+        if (mDone) {
+            image.close();
+            return;
+        }
+        mRing.add(image);
+        if (mTriggered) resolveTrigger(false);
+    }
+
+    /**
+     * 缓冲中已有触发时刻之后的帧（或已超时）时，挑出最接近触发时刻的帧并编码写出
+     */
+    private void resolveTrigger(boolean timedOut) {
+        if (mDone || !mTriggered) return;
+        if (!timedOut && mRing.newestTimestamp() < mTriggerSensorTs) return;
+        if (timedOut) Log.w(TAG, "No frame after trigger within " + TRIGGER_TIMEOUT_MS + "ms, using ring as-is");
+
+        mDone = true;
+        mBgHandler.removeCallbacks(mTriggerTimeout);
+        long selectNs = SystemClock.elapsedRealtimeNanos();
+        List<Image> selected = mRing.takeNearest(mTriggerSensorTs, BURST_COUNT);
+        long lookupUs = (selectNs - mTriggerRealtimeNs) / 1000;
+        mRun.sample(PipelineMetrics.HIST_ZSL_LOOKUP, lookupUs);
+        mRun.count(PipelineMetrics.COUNTER_ZSL_EVICTED, mRing.evicted());
+        Log.d(TAG, "ZSL lookup " + lookupUs + "us, selected " + selected.size() + "/" + BURST_COUNT
+                + " frame(s) around ts=" + mTriggerSensorTs);
+
+        try {
+            if (mCaptureSession != null) {
+                mCaptureSession.stopRepeating();
+            }
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Failed to stop stream", e);
+        }
+        mRing.clear();
+
+        // 快门延迟取最接近触发时刻的那一帧
+        long nearestNs = Long.MAX_VALUE;
+        for (Image image : selected) {
+            long deltaNs = image.getTimestamp() - mTriggerSensorTs;
+            if (Math.abs(deltaNs) < Math.abs(nearestNs)) nearestNs = deltaNs;
+        }
+        if (!selected.isEmpty()) {
+            long lagUs = mRun.sampleShutterLag(nearestNs);
+            Log.d(TAG, "Shutter lag " + lagUs + "us");
+        }
+        for (Image image : selected) {
+            saveImage(image, selectNs);
+        }
+        mTracer.end(CaptureTracer.SECTION_CAPTURE);
+        Log.d(TAG, "ZSL capture completed. Exiting...");
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(RingZSLJpegActivity.this::finish);
+        });
+    }
+
+    /**
+     * 选择最大的 YUV_420_888 输出尺寸
+     */
+    private Size chooseYuvSize() {
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        if (sizes == null || sizes.length == 0) return new Size(1920, 1440);
+        Size best = sizes[0];
+        for (Size s : sizes) {
+            if ((long) s.getWidth() * s.getHeight() > (long) best.getWidth() * best.getHeight()) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 把挑中的 YUV 帧编码为 JPEG 并保存到外部存储
+     */
+    private void saveImage(Image image, long availableNs) {
+        mTracer.begin(CaptureTracer.SECTION_SAVE);
+        long sensorTs = image.getTimestamp();
+        long acquiredNs = SystemClock.elapsedRealtimeNanos();
+        try {
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+            mEncoder.encode(image, JPEG_QUALITY, jpeg);
+
+            File dir = new File(getExternalMediaDirs()[0], "zsl");
+            dir.mkdirs();
+            File file = new File(dir, "zsl_" + sensorTs + ".jpg");
+            long writeNs = SystemClock.elapsedRealtimeNanos();
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                jpeg.writeTo(fos);
+            }
+            long closedNs = SystemClock.elapsedRealtimeNanos();
+            mTracer.frameSaved(sensorTs, availableNs, acquiredNs, writeNs, closedNs, jpeg.size());
+            mRun.frameWritten(availableNs, closedNs - writeNs, jpeg.size());
+            Log.d(TAG, "Saved: " + file.getAbsolutePath());
+            mMetadata.bindFile(sensorTs, file);
+        } catch (Exception e) {
+            Log.e(TAG, "Save failed", e);
+            mRun.frameFailed();
+        } finally {
+            image.close();
+            mTracer.end(CaptureTracer.SECTION_SAVE);
+        }
+    }
+
+    private void cleanup() {
+        try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
+            mRing.clear();
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+        mMetadata.close();
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.RingZSLJpegActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,149 @@
+package com.kaspersigi.noui;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+/**
+ * 传感器时间戳 ↔ elapsedRealtimeNanos ↔ UTC 的时钟映射。
+ * - 按 SENSOR_INFO_TIMESTAMP_SOURCE 区分时间基准：REALTIME 与 elapsedRealtimeNanos 同基准；
+ *   UNKNOWN 时传感器使用 CLOCK_MONOTONIC（System.nanoTime），深度睡眠后与 elapsedRealtime 分叉
+ * - 每次校准用夹逼采样（前后各读一次 elapsedRealtime）取窗口最窄的一组；UTC 只有毫秒精度，
+ *   因此在毫秒跳变处取样，把误差压到微秒级。窗口的一半记为不确定度
+ * - 校时（NTP / 用户修改）与睡眠都会改变映射，调用方应定期 maybeRecalibrate()；校准会忙等毫秒跳变
+ *   （最多 UTC_EDGE_TIMEOUT_NS），应在单独投递的任务里进行，不要放在逐帧回调中
+ *
+ * 读方法可在任意线程调用；校准应在同一线程上进行。
+ */
+public final class SensorClock {
+    public static final long RECALIBRATE_INTERVAL_NS = 5_000_000_000L;
+    private static final int SAMPLES = 16;
+    private static final long UTC_EDGE_TIMEOUT_NS = 3_000_000L; // 等待毫秒跳变的上限
+
+    private final boolean mRealtimeSource;
+    private volatile long mSensorToRealtimeNs; // sensor + 偏移 = elapsedRealtime
+    private volatile long mRealtimeToUtcNs;    // elapsedRealtime + 偏移 = UTC
+    private volatile long mUncertaintyNs;
+    private volatile long mCalibratedAtNs;
+    private volatile long mLastDriftNs = 0;    // 最近一次校准时 sensor→UTC 偏移的变化量
+    private int mCalibrations = 0;
+
+    public SensorClock(Integer timestampSource) {
+        mRealtimeSource = timestampSource != null
+                && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        calibrate();
+    }
+
+    public boolean isRealtimeSource() {
+        return mRealtimeSource;
+    }
+
+    /**
+     * 重新测量两组偏移
+     */
+    public void calibrate() {
+        long oldSensorToUtc = mSensorToRealtimeNs + mRealtimeToUtcNs;
+        long sensorUncertainty = 0;
+        if (!mRealtimeSource) {
+            long bestWidth = Long.MAX_VALUE;
+            long bestOffset = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                long r1 = SystemClock.elapsedRealtimeNanos();
+                long m = System.nanoTime();
+                long r2 = SystemClock.elapsedRealtimeNanos();
+                if (r2 - r1 < bestWidth) {
+                    bestWidth = r2 - r1;
+                    bestOffset = r1 + (r2 - r1) / 2 - m;
+                }
+            }
+            mSensorToRealtimeNs = bestOffset;
+            sensorUncertainty = bestWidth / 2;
+        }
+
+        // 在 currentTimeMillis 的毫秒跳变处取样：跳变发生在上一次读数之前与本次读数之后之间
+        long deadline = SystemClock.elapsedRealtimeNanos() + UTC_EDGE_TIMEOUT_NS;
+        long prevBefore = SystemClock.elapsedRealtimeNanos();
+        long prevMs = System.currentTimeMillis();
+        long offset = 0;
+        long uncertainty = -1;
+        while (true) {
+            long before = SystemClock.elapsedRealtimeNanos();
+            long ms = System.currentTimeMillis();
+            long after = SystemClock.elapsedRealtimeNanos();
+            if (ms != prevMs) {
+                long edge = prevBefore + (after - prevBefore) / 2;
+                offset = ms * 1_000_000L - edge;
+                uncertainty = (after - prevBefore) / 2;
+                break;
+            }
+            if (after > deadline) {
+                // 没等到跳变（时钟粒度异常），退回单次读数，不确定度按半毫秒计
+                offset = ms * 1_000_000L + 500_000L - (before + (after - before) / 2);
+                uncertainty = 500_000L;
+                break;
+            }
+            prevBefore = before;
+            prevMs = ms;
+        }
+        mRealtimeToUtcNs = offset;
+        mUncertaintyNs = sensorUncertainty + uncertainty;
+        mCalibratedAtNs = SystemClock.elapsedRealtimeNanos();
+        if (mCalibrations++ > 0) {
+            mLastDriftNs = mSensorToRealtimeNs + mRealtimeToUtcNs - oldSensorToUtc;
+        }
+    }
+
+    /**
+     * 距上次校准超过 intervalNs 时重新校准
+     *
+     * @return 是否进行了校准
+     */
+    public boolean maybeRecalibrate(long intervalNs) {
+        if (SystemClock.elapsedRealtimeNanos() - mCalibratedAtNs < intervalNs) return false;
+        calibrate();
+        return true;
+    }
+
+    public long sensorToRealtimeNs(long sensorTs) {
+        return sensorTs + mSensorToRealtimeNs;
+    }
+
+    public long realtimeToSensorNs(long realtimeNs) {
+        return realtimeNs - mSensorToRealtimeNs;
+    }
+
+    public long sensorToUtcNs(long sensorTs) {
+        return sensorTs + mSensorToRealtimeNs + mRealtimeToUtcNs;
+    }
+
+    public long utcToSensorNs(long utcNs) {
+        return utcNs - mRealtimeToUtcNs - mSensorToRealtimeNs;
+    }
+
+    public long realtimeToUtcNs(long realtimeNs) {
+        return realtimeNs + mRealtimeToUtcNs;
+    }
+
+    public long uncertaintyNs() {
+        return mUncertaintyNs;
+    }
+
+    /**
+     * @return 最近一次校准时 sensor→UTC 映射的变化量（纳秒，首次校准为 0）
+     */
+    public long lastDriftNs() {
+        return mLastDriftNs;
+    }
+
+    public int calibrations() {
+        return mCalibrations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "source=%s, sensor→realtime=%dns, realtime→utc=%dns, ±%dus, drift=%dus",
+                mRealtimeSource ? "REALTIME" : "UNKNOWN(monotonic)", mSensorToRealtimeNs, mRealtimeToUtcNs,
+                mUncertaintyNs / 1000, mLastDriftNs / 1000);
+    }
+}
@@ -0,0 +1,319 @@
+package com.kaspersigi.noui;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 连拍输出目录的存储预算：拍前检查剩余空间，拍后记账，后台按 LRU 淘汰旧连拍以保持在配额内。
+ * - admit()：触发前用 StatFs 估算还能放下几帧（按单帧上界估计），放不下全部时缩减本组，
+ *   一帧也放不下时拒绝；只做一次 statfs，不读索引
+ * - 索引文件 <dir>/.burst_index 记录每组连拍的文件、大小和最近使用时间；首次需要时才在后台线程加载，
+ *   启动路径上不扫描目录；索引缺失时退回一次目录扫描重建（每个文件视为一组）
+ * - 淘汰在低优先级线程上进行：按最近使用时间从旧到新删除整组，直到总量 + 本组预计大小不超过配额，
+ *   且剩余空间不低于 MIN_FREE_BYTES；本次运行中正在写入的连拍不在索引里，不会被淘汰
+ * - touch() 把一组连拍标记为最近使用（例如解包时），使其最后被淘汰；目录中还没有索引时不做任何事
+ * - 配额 ≤ 0 时只做剩余空间检查，不记账也不淘汰；预算线程在第一次需要读写索引时才创建
+ *
+ * 所有公开方法可在任意线程调用；索引只在预算线程上读写。
+ */
+public final class StorageBudget {
+    private static final String TAG = "NoUI";
+    private static final String INDEX_NAME = ".burst_index";
+    private static final String INDEX_HEADER = "# noui burst index v1";
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    // 无论配额如何都给系统留出的空间；低于此值时写入会明显变慢，随后在连拍中途失败
+    public static final long MIN_FREE_BYTES = 256L << 20;
+
+    private static final class Entry {
+        final List<String> names = new ArrayList<>();
+        long bytes;
+        long lastUsedMs;
+    }
+
+    private final File mDir;
+    private final long mQuotaBytes;
+    private final PipelineMetrics.Run mRun;
+    private final Set<File> mCurrent = new LinkedHashSet<>();
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // 以下只在预算线程上访问；null 表示尚未加载
+    private List<Entry> mEntries;
+    private long mUsedBytes = 0;
+
+    /**
+     * @param quotaBytes 配额，≤ 0 表示不记账、不淘汰
+     * @param run        记录淘汰指标，可为 null
+     */
+    public StorageBudget(File dir, long quotaBytes, PipelineMetrics.Run run) {
+        mDir = dir;
+        mQuotaBytes = quotaBytes;
+        mRun = run;
+    }
+
+    public long quotaBytes() {
+        return mQuotaBytes;
+    }
+
+    public boolean isEnabled() {
+        return mQuotaBytes > 0;
+    }
+
+    /**
+     * 触发前的准入检查：按剩余空间（扣除 MIN_FREE_BYTES）和配额估算能放下的帧数，
+     * 并在启用配额时于后台为本组预计大小腾出配额空间
+     *
+     * @param frames     计划张数
+     * @param frameBytes 单帧大小的上界估计
+     * @return 允许的张数（≤ frames），0 表示一帧也放不下
+     */
+    public int admit(int frames, long frameBytes) {
+        if (frames <= 0) return 0;
+        if (frameBytes <= 0) return frames;
+        mDir.mkdirs();
+        long available;
+        try {
+            available = new StatFs(mDir.getPath()).getAvailableBytes() - MIN_FREE_BYTES;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "statfs failed: " + mDir.getAbsolutePath(), e);
+            return frames;
+        }
+        long fit = Math.max(0, (isEnabled() ? Math.min(available, mQuotaBytes) : available) / frameBytes);
+        int allowed = (int) Math.min(frames, fit);
+        if (allowed < frames) {
+            Log.w(TAG, "Storage admits " + allowed + "/" + frames + " frame(s): "
+                    + Math.max(0, available) + "B available above reserve, " + frameBytes + "B per frame");
+        }
+        if (isEnabled()) {
+            long planned = allowed * frameBytes;
+            handler().post(() -> trim(planned));
+        }
+        return allowed;
+    }
+
+    /**
+     * 本次运行写入（或追加）了一个文件，结束时作为同一组连拍记入索引
+     */
+    public void onWritten(File file) {
+        if (!isEnabled()) return;
+        synchronized (mCurrent) {
+            mCurrent.add(file);
+        }
+    }
+
+    /**
+     * 把包含 file 的那组连拍标记为最近使用
+     */
+    public void touch(File file) {
+        if (!new File(mDir, INDEX_NAME).isFile()) return;
+        String name = file.getName();
+        long nowMs = System.currentTimeMillis();
+        handler().post(() -> {
+            ensureLoaded();
+            for (Entry e : mEntries) {
+                if (e.names.contains(name)) {
+                    e.lastUsedMs = nowMs;
+                    saveIndex();
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * 把本次运行写入的文件记为一组连拍，必要时再淘汰一次，然后结束预算线程（最多等待 CLOSE_TIMEOUT_MS）。
+     * 应在所有输出文件关闭之后调用，记入的大小才是最终大小
+     */
+    public void close() {
+        List<File> files;
+        synchronized (mCurrent) {
+            files = new ArrayList<>(mCurrent);
+            mCurrent.clear();
+        }
+        HandlerThread thread;
+        synchronized (this) {
+            if (!files.isEmpty()) {
+                handler().post(() -> {
+                    record(files);
+                    trim(0);
+                });
+            }
+            thread = mThread;
+            mThread = null;
+            mHandler = null;
+        }
+        if (thread == null) return;
+        thread.quitSafely();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private synchronized Handler handler() {
+        if (mHandler == null) {
+            mThread = new HandlerThread("StorageBudget", Process.THREAD_PRIORITY_BACKGROUND);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        return mHandler;
+    }
+
+    private void record(List<File> files) {
+        ensureLoaded();
+        Entry entry = new Entry();
+        entry.lastUsedMs = System.currentTimeMillis();
+        for (File written : files) {
+            // 按文件名在预算目录中定位：文件可能写在落地目录，迁移后才到达这里
+            File f = new File(mDir, written.getName());
+            if (!f.isFile()) continue;
+            entry.names.add(f.getName());
+            entry.bytes += f.length();
+        }
+        if (entry.names.isEmpty()) return;
+        mEntries.add(entry);
+        mUsedBytes += entry.bytes;
+        saveIndex();
+        Log.d(TAG, "Burst recorded: " + entry.names.size() + " file(s), " + entry.bytes + "B, "
+                + mEntries.size() + " burst(s) using " + mUsedBytes + "/" + mQuotaBytes + "B");
+    }
+
+    /**
+     * 按 LRU 淘汰整组连拍，直到已用 + planned 不超过配额且剩余空间足够
+     */
+    private void trim(long planned) {
+        ensureLoaded();
+        int evicted = 0;
+        long evictedBytes = 0;
+        while (!mEntries.isEmpty() && needsSpace(planned)) {
+            Entry oldest = mEntries.get(0);
+            for (Entry e : mEntries) {
+                if (e.lastUsedMs < oldest.lastUsedMs) oldest = e;
+            }
+            mEntries.remove(oldest);
+            mUsedBytes -= oldest.bytes;
+            for (String name : oldest.names) {
+                File f = new File(mDir, name);
+                if (f.exists() && !f.delete()) Log.w(TAG, "Failed to evict " + f.getAbsolutePath());
+            }
+            evicted++;
+            evictedBytes += oldest.bytes;
+        }
+        if (evicted == 0) return;
+        saveIndex();
+        if (mRun != null) {
+            mRun.count(PipelineMetrics.COUNTER_EVICTED_BURSTS, evicted);
+            mRun.count(PipelineMetrics.COUNTER_EVICTED_BYTES, evictedBytes);
+        }
+        Log.d(TAG, "Evicted " + evicted + " burst(s), " + evictedBytes + "B; "
+                + mEntries.size() + " burst(s) using " + mUsedBytes + "/" + mQuotaBytes + "B");
+    }
+
+    private boolean needsSpace(long planned) {
+        if (mUsedBytes + planned > mQuotaBytes) return true;
+        try {
+            return new StatFs(mDir.getPath()).getAvailableBytes() < planned + MIN_FREE_BYTES;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mEntries != null) return;
+        mEntries = new ArrayList<>();
+        mUsedBytes = 0;
+        mDir.mkdirs();
+        File index = new File(mDir, INDEX_NAME);
+        if (index.isFile()) {
+            loadIndex(index);
+        } else {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * 每行一组连拍：lastUsedMs \t bytes \t name [\t name ...]
+     */
+    private void loadIndex(File index) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\t");
+                if (fields.length < 3) continue;
+                Entry e = new Entry();
+                e.lastUsedMs = Long.parseLong(fields[0]);
+                e.bytes = Long.parseLong(fields[1]);
+                for (int i = 2; i < fields.length; i++) e.names.add(fields[i]);
+                mEntries.add(e);
+                mUsedBytes += e.bytes;
+            }
+            Log.d(TAG, "Storage index loaded: " + mEntries.size() + " burst(s), " + mUsedBytes + "B");
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Storage index unreadable, rebuilding", e);
+            mEntries.clear();
+            mUsedBytes = 0;
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * 索引缺失或损坏时扫描一次目录：每个文件单独成组，以修改时间作为最近使用时间
+     */
+    private void rebuildIndex() {
+        File[] files = mDir.listFiles(f -> f.isFile() && !f.getName().startsWith(".")
+                && !f.getName().equals(FrameMetadataStore.INDEX_FILE));
+        if (files != null) {
+            for (File f : files) {
+                Entry e = new Entry();
+                e.names.add(f.getName());
+                e.bytes = f.length();
+                e.lastUsedMs = f.lastModified();
+                mEntries.add(e);
+                mUsedBytes += e.bytes;
+            }
+        }
+        Log.d(TAG, "Storage index rebuilt from " + mDir.getAbsolutePath() + ": "
+                + mEntries.size() + " file(s), " + mUsedBytes + "B");
+        saveIndex();
+    }
+
+    /**
+     * 先写临时文件再改名，中途崩溃不会留下半个索引
+     */
+    private void saveIndex() {
+        File tmp = new File(mDir, INDEX_NAME + ".tmp");
+        try (PrintWriter out = new PrintWriter(new FileWriter(tmp))) {
+            out.println(INDEX_HEADER);
+            for (Entry e : mEntries) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(e.lastUsedMs).append('\t').append(e.bytes);
+                for (String name : e.names) sb.append('\t').append(name);
+                out.println(sb);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write storage index", e);
+            return;
+        }
+        if (!tmp.renameTo(new File(mDir, INDEX_NAME))) {
+            Log.e(TAG, "Failed to replace storage index");
+        }
+    }
+}
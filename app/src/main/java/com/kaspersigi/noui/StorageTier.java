@@ -0,0 +1,264 @@
+package com.kaspersigi.noui;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分层存储：拍照路径写入最快的落地目录，相机关闭后在后台把整组文件迁移到最终的媒体目录。
+ * - 候选层：应用内部存储（noBackupFilesDir/landing，不经过 FUSE）与最终的媒体目录
+ * - 对每层写入并 fsync 一个探测文件，按耗时选择落地层，结果存入 SharedPreferences；
+ *   内部存储只有明显更快（超过 MARGIN_PERCENT）时才启用分层，否则直接写媒体目录、无需迁移。
+ *   探测不在拍照路径上：还没有探测结果时本次直接写媒体目录，连拍结束后在迁移线程上探测
+ * - 每次运行使用独立的落地子目录 run_<ms>，迁移时不会碰到其他运行正在写的文件；
+ *   之前运行遗留（例如迁移中途进程被杀）的子目录在下一次迁移时一并补迁
+ * - 迁移：同一文件系统时直接改名，否则流式拷贝 + fsync 目标后才删除源文件；
+ *   落地目录里的 frames.csv 追加合并到最终目录的 frames.csv（文件名不变，行内容无需改写）；
+ *   持久化策略为 dir 时迁移完成后再 fsync 最终目录，改名 / 新建的目录项才算落盘
+ *
+ * landingDir() 首次调用会读取探测结果并创建目录，应在相机后台线程上提前调用一次；其余方法可在任意线程调用。
+ */
+public final class StorageTier {
+    private static final String TAG = "NoUI";
+    private static final String PREFS = "storage_tier";
+    private static final String KEY_LANDING = "landing";
+    private static final String TIER_INTERNAL = "internal";
+    private static final String TIER_MEDIA = "media";
+    private static final String RUN_PREFIX = "run_";
+
+    private static final int PROBE_BYTES = 8 << 20;
+    private static final int PROBE_CHUNK = 512 << 10;
+    private static final int MARGIN_PERCENT = 10;
+
+    // 本进程中尚未迁移完成的落地子目录，补迁时跳过
+    private static final Set<File> sActiveRuns = new HashSet<>();
+
+    private final Context mContext;
+    private final File mFinalDir;
+    private final File mLandingRoot;
+    private final String mForced;
+    private File mLandingDir;
+    private boolean mMigrating = false;
+    private boolean mProbePending = false;
+
+    /**
+     * @param subdir 媒体目录下的最终子目录（例如 "burst"）
+     * @param forced "internal" / "media" 跳过探测强制指定落地层，null 或其他值按探测结果
+     */
+    public StorageTier(Context context, String subdir, String forced) {
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        mFinalDir = new File(context.getExternalMediaDirs()[0], subdir);
+        mLandingRoot = new File(context.getNoBackupFilesDir(), "landing");
+        mForced = forced;
+    }
+
+    public File finalDir() {
+        return mFinalDir;
+    }
+
+    /**
+     * @return 本次运行的落地目录；未分层时即最终目录
+     */
+    public synchronized File landingDir() {
+        if (mLandingDir != null) return mLandingDir;
+        if (TIER_INTERNAL.equals(resolveTier())) {
+            mLandingDir = new File(mLandingRoot, RUN_PREFIX + System.currentTimeMillis());
+            synchronized (sActiveRuns) {
+                sActiveRuns.add(mLandingDir);
+            }
+        } else {
+            mLandingDir = mFinalDir;
+        }
+        mLandingDir.mkdirs();
+        Log.d(TAG, "Landing dir: " + mLandingDir.getAbsolutePath());
+        return mLandingDir;
+    }
+
+    public synchronized boolean isTiered() {
+        return !landingDir().equals(mFinalDir);
+    }
+
+    /**
+     * 在后台线程把本次（以及遗留的）落地文件迁移到最终目录，完成后在该线程上调用 onDone（可为 null）；
+     * 没有需要迁移的文件（未分层且没有遗留）且无需探测时不启动线程，直接在调用线程上执行。
+     * 只应在所有输出文件关闭之后调用一次
+     *
+     * @param syncDirectory 迁移后 fsync 最终目录（持久化策略为 dir 时）
+     */
+    public synchronized void migrate(boolean syncDirectory, Runnable onDone) {
+        if (mMigrating) return;
+        mMigrating = true;
+        File run = mLandingDir != null && !mLandingDir.equals(mFinalDir) ? mLandingDir : null;
+        File[] leftovers = leftovers();
+        boolean probe = mProbePending;
+        mProbePending = false;
+        if (run == null && leftovers.length == 0 && !probe) {
+            finishMigration(syncDirectory, onDone);
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            if (run != null) {
+                migrateRun(run);
+                synchronized (sActiveRuns) {
+                    sActiveRuns.remove(run);
+                }
+            }
+            for (File leftover : leftovers) {
+                Log.w(TAG, "Migrating leftover landing dir " + leftover.getName());
+                migrateRun(leftover);
+            }
+            finishMigration(syncDirectory, onDone);
+            // 探测放在最后，不推迟本组的收尾；进程在此之前被杀时下一次运行重新探测
+            if (probe) probeTiers();
+        }, "Migrator");
+        thread.start();
+    }
+
+    private void finishMigration(boolean syncDirectory, Runnable onDone) {
+        if (syncDirectory && mFinalDir.isDirectory()) DurabilityPolicy.fsyncDirectory(mFinalDir);
+        if (onDone != null) onDone.run();
+    }
+
+    private String resolveTier() {
+        if (TIER_INTERNAL.equals(mForced) || TIER_MEDIA.equals(mForced)) return mForced;
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        String tier = prefs.getString(KEY_LANDING, null);
+        if (tier != null) return tier;
+        Log.d(TAG, "No storage probe result yet, landing on " + TIER_MEDIA + " until it runs after this burst");
+        mProbePending = true;
+        return TIER_MEDIA;
+    }
+
+    /**
+     * 探测两层的写入 + fsync 耗时并保存选择结果（在迁移线程上）
+     */
+    private void probeTiers() {
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long internalUs = probe(mLandingRoot);
+        long mediaUs = probe(mFinalDir);
+        String tier = internalUs > 0 && (mediaUs < 0 || internalUs * 100 < mediaUs * (100 - MARGIN_PERCENT))
+                ? TIER_INTERNAL : TIER_MEDIA;
+        prefs.edit()
+                .putString(KEY_LANDING, tier)
+                .putLong("probe_" + TIER_INTERNAL + "_us", internalUs)
+                .putLong("probe_" + TIER_MEDIA + "_us", mediaUs)
+                .commit();   // 已在后台线程上，同步写入，避免进程随后退出时丢失
+        Log.d(TAG, "Storage probe: internal=" + internalUs + "us, media=" + mediaUs + "us -> landing on " + tier);
+    }
+
+    /**
+     * 写入并 fsync PROBE_BYTES 字节，返回耗时（微秒），失败返回 -1
+     */
+    private static long probe(File dir) {
+        dir.mkdirs();
+        File file = new File(dir, ".probe");
+        byte[] chunk = new byte[PROBE_CHUNK];
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < PROBE_BYTES; written += chunk.length) {
+                out.write(chunk);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Storage probe failed: " + dir.getAbsolutePath(), e);
+            return -1;
+        } finally {
+            file.delete();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - startNs) / 1000;
+    }
+
+    /**
+     * 之前运行遗留的落地子目录（不含本进程中仍在写入的）
+     */
+    private File[] leftovers() {
+        File[] runs = mLandingRoot.listFiles(f -> f.isDirectory() && f.getName().startsWith(RUN_PREFIX));
+        if (runs == null) return new File[0];
+        List<File> leftovers = new ArrayList<>();
+        synchronized (sActiveRuns) {
+            for (File run : runs) {
+                if (!sActiveRuns.contains(run)) leftovers.add(run);
+            }
+        }
+        return leftovers.toArray(new File[0]);
+    }
+
+    private void migrateRun(File run) {
+        File[] files = run.listFiles(File::isFile);
+        if (files == null) return;
+        mFinalDir.mkdirs();
+        long startMs = SystemClock.elapsedRealtime();
+        int moved = 0;
+        long bytes = 0;
+        for (File src : files) {
+            try {
+                if (src.getName().equals(FrameMetadataStore.INDEX_FILE)) {
+                    mergeCsv(src, new File(mFinalDir, FrameMetadataStore.INDEX_FILE));
+                    continue;
+                }
+                File dst = new File(mFinalDir, src.getName());
+                long length = src.length();
+                move(src, dst);
+                moved++;
+                bytes += length;
+                Log.d(TAG, "Migrated: " + dst.getAbsolutePath());
+            } catch (IOException e) {
+                // 源文件保留在落地目录，下一次迁移时补迁
+                Log.e(TAG, "Migration failed: " + src.getAbsolutePath(), e);
+            }
+        }
+        if (!run.delete()) Log.w(TAG, "Landing dir not empty after migration: " + run.getAbsolutePath());
+        Log.d(TAG, "Migrated " + moved + " file(s), " + bytes + "B to " + mFinalDir.getAbsolutePath()
+                + " in " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+    }
+
+    private static void move(File src, File dst) throws IOException {
+        if (src.renameTo(dst)) return;
+        try (FileInputStream in = new FileInputStream(src);
+             FileOutputStream out = new FileOutputStream(dst)) {
+            FileChannel from = in.getChannel();
+            FileChannel to = out.getChannel();
+            long size = from.size();
+            long position = 0;
+            while (position < size) {
+                position += from.transferTo(position, size - position, to);
+            }
+            // 目标落盘之后才删除源文件，迁移中途掉电不会两边都丢
+            out.getFD().sync();
+        }
+        if (!src.delete()) throw new IOException("Failed to delete " + src.getAbsolutePath());
+    }
+
+    /**
+     * 把落地目录的 frames.csv 追加到最终目录的 frames.csv，只保留一个表头
+     */
+    private static void mergeCsv(File src, File dst) throws IOException {
+        boolean header = !dst.exists();
+        try (BufferedReader reader = new BufferedReader(new FileReader(src));
+             Writer writer = new FileWriter(dst, true)) {
+            String line = reader.readLine();
+            if (line != null && header) writer.write(line + "\n");
+            while ((line = reader.readLine()) != null) {
+                writer.write(line + "\n");
+            }
+        }
+        if (!src.delete()) throw new IOException("Failed to delete " + src.getAbsolutePath());
+    }
+}
@@ -0,0 +1,575 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// adb shell am start -n com.kaspersigi.noui/.SustainedBurstJpegActivity --ef fps 5 --ei seconds 300
+// 图像：<media>/sustained/sus_<ts>.jpg；报告：<media>/sustained/report_<ms>.json
+
+/**
+ * 持续连拍：AE 收敛后用 setRepeatingBurst 不间断地输出 JPEG，直到达到指定时长。
+ *
+ * 重复的 burst 由 1 个静态请求（JPEG）和 L-1 个仅预览的请求组成，JPEG 帧率 = 传感器帧率 / L。
+ * 内存有界：ImageReader 只有 READER_IMAGES 个缓冲，图像拷入 {@link FrameWriter} 的固定缓冲槽后立即 close；
+ * 写队列满时直接丢弃该帧（计为 queue drop），不会随运行时长增长。
+ *
+ * 每隔 ADAPT_INTERVAL_MS 按实测写文件耗时、队列积压和 HAL 丢帧重新计算 L：
+ * 目标帧率不超过写入能力的 HEADROOM 倍；积压过半或 HAL 出现丢帧时进一步降速，恢复后再逐步提速。
+ */
+public class SustainedBurstJpegActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final float DEFAULT_FPS = 5f;
+    private static final int DEFAULT_SECONDS = 60;
+    private static final int READER_IMAGES = 4;       // JPEG ImageReader 缓冲数
+    private static final int WRITER_SLOTS = 8;        // 写队列缓冲槽数
+    private static final long ADAPT_INTERVAL_MS = 1000;
+    private static final double HEADROOM = 0.8;       // 只使用写入能力的 80%
+    private static final int MAX_BURST_LENGTH = 30;   // 30fps 传感器下最低约 1fps
+    private static final long DRAIN_GRACE_MS = 500;   // 停止重复请求后等待在途帧的时间
+    private static final String TAG_STILL = "still";
+
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private String mCameraId;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+
+    // 无界面预览所需的虚拟 Surface
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraCharacteristics mCameraCharacteristics;
+    private CaptureRequest.Builder mPreviewBuilder;
+    private CaptureRequest.Builder mStillBuilder;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final CaptureTracer mTracer = new CaptureTracer(65536);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+    private FrameWriter mWriter;
+
+    private float mTargetFps = DEFAULT_FPS;
+    private int mSeconds = DEFAULT_SECONDS;
+
+    private boolean mStarted = false;     // 持续连拍已开始（断开重连后不重置）
+    private boolean mStreaming = false;   // 当前会话上正在重复 burst
+    private boolean mStopping = false;
+    private boolean mReported = false;
+    private int mBurstLength = 0;
+    private long mStartNs;
+    private long mStopNs;
+    private long mLastSensorTs = -1;
+    private double mFrameIntervalNs = 1e9 / 30; // 传感器帧间隔（指数移动平均）
+
+    private long mSaved = 0;
+    private long mBytes = 0;
+    private long mQueueDrops = 0;
+    private long mHalDrops = 0;
+    private long mWriteFailed = 0;
+    private int mAdaptations = 0;
+    private long mLastHalDrops = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "NoUI camera started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        mTargetFps = getIntent().getFloatExtra("fps", DEFAULT_FPS);
+        mSeconds = getIntent().getIntExtra("seconds", DEFAULT_SECONDS);
+        mWriter = new FrameWriter(WRITER_SLOTS, mWriterListener, mBgHandler);
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    /**
+     * 查找并打开后置摄像头（退避重试 / 切换 / 断开后恢复由 CameraOpener 负责）
+     */
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
+            if (mStopping) return; // 已到时长，等写队列排空即可
+            createCaptureSession();
+        }
+
+        @Override
+        public void onCameraLost() {
+            // 已写入的帧保留；恢复后重新收敛，继续持续连拍直到原定结束时刻
+            Log.w(TAG, "Camera lost during sustained capture, " + mSaved + " frame(s) saved so far");
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mBgHandler.removeCallbacks(mAdaptRunnable);
+            mStreaming = false;
+            mLastSensorTs = -1;
+            closeSession();
+        }
+
+        @Override
+        public void onGiveUp() {
+            mStopping = true;
+            mStopNs = SystemClock.elapsedRealtimeNanos();
+            mWriter.drain(() -> finishRun());
+        }
+    };
+
+    private void closeSession() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        mCameraDevice = null;
+    }
+
+    /**
+     * 创建会话：虚拟预览 Surface + 最大尺寸 JPEG ImageReader
+     */
+    private void createCaptureSession() {
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+        try {
+            Size jpegSize = chooseJpegSize();
+            mImageReader = ImageReader.newInstance(
+                    jpegSize.getWidth(), jpegSize.getHeight(), ImageFormat.JPEG, READER_IMAGES);
+            mImageReader.setOnImageAvailableListener(this::onImageAvailable, mBgHandler);
+
+            mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            mPreviewBuilder.addTarget(mPreviewSurface);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+
+            mStillBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            mStillBuilder.addTarget(mPreviewSurface);
+            mStillBuilder.addTarget(mImageReader.getSurface());
+            mStillBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            mStillBuilder.set(CaptureRequest.CONTROL_ENABLE_ZSL, true);
+            mStillBuilder.setTag(TAG_STILL);
+
+            List<Surface> surfaces = Arrays.asList(mPreviewSurface, mImageReader.getSurface());
+            mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    mCaptureSession = session;
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    if (!mStarted) mTracer.begin(CaptureTracer.SECTION_CONVERGE);
+                    try {
+                        session.setRepeatingRequest(mPreviewBuilder.build(), mCaptureCallback, mBgHandler);
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Failed to start preview", e);
+                        mMainHandler.post(SustainedBurstJpegActivity.this::finish);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    Log.e(TAG, "Session config failed");
+                    mMainHandler.post(SustainedBurstJpegActivity.this::finish);
+                }
+            }, mBgHandler);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create session", e);
+            mMainHandler.post(SustainedBurstJpegActivity.this::finish);
+        }
+    }
+
+    /**
+     * 预览与静态请求共用的回调：预览阶段等待 AE 收敛；持续阶段统计传感器帧间隔与 HAL 丢帧
+     */
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (ts != null) {
+                        if (mLastSensorTs > 0 && ts > mLastSensorTs) {
+                            mFrameIntervalNs = 0.9 * mFrameIntervalNs + 0.1 * (ts - mLastSensorTs);
+                        }
+                        mLastSensorTs = ts;
+                    }
+                    if (TAG_STILL.equals(request.getTag())) {
+                        mTracer.markResult(result);
+                        mRun.captureCompleted();
+                        return;
+                    }
+                    if (!mStreaming && !mStopping) {
+                        Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+                        if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                                || ae == CaptureResult.CONTROL_AE_STATE_LOCKED) {
+                            Log.d(TAG, "AE converged at frame #" + result.getFrameNumber()
+                                    + ". Starting sustained capture at " + mTargetFps + "fps...");
+                            startSustained();
+                        }
+                    }
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    if (TAG_STILL.equals(request.getTag())) mHalDrops++;
+                }
+
+                @Override
+                public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                                @NonNull CaptureRequest request,
+                                                @NonNull Surface target, long frameNumber) {
+                    if (mImageReader != null && target == mImageReader.getSurface()) mHalDrops++;
+                }
+            };
+
+    private void startSustained() {
+        mStreaming = true;
+        if (!mStarted) {
+            mStarted = true;
+            mStartNs = SystemClock.elapsedRealtimeNanos();
+            mTracer.end(CaptureTracer.SECTION_CONVERGE);
+            mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+            mRun.mark(PipelineMetrics.MARK_TRIGGER);
+            mBgHandler.postDelayed(this::stopSustained, mSeconds * 1000L);
+        } else {
+            // 断开重连后继续，capture 段在断开时已被结束
+            mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+        }
+        mBurstLength = 0;
+        applyBurstLength(burstLengthFor(mTargetFps));
+        mBgHandler.postDelayed(mAdaptRunnable, ADAPT_INTERVAL_MS);
+    }
+
+    private int burstLengthFor(double fps) {
+        double sensorFps = 1e9 / mFrameIntervalNs;
+        int length = (int) Math.ceil(sensorFps / Math.max(fps, 0.01));
+        return Math.max(1, Math.min(MAX_BURST_LENGTH, length));
+    }
+
+    /**
+     * 以 1 个静态请求 + (length - 1) 个预览请求作为重复 burst
+     */
+    private void applyBurstLength(int length) {
+        if (length == mBurstLength || mCaptureSession == null) return;
+        List<CaptureRequest> burst = new ArrayList<>(length);
+        burst.add(mStillBuilder.build());
+        CaptureRequest preview = mPreviewBuilder.build();
+        for (int i = 1; i < length; i++) {
+            burst.add(preview);
+        }
+        try {
+            mCaptureSession.setRepeatingBurst(burst, mCaptureCallback, mBgHandler);
+            if (mBurstLength != 0) mAdaptations++;
+            Log.d(TAG, "Repeating burst length " + mBurstLength + " -> " + length + " ("
+                    + String.format(Locale.US, "%.2f", 1e9 / mFrameIntervalNs / length) + "fps)");
+            mBurstLength = length;
+            mTracer.counter("burst_length", length);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Failed to set repeating burst", e);
+        }
+    }
+
+    /**
+     * 按写入能力与积压情况调整 burst 长度
+     */
+    private final Runnable mAdaptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mStreaming || mStopping) return;
+            double fps = mTargetFps;
+            long writeNs = mWriter.emaWriteNs();
+            if (writeNs > 0) {
+                fps = Math.min(fps, HEADROOM * 1e9 / writeNs);
+            }
+            int depth = mWriter.depth();
+            long halDrops = mHalDrops - mLastHalDrops;
+            mLastHalDrops = mHalDrops;
+            int length = burstLengthFor(fps);
+            if (depth > mWriter.capacity() / 2 || halDrops > 0) {
+                // 写队列或 HAL 跟不上：在当前基础上再降一档
+                length = Math.min(MAX_BURST_LENGTH, Math.max(length, mBurstLength + 1));
+            } else if (length < mBurstLength - 1) {
+                // 恢复时逐档提速，避免来回振荡
+                length = mBurstLength - 1;
+            }
+            mTracer.counter("queue_depth", depth);
+            applyBurstLength(length);
+            mBgHandler.postDelayed(this, ADAPT_INTERVAL_MS);
+        }
+    };
+
+    private void onImageAvailable(ImageReader reader) {
+        long availableNs = SystemClock.elapsedRealtimeNanos();
+        mTracer.instant(CaptureTracer.EVENT_IMAGE_AVAILABLE, 0);
+        Image image;
+        while ((image = reader.acquireNextImage()) != null) {
+            try {
+                if (!mStarted) continue;
+                long sensorTs = image.getTimestamp();
+                File dir = new File(getExternalMediaDirs()[0], "sustained");
+                dir.mkdirs();
+                File file = new File(dir, "sus_" + sensorTs + ".jpg");
+                if (!mWriter.offer(image.getPlanes()[0].getBuffer(), file, sensorTs, availableNs)) {
+                    mQueueDrops++;
+                }
+            } finally {
+                image.close();
+            }
+        }
+    }
+
+    private final FrameWriter.Listener mWriterListener = new FrameWriter.Listener() {
+        @Override
+        public void onWritten(File file, long sensorTs, long availableNs, long bytes, long writeNs) {
+            // 写线程只回传写耗时，写开始时刻按回调时刻倒推
+            long closedNs = SystemClock.elapsedRealtimeNanos();
+            mTracer.frameSaved(sensorTs, availableNs, availableNs, closedNs - writeNs, closedNs, bytes);
+            mRun.frameWritten(availableNs, writeNs, bytes);
+            mSaved++;
+            mBytes += bytes;
+        }
+
+        @Override
+        public void onWriteFailed(File file, long sensorTs, IOException e) {
+            Log.e(TAG, "Save failed: " + file, e);
+            mRun.frameFailed();
+            mWriteFailed++;
+        }
+    };
+
+    /**
+     * 到达时长后停止重复请求，等在途帧到达并全部写完后出报告
+     */
+    private void stopSustained() {
+        if (mStopping) return;
+        mStopping = true;
+        mStopNs = SystemClock.elapsedRealtimeNanos();
+        mBgHandler.removeCallbacks(mAdaptRunnable);
+        try {
+            if (mCaptureSession != null) mCaptureSession.stopRepeating();
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Failed to stop repeating burst", e);
+        }
+        mBgHandler.postDelayed(() -> {
+            mStreaming = false;
+            mWriter.drain(() -> finishRun());
+        }, DRAIN_GRACE_MS);
+    }
+
+    private void finishRun() {
+        if (mReported) return;
+        mReported = true;
+        if (mStarted) mTracer.end(CaptureTracer.SECTION_CAPTURE);
+        double seconds = mStarted ? (mStopNs - mStartNs) / 1e9 : 0;
+        double fps = seconds > 0 ? mSaved / seconds : 0;
+        mRun.count(PipelineMetrics.COUNTER_QUEUE_DROPS, mQueueDrops);
+        mRun.count(PipelineMetrics.COUNTER_HAL_DROPS, mHalDrops);
+        Log.d(TAG, String.format(Locale.US,
+                "Sustained capture: %d frame(s) in %.1fs = %.2ffps (target %.2f), max queue %d/%d, "
+                        + "queue drops %d, HAL drops %d, %d adaptation(s)",
+                mSaved, seconds, fps, mTargetFps, mWriter.maxDepth(), mWriter.capacity(),
+                mQueueDrops, mHalDrops, mAdaptations));
+
+        File dir = new File(getExternalMediaDirs()[0], "sustained");
+        dir.mkdirs();
+        File file = new File(dir, "report_" + System.currentTimeMillis() + ".json");
+        try {
+            JSONObject json = new JSONObject();
+            json.put("camera_id", mCameraId);
+            json.put("target_fps", mTargetFps);
+            json.put("duration_s", seconds);
+            json.put("saved", mSaved);
+            json.put("bytes", mBytes);
+            json.put("sustained_fps", fps);
+            json.put("sensor_fps", 1e9 / mFrameIntervalNs);
+            json.put("final_burst_length", mBurstLength);
+            json.put("adaptations", mAdaptations);
+            json.put("max_queue_depth", mWriter.maxDepth());
+            json.put("queue_capacity", mWriter.capacity());
+            json.put("queue_drops", mQueueDrops);
+            json.put("hal_drops", mHalDrops);
+            json.put("write_failed", mWriteFailed);
+            json.put("ema_write_us", mWriter.emaWriteNs() / 1000);
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            Log.d(TAG, "Sustained report: " + file.getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write sustained report", e);
+        }
+
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(SustainedBurstJpegActivity.this::finish);
+        });
+    }
+
+    /**
+     * 选择最大的 JPEG 输出尺寸
+     */
+    private Size chooseJpegSize() {
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(ImageFormat.JPEG);
+        if (sizes == null || sizes.length == 0) return new Size(1920, 1440);
+        Size best = sizes[0];
+        for (Size s : sizes) {
+            if ((long) s.getWidth() * s.getHeight() > (long) best.getWidth() * best.getHeight()) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    private void cleanup() {
+        try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        if (mWriter != null) mWriter.close();
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.SustainedBurstJpegActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Sustained: saved " + mSaved + ", burst length " + mBurstLength
+                + ", queue " + (mWriter != null ? mWriter.depth() + "/" + mWriter.capacity() : "-")
+                + ", queue drops " + mQueueDrops + ", HAL drops " + mHalDrops);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,421 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Locale;
+
+// adb shell am start -n com.kaspersigi.noui/.TimelapseActivity --ef interval 10 --ei shots 30 \
+//     --es plan "format=jpeg,count=1,converge=none" --ez lowpower true
+// 图像：<media>/timelapse/tl<k>_<ts>.<ext>；报告：<media>/timelapse/report_<ms>.json
+
+/**
+ * 定时拍摄（timelapse）：会话一直保持，每隔 interval 秒按同一个 {@link CapturePlan} 拍一次。
+ *
+ * 第 k 张的目标时刻是绝对时间 t0 + k × interval（elapsedRealtimeNanos），每次都按目标时刻重新计算延时，
+ * 误差不会累积；拍摄误差 = 第一帧 SENSOR_TIMESTAMP 换算到 elapsedRealtime 后与目标时刻之差。
+ * 触发提前量取最近几次（触发 → 曝光帧）耗时的移动平均，使后续拍摄的曝光时刻逼近目标。
+ *
+ * lowpower=true 时，两次拍摄之间把预览降到最低 AE 帧率范围，在下一次触发前 WAKE_MS 恢复。
+ * 相机断开后重新打开并配置，计划表不变；错过的拍摄记为 missed。
+ */
+public class TimelapseActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final float DEFAULT_INTERVAL_S = 10f;
+    private static final int DEFAULT_SHOTS = 10;
+    private static final String DEFAULT_PLAN = "format=jpeg,count=1,converge=none";
+    private static final long WAKE_MS = 500;              // 提前恢复正常预览帧率的时间
+    private static final long MIN_LOWPOWER_INTERVAL_MS = 2000; // 间隔太短时不降帧
+    private static final double LEAD_ALPHA = 0.5;
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraDevice mCameraDevice;
+    private String mCameraId;
+    private CaptureEngine mEngine;
+    private Range<Integer> mLowFpsRange;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private final CaptureTracer mTracer = new CaptureTracer(65536);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+
+    private CapturePlan mPlan;
+    private long mIntervalNs;
+    private int mShots = DEFAULT_SHOTS;
+    private boolean mLowPower = true;
+
+    private long mT0 = 0;           // 第 0 张的目标时刻（elapsedRealtimeNanos）
+    private int mShot = 0;          // 下一张的序号
+    private boolean mBusy = false;  // 正在执行某一张
+    private boolean mReported = false;
+    private long mFireNs;
+    private long mLeadNs = 0;       // 触发提前量
+    private final JSONArray mShotLog = new JSONArray();
+    private int mMissed = 0;
+    private long mSumAbsErrorUs = 0;
+    private long mMaxAbsErrorUs = 0;
+    private int mMeasured = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "Timelapse started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        String spec = getIntent().getStringExtra("plan");
+        mIntervalNs = (long) (getIntent().getFloatExtra("interval", DEFAULT_INTERVAL_S) * 1e9);
+        mShots = getIntent().getIntExtra("shots", DEFAULT_SHOTS);
+        mLowPower = getIntent().getBooleanExtra("lowpower", true)
+                && mIntervalNs >= MIN_LOWPOWER_INTERVAL_MS * 1_000_000L;
+        try {
+            mPlan = CapturePlan.parse(spec != null ? spec : DEFAULT_PLAN);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Bad plan '" + spec + "'", e);
+            finish();
+            return;
+        }
+        Log.d(TAG, "Timelapse: " + mShots + " shot(s) every " + mIntervalNs / 1_000_000 + "ms, plan " + mPlan
+                + (mLowPower ? ", low-rate preview between shots" : ""));
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    /**
+     * 查找并打开后置摄像头（退避重试 / 切换 / 断开后恢复由 CameraOpener 负责）
+     */
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
+            mLowFpsRange = lowestFpsRange(characteristics);
+
+            mEngine = new CaptureEngine(camera, characteristics, mBgHandler, mPreviewSurface,
+                    new File(getExternalMediaDirs()[0], "timelapse"), mTracer, mRun);
+            mEngine.setAutoStrategy(ZslStrategyStore.load(TimelapseActivity.this, mCameraId));
+            mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+            mEngine.configure(Collections.singletonList(mPlan), new CaptureEngine.ConfigureCallback() {
+                @Override
+                public void onConfigured(boolean reconfigured) {
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    if (mT0 == 0) {
+                        // 第一张留出 3A 收敛的时间
+                        mT0 = SystemClock.elapsedRealtimeNanos() + WAKE_MS * 1_000_000L;
+                    }
+                    scheduleNext();
+                }
+
+                @Override
+                public void onConfigureFailed() {
+                    Log.e(TAG, "Session config failed");
+                    finishAll();
+                }
+            });
+        }
+
+        @Override
+        public void onCameraLost() {
+            Log.w(TAG, "Camera lost before shot " + mShot + ", keeping schedule");
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mBgHandler.removeCallbacks(mWakeRunnable);
+            mBgHandler.removeCallbacks(mFireRunnable);
+            if (mEngine != null) {
+                mEngine.close();
+                mEngine = null;
+            }
+            if (mBusy) {
+                // 正在拍的这一张作废
+                mBusy = false;
+                logShot(mShot, -1, null);
+                mMissed++;
+                mShot++;
+            }
+            mCameraDevice = null;
+        }
+
+        @Override
+        public void onGiveUp() {
+            finishAll();
+        }
+    };
+
+    /**
+     * 最低帧率的 AE 范围（按上限比较）；两次拍摄之间使用
+     */
+    private static Range<Integer> lowestFpsRange(CameraCharacteristics characteristics) {
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) return null;
+        Range<Integer> low = null;
+        for (Range<Integer> r : ranges) {
+            if (low == null || r.getUpper() < low.getUpper()
+                    || (r.getUpper().equals(low.getUpper()) && r.getLower() < low.getLower())) {
+                low = r;
+            }
+        }
+        return low;
+    }
+
+    private long targetNs(int shot) {
+        return mT0 + shot * mIntervalNs;
+    }
+
+    /**
+     * 按下一张的绝对目标时刻安排唤醒与触发；已经错过（超过半个间隔）的直接跳过
+     */
+    private void scheduleNext() {
+        if (mEngine == null || mBusy) return;
+        long now = SystemClock.elapsedRealtimeNanos();
+        while (mShot < mShots && now - targetNs(mShot) > mIntervalNs / 2) {
+            Log.w(TAG, "Shot " + mShot + " missed");
+            logShot(mShot, -1, null);
+            mMissed++;
+            mShot++;
+        }
+        if (mShot >= mShots) {
+            finishAll();
+            return;
+        }
+        long fireNs = targetNs(mShot) - mLeadNs;
+        long fireDelayMs = Math.max(0, (fireNs - now) / 1_000_000);
+        if (mLowPower && mLowFpsRange != null) {
+            long wakeDelayMs = fireDelayMs - WAKE_MS;
+            if (wakeDelayMs > 0) {
+                mBgHandler.postDelayed(mWakeRunnable, wakeDelayMs);
+            } else {
+                mEngine.setPreviewFpsRange(null);
+            }
+        }
+        mBgHandler.postDelayed(mFireRunnable, fireDelayMs);
+    }
+
+    private final Runnable mWakeRunnable = () -> {
+        if (mEngine != null) mEngine.setPreviewFpsRange(null);
+    };
+
+    private final Runnable mFireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mEngine == null) return;
+            // Handler 只保证不早于预定时刻，这里再按绝对时刻补足剩余的几毫秒
+            long remainingNs = targetNs(mShot) - mLeadNs - SystemClock.elapsedRealtimeNanos();
+            if (remainingNs > 1_000_000) {
+                mBgHandler.postDelayed(this, remainingNs / 1_000_000);
+                return;
+            }
+            mBusy = true;
+            mFireNs = SystemClock.elapsedRealtimeNanos();
+            final int shot = mShot;
+            mEngine.execute(mPlan, "tl" + shot, result -> onShotFinished(shot, result));
+        }
+    };
+
+    private void onShotFinished(int shot, CaptureEngine.PlanResult result) {
+        mBusy = false;
+        if (result.firstSensorTs > 0) {
+            long frameNs = mTracer.sensorToRealtimeNs(result.firstSensorTs);
+            long errorUs = (frameNs - targetNs(shot)) / 1000;
+            // 提前量 = 触发 → 曝光帧的耗时（移动平均）
+            long observedLeadNs = frameNs - mFireNs;
+            mLeadNs = mLeadNs == 0 ? observedLeadNs : (long) (LEAD_ALPHA * observedLeadNs + (1 - LEAD_ALPHA) * mLeadNs);
+            mLeadNs = Math.max(0, Math.min(mLeadNs, mIntervalNs / 2));
+            mSumAbsErrorUs += Math.abs(errorUs);
+            mMaxAbsErrorUs = Math.max(mMaxAbsErrorUs, Math.abs(errorUs));
+            mMeasured++;
+            mRun.sample(PipelineMetrics.HIST_SCHEDULE_ERROR, Math.abs(errorUs));
+            Log.d(TAG, "Shot " + shot + ": schedule error " + errorUs + "us, lead now " + mLeadNs / 1000 + "us");
+            logShot(shot, errorUs, result);
+        } else {
+            mMissed++;
+            logShot(shot, -1, result);
+        }
+        mShot = shot + 1;
+        if (mLowPower && mLowFpsRange != null && mEngine != null && mShot < mShots) {
+            mEngine.setPreviewFpsRange(mLowFpsRange);
+        }
+        scheduleNext();
+    }
+
+    private void logShot(int shot, long errorUs, CaptureEngine.PlanResult result) {
+        try {
+            JSONObject o = result != null ? result.toJson() : new JSONObject();
+            o.put("shot", shot);
+            o.put("target_ns", targetNs(shot));
+            o.put("error_us", errorUs);
+            o.put("missed", result == null || result.firstSensorTs <= 0);
+            mShotLog.put(o);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to log shot " + shot, e);
+        }
+    }
+
+    private void finishAll() {
+        writeReport();
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(TimelapseActivity.this::finish);
+        });
+    }
+
+    private void writeReport() {
+        if (mReported) return;
+        mReported = true;
+        File dir = new File(getExternalMediaDirs()[0], "timelapse");
+        dir.mkdirs();
+        File file = new File(dir, "report_" + System.currentTimeMillis() + ".json");
+        long meanUs = mMeasured > 0 ? mSumAbsErrorUs / mMeasured : -1;
+        try {
+            JSONObject json = new JSONObject();
+            json.put("camera_id", mCameraId);
+            json.put("plan", mPlan.toString());
+            json.put("interval_ms", mIntervalNs / 1_000_000);
+            json.put("shots", mShots);
+            json.put("missed", mMissed);
+            json.put("low_power", mLowPower && mLowFpsRange != null);
+            if (mLowFpsRange != null) json.put("low_fps_range", mLowFpsRange.toString());
+            json.put("mean_abs_error_us", meanUs);
+            json.put("max_abs_error_us", mMeasured > 0 ? mMaxAbsErrorUs : -1);
+            json.put("shot_log", mShotLog);
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            Log.d(TAG, String.format(Locale.US, "Timelapse done: %d/%d shot(s), mean |error| %dus, max %dus, %s",
+                    mMeasured, mShots, meanUs, mMaxAbsErrorUs, file.getAbsolutePath()));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write timelapse report", e);
+        }
+    }
+
+    private void cleanup() {
+        try {
+            mBgHandler.removeCallbacks(mWakeRunnable);
+            mBgHandler.removeCallbacks(mFireRunnable);
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+                mCameraOpener = null;
+            }
+            if (mEngine != null) {
+                mEngine.close();
+                mEngine = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.TimelapseActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Timelapse: shot " + mShot + "/" + mShots + ", missed " + mMissed
+                + ", lead " + mLeadNs / 1000 + "us");
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
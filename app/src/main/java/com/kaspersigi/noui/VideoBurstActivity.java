@@ -0,0 +1,669 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// adb shell am start -n com.kaspersigi.noui/.VideoBurstActivity --ei frames 60 --es extract "0,30,59"
+// 输出：<media>/video/burst_<ms>.mp4 + burst_<ms>.csv（每帧传感器时间戳）+ burst_<ms>.json
+//      extract 指定的帧另存为 burst_<ms>_f<index>.jpg
+
+/**
+ * 以视频方式连拍：相机直接输出到 MediaCodec（HEVC 优先，不支持时 AVC）的输入 Surface，
+ * 按编码器与相机共同支持的最大分辨率 / 帧率录制固定帧数，封装为单个 MP4。
+ * 相比逐帧 JPEG（HAL 编码 + 每帧一个文件），吞吐由视频编码器决定，可持续达到传感器帧率。
+ *
+ * - 每个编码帧的 PTS 与对应 TotalCaptureResult 的 SENSOR_TIMESTAMP 写入 CSV 侧车文件
+ * - 关键帧间隔 1 秒；extract 指定的帧序号在封装完成后用 MediaMetadataRetriever 解出并存为 JPEG
+ */
+public class VideoBurstActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final int DEFAULT_FRAMES = 60;
+    private static final int MAX_FPS = 60;
+    private static final float BITS_PER_PIXEL = 0.25f; // 码率 = 宽 × 高 × 帧率 × BITS_PER_PIXEL
+    private static final int EXTRACT_QUALITY = 95;
+    private static final String TAG_RECORD = "record";
+
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private String mCameraId;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+    private HandlerThread mEncoderThread;
+    private Handler mEncoderHandler;
+
+    // 无界面预览所需的虚拟 Surface
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CameraCharacteristics mCameraCharacteristics;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final CaptureTracer mTracer = new CaptureTracer(16384);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+
+    private int mFrames = DEFAULT_FRAMES;
+    private int[] mExtract = new int[0];
+
+    // 编码配置
+    private String mMime;
+    private Size mSize;
+    private int mFps;
+    private int mBitRate;
+    private MediaCodec mEncoder;
+    private Surface mEncoderSurface;
+    private MediaMuxer mMuxer;
+    private int mTrack = -1;
+    private File mVideoFile;
+
+    private boolean mRecording = false;
+    private boolean mStopped = false;
+    private boolean mFinished = false;
+    private long mRecordStartNs;
+    private long mLastOutputNs;
+    private long mBytes = 0;
+
+    // 请求结果的传感器时间戳与编码输出的 PTS（均按到达顺序，最多 mFrames + SLACK 个）
+    private static final int SLACK = 32;
+    private long[] mResultTs;
+    private int mResults = 0;
+    private long[] mEncodedPtsUs;
+    private boolean[] mKeyFrame;
+    private int mEncoded = 0;
+    private long mHalDrops = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "NoUI camera started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        mFrames = getIntent().getIntExtra("frames", DEFAULT_FRAMES);
+        String extract = getIntent().getStringExtra("extract");
+        if (extract != null && !extract.trim().isEmpty()) {
+            String[] parts = extract.split(",");
+            mExtract = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                mExtract[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        mResultTs = new long[mFrames + SLACK];
+        mEncodedPtsUs = new long[mFrames + SLACK];
+        mKeyFrame = new boolean[mFrames + SLACK];
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    /**
+     * 查找并打开后置摄像头（退避重试 / 切换 / 断开后恢复由 CameraOpener 负责）
+     */
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            if (recoveryMs >= 0) {
+                // 相机丢失后重新打开：不覆盖首次打开的时间点，重开耗时另记为 recovery_us
+                mRun.markOnce(PipelineMetrics.MARK_OPENED);
+                mRun.count(PipelineMetrics.COUNTER_RECOVERIES, 1);
+                mRun.sample(PipelineMetrics.HIST_RECOVERY, recoveryMs * 1000);
+            } else {
+                mRun.mark(PipelineMetrics.MARK_OPENED);
+                int retries = mCameraOpener.openRetries();
+                if (retries > 0) mRun.count(PipelineMetrics.COUNTER_OPEN_RETRIES, retries);
+            }
+            if (mStopped) return;
+            if (mEncoder == null && !startEncoder()) {
+                cleanup();
+                mMainHandler.post(VideoBurstActivity.this::finish);
+                return;
+            }
+            createCaptureSession();
+        }
+
+        @Override
+        public void onCameraLost() {
+            // 编码器与封装器保持不变，恢复后继续录制剩余帧（视频中会有一段时间间隔）
+            Log.w(TAG, "Camera lost, " + mResults + "/" + mFrames + " frame(s) recorded so far");
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            mRecording = false;
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            mCameraDevice = null;
+        }
+
+        @Override
+        public void onGiveUp() {
+            if (mEncoder != null && !mStopped) {
+                stopRecording();
+            } else {
+                cleanup();
+                mMainHandler.post(VideoBurstActivity.this::finish);
+            }
+        }
+    };
+
+    /**
+     * 选择编码格式、尺寸与帧率，创建编码器及其输入 Surface
+     */
+    private boolean startEncoder() {
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(MediaCodec.class);
+        if (sizes == null || sizes.length == 0) {
+            Log.e(TAG, "Camera has no MediaCodec output sizes");
+            return false;
+        }
+        Arrays.sort(sizes, (a, b) -> Long.compare((long) b.getWidth() * b.getHeight(), (long) a.getWidth() * a.getHeight()));
+
+        for (String mime : new String[]{MediaFormat.MIMETYPE_VIDEO_HEVC, MediaFormat.MIMETYPE_VIDEO_AVC}) {
+            MediaCodecInfo.VideoCapabilities caps = findEncoder(mime);
+            if (caps == null) continue;
+            for (Size size : sizes) {
+                long minFrameNs = map.getOutputMinFrameDuration(MediaCodec.class, size);
+                int cameraFps = minFrameNs > 0 ? (int) Math.min(MAX_FPS, 1_000_000_000L / minFrameNs) : 30;
+                int fps = chooseAeFps(cameraFps);
+                if (fps > 0 && caps.areSizeAndRateSupported(size.getWidth(), size.getHeight(), fps)) {
+                    mMime = mime;
+                    mSize = size;
+                    mFps = fps;
+                    Range<Integer> bitrates = caps.getBitrateRange();
+                    long bitRate = (long) (size.getWidth() * (long) size.getHeight() * fps * BITS_PER_PIXEL);
+                    mBitRate = (int) Math.max(bitrates.getLower(), Math.min(bitrates.getUpper(), bitRate));
+                    return configureEncoder();
+                }
+            }
+        }
+        Log.e(TAG, "No HEVC/AVC encoder supports any camera output size");
+        return false;
+    }
+
+    private MediaCodecInfo.VideoCapabilities findEncoder(String mime) {
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) continue;
+            for (String type : info.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mime)) {
+                    return info.getCapabilitiesForType(mime).getVideoCapabilities();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 不超过 maxFps 的最高 AE 目标帧率上限（优先固定帧率范围）；没有可用范围时返回 -1
+     */
+    private int chooseAeFps(int maxFps) {
+        Range<Integer>[] ranges = mCameraCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) return Math.min(30, maxFps);
+        int best = -1;
+        for (Range<Integer> r : ranges) {
+            if (r.getUpper() <= maxFps && r.getUpper() > best) best = r.getUpper();
+        }
+        return best;
+    }
+
+    private Range<Integer> aeRangeFor(int fps) {
+        Range<Integer>[] ranges = mCameraCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        Range<Integer> best = null;
+        if (ranges != null) {
+            for (Range<Integer> r : ranges) {
+                if (r.getUpper() == fps && (best == null || r.getLower() > best.getLower())) best = r;
+            }
+        }
+        return best;
+    }
+
+    private boolean configureEncoder() {
+        try {
+            MediaFormat format = MediaFormat.createVideoFormat(mMime, mSize.getWidth(), mSize.getHeight());
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, mFps);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+            format.setInteger(MediaFormat.KEY_PRIORITY, 0); // 实时
+            mEncoder = MediaCodec.createEncoderByType(mMime);
+            mEncoder.setCallback(mEncoderCallback, mEncoderHandler);
+            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mEncoderSurface = mEncoder.createInputSurface();
+            mEncoder.start();
+
+            File dir = new File(getExternalMediaDirs()[0], "video");
+            dir.mkdirs();
+            mVideoFile = new File(dir, "burst_" + System.currentTimeMillis() + ".mp4");
+            mMuxer = new MediaMuxer(mVideoFile.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            Log.d(TAG, "Encoder " + mMime + " " + mSize.getWidth() + "x" + mSize.getHeight() + " @ " + mFps
+                    + "fps, " + mBitRate / 1000 + "kbps");
+            return true;
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "Failed to set up encoder " + mMime, e);
+            return false;
+        }
+    }
+
+    /**
+     * 编码输出：封装到 MP4 并记录每帧 PTS；收到 EOS 后结束封装
+     */
+    private final MediaCodec.Callback mEncoderCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            // Surface 输入，不使用输入缓冲
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            mTrack = mMuxer.addTrack(format);
+            mMuxer.start();
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            boolean eos = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            if (!config && info.size > 0 && mTrack >= 0) {
+                ByteBuffer buffer = codec.getOutputBuffer(index);
+                buffer.position(info.offset);
+                buffer.limit(info.offset + info.size);
+                mMuxer.writeSampleData(mTrack, buffer, info);
+                mBytes += info.size;
+                mLastOutputNs = SystemClock.elapsedRealtimeNanos();
+                if (mEncoded < mEncodedPtsUs.length) {
+                    mEncodedPtsUs[mEncoded] = info.presentationTimeUs;
+                    mKeyFrame[mEncoded] = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                }
+                mEncoded++;
+            }
+            codec.releaseOutputBuffer(index, false);
+            if (eos) {
+                finishMuxer();
+                mBgHandler.post(VideoBurstActivity.this::finishRun);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, "Encoder error", e);
+            finishMuxer();
+            mBgHandler.post(VideoBurstActivity.this::finishRun);
+        }
+    };
+
+    private void finishMuxer() {
+        if (mMuxer == null) return;
+        try {
+            if (mTrack >= 0) mMuxer.stop();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Failed to finalize " + mVideoFile, e);
+        }
+        mMuxer.release();
+        mMuxer = null;
+    }
+
+    /**
+     * 创建会话：虚拟预览 + 编码器输入 Surface；先只对预览重复请求，AE 收敛后切换为录制请求
+     */
+    private void createCaptureSession() {
+        mTracer.begin(CaptureTracer.SECTION_CONFIGURE);
+        mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+        try {
+            List<Surface> surfaces = Arrays.asList(mPreviewSurface, mEncoderSurface);
+            mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    mCaptureSession = session;
+                    mTracer.end(CaptureTracer.SECTION_CONFIGURE);
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    mTracer.begin(CaptureTracer.SECTION_CONVERGE);
+                    try {
+                        session.setRepeatingRequest(buildRequest(false).build(), mCaptureCallback, mBgHandler);
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Failed to start preview", e);
+                        mMainHandler.post(VideoBurstActivity.this::finish);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    Log.e(TAG, "Session config failed");
+                    mMainHandler.post(VideoBurstActivity.this::finish);
+                }
+            }, mBgHandler);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create session", e);
+            mMainHandler.post(VideoBurstActivity.this::finish);
+        }
+    }
+
+    private CaptureRequest.Builder buildRequest(boolean record) throws CameraAccessException {
+        CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+        builder.addTarget(mPreviewSurface);
+        if (record) {
+            builder.addTarget(mEncoderSurface);
+            builder.setTag(TAG_RECORD);
+        }
+        builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+        Range<Integer> range = aeRangeFor(mFps);
+        if (range != null) builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+        return builder;
+    }
+
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    if (mStopped) return;
+                    if (!TAG_RECORD.equals(request.getTag())) {
+                        if (!mRecording) checkAeAndRecord(result);
+                        return;
+                    }
+                    mTracer.markResult(result);
+                    mRun.captureCompleted();
+                    Long ts = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (ts != null && mResults < mResultTs.length) mResultTs[mResults] = ts;
+                    mResults++;
+                    if (mResults >= mFrames) stopRecording();
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    if (TAG_RECORD.equals(request.getTag())) mHalDrops++;
+                }
+            };
+
+    private void checkAeAndRecord(CaptureResult result) {
+        Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+        boolean aeOK = ae == null ||
+                ae == CaptureResult.CONTROL_AE_STATE_CONVERGED ||
+                ae == CaptureResult.CONTROL_AE_STATE_LOCKED;
+        if (!aeOK) return;
+
+        Log.d(TAG, "AE converged at frame #" + result.getFrameNumber() + ". Recording " + (mFrames - mResults)
+                + " frame(s)...");
+        try {
+            mCaptureSession.setRepeatingRequest(buildRequest(true).build(), mCaptureCallback, mBgHandler);
+            mRecording = true;
+            if (mRecordStartNs == 0) {
+                mRecordStartNs = SystemClock.elapsedRealtimeNanos();
+                mTracer.end(CaptureTracer.SECTION_CONVERGE);
+                mTracer.begin(CaptureTracer.SECTION_CAPTURE);
+                mRun.mark(PipelineMetrics.MARK_TRIGGER);
+            }
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Failed to start recording", e);
+        }
+    }
+
+    /**
+     * 帧数已够：停止重复请求并通知编码器输入结束（在途帧仍会被编码）
+     */
+    private void stopRecording() {
+        if (mStopped) return;
+        mStopped = true;
+        mRecording = false;
+        try {
+            if (mCaptureSession != null) mCaptureSession.stopRepeating();
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Failed to stop recording", e);
+        }
+        if (mRecordStartNs > 0) mTracer.end(CaptureTracer.SECTION_CAPTURE);
+        mEncoder.signalEndOfInputStream();
+    }
+
+    /**
+     * 写侧车 CSV、按需抽帧、输出报告后退出
+     */
+    private void finishRun() {
+        if (mFinished) return;
+        mFinished = true;
+        int encoded = Math.min(mEncoded, mEncodedPtsUs.length);
+        int results = Math.min(mResults, mResultTs.length);
+        double seconds = mRecordStartNs > 0 ? (mLastOutputNs - mRecordStartNs) / 1e9 : 0;
+        double fps = seconds > 0 ? encoded / seconds : 0;
+        String base = mVideoFile.getName().replace(".mp4", "");
+        File dir = mVideoFile.getParentFile();
+
+        try {
+            // 编码帧序号,PTS,最接近该 PTS 的请求结果 SENSOR_TIMESTAMP,是否关键帧
+            StringBuilder csv = new StringBuilder("index,pts_us,sensor_ts_ns,key_frame\n");
+            long[] sortedTs = Arrays.copyOf(mResultTs, results);
+            Arrays.sort(sortedTs);
+            for (int i = 0; i < encoded; i++) {
+                long ptsNs = mEncodedPtsUs[i] * 1000;
+                csv.append(i).append(',').append(mEncodedPtsUs[i]).append(',')
+                        .append(nearest(sortedTs, ptsNs)).append(',').append(mKeyFrame[i] ? 1 : 0).append('\n');
+            }
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, base + ".csv"))) {
+                fos.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            JSONArray stills = new JSONArray();
+            long extractStartNs = SystemClock.elapsedRealtimeNanos();
+            if (mExtract.length > 0 && encoded > 0) {
+                try (MediaMetadataRetriever retriever = new MediaMetadataRetriever()) {
+                    retriever.setDataSource(mVideoFile.getAbsolutePath());
+                    for (int index : mExtract) {
+                        if (index < 0 || index >= encoded) {
+                            Log.w(TAG, "Extract index " + index + " out of range (0.." + (encoded - 1) + ")");
+                            continue;
+                        }
+                        Bitmap frame = retriever.getFrameAtIndex(index);
+                        if (frame == null) continue;
+                        File still = new File(dir, base + "_f" + index + ".jpg");
+                        try (FileOutputStream fos = new FileOutputStream(still)) {
+                            frame.compress(Bitmap.CompressFormat.JPEG, EXTRACT_QUALITY, fos);
+                        }
+                        frame.recycle();
+                        stills.put(still.getAbsolutePath());
+                        Log.d(TAG, "Extracted: " + still.getAbsolutePath());
+                    }
+                }
+            }
+            long extractUs = (SystemClock.elapsedRealtimeNanos() - extractStartNs) / 1000;
+
+            JSONObject json = new JSONObject();
+            json.put("camera_id", mCameraId);
+            json.put("codec", mMime);
+            json.put("width", mSize.getWidth());
+            json.put("height", mSize.getHeight());
+            json.put("target_fps", mFps);
+            json.put("bit_rate", mBitRate);
+            json.put("frames_requested", mFrames);
+            json.put("results", mResults);
+            json.put("encoded", mEncoded);
+            json.put("hal_drops", mHalDrops);
+            json.put("record_s", seconds);
+            json.put("encoded_fps", fps);
+            json.put("bytes", mBytes);
+            json.put("mb_per_s", seconds > 0 ? mBytes / seconds / 1e6 : 0);
+            json.put("video", mVideoFile.getAbsolutePath());
+            json.put("extracted", stills);
+            json.put("extract_us", extractUs);
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, base + ".json"))) {
+                fos.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            Log.d(TAG, String.format(Locale.US, "Video burst: %d/%d frame(s) encoded in %.2fs = %.1ffps, %s",
+                    mEncoded, mFrames, seconds, fps, mVideoFile.getAbsolutePath()));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write video burst report", e);
+        }
+        mRun.count(PipelineMetrics.COUNTER_HAL_DROPS, mHalDrops);
+
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(VideoBurstActivity.this::finish);
+        });
+    }
+
+    /**
+     * @return sorted 中与 target 最接近的值；为空时返回 -1
+     */
+    private static long nearest(long[] sorted, long target) {
+        if (sorted.length == 0) return -1;
+        int i = Arrays.binarySearch(sorted, target);
+        if (i >= 0) return sorted[i];
+        int hi = -i - 1;
+        if (hi == 0) return sorted[0];
+        if (hi == sorted.length) return sorted[sorted.length - 1];
+        return target - sorted[hi - 1] <= sorted[hi] - target ? sorted[hi - 1] : sorted[hi];
+    }
+
+    private void cleanup() {
+        try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mEncoder != null) {
+                mEncoder.stop();
+                mEncoder.release();
+                mEncoder = null;
+            }
+            if (mEncoderSurface != null) {
+                mEncoderSurface.release();
+                mEncoderSurface = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        if (mEncoderHandler != null) mEncoderHandler.post(this::finishMuxer);
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+        mEncoderThread = new HandlerThread("Encoder");
+        mEncoderThread.start();
+        mEncoderHandler = new Handler(mEncoderThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        for (HandlerThread thread : new HandlerThread[]{mEncoderThread, mBgThread}) {
+            if (thread != null) {
+                thread.quitSafely();
+                if (Thread.currentThread() != thread) {
+                    try { thread.join(); } catch (InterruptedException ignored) {}
+                }
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.VideoBurstActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Video burst: " + mMime + " " + mSize + " @ " + mFps + "fps, results " + mResults
+                + "/" + mFrames + ", encoded " + mEncoded);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,96 @@
+package com.kaspersigi.noui;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * YUV_420_888 → JPEG 编码（经 NV21 中转，使用 YuvImage 的软件编码器）。
+ * 中转缓冲按分辨率复用，连续编码时不重复分配。非线程安全。
+ */
+public final class YuvJpegEncoder {
+    private byte[] mNv21;
+    private byte[] mRow;
+
+    /**
+     * 把一帧 YUV_420_888 编码为 JPEG 写入 out（不关闭 image）
+     */
+    public void encode(Image image, int quality, OutputStream out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] nv21 = toNv21(image);
+        YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        yuv.compressToJpeg(new Rect(0, 0, width, height), quality, out);
+    }
+
+    private byte[] toNv21(Image image) {
+        int size = nv21Size(image.getWidth(), image.getHeight());
+        if (mNv21 == null || mNv21.length != size) {
+            mNv21 = new byte[size];
+        }
+        toNv21(image, mNv21);
+        return mNv21;
+    }
+
+    static int nv21Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * 按 rowStride / pixelStride 拷贝三个平面，写成紧凑的 NV21（Y 平面 + VU 交错）；dst 至少 nv21Size() 字节
+     */
+    void toNv21(Image image, byte[] dst) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int ySize = width * height;
+        Image.Plane[] planes = image.getPlanes();
+
+        // Y
+        ByteBuffer y = planes[0].getBuffer();
+        int yStride = planes[0].getRowStride();
+        if (yStride == width) {
+            y.get(dst, 0, ySize);
+        } else {
+            for (int row = 0; row < height; row++) {
+                y.position(row * yStride);
+                y.get(dst, row * width, width);
+            }
+        }
+
+        // V/U：每行逐像素按 pixelStride 取值
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uvStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (mRow == null || mRow.length < uvStride) {
+            mRow = new byte[uvStride];
+        }
+        int out = ySize;
+        for (int row = 0; row < chromaHeight; row++) {
+            int rowStart = row * uvStride;
+            int rowLen = Math.min(uvStride, v.capacity() - rowStart);
+            v.position(rowStart);
+            v.get(mRow, 0, rowLen);
+            int o = out;
+            for (int col = 0; col < chromaWidth; col++) {
+                dst[o] = mRow[col * uvPixelStride];
+                o += 2;
+            }
+            rowLen = Math.min(uvStride, u.capacity() - rowStart);
+            u.position(rowStart);
+            u.get(mRow, 0, rowLen);
+            o = out + 1;
+            for (int col = 0; col < chromaWidth; col++) {
+                dst[o] = mRow[col * uvPixelStride];
+                o += 2;
+            }
+            out += width;
+        }
+    }
+}
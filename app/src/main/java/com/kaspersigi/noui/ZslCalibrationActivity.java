@@ -0,0 +1,374 @@
+package com.kaspersigi.noui;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+// adb shell am start -n com.kaspersigi.noui/.ZslCalibrationActivity --ei runs 5 --es plan "format=jpeg,count=5"
+// 结果：<media>/calibration/zsl_<cameraId>_<ms>.json；最优策略写入 SharedPreferences，CaptureEngine 的 AUTO 策略随后自动使用
+
+/**
+ * ZSL 策略校准：在同一个会话里轮流执行每种可用策略各 runs 次（交替执行，避免温度 / 场景漂移偏向某一种），
+ * 测量触发时刻到第一帧 SENSOR_TIMESTAMP 的快门延迟和总连拍时间，选出当前摄像头的最优策略并持久化。
+ *
+ * 评选规则：快门延迟代价的中位数最小者胜；相差不超过 LAG_TIE_US 时取连拍时间中位数更短者。
+ * 延迟带符号：晚于触发的帧按延迟全额计代价；早于触发的帧（ZSL 取到按下之前的画面）代价只按
+ * EARLY_COST_PERCENT 折算，因此同样 20ms 的偏差，提前的策略排在推迟的前面。
+ * 有任何一次凑不齐张数或请求无法提交的策略不参与评选。
+ */
+public class ZslCalibrationActivity extends Activity {
+    private static final String TAG = "NoUI";
+    private static final int DEFAULT_RUNS = 5;
+    private static final String DEFAULT_PLAN = "format=jpeg,count=5";
+    private static final long LAG_TIE_US = 5000; // 约一帧以内视为持平
+    private static final int EARLY_COST_PERCENT = 50;
+
+    private static final CapturePlan.ZslStrategy[] STRATEGIES = {
+            CapturePlan.ZslStrategy.STILL_ZSL,
+            CapturePlan.ZslStrategy.STILL_NZSL,
+            CapturePlan.ZslStrategy.PREVIEW_PACED,
+            CapturePlan.ZslStrategy.ZSL_TEMPLATE,
+    };
+
+    private CameraDevice mCameraDevice;
+    private String mCameraId;
+    private CameraCharacteristics mCameraCharacteristics;
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private CaptureEngine mEngine;
+
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private SurfaceTexture mDummyTexture;
+    private Surface mPreviewSurface;
+
+    private final CaptureTracer mTracer = new CaptureTracer(16384);
+    private final PipelineMetrics.Run mRun = PipelineMetrics.get().startRun(getClass().getSimpleName());
+
+    private int mRuns = DEFAULT_RUNS;
+    private CapturePlan mBasePlan;
+    private final List<CapturePlan> mQueue = new ArrayList<>();
+    private int mNext = 0;
+    private final Map<CapturePlan.ZslStrategy, List<CaptureEngine.PlanResult>> mResults =
+            new EnumMap<>(CapturePlan.ZslStrategy.class);
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Log.d(TAG, "ZSL calibration started");
+
+        startBackgroundThread();
+
+        mDummyTexture = new SurfaceTexture(0);
+        mDummyTexture.setDefaultBufferSize(640, 480);
+        mPreviewSurface = new Surface(mDummyTexture);
+
+        mRuns = getIntent().getIntExtra("runs", DEFAULT_RUNS);
+        String plan = getIntent().getStringExtra("plan");
+        try {
+            mBasePlan = CapturePlan.parse(plan != null ? plan : DEFAULT_PLAN);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Bad plan '" + plan + "'", e);
+            finish();
+            return;
+        }
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Missing CAMERA permission...");
+            finish();
+            return;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mBgHandler.post(() -> openBackCamera());
+    }
+
+    private void openBackCamera() {
+        if (mCameraOpener != null) return;
+        mTracer.begin(CaptureTracer.SECTION_OPEN);
+        mRun.mark(PipelineMetrics.MARK_OPEN_START);
+        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraOpener = new CameraOpener(mCameraManager, mBgHandler, mOpenerCallback);
+        mCameraOpener.open();
+    }
+
+    private final CameraOpener.Callback mOpenerCallback = new CameraOpener.Callback() {
+        @Override
+        public void onOpened(CameraDevice camera, CameraCharacteristics characteristics, long recoveryMs) {
+            mCameraDevice = camera;
+            mCameraId = camera.getId();
+            mCameraCharacteristics = characteristics;
+            mTracer.setTimestampSource(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+            mTracer.end(CaptureTracer.SECTION_OPEN);
+            mRun.mark(PipelineMetrics.MARK_OPENED);
+            if (mQueue.isEmpty()) buildQueue();
+
+            mEngine = new CaptureEngine(camera, characteristics, mBgHandler, mPreviewSurface,
+                    new File(getExternalMediaDirs()[0], "calibration"), mTracer, mRun);
+            mRun.mark(PipelineMetrics.MARK_CONFIGURE_START);
+            mEngine.configure(Arrays.asList(mBasePlan), new CaptureEngine.ConfigureCallback() {
+                @Override
+                public void onConfigured(boolean reconfigured) {
+                    mRun.mark(PipelineMetrics.MARK_CONFIGURED);
+                    runNext();
+                }
+
+                @Override
+                public void onConfigureFailed() {
+                    finishCalibration();
+                }
+            });
+        }
+
+        @Override
+        public void onCameraLost() {
+            // 当前这一次作废，恢复后从同一项重新开始
+            Log.w(TAG, "Camera lost during calibration run " + mNext + "/" + mQueue.size());
+            mTracer.endOpenSections();
+            mTracer.begin(CaptureTracer.SECTION_OPEN);
+            if (mEngine != null) {
+                mEngine.close();
+                mEngine = null;
+            }
+            mCameraDevice = null;
+        }
+
+        @Override
+        public void onGiveUp() {
+            cleanup();
+            mMainHandler.post(ZslCalibrationActivity.this::finish);
+        }
+    };
+
+    /**
+     * 各策略交替排队：S1 S2 S3 S4 S1 S2 ...；设备不支持 ZSL 模板时跳过该策略
+     */
+    private void buildQueue() {
+        List<CapturePlan.ZslStrategy> available = new ArrayList<>();
+        for (CapturePlan.ZslStrategy s : STRATEGIES) {
+            if (s == CapturePlan.ZslStrategy.ZSL_TEMPLATE && !supportsZslTemplate()) {
+                Log.d(TAG, "TEMPLATE_ZERO_SHUTTER_LAG unsupported, skipping");
+                continue;
+            }
+            available.add(s);
+            mResults.put(s, new ArrayList<>());
+        }
+        for (int run = 0; run < mRuns; run++) {
+            for (CapturePlan.ZslStrategy s : available) {
+                mQueue.add(mBasePlan.withStrategy(s));
+            }
+        }
+        Log.d(TAG, "Calibrating " + available + " × " + mRuns + " on camera " + mCameraId + ": " + mBasePlan);
+    }
+
+    private boolean supportsZslTemplate() {
+        try {
+            mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+            return true;
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void runNext() {
+        if (mEngine == null) return;
+        if (mNext >= mQueue.size()) {
+            finishCalibration();
+            return;
+        }
+        CapturePlan plan = mQueue.get(mNext);
+        mEngine.execute(plan, "cal", result -> {
+            mNext++;
+            mResults.get(plan.strategy).add(result);
+            // 校准图像只用于测量，不保留
+            for (File f : result.files) {
+                f.delete();
+            }
+            runNext();
+        });
+    }
+
+    /**
+     * 统计各策略的中位数并选出最优策略，写入 SharedPreferences 与 JSON 报告
+     */
+    private void finishCalibration() {
+        CapturePlan.ZslStrategy winner = null;
+        long winnerCost = Long.MAX_VALUE;
+        long winnerCapture = Long.MAX_VALUE;
+        JSONObject report = new JSONObject();
+        try {
+            report.put("camera_id", mCameraId);
+            report.put("plan", mBasePlan.toString());
+            report.put("runs", mRuns);
+            JSONObject strategies = new JSONObject();
+            for (Map.Entry<CapturePlan.ZslStrategy, List<CaptureEngine.PlanResult>> e : mResults.entrySet()) {
+                List<CaptureEngine.PlanResult> results = e.getValue();
+                boolean complete = !results.isEmpty();
+                long[] lag = new long[results.size()];
+                long[] cost = new long[results.size()];
+                long[] capture = new long[results.size()];
+                JSONArray runs = new JSONArray();
+                for (int i = 0; i < results.size(); i++) {
+                    CaptureEngine.PlanResult r = results.get(i);
+                    if (r.aborted || r.saved < r.plan.count || !r.hasTriggerLag()) complete = false;
+                    lag[i] = r.triggerLagUs;
+                    cost[i] = lagCost(r.triggerLagUs);
+                    capture[i] = r.captureUs;
+                    runs.put(r.toJson());
+                }
+                long lagMedian = median(lag);
+                long costMedian = median(cost);
+                long captureMedian = median(capture);
+                JSONObject s = new JSONObject();
+                s.put("complete", complete);
+                s.put("trigger_lag_median_us", lagMedian);
+                s.put("lag_cost_median_us", costMedian);
+                s.put("capture_median_us", captureMedian);
+                s.put("runs", runs);
+                strategies.put(e.getKey().name(), s);
+                Log.d(TAG, "Calibration " + e.getKey() + ": lag p50=" + lagMedian + "us (cost " + costMedian
+                        + "us), burst p50=" + captureMedian + "us" + (complete ? "" : " (incomplete, excluded)"));
+
+                if (!complete) continue;
+                boolean better = winner == null
+                        || costMedian + LAG_TIE_US < winnerCost
+                        || (Math.abs(costMedian - winnerCost) <= LAG_TIE_US && captureMedian < winnerCapture);
+                if (better) {
+                    winner = e.getKey();
+                    winnerCost = costMedian;
+                    winnerCapture = captureMedian;
+                }
+            }
+            report.put("strategies", strategies);
+            report.put("winner", winner != null ? winner.name() : JSONObject.NULL);
+
+            File dir = new File(getExternalMediaDirs()[0], "calibration");
+            dir.mkdirs();
+            File file = new File(dir, "zsl_" + mCameraId + "_" + System.currentTimeMillis() + ".json");
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(report.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            Log.d(TAG, "Calibration report: " + file.getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write calibration report", e);
+        }
+
+        if (winner != null) {
+            ZslStrategyStore.save(this, mCameraId, winner);
+        } else {
+            Log.w(TAG, "No strategy completed on camera " + mCameraId + ", keeping previous setting");
+        }
+        mBgHandler.post(() -> {
+            cleanup();
+            mMainHandler.post(ZslCalibrationActivity.this::finish);
+        });
+    }
+
+    /**
+     * 带符号快门延迟的排序代价：晚到按全额，早到按 EARLY_COST_PERCENT 折算
+     */
+    private static long lagCost(long lagUs) {
+        return lagUs >= 0 ? lagUs : -lagUs * EARLY_COST_PERCENT / 100;
+    }
+
+    private static long median(long[] values) {
+        if (values.length == 0) return -1;
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private void cleanup() {
+        try {
+            if (mCameraOpener != null) {
+                mCameraOpener.close();
+            }
+            if (mEngine != null) {
+                mEngine.close();
+                mEngine = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mPreviewSurface != null) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            if (mDummyTexture != null) {
+                mDummyTexture.release();
+                mDummyTexture = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during cleanup", e);
+        }
+        stopBackgroundThread();
+        mTracer.exportOnce(new File(getExternalMediaDirs()[0], "trace"));
+        mRun.finish(new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    private void startBackgroundThread() {
+        mBgThread = new HandlerThread("CameraBg");
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBgThread != null) {
+            mBgThread.quitSafely();
+            if (Thread.currentThread() != mBgThread) {
+                try { mBgThread.join(); } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity com.kaspersigi.noui/.ZslCalibrationActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PipelineMetrics.get().dump(prefix, writer, new File(getExternalMediaDirs()[0], "metrics"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        Log.d(TAG, "Activity destroyed");
+        cleanup();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,131 @@
+package com.kaspersigi.noui;
+
+import android.media.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 应用侧 ZSL 环形缓冲：持续保存最近 N 帧全分辨率图像，触发时按传感器时间戳挑出最接近触发时刻的帧。
+ * - 容量固定，满时关闭并丢弃最旧的一帧（ImageReader 的 maxImages 必须大于容量，留出 acquire 余量）
+ * - 帧按到达顺序（即时间戳递增）保存，查找为二分 + 双指针向两侧扩展，与容量成对数关系
+ * - 被挑中的帧从缓冲中移出，由调用方负责 close()
+ *
+ * 非线程安全：所有调用都应在 ImageReader 回调所在的线程上进行。
+ */
+public final class ZslRingBuffer {
+    private final Image[] mImages;
+    private final long[] mTs;
+    private int mHead = 0; // 最旧一帧的位置
+    private int mSize = 0;
+    private long mEvicted = 0;
+
+    public ZslRingBuffer(int capacity) {
+        mImages = new Image[capacity];
+        mTs = new long[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return 因容量不足而被丢弃的帧数
+     */
+    public long evicted() {
+        return mEvicted;
+    }
+
+    /**
+     * @return 最新一帧的时间戳；缓冲为空时返回 -1
+     */
+    public long newestTimestamp() {
+        return mSize == 0 ? -1 : mTs[index(mSize - 1)];
+    }
+
+    /**
+     * 放入一帧；满时先关闭最旧的一帧
+     */
+    public void add(Image image) {
+        if (mSize == mImages.length) {
+            mImages[mHead].close();
+            mImages[mHead] = null;
+            mHead = (mHead + 1) % mImages.length;
+            mSize--;
+            mEvicted++;
+        }
+        int i = index(mSize);
+        mImages[i] = image;
+        mTs[i] = image.getTimestamp();
+        mSize++;
+    }
+
+    /**
+     * 取出时间戳最接近 targetTs 的 count 帧（按时间戳升序），并从缓冲中移除
+     */
+    public List<Image> takeNearest(long targetTs, int count) {
+        List<Image> out = new ArrayList<>(count);
+        if (mSize == 0 || count <= 0) return out;
+
+        // 二分查找第一个时间戳 >= targetTs 的位置
+        int lo = 0;
+        int hi = mSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mTs[index(mid)] < targetTs) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // [left, right) 为选中的连续区间，每次向更接近目标的一侧扩展
+        int left = lo;
+        int right = lo;
+        while (right - left < count && (left > 0 || right < mSize)) {
+            if (left == 0) {
+                right++;
+            } else if (right == mSize) {
+                left--;
+            } else if (targetTs - mTs[index(left - 1)] <= mTs[index(right)] - targetTs) {
+                left--;
+            } else {
+                right++;
+            }
+        }
+
+        for (int k = left; k < right; k++) {
+            out.add(mImages[index(k)]);
+        }
+        // 剩余帧保持顺序压实
+        int n = 0;
+        for (int k = 0; k < mSize; k++) {
+            if (k >= left && k < right) continue;
+            int from = index(k);
+            int to = index(n++);
+            mImages[to] = mImages[from];
+            mTs[to] = mTs[from];
+        }
+        for (int k = n; k < mSize; k++) {
+            mImages[index(k)] = null;
+        }
+        mSize = n;
+        return out;
+    }
+
+    /**
+     * 关闭并清空所有帧
+     */
+    public void clear() {
+        for (int k = 0; k < mSize; k++) {
+            int i = index(k);
+            mImages[i].close();
+            mImages[i] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private int index(int k) {
+        return (mHead + k) % mImages.length;
+    }
+}
@@ -0,0 +1,40 @@
+package com.kaspersigi.noui;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * 按摄像头 ID 持久化校准得到的最优 ZSL 策略（ZslCalibrationActivity 写入，CaptureEngine 解析 AUTO 时读取）
+ */
+public final class ZslStrategyStore {
+    private static final String TAG = "NoUI";
+    private static final String PREFS = "zsl_strategy";
+    private static final String KEY_PREFIX = "camera_";
+
+    // 未校准时的默认策略（与 *ZSL*Activity 一致）
+    public static final CapturePlan.ZslStrategy FALLBACK = CapturePlan.ZslStrategy.STILL_ZSL;
+
+    private ZslStrategyStore() {
+    }
+
+    public static CapturePlan.ZslStrategy load(Context context, String cameraId) {
+        String name = prefs(context).getString(KEY_PREFIX + cameraId, null);
+        if (name == null) return FALLBACK;
+        try {
+            return CapturePlan.ZslStrategy.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unknown stored ZSL strategy " + name + " for camera " + cameraId);
+            return FALLBACK;
+        }
+    }
+
+    public static void save(Context context, String cameraId, CapturePlan.ZslStrategy strategy) {
+        prefs(context).edit().putString(KEY_PREFIX + cameraId, strategy.name()).apply();
+        Log.d(TAG, "ZSL strategy for camera " + cameraId + " = " + strategy);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,132 @@
+package com.kaspersigi.noui;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BurstBundleWriter → BurstBundle.Reader 往返测试：帧数据逐字节一致，布局（16B 头、32B 索引项、24B 尾）与
+ * 预留区域用尽后的定位写路径都覆盖到。
+ */
+public class BurstBundleTest {
+    private static final int FRAMES = 40;            // 超过索引的初始容量（16 项），覆盖扩容
+    private static final int MAX_FRAME_BYTES = 8 << 10;
+
+    @Test
+    public void roundTrip_pastReservation() throws IOException {
+        // 预留只够前几帧，其余走溢出路径
+        roundTrip(4 * MAX_FRAME_BYTES, true);
+    }
+
+    @Test
+    public void roundTrip_withinReservation() throws IOException {
+        roundTrip((long) FRAMES * MAX_FRAME_BYTES, false);
+    }
+
+    @Test
+    public void roundTrip_withoutReservation() throws IOException {
+        roundTrip(0, true);
+    }
+
+    @Test
+    public void unclosedBundleIsRejected() throws IOException {
+        File file = File.createTempFile("unclosed", BurstBundle.EXTENSION);
+        try {
+            BurstBundleWriter writer = new BurstBundleWriter(file, 0);
+            writer.append(ByteBuffer.wrap(new byte[100]), BurstBundle.FORMAT_JPEG, 1, 1);
+            writer.close();
+            // 去掉尾部，相当于写入中途进程被杀
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - BurstBundle.TAIL_SIZE);
+            }
+            assertThrows(IOException.class, () -> new BurstBundle.Reader(file).close());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void roundTrip(long reserveBytes, boolean expectOverflow) throws IOException {
+        Random random = new Random(reserveBytes);
+        List<byte[]> frames = new ArrayList<>();
+        File file = File.createTempFile("burst", BurstBundle.EXTENSION);
+        try {
+            long dataBytes = 0;
+            BurstBundleWriter writer = new BurstBundleWriter(file, reserveBytes);
+            try {
+                for (int i = 0; i < FRAMES; i++) {
+                    byte[] frame = new byte[1 + random.nextInt(MAX_FRAME_BYTES)];
+                    random.nextBytes(frame);
+                    frames.add(frame);
+                    dataBytes += frame.length;
+                    assertEquals(i, writer.append(source(frame, i), format(i), 1_000_000L * i, 100 + i));
+                }
+                assertEquals(FRAMES, writer.count());
+                assertEquals(dataBytes, writer.dataBytes());
+                assertEquals(expectOverflow, writer.overflowBytes() > 0);
+            } finally {
+                writer.close();
+            }
+            // 索引与尾部写在预留区域之后，不计入数据量与溢出量
+            assertEquals(dataBytes, writer.dataBytes());
+            assertEquals(expectOverflow, writer.overflowBytes() > 0);
+
+            // 预留的剩余空间被截掉：头部 + 数据 + 索引 + 尾部
+            assertEquals(BurstBundle.HEADER_SIZE + dataBytes + (long) FRAMES * BurstBundle.ENTRY_SIZE
+                    + BurstBundle.TAIL_SIZE, file.length());
+
+            try (BurstBundle.Reader reader = new BurstBundle.Reader(file)) {
+                assertEquals(FRAMES, reader.count());
+                long offset = BurstBundle.HEADER_SIZE;
+                ByteBuffer buf = null;
+                for (int i = 0; i < FRAMES; i++) {
+                    BurstBundle.Entry e = reader.entry(i);
+                    assertEquals(offset, e.offset);
+                    assertEquals(frames.get(i).length, e.length);
+                    assertEquals(format(i), e.format);
+                    assertEquals(1_000_000L * i, e.sensorTs);
+                    assertEquals(100 + i, e.frameNumber);
+                    buf = reader.read(i, buf);
+                    byte[] read = new byte[buf.remaining()];
+                    buf.get(read);
+                    assertArrayEquals("frame " + i, frames.get(i), read);
+                    offset += e.length;
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 交替使用堆缓冲、直接缓冲（与 Image 平面相同）以及 position 不为 0 的缓冲
+     */
+    private static ByteBuffer source(byte[] frame, int i) {
+        switch (i % 3) {
+            case 0:
+                return ByteBuffer.wrap(frame);
+            case 1: {
+                ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+                direct.put(frame).flip();
+                return direct;
+            }
+            default: {
+                ByteBuffer offset = ByteBuffer.allocate(frame.length + 7);
+                offset.position(7);
+                offset.put(frame).position(7);
+                return offset;
+            }
+        }
+    }
+
+    private static int format(int i) {
+        return i % 2 == 0 ? BurstBundle.FORMAT_JPEG : BurstBundle.FORMAT_HEIC;
+    }
+}
@@ -0,0 +1,124 @@
+package com.kaspersigi.noui;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameVerifier 的主机侧测试：CRC 与 JDK 的 CRC32C 逐一对照，JPEG 结构检查拒绝截断与缺少 EOI 的帧。
+ */
+public class FrameVerifierTest {
+    private static final int CHUNK_BYTES = 32 << 10;
+
+    @Test
+    public void crc_matchesCrc32c() {
+        Random random = new Random(0x5EED);
+        FrameVerifier verifier = new FrameVerifier();
+        int[] lengths = {0, 1, 7, 8, 9, 63, 64, 65, CHUNK_BYTES - 1, CHUNK_BYTES, CHUNK_BYTES + 1, 3 * CHUNK_BYTES + 5};
+        for (int length : lengths) {
+            assertCrc(verifier, random, length, 0, false);
+        }
+        for (int i = 0; i < 200; i++) {
+            int length = random.nextInt(4 * CHUNK_BYTES);
+            int offset = random.nextInt(16);
+            assertCrc(verifier, random, length, offset, random.nextBoolean());
+        }
+    }
+
+    @Test
+    public void jpeg_completeIsAccepted() {
+        FrameVerifier verifier = new FrameVerifier();
+        byte[] jpeg = jpeg(new Random(1), 100);
+        assertTrue(verifier.verify(ByteBuffer.wrap(jpeg), ImageFormat.JPEG));
+        assertEquals("ok", verifier.status());
+        assertEquals(jpeg.length, verifier.length());
+
+        // 熵编码数据跨越多个分块
+        byte[] large = jpeg(new Random(2), 5 * CHUNK_BYTES);
+        assertTrue(verifier.verify(ByteBuffer.wrap(large), ImageFormat.JPEG));
+
+        // EOI 之后的填充字节允许存在
+        byte[] padded = new byte[jpeg.length + 32];
+        System.arraycopy(jpeg, 0, padded, 0, jpeg.length);
+        assertTrue(verifier.verify(ByteBuffer.wrap(padded), ImageFormat.JPEG));
+    }
+
+    @Test
+    public void jpeg_withoutEoiIsRejected() {
+        FrameVerifier verifier = new FrameVerifier();
+        byte[] jpeg = jpeg(new Random(3), 3 * CHUNK_BYTES);
+        assertFalse(verifier.verify(ByteBuffer.wrap(jpeg, 0, jpeg.length - 2), ImageFormat.JPEG));
+        assertEquals(FrameVerifier.PROBLEM_NO_EOI, verifier.problem());
+    }
+
+    @Test
+    public void jpeg_truncatedIsRejected() {
+        Random random = new Random(4);
+        FrameVerifier verifier = new FrameVerifier();
+        byte[] jpeg = jpeg(random, 3 * CHUNK_BYTES);
+        // 在任意位置截断（包括标记段内部与熵编码数据中）都不能通过
+        for (int i = 0; i < 200; i++) {
+            int cut = 1 + random.nextInt(jpeg.length - 2);
+            assertFalse("cut at " + cut, verifier.verify(ByteBuffer.wrap(jpeg, 0, cut), ImageFormat.JPEG));
+            assertNotNull(verifier.problem());
+        }
+        // 截断在 SOF 段内部
+        assertFalse(verifier.verify(ByteBuffer.wrap(jpeg, 0, 8), ImageFormat.JPEG));
+        assertEquals(FrameVerifier.PROBLEM_TRUNCATED, verifier.problem());
+    }
+
+    @Test
+    public void jpeg_withoutSoiIsRejected() {
+        FrameVerifier verifier = new FrameVerifier();
+        byte[] jpeg = jpeg(new Random(5), 100);
+        assertFalse(verifier.verify(ByteBuffer.wrap(jpeg, 2, jpeg.length - 2), ImageFormat.JPEG));
+        assertEquals(FrameVerifier.PROBLEM_NO_SOI, verifier.problem());
+        assertFalse(verifier.verify(ByteBuffer.allocate(0), ImageFormat.JPEG));
+        assertEquals(FrameVerifier.PROBLEM_EMPTY, verifier.problem());
+    }
+
+    private static void assertCrc(FrameVerifier verifier, Random random, int length, int offset, boolean direct) {
+        byte[] data = new byte[offset + length];
+        random.nextBytes(data);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        buffer.put(data).position(offset);
+
+        CRC32C expected = new CRC32C();
+        expected.update(data, offset, length);
+        // 其他格式只计算 CRC
+        verifier.verify(buffer, ImageFormat.UNKNOWN);
+        assertEquals("length " + length + " at offset " + offset, (int) expected.getValue(), verifier.crc());
+        assertEquals(offset, buffer.position());
+    }
+
+    /**
+     * 结构完整的最小 JPEG：SOI、APP0、SOF0、SOS、带字节填充与 RST 的熵编码数据、EOI
+     */
+    private static byte[] jpeg(Random random, int entropyBytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 0xFF, 0xD8);
+        write(out, 0xFF, 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01, 0x01, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00);
+        write(out, 0xFF, 0xC0, 0x00, 0x0B, 0x08, 0x00, 0x10, 0x00, 0x10, 0x01, 0x01, 0x11, 0x00);
+        write(out, 0xFF, 0xDA, 0x00, 0x08, 0x01, 0x01, 0x00, 0x00, 0x3F, 0x00);
+        int rst = 0;
+        for (int i = 0; i < entropyBytes; i++) {
+            int b = random.nextInt(256);
+            out.write(b);
+            if (b == 0xFF) out.write(0x00);
+            if (i % 4096 == 4095) write(out, 0xFF, 0xD0 + (rst++ & 7));
+        }
+        write(out, 0xFF, 0xD9);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, int... bytes) {
+        for (int b : bytes) out.write(b);
+    }
+}
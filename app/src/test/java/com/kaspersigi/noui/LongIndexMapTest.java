@@ -0,0 +1,121 @@
+package com.kaspersigi.noui;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LongIndexMap 与 HashMap 的随机对照测试。键集中包含大量初始槽位相同、相邻以及在表尾回绕的键，
+ * 使后移删除在长探测链和跨越表尾的链上都被覆盖到。
+ */
+public class LongIndexMapTest {
+    private static final int MAX_ENTRIES = 32;
+
+    @Test
+    public void randomOperations_matchHashMap() {
+        for (long seed = 1; seed <= 20; seed++) {
+            Random random = new Random(seed);
+            LongIndexMap map = new LongIndexMap(MAX_ENTRIES);
+            long[] keys = collidingKeys(map, random);
+            Map<Long, Integer> expected = new HashMap<>();
+
+            for (int op = 0; op < 20_000; op++) {
+                long key = keys[random.nextInt(keys.length)];
+                int action = random.nextInt(10);
+                if (action < 5) {
+                    if (expected.size() < MAX_ENTRIES || expected.containsKey(key)) {
+                        int value = random.nextInt(1 << 20);
+                        map.put(key, value);
+                        expected.put(key, value);
+                    }
+                } else if (action < 9) {
+                    map.remove(key);
+                    expected.remove(key);
+                } else {
+                    Integer value = expected.get(key);
+                    assertEquals(value != null ? value : -1, map.get(key));
+                }
+                assertEquals(expected.size(), map.size());
+                if (op % 64 == 0) assertSameContents(keys, expected, map);
+            }
+            assertSameContents(keys, expected, map);
+        }
+    }
+
+    @Test
+    public void removeFromFullCluster_keepsOthersReachable() {
+        LongIndexMap map = new LongIndexMap(MAX_ENTRIES);
+        long[] keys = sameSlotKeys(map, map.slot(0), MAX_ENTRIES, new Random(7));
+        for (int i = 0; i < keys.length; i++) map.put(keys[i], i);
+        // 依次删除链头、链中、链尾，其余键都必须仍可查到
+        int[] order = {0, keys.length / 2, keys.length - 1, 1, keys.length - 2};
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) expected.put(keys[i], i);
+        for (int index : order) {
+            map.remove(keys[index]);
+            expected.remove(keys[index]);
+            assertSameContents(keys, expected, map);
+        }
+    }
+
+    @Test
+    public void clearAndReservedKey() {
+        LongIndexMap map = new LongIndexMap(4);
+        map.put(1, 10);
+        map.put(2, 20);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(1));
+        map.remove(1);
+        assertEquals(0, map.size());
+        assertThrows(IllegalArgumentException.class, () -> map.put(Long.MIN_VALUE, 0));
+    }
+
+    private static void assertSameContents(long[] keys, Map<Long, Integer> expected, LongIndexMap map) {
+        for (long key : keys) {
+            Integer value = expected.get(key);
+            assertEquals("key " + key, value != null ? value : -1, map.get(key));
+        }
+    }
+
+    /**
+     * 候选键：若干组初始槽位相同的键，其中一组落在表尾（探测链回绕到表头），另一组与之相邻
+     */
+    private static long[] collidingKeys(LongIndexMap map, Random random) {
+        List<Long> keys = new ArrayList<>();
+        int tail = tailSlot(map, random);
+        int[] homes = {tail, tail - 1, 0, 1, random.nextInt(tail), random.nextInt(tail)};
+        for (int home : homes) {
+            for (long key : sameSlotKeys(map, home, 8, random)) keys.add(key);
+        }
+        for (int i = 0; i < 16; i++) keys.add(random.nextLong());
+        long[] result = new long[keys.size()];
+        for (int i = 0; i < result.length; i++) result[i] = keys.get(i);
+        return result;
+    }
+
+    /**
+     * 表中最大的槽位号（容量 - 1）
+     */
+    private static int tailSlot(LongIndexMap map, Random random) {
+        int max = 0;
+        for (int i = 0; i < 4096; i++) max = Math.max(max, map.slot(random.nextLong()));
+        return max;
+    }
+
+    private static long[] sameSlotKeys(LongIndexMap map, int home, int count, Random random) {
+        long[] keys = new long[count];
+        int found = 0;
+        while (found < count) {
+            long key = random.nextLong();
+            if (key != Long.MIN_VALUE && map.slot(key) == home) keys[found++] = key;
+        }
+        return keys;
+    }
+}